@@ -0,0 +1,116 @@
+package de.idealo.kafka.idempotency.benchmark;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import de.idealo.kafka.idempotency.IdempotencyId;
+import de.idealo.kafka.idempotency.IdempotentListener;
+import de.idealo.kafka.idempotency.IdempotentListenerAspect;
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.RecordIdentityExtractor;
+import de.idealo.kafka.idempotency.configuration.IdealoKafkaIdempotencyAutoconfiguration;
+import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+
+/**
+ * Overhead of {@link IdempotentListener} per record: the check and the persist advices around a listener, invoked
+ *   through a Spring AOP proxy like in the application context, against a lookup doing nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class IdempotentListenerAspectBenchmark {
+
+    private final Listener listener = new Listener();
+
+    private Listener proxy;
+
+    private long offset;
+
+    @Setup
+    public void setUp() {
+        final var aspect = new IdempotentListenerAspect(new Configuration(), new NoOpLookup(), new RecordIdentityExtractor());
+        final var factory = new AspectJProxyFactory(listener);
+        factory.setProxyTargetClass(true);
+        factory.addAspect(aspect);
+        proxy = factory.getProxy();
+    }
+
+    @Benchmark
+    public long direct() {
+        return listener.listen("orders", 7, offset++);
+    }
+
+    @Benchmark
+    public long advised() {
+        return proxy.listen("orders", 7, offset++);
+    }
+
+    public static class Listener {
+
+        @IdempotentListener
+        public long listen(@IdempotencyId final String topic, @IdempotencyId final int partition, @IdempotencyId final long offset) {
+            return offset;
+        }
+    }
+
+    /**
+     * Lookup which never finds a record, so that every record is checked and persisted.
+     */
+    private static class NoOpLookup implements RecordIdempotencyLookup {
+
+        @Override
+        public boolean isLogged(final RecordIdentity id) {
+            return false;
+        }
+
+        @Override
+        public void log(final RecordIdentity id, final Duration ttl) {
+        }
+    }
+
+    /**
+     * Default settings without an application context.
+     */
+    private static class Configuration extends IdealoKafkaIdempotencyAutoconfiguration {
+
+        @Override
+        public boolean isCheckEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isPersistenceEnabled() {
+            return true;
+        }
+
+        @Override
+        public Duration getTtl() {
+            return Duration.ofDays(7);
+        }
+
+        @Override
+        public boolean isSuppressErrors() {
+            return false;
+        }
+
+        @Override
+        public boolean isClaimEnabled() {
+            return false;
+        }
+    }
+}
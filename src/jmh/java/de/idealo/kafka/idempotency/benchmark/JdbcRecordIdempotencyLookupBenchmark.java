@@ -0,0 +1,106 @@
+package de.idealo.kafka.idempotency.benchmark;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import de.idealo.kafka.idempotency.IdempotencyCheckException;
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.persistence.HashedRecordKeyEncoder;
+import de.idealo.kafka.idempotency.persistence.JdbcMarkerStore;
+import de.idealo.kafka.idempotency.persistence.JdbcRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+
+/**
+ * Throughput of {@link JdbcRecordIdempotencyLookup} against an in-memory H2 database, one record per statement compared with
+ *   batches of records per statement.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JdbcRecordIdempotencyLookupBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    private static final Duration TTL = Duration.ofMinutes(10);
+
+    private JdbcTemplate jdbcTemplate;
+
+    private JdbcMarkerStore store;
+
+    private RecordIdempotencyLookup lookup;
+
+    private RecordIdentity logged;
+
+    private List<RecordIdentity> batch;
+
+    private long offset;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IdempotencyCheckException {
+        final var dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        store = new JdbcMarkerStore(jdbcTemplate, "kafka_idempotency_marker", JdbcMarkerStore.Dialect.H2,
+                new HashedRecordKeyEncoder("kafkaidmp_benchmark_"), Duration.ofHours(1), 500, null, 24);
+        store.createSchema();
+        lookup = new JdbcRecordIdempotencyLookup(store);
+
+        logged = new RecordIdentity("orders-7-1");
+        lookup.log(logged, TTL);
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(new RecordIdentity("orders-7-" + i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+        jdbcTemplate.execute("SHUTDOWN");
+    }
+
+    @Benchmark
+    public boolean isLoggedHit() {
+        return lookup.isLogged(logged);
+    }
+
+    @Benchmark
+    public void log() throws IdempotencyCheckException {
+        lookup.log(new RecordIdentity("orders-8-" + offset++), TTL);
+    }
+
+    /**
+     * One statement for the whole batch, so the score is to be multiplied by the batch size for records per second.
+     * @return
+     */
+    @Benchmark
+    public List<Boolean> areLoggedBatch() {
+        return lookup.areLogged(batch);
+    }
+
+    /**
+     * One batched upsert for the whole batch, so the score is to be multiplied by the batch size for records per second.
+     */
+    @Benchmark
+    public void logAllBatch() throws IdempotencyCheckException {
+        final List<RecordIdentity> ids = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            ids.add(new RecordIdentity("orders-9-" + offset++));
+        }
+        lookup.logAll(ids, TTL);
+    }
+}
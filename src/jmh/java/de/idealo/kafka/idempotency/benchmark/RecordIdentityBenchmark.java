@@ -0,0 +1,88 @@
+package de.idealo.kafka.idempotency.benchmark;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.idealo.kafka.idempotency.IdempotencyCheckException;
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.RecordIdentityBuffer;
+import de.idealo.kafka.idempotency.RecordPosition;
+import de.idealo.kafka.idempotency.persistence.ReadableRecordKeyEncoder;
+
+/**
+ * Cost of building a {@link RecordIdentity} and of turning it into a key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RecordIdentityBenchmark {
+
+    private final List<String> components = List.of("orders", "7", "1234567890");
+
+    private final String joined = "orders-7-1234567890";
+
+    private final RecordPosition position = new RecordPosition("orders", 7, 1_234_567_890L);
+
+    private final UUID eventId = UUID.fromString("1c9bb6f0-5b91-4be7-acad-6bf089ed0bef");
+
+    private final ReadableRecordKeyEncoder keyEncoder = new ReadableRecordKeyEncoder("kafkaidmp_mygroup_");
+
+    private RecordIdentity identity;
+
+    public RecordIdentityBenchmark() {
+        try {
+            identity = new RecordIdentity(joined);
+        } catch (IdempotencyCheckException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Benchmark
+    public RecordIdentity fromComponents() throws IdempotencyCheckException {
+        return new RecordIdentity(components);
+    }
+
+    @Benchmark
+    public RecordIdentity fromJoinedId() throws IdempotencyCheckException {
+        return new RecordIdentity(joined);
+    }
+
+    @Benchmark
+    public RecordIdentity fromPosition() throws IdempotencyCheckException {
+        return new RecordIdentity(joined, position);
+    }
+
+    @Benchmark
+    public String toStringWithPrefix() {
+        return identity.toString("kafkaidmp_mygroup_");
+    }
+
+    @Benchmark
+    public RecordIdentity fromBuffer() throws IdempotencyCheckException {
+        return RecordIdentityBuffer.get().append("orders").delimit().append(7).delimit().append(1_234_567_890L).toIdentity(position);
+    }
+
+    @Benchmark
+    public RecordIdentity fromUuid() throws IdempotencyCheckException {
+        return RecordIdentityBuffer.get().append(eventId).toIdentity(null);
+    }
+
+    @Benchmark
+    public byte[] readableKey() {
+        return keyEncoder.encode(identity);
+    }
+}
@@ -0,0 +1,169 @@
+package de.idealo.kafka.idempotency.benchmark;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.runtime.reflect.Factory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.idealo.kafka.idempotency.IdempotencyCheckException;
+import de.idealo.kafka.idempotency.IdempotencyId;
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.RecordIdentityExtractor;
+
+/**
+ * Cost of {@link RecordIdentityExtractor#extract(JoinPoint)} per record, for 1 to 5 id parameters of each supported type.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RecordIdentityExtractorBenchmark {
+
+    private static final Map<String, Object> VALUES = Map.of(
+            "string", "3f2c9a7e-order",
+            "boxedLong", 1_234_567_890L,
+            "boxedInt", 42,
+            "int", 42,
+            "long", 1_234_567_890L
+    );
+
+    @Param({ "string", "boxedLong", "boxedInt", "int", "long" })
+    private String type;
+
+    @Param({ "1", "2", "3", "4", "5" })
+    private int idParameters;
+
+    private final RecordIdentityExtractor extractor = new RecordIdentityExtractor();
+
+    private JoinPoint joinPoint;
+
+    @Setup
+    public void setUp() throws IdempotencyCheckException {
+        final var method = Arrays.stream(Listeners.class.getMethods())
+                .filter(candidate -> candidate.getName().equals(type + idParameters))
+                .findFirst()
+                .orElseThrow();
+        final var arguments = new Object[idParameters];
+        Arrays.fill(arguments, VALUES.get(type));
+        joinPoint = joinPoint(method, arguments);
+        extractor.prepare(method);
+    }
+
+    @Benchmark
+    public RecordIdentity extract() throws IdempotencyCheckException {
+        return extractor.extract(joinPoint);
+    }
+
+    /**
+     * Builds the join point the way the code woven by AspectJ does, so that neither a proxy nor a mock is measured.
+     * @param method
+     * @param arguments
+     * @return
+     */
+    static JoinPoint joinPoint(final Method method, final Object[] arguments) {
+        final var factory = new Factory(method.getDeclaringClass().getSimpleName() + ".java", method.getDeclaringClass());
+        final var parameterNames = new String[method.getParameterCount()];
+        Arrays.setAll(parameterNames, i -> "arg" + i);
+        final var signature = factory.makeMethodSig(Modifier.PUBLIC, method.getName(), method.getDeclaringClass(),
+                method.getParameterTypes(), parameterNames, method.getExceptionTypes(), method.getReturnType());
+        return Factory.makeJP(factory.makeSJP(JoinPoint.METHOD_EXECUTION, signature, 0), null, null, arguments);
+    }
+
+    /**
+     * Listener methods with 1 to 5 id parameters of each supported type, named by the type and the number of parameters.
+     */
+    public static class Listeners {
+
+        public void string1(@IdempotencyId String id1) {
+        }
+
+        public void string2(@IdempotencyId String id1, @IdempotencyId String id2) {
+        }
+
+        public void string3(@IdempotencyId String id1, @IdempotencyId String id2, @IdempotencyId String id3) {
+        }
+
+        public void string4(@IdempotencyId String id1, @IdempotencyId String id2, @IdempotencyId String id3, @IdempotencyId String id4) {
+        }
+
+        public void string5(@IdempotencyId String id1, @IdempotencyId String id2, @IdempotencyId String id3, @IdempotencyId String id4, @IdempotencyId String id5) {
+        }
+
+        public void boxedLong1(@IdempotencyId Long id1) {
+        }
+
+        public void boxedLong2(@IdempotencyId Long id1, @IdempotencyId Long id2) {
+        }
+
+        public void boxedLong3(@IdempotencyId Long id1, @IdempotencyId Long id2, @IdempotencyId Long id3) {
+        }
+
+        public void boxedLong4(@IdempotencyId Long id1, @IdempotencyId Long id2, @IdempotencyId Long id3, @IdempotencyId Long id4) {
+        }
+
+        public void boxedLong5(@IdempotencyId Long id1, @IdempotencyId Long id2, @IdempotencyId Long id3, @IdempotencyId Long id4, @IdempotencyId Long id5) {
+        }
+
+        public void boxedInt1(@IdempotencyId Integer id1) {
+        }
+
+        public void boxedInt2(@IdempotencyId Integer id1, @IdempotencyId Integer id2) {
+        }
+
+        public void boxedInt3(@IdempotencyId Integer id1, @IdempotencyId Integer id2, @IdempotencyId Integer id3) {
+        }
+
+        public void boxedInt4(@IdempotencyId Integer id1, @IdempotencyId Integer id2, @IdempotencyId Integer id3, @IdempotencyId Integer id4) {
+        }
+
+        public void boxedInt5(@IdempotencyId Integer id1, @IdempotencyId Integer id2, @IdempotencyId Integer id3, @IdempotencyId Integer id4, @IdempotencyId Integer id5) {
+        }
+
+        public void int1(@IdempotencyId int id1) {
+        }
+
+        public void int2(@IdempotencyId int id1, @IdempotencyId int id2) {
+        }
+
+        public void int3(@IdempotencyId int id1, @IdempotencyId int id2, @IdempotencyId int id3) {
+        }
+
+        public void int4(@IdempotencyId int id1, @IdempotencyId int id2, @IdempotencyId int id3, @IdempotencyId int id4) {
+        }
+
+        public void int5(@IdempotencyId int id1, @IdempotencyId int id2, @IdempotencyId int id3, @IdempotencyId int id4, @IdempotencyId int id5) {
+        }
+
+        public void long1(@IdempotencyId long id1) {
+        }
+
+        public void long2(@IdempotencyId long id1, @IdempotencyId long id2) {
+        }
+
+        public void long3(@IdempotencyId long id1, @IdempotencyId long id2, @IdempotencyId long id3) {
+        }
+
+        public void long4(@IdempotencyId long id1, @IdempotencyId long id2, @IdempotencyId long id3, @IdempotencyId long id4) {
+        }
+
+        public void long5(@IdempotencyId long id1, @IdempotencyId long id2, @IdempotencyId long id3, @IdempotencyId long id4, @IdempotencyId long id5) {
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package de.idealo.kafka.idempotency.benchmark;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import redis.embedded.RedisServer;
+
+import de.idealo.kafka.idempotency.IdempotencyCheckException;
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.configuration.KafkaListenerIdempotencyProperties.KeyEncoding;
+import de.idealo.kafka.idempotency.persistence.HashedRecordKeyEncoder;
+import de.idealo.kafka.idempotency.persistence.ReadableRecordKeyEncoder;
+import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.RedisRecordIdempotencyLookup;
+
+/**
+ * Throughput of {@link RedisRecordIdempotencyLookup} against the embedded Redis of the tests, i.e. mostly the round-trips
+ *   over the loopback interface, per key encoding.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RedisRecordIdempotencyLookupBenchmark {
+
+    private static final int REDIS_PORT = 6390;
+
+    private static final String PREFIX = "kafkaidmp_benchmark_";
+
+    private static final int BATCH_SIZE = 100;
+
+    private static final Duration TTL = Duration.ofMinutes(10);
+
+    @Param({ "READABLE", "HASHED" })
+    private KeyEncoding keyEncoding;
+
+    private RedisServer redisServer;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private RecordIdempotencyLookup lookup;
+
+    private RecordIdentity logged;
+
+    private List<RecordIdentity> batch;
+
+    private long offset;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IdempotencyCheckException {
+        redisServer = new RedisServer(REDIS_PORT);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory("localhost", REDIS_PORT);
+        connectionFactory.afterPropertiesSet();
+        final var template = RedisRecordIdempotencyLookup.rawTemplate(new StringRedisTemplate(connectionFactory));
+        lookup = new RedisRecordIdempotencyLookup(template,
+                keyEncoding == KeyEncoding.HASHED ? new HashedRecordKeyEncoder(PREFIX) : new ReadableRecordKeyEncoder(PREFIX), null);
+
+        logged = new RecordIdentity("orders-7-1");
+        lookup.log(logged, TTL);
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(new RecordIdentity("orders-7-" + i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @Benchmark
+    public boolean isLoggedHit() {
+        return lookup.isLogged(logged);
+    }
+
+    @Benchmark
+    public void log() throws IdempotencyCheckException {
+        lookup.log(new RecordIdentity("orders-8-" + offset++), TTL);
+    }
+
+    /**
+     * One round-trip for the whole batch, so the score is to be multiplied by the batch size for records per second.
+     * @return
+     */
+    @Benchmark
+    public List<Boolean> areLoggedBatch() {
+        return lookup.areLogged(batch);
+    }
+}
@@ -0,0 +1,60 @@
+package de.idealo.kafka.idempotency.loadtest;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records latencies of the consumer threads into a preallocated array without locks, and computes their percentiles
+ *   once the phase has ended. Latencies beyond the capacity are dropped.
+ */
+class LatencyRecorder {
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private static final String[] LABELS = { "p50Micros", "p90Micros", "p99Micros", "p999Micros" };
+
+    private final long[] values;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    LatencyRecorder(final int capacity) {
+        this.values = new long[capacity];
+    }
+
+    void record(final long nanos) {
+        final var index = count.getAndIncrement();
+        if (index < values.length) {
+            values[index] = nanos;
+        }
+    }
+
+    int getCount() {
+        return Math.min(count.get(), values.length);
+    }
+
+    /**
+     * @return count, percentiles and maximum in microseconds
+     */
+    Map<String, Object> summary() {
+        final var sorted = Arrays.copyOf(values, getCount());
+        Arrays.sort(sorted);
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", sorted.length);
+        if (sorted.length == 0) {
+            return summary;
+        }
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            final var index = (int) Math.ceil(PERCENTILES[i] / 100 * sorted.length) - 1;
+            summary.put(LABELS[i], micros(sorted[Math.max(0, index)]));
+        }
+        summary.put("maxMicros", micros(sorted[sorted.length - 1]));
+        return summary;
+    }
+
+    private static double micros(final long nanos) {
+        return Math.round(nanos / (double) TimeUnit.MICROSECONDS.toNanos(1) * 10) / 10.0;
+    }
+}
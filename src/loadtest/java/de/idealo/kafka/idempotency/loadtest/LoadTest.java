@@ -0,0 +1,392 @@
+package de.idealo.kafka.idempotency.loadtest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import redis.embedded.RedisServer;
+
+/**
+ * End-to-end load test of the idempotent listeners against an embedded Kafka broker and an embedded Redis.
+ * Every scenario (see {@link Scenario#matrix(List)}) starts an application with its listener and persistence, sends the
+ *   generated records, and measures two phases:
+ * <ul>
+ *     <li>live: the records are consumed while they are sent; a share of them repeats the event id of an earlier record,
+ *       like a producer retry or an upstream duplicate,</li>
+ *     <li>replay: the partitions are reset to the beginning and all the records are consumed once more, like after an
+ *       offset reset.</li>
+ * </ul>
+ * The throughput, the latency percentiles and the Redis commands of every phase are written as JSON.
+ * It is configured by system properties, see the {@code loadtest} profile of the POM.
+ */
+public final class LoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTest.class);
+
+    private static final int REDIS_PORT = 6391;
+
+    private static final long SEED = 42;
+
+    private static final String COMMAND_STATISTICS = "cmdstat_";
+
+    /**
+     * Commands of the load test itself.
+     */
+    private static final Set<String> IGNORED_COMMANDS = Set.of("info", "config", "flushdb");
+
+    /**
+     * Time given to the asynchronous persistence (write-behind, changelog) between the phases.
+     */
+    private static final long SETTLE_MILLIS = 1000;
+
+    private final EmbeddedKafkaBroker broker;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final KafkaProducer<String, String> producer;
+
+    private final int records;
+
+    private final int warmupRecords;
+
+    private final int rate;
+
+    private final boolean replay;
+
+    private final long timeoutMillis;
+
+    private LoadTest(final EmbeddedKafkaBroker broker, final StringRedisTemplate redisTemplate, final int records, final int warmupRecords,
+            final int rate, final boolean replay, final long timeoutMillis) {
+        this.broker = broker;
+        this.redisTemplate = redisTemplate;
+        this.records = records;
+        this.warmupRecords = warmupRecords;
+        this.rate = rate;
+        this.replay = replay;
+        this.timeoutMillis = timeoutMillis;
+        this.producer = new KafkaProducer<>(Map.of(
+                ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString(),
+                ProducerConfig.ACKS_CONFIG, "1",
+                ProducerConfig.LINGER_MS_CONFIG, "5"), new StringSerializer(), new StringSerializer());
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final var include = Pattern.compile(System.getProperty("loadtest.include", ".*"));
+        final var records = Integer.getInteger("loadtest.records", 50_000);
+        final var warmupRecords = Integer.getInteger("loadtest.warmupRecords", 1000);
+        final var rate = Integer.getInteger("loadtest.rate", 0);
+        final var replay = Boolean.parseBoolean(System.getProperty("loadtest.replay", "true"));
+        final var timeoutMillis = TimeUnit.SECONDS.toMillis(Long.getLong("loadtest.timeoutSeconds", 120));
+        final var output = Path.of(System.getProperty("loadtest.output", "target/loadtest-result.json"));
+        final var duplicateRatios = Arrays.stream(System.getProperty("loadtest.duplicateRatios", "0.1").split(","))
+                .map(String::trim).map(Double::valueOf).collect(Collectors.toList());
+
+        final var scenarios = Scenario.matrix(duplicateRatios).stream()
+                .filter(scenario -> include.matcher(scenario.getName()).matches())
+                .collect(Collectors.toList());
+        LOG.info("Running {} load test scenarios with {} records each", scenarios.size(), records);
+
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("startedAt", Instant.now().toString());
+        result.put("java", System.getProperty("java.version"));
+        result.put("records", records);
+        result.put("warmupRecords", warmupRecords);
+        result.put("rate", rate);
+        result.put("duplicateRatios", duplicateRatios);
+        final List<Map<String, Object>> results = new ArrayList<>();
+        result.put("scenarios", results);
+
+        final var broker = new EmbeddedKafkaBroker(1).brokerProperty("group.initial.rebalance.delay.ms", "0");
+        broker.afterPropertiesSet();
+        final var redisServer = new RedisServer(REDIS_PORT);
+        redisServer.start();
+        final var connectionFactory = new LettuceConnectionFactory("localhost", REDIS_PORT);
+        connectionFactory.afterPropertiesSet();
+        final var loadTest = new LoadTest(broker, new StringRedisTemplate(connectionFactory), records, warmupRecords, rate,
+                replay, timeoutMillis);
+        try {
+            for (int i = 0; i < scenarios.size(); i++) {
+                results.add(loadTest.run(scenarios.get(i), i));
+                // rewritten after every scenario, so that an aborted run leaves the results so far
+                write(result, output);
+            }
+        } finally {
+            loadTest.producer.close();
+            connectionFactory.destroy();
+            redisServer.stop();
+            broker.destroy();
+        }
+        LOG.info("Load test results written to {}", output.toAbsolutePath());
+    }
+
+    private Map<String, Object> run(final Scenario scenario, final int index) throws IOException {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("name", scenario.getName());
+        result.put("backend", scenario.getBackend());
+        result.put("listener", scenario.getListener());
+        result.put("partitions", scenario.getPartitions());
+        result.put("concurrency", scenario.getConcurrency());
+        result.put("duplicateRatio", scenario.getDuplicateRatio());
+        result.put("properties", scenario.getProperties());
+
+        final var topic = "loadtest-" + index;
+        broker.addTopics(new NewTopic(topic, scenario.getPartitions(), (short) 1));
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            connection.flushDb();
+            return null;
+        });
+        final var workload = new Workload(records, scenario.getDuplicateRatio());
+        result.put("uniqueRecords", workload.unique);
+
+        final var directory = Files.createTempDirectory("loadtest");
+        try (var context = new SpringApplicationBuilder(LoadTestApplication.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .logStartupInfo(false)
+                .run(arguments(scenario, topic, directory))) {
+            final var probe = context.getBean(LoadTestProbe.class);
+            final var registry = context.getBean(KafkaListenerEndpointRegistry.class);
+            if (!await(() -> assignedPartitions(registry) >= scenario.getPartitions())) {
+                throw new IllegalStateException("The partitions have not been assigned within " + timeoutMillis + "ms");
+            }
+
+            if (warmupRecords > 0) {
+                final var warmup = probe.start(warmupRecords, false);
+                send(topic, Workload.warmup(warmupRecords));
+                warmup.await(timeoutMillis);
+            }
+
+            resetRedisStatistics();
+            final var live = probe.start(records, true);
+            send(topic, workload.eventIds);
+            result.put("live", summary(live, live.await(timeoutMillis), workload.unique));
+
+            if (replay) {
+                Thread.sleep(SETTLE_MILLIS);
+                registry.stop();
+                resetOffsets(context.getEnvironment().getProperty("spring.kafka.consumer.group-id"), topic, scenario.getPartitions());
+                resetRedisStatistics();
+                final var replayed = probe.start(warmupRecords + records, false);
+                registry.start();
+                result.put("replay", summary(replayed, replayed.await(timeoutMillis), 0));
+            }
+            LOG.info("{}: {}", scenario.getName(), describe(result));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.put("error", e.toString());
+        } catch (RuntimeException e) {
+            LOG.error("Load test scenario {} has failed", scenario.getName(), e);
+            result.put("error", e.toString());
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Command line arguments, so that they take precedence over any application.properties on the class path.
+     */
+    private String[] arguments(final Scenario scenario, final String topic, final Path directory) {
+        final Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("spring.kafka.bootstrap-servers", broker.getBrokersAsString());
+        properties.put("spring.kafka.consumer.group-id", topic + "-" + scenario.getName());
+        properties.put("spring.kafka.consumer.auto-offset-reset", "earliest");
+        properties.put("spring.kafka.listener.concurrency", String.valueOf(scenario.getConcurrency()));
+        properties.put("spring.kafka.listener.type", scenario.getListener().isBatch() ? "batch" : "single");
+        properties.put("spring.kafka.listener.poll-timeout", "100ms");
+        properties.put("spring.redis.host", "localhost");
+        properties.put("spring.redis.port", String.valueOf(REDIS_PORT));
+        properties.put("idealo.kafka.idempotency.listener.localLog.directory", directory.toString());
+        properties.put("loadtest.topic", topic);
+        properties.put("loadtest.listener", scenario.getListener().name());
+        properties.putAll(scenario.getProperties());
+        return properties.entrySet().stream().map(property -> "--" + property.getKey() + "=" + property.getValue()).toArray(String[]::new);
+    }
+
+    /**
+     * Commits the beginning of the partitions for the group, while its consumers are stopped, like an offset reset.
+     */
+    private void resetOffsets(final String groupId, final String topic, final int partitions) {
+        final Map<String, Object> properties = Map.of(
+                ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString(),
+                ConsumerConfig.GROUP_ID_CONFIG, groupId);
+        try (var consumer = new KafkaConsumer<>(properties, new StringDeserializer(), new StringDeserializer())) {
+            final List<TopicPartition> topicPartitions = new ArrayList<>(partitions);
+            for (int partition = 0; partition < partitions; partition++) {
+                topicPartitions.add(new TopicPartition(topic, partition));
+            }
+            final Map<TopicPartition, OffsetAndMetadata> beginning = new HashMap<>();
+            consumer.beginningOffsets(topicPartitions).forEach((partition, offset) -> beginning.put(partition, new OffsetAndMetadata(offset)));
+            consumer.commitSync(beginning);
+        }
+    }
+
+    private static int assignedPartitions(final KafkaListenerEndpointRegistry registry) {
+        return registry.getListenerContainers().stream()
+                .map(MessageListenerContainer::getAssignedPartitions)
+                .mapToInt(assigned -> assigned == null ? 0 : assigned.size())
+                .sum();
+    }
+
+    /**
+     * Sends the records as fast as possible, or at the configured rate. The value of a record is the time it is sent at.
+     */
+    private void send(final String topic, final String[] eventIds) {
+        final var started = System.nanoTime();
+        for (int i = 0; i < eventIds.length; i++) {
+            if (rate > 0) {
+                final var due = started + i * TimeUnit.SECONDS.toNanos(1) / rate;
+                for (var now = System.nanoTime(); now < due; now = System.nanoTime()) {
+                    LockSupport.parkNanos(due - now);
+                }
+            }
+            producer.send(new ProducerRecord<>(topic, eventIds[i], Long.toString(System.nanoTime())));
+        }
+        producer.flush();
+    }
+
+    private Map<String, Object> summary(final LoadTestProbe.Phase phase, final boolean complete, final long unique) {
+        final var summary = phase.summary();
+        summary.put("complete", complete);
+        // records passed to the listener although their event id had been processed already
+        summary.put("duplicatesProcessed", phase.getProcessed() - unique);
+        summary.put("redisCommands", redisCommands());
+        return summary;
+    }
+
+    private void resetRedisStatistics() {
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            connection.resetConfigStats();
+            return null;
+        });
+    }
+
+    /**
+     * @return calls by command since the statistics have been reset, without the ones of the load test
+     */
+    private Map<String, Long> redisCommands() {
+        final var info = redisTemplate.execute((RedisCallback<Properties>) connection -> connection.info("commandstats"));
+        final Map<String, Long> commands = new TreeMap<>();
+        var total = 0L;
+        for (final var name : info.stringPropertyNames()) {
+            if (!name.startsWith(COMMAND_STATISTICS) || IGNORED_COMMANDS.contains(name.substring(COMMAND_STATISTICS.length()))) {
+                continue;
+            }
+            // calls=<calls>,usec=<microseconds>,usec_per_call=<microseconds>
+            final var calls = Long.parseLong(info.getProperty(name).replaceFirst("^calls=(\\d+),.*$", "$1"));
+            commands.put(name.substring(COMMAND_STATISTICS.length()), calls);
+            total += calls;
+        }
+        commands.put("total", total);
+        return commands;
+    }
+
+    private boolean await(final BooleanSupplier condition) throws InterruptedException {
+        final var deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String describe(final Map<String, Object> result) {
+        final var live = (Map<String, Object>) result.get("live");
+        final var latency = (Map<String, Object>) live.get("endToEndLatency");
+        final var replayed = (Map<String, Object>) result.get("replay");
+        return live.get("recordsPerSecond") + " records/s live (p99 " + latency.get("p99Micros") + "us, "
+                + ((Map<String, Object>) live.get("redisCommands")).get("total") + " Redis commands, "
+                + live.get("duplicatesProcessed") + " duplicates processed)"
+                + (replayed == null ? "" : ", " + replayed.get("recordsPerSecond") + " records/s replayed ("
+                + replayed.get("duplicatesProcessed") + " duplicates processed)");
+    }
+
+    private static void write(final Map<String, Object> result, final Path output) throws IOException {
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(output.toFile(), result);
+    }
+
+    /**
+     * Event ids of the records: a share of them repeats one of the earlier event ids chosen at random, the others are new.
+     * The sequence is the same for all the scenarios with the same duplicate ratio.
+     */
+    private static class Workload {
+
+        private final String[] eventIds;
+
+        private int unique;
+
+        Workload(final int records, final double duplicateRatio) {
+            final var random = new Random(SEED);
+            eventIds = new String[records];
+            for (int i = 0; i < records; i++) {
+                if (unique > 0 && random.nextDouble() < duplicateRatio) {
+                    eventIds[i] = "event-" + random.nextInt(unique);
+                } else {
+                    eventIds[i] = "event-" + unique++;
+                }
+            }
+        }
+
+        /**
+         * @param records
+         * @return distinct event ids of the records warming up the consumers, the persistence and the JIT before the live phase
+         */
+        static String[] warmup(final int records) {
+            final var eventIds = new String[records];
+            for (int i = 0; i < records; i++) {
+                eventIds[i] = "warmup-" + i;
+            }
+            return eventIds;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package de.idealo.kafka.idempotency.loadtest;
+
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.EnableAspectJAutoProxy;
+
+/**
+ * Application started for every scenario, configured by the {@link LoadTest} arguments.
+ */
+@SpringBootApplication
+@EnableAspectJAutoProxy(proxyTargetClass = true)
+public class LoadTestApplication {
+
+    @Bean
+    public LoadTestProbe loadTestProbe() {
+        return new LoadTestProbe();
+    }
+}
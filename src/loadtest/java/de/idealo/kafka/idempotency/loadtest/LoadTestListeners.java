@@ -0,0 +1,92 @@
+package de.idealo.kafka.idempotency.loadtest;
+
+import java.util.List;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.stereotype.Component;
+
+import de.idealo.kafka.idempotency.IdempotencyId;
+import de.idealo.kafka.idempotency.IdempotentListener;
+
+/**
+ * The listeners of the scenarios, one of which is enabled by {@code loadtest.listener} (see {@link Scenario.Listener}).
+ * The identity of a record is its key, the event id; they do nothing but count the records passed to them.
+ */
+final class LoadTestListeners {
+
+    private LoadTestListeners() {
+    }
+
+    /**
+     * Listener reporting the records passed to it.
+     */
+    public abstract static class ProbedListener {
+
+        protected final LoadTestProbe probe;
+
+        protected ProbedListener(final LoadTestProbe probe) {
+            this.probe = probe;
+        }
+    }
+
+    @Component
+    @ConditionalOnProperty(name = "loadtest.listener", havingValue = "PLAIN_RECORD")
+    public static class PlainRecordListener extends ProbedListener {
+
+        public PlainRecordListener(final LoadTestProbe probe) {
+            super(probe);
+        }
+
+        @KafkaListener(topics = "${loadtest.topic}")
+        public void receive(final String sentAt, @Header(KafkaHeaders.RECEIVED_MESSAGE_KEY) final String eventId) {
+            probe.processed(1);
+        }
+    }
+
+    @Component
+    @ConditionalOnProperty(name = "loadtest.listener", havingValue = "PLAIN_BATCH")
+    public static class PlainBatchListener extends ProbedListener {
+
+        public PlainBatchListener(final LoadTestProbe probe) {
+            super(probe);
+        }
+
+        @KafkaListener(topics = "${loadtest.topic}")
+        public void receive(final List<String> sentAt, @Header(KafkaHeaders.RECEIVED_MESSAGE_KEY) final List<String> eventIds) {
+            probe.processed(sentAt.size());
+        }
+    }
+
+    @Component
+    @ConditionalOnProperty(name = "loadtest.listener", havingValue = "RECORD")
+    public static class RecordListener extends ProbedListener {
+
+        public RecordListener(final LoadTestProbe probe) {
+            super(probe);
+        }
+
+        @KafkaListener(topics = "${loadtest.topic}")
+        @IdempotentListener
+        public void receive(final String sentAt, @IdempotencyId @Header(KafkaHeaders.RECEIVED_MESSAGE_KEY) final String eventId) {
+            probe.processed(1);
+        }
+    }
+
+    @Component
+    @ConditionalOnProperty(name = "loadtest.listener", havingValue = "BATCH")
+    public static class BatchListener extends ProbedListener {
+
+        public BatchListener(final LoadTestProbe probe) {
+            super(probe);
+        }
+
+        @KafkaListener(topics = "${loadtest.topic}")
+        @IdempotentListener
+        public void receive(final List<String> sentAt, @IdempotencyId @Header(KafkaHeaders.RECEIVED_MESSAGE_KEY) final List<String> eventIds) {
+            probe.processed(sentAt.size());
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package de.idealo.kafka.idempotency.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+
+/**
+ * Wraps the listener invocations including the idempotency advices (it runs before them), so that the skipped
+ *   records are measured as well. The value of every record is the {@link System#nanoTime()} it has been sent at.
+ */
+@Aspect
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class LoadTestProbe {
+
+    private volatile Phase phase;
+
+    @Around("@annotation(org.springframework.kafka.annotation.KafkaListener)")
+    public Object measure(final ProceedingJoinPoint joinPoint) throws Throwable { // NOSONAR
+        final var started = System.nanoTime();
+        try {
+            return joinPoint.proceed();
+        } finally {
+            final var current = phase;
+            if (current != null) {
+                current.delivered(joinPoint.getArgs()[0], started, System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Called by the listeners for the records passed to them.
+     * @param records
+     */
+    void processed(final int records) {
+        final var current = phase;
+        if (current != null) {
+            current.processed.add(records);
+        }
+    }
+
+    /**
+     * Starts measuring a phase.
+     * @param records number of records the phase is going to deliver
+     * @param endToEnd true if the records are sent during the phase, so their latency since sending is meaningful
+     * @return
+     */
+    Phase start(final int records, final boolean endToEnd) {
+        final var started = new Phase(records, endToEnd);
+        phase = started;
+        return started;
+    }
+
+    /**
+     * Deliveries to the listener within one phase of a scenario.
+     */
+    static class Phase {
+
+        private final int records;
+
+        private final AtomicLong firstDeliveryAt = new AtomicLong(Long.MAX_VALUE);
+
+        private final AtomicLong lastDeliveryAt = new AtomicLong(Long.MIN_VALUE);
+
+        private final LongAdder delivered = new LongAdder();
+
+        private final LongAdder processed = new LongAdder();
+
+        private final LongAdder invocations = new LongAdder();
+
+        private final LatencyRecorder endToEnd;
+
+        private final LatencyRecorder invocation;
+
+        Phase(final int records, final boolean endToEnd) {
+            this.records = records;
+            this.endToEnd = endToEnd ? new LatencyRecorder(records) : null;
+            this.invocation = new LatencyRecorder(records);
+        }
+
+        private void delivered(final Object payload, final long started, final long ended) {
+            invocations.increment();
+            invocation.record(ended - started);
+            if (payload instanceof List) {
+                final var values = (List<?>) payload;
+                values.forEach(value -> recordEndToEnd(value, ended));
+                delivered.add(values.size());
+            } else {
+                recordEndToEnd(payload, ended);
+                delivered.increment();
+            }
+            firstDeliveryAt.accumulateAndGet(started, Math::min);
+            lastDeliveryAt.accumulateAndGet(ended, Math::max);
+        }
+
+        private void recordEndToEnd(final Object value, final long ended) {
+            if (endToEnd != null) {
+                endToEnd.record(ended - Long.parseLong((String) value));
+            }
+        }
+
+        /**
+         * Waits until all the records have been delivered.
+         * @param timeoutMillis
+         * @return false if the timeout has elapsed before
+         * @throws InterruptedException
+         */
+        boolean await(final long timeoutMillis) throws InterruptedException {
+            final var deadline = System.currentTimeMillis() + timeoutMillis;
+            while (delivered.sum() < records) {
+                if (System.currentTimeMillis() > deadline) {
+                    return false;
+                }
+                Thread.sleep(10);
+            }
+            return true;
+        }
+
+        long getDelivered() {
+            return delivered.sum();
+        }
+
+        long getProcessed() {
+            return processed.sum();
+        }
+
+        /**
+         * @return throughput (from the first delivery on, so without the time the consumers take to join), counts and latencies of the phase
+         */
+        Map<String, Object> summary() {
+            final var seconds = getDelivered() == 0 ? 0 : (lastDeliveryAt.get() - firstDeliveryAt.get()) / (double) TimeUnit.SECONDS.toNanos(1);
+            final Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("records", records);
+            summary.put("delivered", getDelivered());
+            summary.put("processed", getProcessed());
+            summary.put("invocations", invocations.sum());
+            summary.put("seconds", Math.round(seconds * 1000) / 1000.0);
+            summary.put("recordsPerSecond", seconds == 0 ? 0 : Math.round(getDelivered() / seconds));
+            if (endToEnd != null) {
+                summary.put("endToEndLatency", endToEnd.summary());
+            }
+            summary.put("invocationLatency", invocation.summary());
+            return summary;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package de.idealo.kafka.idempotency.loadtest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One configuration of the listener and the persistence, run against the same generated records.
+ */
+class Scenario {
+
+    /**
+     * Shape of the listener method.
+     */
+    enum Listener {
+        /**
+         * Plain record listener, the baseline.
+         */
+        PLAIN_RECORD,
+        /**
+         * Plain batch listener, the baseline of the batch listeners.
+         */
+        PLAIN_BATCH,
+        /**
+         * Record listener annotated with {@code @IdempotentListener}.
+         */
+        RECORD,
+        /**
+         * Batch listener annotated with {@code @IdempotentListener}.
+         */
+        BATCH;
+
+        boolean isIdempotent() {
+            return this == RECORD || this == BATCH;
+        }
+
+        boolean isBatch() {
+            return this == PLAIN_BATCH || this == BATCH;
+        }
+    }
+
+    private final String backend;
+
+    private final Listener listener;
+
+    private final int partitions;
+
+    private final int concurrency;
+
+    private final double duplicateRatio;
+
+    private final Map<String, String> properties;
+
+    Scenario(final String backend, final Listener listener, final int partitions, final int concurrency, final double duplicateRatio,
+            final Map<String, String> properties) {
+        this.backend = backend;
+        this.listener = listener;
+        this.partitions = partitions;
+        this.concurrency = concurrency;
+        this.duplicateRatio = duplicateRatio;
+        this.properties = properties;
+    }
+
+    /**
+     * The default matrix: the plain listeners as baselines, the plain Redis layout with several partition counts and
+     *   concurrencies, and every other backend and mode with a record and a batch listener on 4 partitions.
+     * @param duplicateRatios share of the records repeating the id of an earlier record
+     * @return
+     */
+    static List<Scenario> matrix(final List<Double> duplicateRatios) {
+        final Map<String, Map<String, String>> modes = new LinkedHashMap<>();
+        modes.put("redis-hashed", Map.of(listener("keyEncoding"), "HASHED"));
+        modes.put("redis-claim", Map.of(listener("claim.enabled"), "true"));
+        modes.put("redis-near-cache", Map.of(listener("nearCache.enabled"), "true"));
+        modes.put("redis-write-behind", Map.of(listener("writeBehind.enabled"), "true"));
+        modes.put("redis-single-flight", Map.of(listener("singleFlight.enabled"), "true"));
+        modes.put("redis-circuit-breaker", Map.of(listener("circuitBreaker.enabled"), "true"));
+        modes.put("redis-bloom-filter", Map.of(listener("bloomFilter.enabled"), "true", listener("bloomFilter.expectedInsertions"), "1000000"));
+        modes.put("redis-time-buckets", Map.of(listener("timeBuckets.enabled"), "true"));
+        modes.put("off-heap", Map.of(listener("offHeap.enabled"), "true"));
+        modes.put("local-log", Map.of(listener("localLog.enabled"), "true"));
+        modes.put("jdbc", Map.of(listener("jdbc.enabled"), "true"));
+        modes.put("kafka-changelog", Map.of(listener("changelog.enabled"), "true"));
+
+        final List<Scenario> scenarios = new ArrayList<>();
+        for (final var ratio : duplicateRatios) {
+            scenarios.add(new Scenario("none", Listener.PLAIN_RECORD, 1, 1, ratio, Map.of()));
+            scenarios.add(new Scenario("none", Listener.PLAIN_RECORD, 4, 4, ratio, Map.of()));
+            scenarios.add(new Scenario("none", Listener.PLAIN_BATCH, 4, 4, ratio, Map.of()));
+            scenarios.add(new Scenario("redis", Listener.RECORD, 1, 1, ratio, Map.of()));
+            scenarios.add(new Scenario("redis", Listener.RECORD, 4, 1, ratio, Map.of()));
+            scenarios.add(new Scenario("redis", Listener.RECORD, 4, 4, ratio, Map.of()));
+            scenarios.add(new Scenario("redis", Listener.RECORD, 16, 8, ratio, Map.of()));
+            scenarios.add(new Scenario("redis", Listener.BATCH, 1, 1, ratio, Map.of()));
+            scenarios.add(new Scenario("redis", Listener.BATCH, 4, 4, ratio, Map.of()));
+            for (final var mode : modes.entrySet()) {
+                scenarios.add(new Scenario(mode.getKey(), Listener.RECORD, 4, 4, ratio, mode.getValue()));
+                scenarios.add(new Scenario(mode.getKey(), Listener.BATCH, 4, 4, ratio, mode.getValue()));
+            }
+        }
+        return scenarios;
+    }
+
+    private static String listener(final String property) {
+        return "idealo.kafka.idempotency.listener." + property;
+    }
+
+    /**
+     * @return e.g. redis-batch-p4-c4-d0.1, matched by the include pattern
+     */
+    String getName() {
+        return backend + "-" + listener.name().toLowerCase().replace('_', '-') + "-p" + partitions + "-c" + concurrency + "-d" + duplicateRatio;
+    }
+
+    String getBackend() {
+        return backend;
+    }
+
+    Listener getListener() {
+        return listener;
+    }
+
+    int getPartitions() {
+        return partitions;
+    }
+
+    int getConcurrency() {
+        return concurrency;
+    }
+
+    double getDuplicateRatio() {
+        return duplicateRatio;
+    }
+
+    /**
+     * @return properties of the idempotency configuration
+     */
+    Map<String, String> getProperties() {
+        return properties;
+    }
+}
@@ -0,0 +1,146 @@
+package de.idealo.kafka.idempotency;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.List;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Hooks into the commits and the rebalances of the consumers created by the {@link ConsumerFactory} beans.
+ * The listener containers commit and subscribe through these consumers, so no container configuration is needed.
+ * A transactional container commits the offsets through the producer of its transaction instead
+ *   ({@link Producer#sendOffsetsToTransaction}), so if {@link #hooksTransactions()}, the producers created by the
+ *   {@link ProducerFactory} beans are hooked as well.
+ * The factories are proxied by their class, so that they can still be injected as their implementation
+ *   (e.g. {@link org.springframework.kafka.core.DefaultKafkaConsumerFactory}).
+ */
+public abstract class ConsumerFactoryPostProcessor implements BeanPostProcessor {
+
+    @Override
+    public Object postProcessAfterInitialization(final Object bean, final String beanName) throws BeansException {
+        if (bean instanceof ConsumerFactory) {
+            return proxyClass(bean, invocation -> {
+                final var result = invocation.proceed();
+                return result instanceof Consumer ? proxy(result, this::invokeConsumer) : result;
+            });
+        }
+        if (bean instanceof ProducerFactory && hooksTransactions()) {
+            return proxyClass(bean, invocation -> {
+                final var result = invocation.proceed();
+                return result instanceof Producer ? proxy(result, this::invokeProducer) : result;
+            });
+        }
+        return bean;
+    }
+
+    /**
+     * @return true if {@link #beforeCommit()} must be called for the offsets committed within transactions as well
+     */
+    protected boolean hooksTransactions() {
+        return false;
+    }
+
+    /**
+     * Called on the consumer thread right before the consumer commits offsets, or the producer of a transaction sends them.
+     */
+    protected void beforeCommit() {
+    }
+
+    /**
+     * Called on the consumer thread before the rebalance listener of the container is told that the partitions are revoked or lost.
+     * @param partitions
+     */
+    protected void beforePartitionsRevoked(final Collection<TopicPartition> partitions) {
+    }
+
+    /**
+     * Called on the consumer thread after the rebalance listener of the container has been told that the partitions are assigned.
+     * @param partitions
+     */
+    protected void afterPartitionsAssigned(final Collection<TopicPartition> partitions) {
+    }
+
+    private Object invokeConsumer(final Object consumer, final Method method, final Object[] args) throws Throwable {
+        final var name = method.getName();
+        if (name.equals("commitSync") || name.equals("commitAsync")) {
+            beforeCommit();
+        } else if (name.equals("subscribe") && args != null) {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] instanceof ConsumerRebalanceListener) {
+                    args[i] = proxy(args[i], this::invokeRebalanceListener);
+                }
+            }
+        }
+        return invoke(consumer, method, args);
+    }
+
+    private Object invokeProducer(final Object producer, final Method method, final Object[] args) throws Throwable {
+        if (method.getName().equals("sendOffsetsToTransaction")) {
+            beforeCommit();
+        }
+        return invoke(producer, method, args);
+    }
+
+    private Object invokeRebalanceListener(final Object listener, final Method method, final Object[] args) throws Throwable {
+        final var name = method.getName();
+        if (name.startsWith("onPartitionsRevoked") || name.equals("onPartitionsLost")) {
+            beforePartitionsRevoked(partitionsOf(args));
+        }
+        final var result = invoke(listener, method, args);
+        if (name.equals("onPartitionsAssigned")) {
+            afterPartitionsAssigned(partitionsOf(args));
+        }
+        return result;
+    }
+
+    /**
+     * The partitions are the last argument of all the callbacks, including the consumer aware ones.
+     */
+    @SuppressWarnings("unchecked")
+    private static Collection<TopicPartition> partitionsOf(final Object[] args) {
+        return args != null && args.length > 0 && args[args.length - 1] instanceof Collection
+                ? (Collection<TopicPartition>) args[args.length - 1]
+                : List.of();
+    }
+
+    private static Object proxyClass(final Object target, final MethodInterceptor interceptor) {
+        final var factory = new ProxyFactory(target);
+        factory.setProxyTargetClass(true);
+        factory.addAdvice(interceptor);
+        return factory.getProxy(target.getClass().getClassLoader());
+    }
+
+    private static Object proxy(final Object target, final TargetHandler handler) {
+        return Proxy.newProxyInstance(target.getClass().getClassLoader(), ClassUtils.getAllInterfaces(target),
+                (proxy, method, args) -> handler.invoke(target, method, args));
+    }
+
+    private static Object invoke(final Object target, final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Invocation handler working on the proxied object instead of the proxy.
+     */
+    private interface TargetHandler {
+
+        Object invoke(Object target, Method method, Object[] args) throws Throwable;
+    }
+}
@@ -0,0 +1,38 @@
+package de.idealo.kafka.idempotency;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+/**
+ * Resolves the identity of a raw {@link ConsumerRecord}, for the consumers which do not go through {@link IdempotentListener}
+ *   methods. The built-in resolvers produce the same identities as the equivalent {@link IdempotencyId} arguments, so both
+ *   ways share their markers.
+ */
+@FunctionalInterface
+public interface ConsumerRecordIdentityResolver {
+
+    RecordIdentity resolve(ConsumerRecord<?, ?> record) throws IdempotencyCheckException;
+
+    /**
+     * Identifies the records by their topic, partition and offset, like the received topic, partition and offset headers do.
+     * @return
+     */
+    static ConsumerRecordIdentityResolver position() {
+        return record -> {
+            final var position = new RecordPosition(record.topic(), record.partition(), record.offset());
+            return new RecordIdentity(position.toString(), position);
+        };
+    }
+
+    /**
+     * Identifies the records by the (last) value of a header, like a String (if the value is UTF-8) or byte[] argument bound
+     *   to the header does. The value is not decoded.
+     * @param name header name
+     * @return
+     */
+    static ConsumerRecordIdentityResolver header(final String name) {
+        return record -> {
+            final var header = record.headers().lastHeader(name);
+            return RecordIdentity.of(header == null ? null : header.value(), null);
+        };
+    }
+}
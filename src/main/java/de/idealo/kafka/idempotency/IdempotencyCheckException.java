@@ -11,4 +11,8 @@ public class IdempotencyCheckException extends Exception {
     public IdempotencyCheckException(final Throwable cause) {
         super(cause);
     }
+
+    public IdempotencyCheckException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
 }
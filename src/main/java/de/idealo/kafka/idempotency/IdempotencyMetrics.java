@@ -0,0 +1,67 @@
+package de.idealo.kafka.idempotency;
+
+import java.lang.reflect.Method;
+
+/**
+ * Callbacks of {@link IdempotentListenerAspect} for recording metrics, e.g. with Micrometer
+ *   (see {@link de.idealo.kafka.idempotency.metrics.MicrometerIdempotencyMetrics}).
+ * Every operation is announced by {@link #started()} and ends with exactly one of the other callbacks but {@link #skipped(Method, int)}.
+ * The listener method is null if it is not known. The callbacks are invoked on the consumer threads, so they must be cheap.
+ */
+public interface IdempotencyMetrics {
+
+    /**
+     * Records nothing.
+     */
+    IdempotencyMetrics NONE = new IdempotencyMetrics() {
+    };
+
+    /**
+     * A check or a persist operation has started.
+     */
+    default void started() {
+    }
+
+    /**
+     * The records have been looked up (or claimed).
+     * @param listener
+     * @param elapsedNanos duration of the identity extraction and the lookup
+     * @param hits number of records found to be consumed already (or not claimable)
+     * @param misses number of records not consumed yet
+     */
+    default void lookedUp(final Method listener, final long elapsedNanos, final int hits, final int misses) {
+    }
+
+    /**
+     * The lookup has failed. The guarantee is lost for the records if the errors are suppressed.
+     * @param listener
+     * @param elapsedNanos
+     */
+    default void lookupFailed(final Method listener, final long elapsedNanos) {
+    }
+
+    /**
+     * The markers of the records have been persisted.
+     * @param listener
+     * @param elapsedNanos
+     * @param records
+     */
+    default void persisted(final Method listener, final long elapsedNanos, final int records) {
+    }
+
+    /**
+     * The markers could not be persisted, so the records may be consumed again.
+     * @param listener
+     * @param elapsedNanos
+     */
+    default void persistFailed(final Method listener, final long elapsedNanos) {
+    }
+
+    /**
+     * Records have not been passed to the listener as they are duplicates.
+     * @param listener
+     * @param records
+     */
+    default void skipped(final Method listener, final int records) {
+    }
+}
@@ -15,4 +15,16 @@ public @interface IdempotentListener {
      * @return TTL for the idempotency information, in seconds
      */
     int ttl() default 0;
+
+    /**
+     * SpEL expression defining the identity of the record instead of {@link IdempotencyId} arguments, e.g.
+     *   "#event.orderId + ':' + #event.version"
+     * The arguments of the listener method are available as variables by their names (if the class is compiled with -parameters
+     *  or debug information) and as #p0, #a0 etc. The expression is parsed once and compiled to bytecode on its first evaluation,
+     *  so its types must not change from record to record. Not supported on batch listeners: a listener method with
+     *  a List or ConsumerRecords argument is rejected.
+     * Defaults to an empty string, which means the {@link IdempotencyId} arguments are used.
+     * @return id expression
+     */
+    String id() default "";
 }
@@ -1,12 +1,17 @@
 package de.idealo.kafka.idempotency;
 
+import java.lang.reflect.Method;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.AfterReturning;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.StringUtils;
@@ -28,12 +33,31 @@ public class IdempotentListenerAspect {
     private final IdealoKafkaIdempotencyAutoconfiguration configuration;
     private final RecordIdempotencyLookup idempotencyLookup;
     private final RecordIdentityExtractor recordIdentityExtractor;
+    private final IdempotencyMetrics metrics;
+
+    /**
+     * Identity of the record which passed the check and was handed over to the listener.
+     * Set by the around-advice, so that the after-returning advice does not need to extract it again.
+     */
+    private final ThreadLocal<RecordIdentity> currentRecord = new ThreadLocal<>();
+
+    /**
+     * Identities of the batch records which passed the check and were handed over to the listener.
+     * Set by the around-advice, so that only these are persisted by the after-returning advice.
+     */
+    private final ThreadLocal<List<RecordIdentity>> pendingBatch = new ThreadLocal<>();
 
     public IdempotentListenerAspect(final IdealoKafkaIdempotencyAutoconfiguration configuration,
             RecordIdempotencyLookup idempotencyLookup, RecordIdentityExtractor recordIdentityExtractor) {
+        this(configuration, idempotencyLookup, recordIdentityExtractor, IdempotencyMetrics.NONE);
+    }
+
+    public IdempotentListenerAspect(final IdealoKafkaIdempotencyAutoconfiguration configuration,
+            RecordIdempotencyLookup idempotencyLookup, RecordIdentityExtractor recordIdentityExtractor, IdempotencyMetrics metrics) {
         this.configuration = configuration;
         this.idempotencyLookup = idempotencyLookup;
         this.recordIdentityExtractor = recordIdentityExtractor;
+        this.metrics = metrics;
     }
 
     /**
@@ -50,23 +74,57 @@ public class IdempotentListenerAspect {
             return joinPoint.proceed();
         }
 
+        if (recordIdentityExtractor.isBatch(joinPoint)) {
+            return checkBatch(joinPoint);
+        }
+
+        final var listener = listenerOf(joinPoint);
+        RecordIdentity recordId = null;
+        var claimed = false;
+        final var started = System.nanoTime();
+        metrics.started();
         try {
-            final var recordId = recordIdentityExtractor.extract(joinPoint);
+            recordId = recordIdentityExtractor.extract(joinPoint);
 
-            if (idempotencyLookup.isLogged(recordId)) {
-                // skip method invocation
-                LOG.debug("Listener method invocation will be skipped for event due to idempotency check for the record {} at location {}",
-                        recordId, joinPoint.getSignature().toString());
-                return null;
+            if (configuration.isClaimEnabled()) {
+                claimed = idempotencyLookup.claim(recordId, configuration.getClaimLease());
+                metrics.lookedUp(listener, System.nanoTime() - started, claimed ? 0 : 1, claimed ? 1 : 0);
+                if (!claimed) {
+                    metrics.skipped(listener, 1);
+                    LOG.debug("Listener method invocation will be skipped as the record {} is already logged or being processed at location {}",
+                            recordId, joinPoint.getSignature().toString());
+                    return null;
+                }
+            } else {
+                final var logged = idempotencyLookup.isLogged(recordId);
+                metrics.lookedUp(listener, System.nanoTime() - started, logged ? 1 : 0, logged ? 0 : 1);
+                if (logged) {
+                    // skip method invocation
+                    metrics.skipped(listener, 1);
+                    LOG.debug("Listener method invocation will be skipped for event due to idempotency check for the record {} at location {}",
+                            recordId, joinPoint.getSignature().toString());
+                    return null;
+                }
             }
         } catch (Throwable e) { // NOSONAR
+            metrics.lookupFailed(listener, System.nanoTime() - started);
             LOG.error("Could not look up the idempotency information due to an error", e);
             if (!configuration.isSuppressErrors()) {
                 throw new IdempotencyCheckException(e);
             }
         }
         // proceed as normal
-        return joinPoint.proceed();
+        currentRecord.set(recordId);
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable e) { // NOSONAR
+            if (claimed) {
+                release(Collections.singletonList(recordId));
+            }
+            throw e;
+        } finally {
+            currentRecord.remove();
+        }
     }
 
     @AfterReturning(
@@ -79,17 +137,152 @@ public class IdempotentListenerAspect {
             return;
         }
 
+        final var listener = listenerOf(joinPoint);
+        final var started = System.nanoTime();
+        metrics.started();
         try {
-            final var recordId = recordIdentityExtractor.extract(joinPoint);
+            if (recordIdentityExtractor.isBatch(joinPoint)) {
+                final var pending = pendingBatch.get();
+                final var recordIds = pending != null ? pending : recordIdentityExtractor.extractBatch(joinPoint);
+                idempotencyLookup.logAll(recordIds, selectTtl(idempotentListener.ttl()));
+                metrics.persisted(listener, System.nanoTime() - started, recordIds.size());
+                return;
+            }
+
+            final var checked = currentRecord.get();
+            final var recordId = checked != null ? checked : recordIdentityExtractor.extract(joinPoint);
             if(!StringUtils.isEmpty(recordId)) {
                 idempotencyLookup.log(recordId, selectTtl(idempotentListener.ttl()));
             }
+            metrics.persisted(listener, System.nanoTime() - started, 1);
         } catch (Throwable e) { // NOSONAR
+            metrics.persistFailed(listener, System.nanoTime() - started);
             LOG.error("Could not save idempotency marker for the record", e);
             return;
         }
     }
 
+    /**
+     * Looks up all the records of a batch listener invocation at once. If only some of them are logged, the listener
+     *   is invoked with the remaining ones: the per-record arguments of the batch (see
+     *   {@link RecordIdentityExtractor#batchColumns(JoinPoint)}) are filtered accordingly.
+     * @param joinPoint
+     * @return
+     * @throws Throwable
+     */
+    private Object checkBatch(final ProceedingJoinPoint joinPoint) throws Throwable { // NOSONAR
+        final var listener = listenerOf(joinPoint);
+        final List<RecordIdentity> recordIds;
+        final List<Boolean> logged;
+        final var started = System.nanoTime();
+        metrics.started();
+        try {
+            recordIds = recordIdentityExtractor.extractBatch(joinPoint);
+            logged = configuration.isClaimEnabled() ? notClaimed(recordIds) : idempotencyLookup.areLogged(recordIds);
+        } catch (Throwable e) { // NOSONAR
+            metrics.lookupFailed(listener, System.nanoTime() - started);
+            LOG.error("Could not look up the idempotency information due to an error", e);
+            if (!configuration.isSuppressErrors()) {
+                throw new IdempotencyCheckException(e);
+            }
+            return joinPoint.proceed();
+        }
+
+        final List<RecordIdentity> unseen = new ArrayList<>(recordIds.size());
+        for (int i = 0; i < recordIds.size(); i++) {
+            if (!logged.get(i)) {
+                unseen.add(recordIds.get(i));
+            }
+        }
+        metrics.lookedUp(listener, System.nanoTime() - started, recordIds.size() - unseen.size(), unseen.size());
+        if (unseen.size() < recordIds.size()) {
+            metrics.skipped(listener, recordIds.size() - unseen.size());
+        }
+
+        if (unseen.isEmpty() && !recordIds.isEmpty()) {
+            LOG.debug("Listener method invocation will be skipped due to idempotency check for all the {} records of the batch at location {}",
+                    recordIds.size(), joinPoint.getSignature().toString());
+            return null;
+        }
+
+        pendingBatch.set(unseen);
+        try {
+            if (unseen.size() == recordIds.size()) {
+                return joinPoint.proceed();
+            }
+            LOG.debug("{} of {} records of the batch will be skipped due to idempotency check at location {}",
+                    recordIds.size() - unseen.size(), recordIds.size(), joinPoint.getSignature().toString());
+            return joinPoint.proceed(filterBatchArguments(joinPoint.getArgs(), recordIdentityExtractor.batchColumns(joinPoint), logged));
+        } catch (Throwable e) { // NOSONAR
+            if (configuration.isClaimEnabled()) {
+                release(unseen);
+            }
+            throw e;
+        } finally {
+            pendingBatch.remove();
+        }
+    }
+
+    /**
+     * Claims all the records of a batch at once.
+     * @param recordIds
+     * @return flags telling whether the record could not be claimed, i.e. it is logged or being processed by someone else
+     */
+    private List<Boolean> notClaimed(final List<RecordIdentity> recordIds) {
+        final var claimed = idempotencyLookup.claimAll(recordIds, configuration.getClaimLease());
+        final List<Boolean> notClaimed = new ArrayList<>(claimed.size());
+        for (final var flag : claimed) {
+            notClaimed.add(!flag);
+        }
+        return notClaimed;
+    }
+
+    /**
+     * Gives up the claims of the records whose listener has failed, so that they can be consumed again.
+     * A failure here is only logged: the claims expire after their lease anyway.
+     * @param recordIds
+     */
+    private void release(final List<RecordIdentity> recordIds) {
+        try {
+            idempotencyLookup.releaseAll(recordIds);
+        } catch (Throwable e) { // NOSONAR
+            LOG.error("Could not release the claim of the records", e);
+        }
+    }
+
+    /**
+     * Removes the elements of the logged records from the per-record arguments of a batch listener.
+     * @param arguments
+     * @param columns indices of the per-record arguments
+     * @param logged
+     * @return
+     */
+    private Object[] filterBatchArguments(final Object[] arguments, final int[] columns, final List<Boolean> logged) {
+        final var filtered = arguments.clone();
+        for (final int i : columns) {
+            if (filtered[i] instanceof List && ((List<?>) filtered[i]).size() == logged.size()) {
+                final var column = (List<?>) filtered[i];
+                final List<Object> unseen = new ArrayList<>(column.size());
+                for (int n = 0; n < column.size(); n++) {
+                    if (!logged.get(n)) {
+                        unseen.add(column.get(n));
+                    }
+                }
+                filtered[i] = unseen;
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * @param joinPoint
+     * @return the listener method or null if the join point is not a method
+     */
+    private static Method listenerOf(final JoinPoint joinPoint) {
+        final var signature = joinPoint.getSignature();
+        return signature instanceof MethodSignature ? ((MethodSignature) signature).getMethod() : null;
+    }
+
     /**
      * Takes TTL given as an annotation parameter. If non-zero, it is converted from seconds to Duration and returned,
      *   otherwise the global default is used.
@@ -0,0 +1,36 @@
+package de.idealo.kafka.idempotency;
+
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Scans the beans for methods annotated with {@link IdempotentListener} and prepares the identity extraction for them
+ *   at startup. This way a listener method with unsupported {@link IdempotencyId} arguments fails the application context
+ *   instead of the consumption of the first record.
+ */
+public class IdempotentListenerBeanPostProcessor implements BeanPostProcessor {
+
+    private final ObjectProvider<RecordIdentityExtractor> recordIdentityExtractor;
+
+    public IdempotentListenerBeanPostProcessor(final ObjectProvider<RecordIdentityExtractor> recordIdentityExtractor) {
+        this.recordIdentityExtractor = recordIdentityExtractor;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(final Object bean, final String beanName) throws BeansException {
+        ReflectionUtils.doWithMethods(AopUtils.getTargetClass(bean),
+                method -> {
+                    try {
+                        recordIdentityExtractor.getObject().prepare(method);
+                    } catch (IdempotencyCheckException e) {
+                        throw new BeanInitializationException("Invalid @IdempotentListener method in bean " + beanName, e);
+                    }
+                },
+                method -> method.isAnnotationPresent(IdempotentListener.class));
+        return bean;
+    }
+}
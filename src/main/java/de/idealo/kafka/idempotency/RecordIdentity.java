@@ -1,14 +1,72 @@
 package de.idealo.kafka.idempotency;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Identity of a record, i.e. its id components joined by the {@link #DELIMITER}.
+ * The identity is kept as UTF-8 bytes, which the persistence providers write into their keys as they are. Identities
+ *   built out of binary components (see {@link RecordIdentityBuffer}) need not be valid UTF-8: they are compared by their bytes,
+ *   whereas their {@link #toString()} replaces the malformed sequences.
+ */
 public class RecordIdentity {
 
-    private static final String DELIMITER = "-";
-    private final String id;
+    /**
+     * Joins the components of the identity.
+     */
+    public static final String DELIMITER = "-";
+
+    private final byte[] bytes;
+    private final RecordPosition position;
+    private String id;
+    private int hash;
 
     public RecordIdentity(final List<String> recordIdComponents) throws IdempotencyCheckException {
         this.id = buildId(recordIdComponents);
+        this.bytes = id.getBytes(StandardCharsets.UTF_8);
+        this.position = null;
+    }
+
+    /**
+     * @param id record id components already joined by the delimiter
+     * @throws IdempotencyCheckException
+     */
+    public RecordIdentity(final String id) throws IdempotencyCheckException {
+        this(id, null);
+    }
+
+    /**
+     * @param id record id components already joined by the delimiter
+     * @param position topic, partition and offset of the record if the id consists exactly of them, otherwise null
+     * @throws IdempotencyCheckException
+     */
+    public RecordIdentity(final String id, final RecordPosition position) throws IdempotencyCheckException {
+        if (id == null || id.isEmpty()) {
+            throw instantiateException();
+        }
+        this.id = id;
+        this.bytes = id.getBytes(StandardCharsets.UTF_8);
+        this.position = position;
+    }
+
+    private RecordIdentity(final byte[] bytes, final RecordPosition position) {
+        this.bytes = bytes;
+        this.position = position;
+    }
+
+    /**
+     * Creates an identity out of its encoded form, without decoding it.
+     * @param bytes record id components already joined by the delimiter and encoded as UTF-8, owned by the identity from now on
+     * @param position topic, partition and offset of the record if the id consists exactly of them, otherwise null
+     * @return
+     * @throws IdempotencyCheckException
+     */
+    public static RecordIdentity of(final byte[] bytes, final RecordPosition position) throws IdempotencyCheckException {
+        if (bytes == null || bytes.length == 0) {
+            throw instantiateException();
+        }
+        return new RecordIdentity(bytes, position);
     }
 
     private String buildId(final List<String> recordIdComponents) throws IdempotencyCheckException {
@@ -22,17 +80,60 @@ public class RecordIdentity {
         return joint;
     }
 
-    private IdempotencyCheckException instantiateException() {
+    private static IdempotencyCheckException instantiateException() {
         return new IdempotencyCheckException(
                 "No idempotency id arguments found. There must be at least one listener argument annotated with @IdempotencyId and the value must not be empty or null");
     }
 
+    /**
+     * Gets the topic, partition and offset of the record, if the identity consists exactly of them.
+     * Persistence providers may use this to store such identities in a more compact way.
+     * @return the position or null if the identity is made of anything else
+     */
+    public RecordPosition getPosition() {
+        return position;
+    }
+
+    /**
+     * Gets the identity encoded as UTF-8. The array is shared, so it must not be modified.
+     * @return
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
     public String toString(final String prefix) {
         return prefix + this.toString();
     }
 
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return Arrays.equals(bytes, ((RecordIdentity) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        var h = hash;
+        if (h == 0) {
+            h = Arrays.hashCode(bytes);
+            hash = h;
+        }
+        return h;
+    }
+
     @Override
     public String toString() {
-        return id;
+        var decoded = id;
+        if (decoded == null) {
+            decoded = new String(bytes, StandardCharsets.UTF_8);
+            id = decoded;
+        }
+        return decoded;
     }
 }
@@ -0,0 +1,208 @@
+package de.idealo.kafka.idempotency;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.apache.kafka.common.header.Header;
+
+/**
+ * Reusable buffer the id components of a record are written into as UTF-8, without building intermediate Strings.
+ * Every thread has its own buffer (see {@link #get()}), so only the final {@link RecordIdentity} is allocated per record.
+ * The components are written the way they are formatted as Strings, so the identities do not depend on the type of the arguments:
+ *   numbers in decimal, UUIDs in their canonical form and null as "null". Binary components (byte arrays, byte buffers and
+ *   header values) are written as they are, i.e. like the Strings they decode to if they are valid UTF-8.
+ */
+public final class RecordIdentityBuffer {
+
+    private static final int INITIAL_CAPACITY = 128;
+
+    private static final byte DELIMITER = (byte) RecordIdentity.DELIMITER.charAt(0);
+
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ThreadLocal<RecordIdentityBuffer> BUFFERS = ThreadLocal.withInitial(RecordIdentityBuffer::new);
+
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+
+    private int length;
+
+    private RecordIdentityBuffer() {
+    }
+
+    /**
+     * @return the empty buffer of the current thread
+     */
+    public static RecordIdentityBuffer get() {
+        final var buffer = BUFFERS.get();
+        buffer.length = 0;
+        return buffer;
+    }
+
+    /**
+     * Appends a component of any supported type, or its String representation otherwise.
+     * @param value
+     * @return
+     */
+    public RecordIdentityBuffer append(final Object value) {
+        if (value == null) {
+            return appendNull();
+        } else if (value instanceof String) {
+            return append((String) value);
+        } else if (value instanceof Long || value instanceof Integer) {
+            return append(((Number) value).longValue());
+        } else if (value instanceof UUID) {
+            return append((UUID) value);
+        } else if (value instanceof byte[]) {
+            return append((byte[]) value);
+        } else if (value instanceof ByteBuffer) {
+            return append((ByteBuffer) value);
+        } else if (value instanceof Header) {
+            return append((Header) value);
+        }
+        return append(String.valueOf(value));
+    }
+
+    public RecordIdentityBuffer append(final String value) {
+        if (value == null) {
+            return appendNull();
+        }
+        final var chars = value.length();
+        ensureCapacity(chars);
+        for (int i = 0; i < chars; i++) {
+            final var c = value.charAt(i);
+            if (c >= 0x80) {
+                // rare enough to let the JDK deal with multi-byte characters and malformed surrogates
+                length -= i;
+                return append(value.getBytes(StandardCharsets.UTF_8));
+            }
+            bytes[length++] = (byte) c;
+        }
+        return this;
+    }
+
+    public RecordIdentityBuffer append(final long value) {
+        if (value == Long.MIN_VALUE) {
+            return append(Long.toString(value));
+        }
+        ensureCapacity(20);
+        var remaining = value;
+        if (remaining < 0) {
+            bytes[length++] = '-';
+            remaining = -remaining;
+        }
+        final var start = length;
+        do {
+            bytes[length++] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining > 0);
+        reverse(start, length - 1);
+        return this;
+    }
+
+    /**
+     * Appends the canonical form of the UUID, e.g. 1c9bb6f0-5b91-4be7-acad-6bf089ed0bef
+     * @param value
+     * @return
+     */
+    public RecordIdentityBuffer append(final UUID value) {
+        if (value == null) {
+            return appendNull();
+        }
+        ensureCapacity(36);
+        final var msb = value.getMostSignificantBits();
+        final var lsb = value.getLeastSignificantBits();
+        appendHex(msb >>> 32, 8);
+        bytes[length++] = '-';
+        appendHex(msb >>> 16, 4);
+        bytes[length++] = '-';
+        appendHex(msb, 4);
+        bytes[length++] = '-';
+        appendHex(lsb >>> 48, 4);
+        bytes[length++] = '-';
+        appendHex(lsb, 12);
+        return this;
+    }
+
+    public RecordIdentityBuffer append(final byte[] value) {
+        if (value == null) {
+            return appendNull();
+        }
+        ensureCapacity(value.length);
+        System.arraycopy(value, 0, bytes, length, value.length);
+        length += value.length;
+        return this;
+    }
+
+    /**
+     * Appends the remaining bytes of the buffer, without changing its position.
+     * @param value
+     * @return
+     */
+    public RecordIdentityBuffer append(final ByteBuffer value) {
+        if (value == null) {
+            return appendNull();
+        }
+        final var remaining = value.remaining();
+        ensureCapacity(remaining);
+        value.duplicate().get(bytes, length, remaining);
+        length += remaining;
+        return this;
+    }
+
+    /**
+     * Appends the value of the header.
+     * @param value
+     * @return
+     */
+    public RecordIdentityBuffer append(final Header value) {
+        return append(value == null ? null : value.value());
+    }
+
+    /**
+     * Appends the delimiter between two components.
+     * @return
+     */
+    public RecordIdentityBuffer delimit() {
+        ensureCapacity(1);
+        bytes[length++] = DELIMITER;
+        return this;
+    }
+
+    /**
+     * @param position topic, partition and offset of the record if the id consists exactly of them, otherwise null
+     * @return identity made of the bytes appended so far
+     * @throws IdempotencyCheckException if nothing has been appended
+     */
+    public RecordIdentity toIdentity(final RecordPosition position) throws IdempotencyCheckException {
+        return RecordIdentity.of(Arrays.copyOf(bytes, length), position);
+    }
+
+    private RecordIdentityBuffer appendNull() {
+        return append(NULL);
+    }
+
+    private void appendHex(final long value, final int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            bytes[length + i] = HEX_DIGITS[(int) (value >>> ((digits - 1 - i) * 4)) & 0xf];
+        }
+        length += digits;
+    }
+
+    private void reverse(final int from, final int to) {
+        for (int i = from, j = to; i < j; i++, j--) {
+            final var b = bytes[i];
+            bytes[i] = bytes[j];
+            bytes[j] = b;
+        }
+    }
+
+    private void ensureCapacity(final int additional) {
+        if (length + additional > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+        }
+    }
+}
@@ -1,40 +1,330 @@
 package de.idealo.kafka.idempotency;
 
 import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.expression.EvaluationException;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ParseException;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
 
 /**
  * Extracts all available listener method arguments annotated with {@link IdempotencyId} and forms RecordIdentity out of them.
+ * The reflective analysis of a listener method is done only once: its result is cached as an {@link ExtractionPlan}.
+ * If the identity consists exactly of the received topic, partition and offset headers, the extracted RecordIdentity
+ *   is equipped with the {@link RecordPosition} of the record as well.
+ * The components are written into the {@link RecordIdentityBuffer} of the consumer thread, so no intermediate Strings are built.
+ * Alternatively the identity is the value of the {@link IdempotentListener#id()} expression, which is parsed once per method
+ *   and compiled to bytecode on its first evaluation.
  */
 public class RecordIdentityExtractor {
 
-    private static final Set<Class> SUPPORTED_ID_TYPES = new HashSet(Arrays.asList(
-            String.class, Long.class, Integer.class, int.class, long.class
-    ));
+    /**
+     * Headers making up the {@link RecordPosition}, in the order of its components.
+     */
+    private static final List<String> POSITION_HEADERS = List.of(
+            KafkaHeaders.RECEIVED_TOPIC, KafkaHeaders.RECEIVED_PARTITION_ID, KafkaHeaders.OFFSET
+    );
+
+    private static final Map<Class<?>, ComponentFormatter> SUPPORTED_ID_TYPES = Map.of(
+            String.class, (buffer, value) -> buffer.append((String) value),
+            Long.class, (buffer, value) -> buffer.append((long) (Long) value),
+            Integer.class, (buffer, value) -> buffer.append((long) (Integer) value),
+            int.class, (buffer, value) -> buffer.append((long) (int) value),
+            long.class, (buffer, value) -> buffer.append((long) value),
+            UUID.class, (buffer, value) -> buffer.append((UUID) value),
+            byte[].class, (buffer, value) -> buffer.append((byte[]) value),
+            ByteBuffer.class, (buffer, value) -> buffer.append((ByteBuffer) value),
+            org.apache.kafka.common.header.Header.class, (buffer, value) -> buffer.append((org.apache.kafka.common.header.Header) value)
+    );
+
+    private static final String SUPPORTED_ID_TYPE_NAMES = "String, Long, Integer, int, long, UUID, byte[], ByteBuffer, Header";
+
+    /**
+     * Used for the elements of raw lists, whose type is unknown.
+     */
+    private static final ComponentFormatter GENERIC_FORMATTER = RecordIdentityBuffer::append;
+
+    private static final ParameterNameDiscoverer PARAMETER_NAMES = new DefaultParameterNameDiscoverer();
+
+    private final Map<Method, ExtractionPlan> plans = new ConcurrentHashMap<>();
 
     public RecordIdentity extract(final JoinPoint joinPoint) throws IdempotencyCheckException {
+        final var plan = planOf(((MethodSignature) joinPoint.getSignature()).getMethod());
+        if (plan.batch) {
+            throw new IdempotencyCheckException("Idempotency check error: " + plan.method + " is a batch listener");
+        }
+        if (plan.idExpression != null) {
+            return plan.idExpression.evaluate(plan.method, joinPoint.getArgs());
+        }
+
+        final var arguments = joinPoint.getArgs();
+        final var buffer = RecordIdentityBuffer.get();
+        for (int i = 0; i < plan.argumentIndices.length; i++) {
+            if (i > 0) {
+                buffer.delimit();
+            }
+            final var value = arguments[plan.argumentIndices[i]];
+            if (value == null) {
+                buffer.append((Object) null);
+            } else {
+                plan.formatters[i].append(buffer, value);
+            }
+        }
+
+        return buffer.toIdentity(plan.positional ? toPosition(plan, arguments) : null);
+    }
+
+    /**
+     * Checks if the join point is a batch listener, i.e. its arguments annotated with {@link IdempotencyId} are lists
+     *   holding one id component per record of the batch.
+     * @param joinPoint
+     * @return
+     */
+    public boolean isBatch(final JoinPoint joinPoint) {
+        try {
+            return planOf(((MethodSignature) joinPoint.getSignature()).getMethod()).batch;
+        } catch (IdempotencyCheckException e) {
+            // the extraction itself will report the error
+            return false;
+        }
+    }
+
+    /**
+     * Gets the arguments of a batch listener (see {@link #isBatch(JoinPoint)}) which hold one element per record of the batch:
+     *   the lists annotated with {@link IdempotencyId}, {@link Header} or {@link Payload}, and the unannotated list of the
+     *   payloads, records or messages.
+     * @param joinPoint
+     * @return indices of these arguments, empty if the join point is not a batch listener
+     */
+    public int[] batchColumns(final JoinPoint joinPoint) {
+        try {
+            return planOf(((MethodSignature) joinPoint.getSignature()).getMethod()).batchColumns;
+        } catch (IdempotencyCheckException e) {
+            return new int[0];
+        }
+    }
+
+    /**
+     * Forms one RecordIdentity per record of a batch listener invocation (see {@link #isBatch(JoinPoint)}).
+     * The n-th identity is built out of the n-th elements of all list arguments annotated with {@link IdempotencyId}.
+     * @param joinPoint
+     * @return identities in the order of the records in the batch
+     * @throws IdempotencyCheckException
+     */
+    public List<RecordIdentity> extractBatch(final JoinPoint joinPoint) throws IdempotencyCheckException {
+        final var plan = planOf(((MethodSignature) joinPoint.getSignature()).getMethod());
+        if (!plan.batch) {
+            return new ArrayList<>();
+        }
+
         final var arguments = joinPoint.getArgs();
-        final var parameters = ((MethodSignature) joinPoint.getSignature()).getMethod().getParameters();
-        final List<String> idComponents = new ArrayList<>();
+        final var idColumns = new List<?>[plan.argumentIndices.length];
+        for (int i = 0; i < idColumns.length; i++) {
+            idColumns[i] = (List<?>) arguments[plan.argumentIndices[i]];
+            if (idColumns[i] == null || idColumns[0].size() != idColumns[i].size()) {
+                throw new IdempotencyCheckException("Idempotency check error: all the IdempotencyId arguments of a batch listener must have"
+                        + " one element per record of the batch.");
+            }
+        }
+
+        final var batchSize = idColumns[0].size();
+        final List<RecordIdentity> recordIds = new ArrayList<>(batchSize);
+        final var components = new Object[idColumns.length];
+        for (int n = 0; n < batchSize; n++) {
+            final var buffer = RecordIdentityBuffer.get();
+            for (int i = 0; i < idColumns.length; i++) {
+                if (i > 0) {
+                    buffer.delimit();
+                }
+                final var value = idColumns[i].get(n);
+                components[i] = value;
+                if (value == null) {
+                    buffer.append((Object) null);
+                } else {
+                    plan.formatters[i].append(buffer, value);
+                }
+            }
+            recordIds.add(buffer.toIdentity(plan.positional ? toPosition(plan, components) : null));
+        }
+
+        return recordIds;
+    }
+
+    /**
+     * Analyzes the listener method in advance, so that a misconfiguration is reported before the first record arrives.
+     * @param method listener method annotated with {@link IdempotentListener}
+     * @throws IdempotencyCheckException if the identity cannot be extracted from the method arguments
+     */
+    public void prepare(final Method method) throws IdempotencyCheckException {
+        planOf(method);
+    }
+
+    private ExtractionPlan planOf(final Method method) throws IdempotencyCheckException {
+        final var plan = plans.get(method);
+        if (plan != null) {
+            return plan;
+        }
+
+        final var compiled = compile(method);
+        plans.putIfAbsent(method, compiled);
+        return compiled;
+    }
+
+    private ExtractionPlan compile(final Method method) throws IdempotencyCheckException {
+        final var listener = method.getAnnotation(IdempotentListener.class);
+        if (listener != null && !listener.id().isEmpty()) {
+            return compileExpression(method, listener.id());
+        }
+        final var parameters = method.getParameters();
+        final List<Integer> indices = new ArrayList<>();
+        final List<ComponentFormatter> formatters = new ArrayList<>();
+        final var positionComponents = new int[] { -1, -1, -1 };
+        var lists = 0;
 
         for (int i = 0; i < parameters.length; i++) {
-            if (isAnnotatedParam(parameters[i])) {
-                if (!SUPPORTED_ID_TYPES.contains(parameters[i].getType())) {
-                    throw new IdempotencyCheckException("Idempotency check error: only following arguments are currently supported for the IdempotencyId:"
-                            + " String, Long, Integer, int, long.");
+            if (!isAnnotatedParam(parameters[i])) {
+                continue;
+            }
+            if (List.class.isAssignableFrom(parameters[i].getType())) {
+                final var formatter = listElementFormatter(parameters[i]);
+                if (formatter == null) {
+                    throw new IdempotencyCheckException("Idempotency check error: only lists of following types are supported for the IdempotencyId"
+                            + " on batch listeners: String, Long, Integer, UUID, byte[], ByteBuffer, Header.");
+                }
+                formatters.add(formatter);
+                lists++;
+            } else {
+                final var formatter = SUPPORTED_ID_TYPES.get(parameters[i].getType());
+                if (formatter == null) {
+                    throw new IdempotencyCheckException("Idempotency check error: only following arguments are currently supported for the IdempotencyId: "
+                            + SUPPORTED_ID_TYPE_NAMES + ".");
                 }
-                idComponents.add(String.valueOf(arguments[i]));
+                formatters.add(formatter);
             }
+            final var header = AnnotatedElementUtils.findMergedAnnotation(parameters[i], Header.class);
+            if (header != null) {
+                final var positionComponent = POSITION_HEADERS.indexOf(header.value());
+                if (positionComponent >= 0) {
+                    positionComponents[positionComponent] = indices.size();
+                }
+            }
+            indices.add(i);
+        }
+
+        final var batch = lists > 0;
+        if (batch && lists != indices.size()) {
+            throw new IdempotencyCheckException("Idempotency check error: either all or none of the IdempotencyId arguments of "
+                    + method + " must be lists.");
         }
 
-        return new RecordIdentity(idComponents);
+        final var positional = indices.size() == POSITION_HEADERS.size()
+                && positionComponents[0] >= 0 && positionComponents[1] >= 0 && positionComponents[2] >= 0;
+
+        return new ExtractionPlan(method, indices.stream().mapToInt(Integer::intValue).toArray(),
+                formatters.toArray(new ComponentFormatter[0]), batch, positional ? positionComponents : null,
+                batch ? batchColumnsOf(parameters) : new int[0]);
+    }
+
+    /**
+     * Spring Kafka binds a single unannotated argument to the payload, which is the list of the payloads, records or
+     *   messages for a batch listener.
+     */
+    private static int[] batchColumnsOf(final Parameter[] parameters) {
+        final List<Integer> columns = new ArrayList<>();
+        var payload = false;
+        for (int i = 0; i < parameters.length; i++) {
+            if (!List.class.isAssignableFrom(parameters[i].getType())) {
+                continue;
+            }
+            if (parameters[i].isAnnotationPresent(IdempotencyId.class)
+                    || AnnotatedElementUtils.hasAnnotation(parameters[i], Header.class)
+                    || AnnotatedElementUtils.hasAnnotation(parameters[i], Payload.class)) {
+                columns.add(i);
+            } else if (parameters[i].getAnnotations().length == 0 && !payload) {
+                columns.add(i);
+                payload = true;
+            }
+        }
+        return columns.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private ExtractionPlan compileExpression(final Method method, final String id) throws IdempotencyCheckException {
+        for (final var parameter : method.getParameters()) {
+            if (isAnnotatedParam(parameter)) {
+                throw new IdempotencyCheckException("Idempotency check error: " + method
+                        + " must not have IdempotencyId arguments, as its identity is defined by the id expression.");
+            }
+            if (isBatchParam(parameter)) {
+                throw new IdempotencyCheckException("Idempotency check error: " + method + " looks like a batch listener, as it has "
+                        + "a List or ConsumerRecords argument; id expressions are not supported on batch listeners.");
+            }
+        }
+        final var parser = new SpelExpressionParser(new SpelParserConfiguration(SpelCompilerMode.IMMEDIATE, method.getDeclaringClass().getClassLoader()));
+        try {
+            return new ExtractionPlan(method, new IdExpression(parser.parseExpression(id), variableNamesOf(method)));
+        } catch (ParseException e) {
+            throw new IdempotencyCheckException("Idempotency check error: invalid id expression of " + method + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * A batch listener gets the records, their payloads or their headers as lists, or all of them as ConsumerRecords.
+     */
+    private static boolean isBatchParam(final Parameter parameter) {
+        return List.class.isAssignableFrom(parameter.getType()) || ConsumerRecords.class.isAssignableFrom(parameter.getType());
+    }
+
+    /**
+     * @return names under which the arguments are available to the id expression: the parameter name (if known), p0 and a0 etc.
+     */
+    private static String[][] variableNamesOf(final Method method) {
+        final var parameterNames = PARAMETER_NAMES.getParameterNames(method);
+        final var names = new String[method.getParameterCount()][];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = parameterNames == null ? new String[] { "p" + i, "a" + i } : new String[] { parameterNames[i], "p" + i, "a" + i };
+        }
+        return names;
+    }
+
+    /**
+     * @param plan positional extraction plan
+     * @param values either all method arguments (single record) or the id components of one record of a batch
+     * @return
+     */
+    private RecordPosition toPosition(final ExtractionPlan plan, final Object[] values) {
+        final var topic = valueOf(plan, values, 0);
+        final var partition = valueOf(plan, values, 1);
+        final var offset = valueOf(plan, values, 2);
+        if (!(topic instanceof String) || !(partition instanceof Number) || !(offset instanceof Number)) {
+            return null;
+        }
+        return new RecordPosition((String) topic, ((Number) partition).intValue(), ((Number) offset).longValue());
+    }
+
+    private Object valueOf(final ExtractionPlan plan, final Object[] values, final int positionComponent) {
+        final var component = plan.positionComponents[positionComponent];
+        return plan.batch ? values[component] : values[plan.argumentIndices[component]];
     }
 
     /**
@@ -47,4 +337,102 @@ public class RecordIdentityExtractor {
 
         return eventIdempotentParam != null;
     }
+
+    private ComponentFormatter listElementFormatter(final Parameter parameter) {
+        final var type = parameter.getParameterizedType();
+        if (!(type instanceof ParameterizedType)) {
+            return GENERIC_FORMATTER;
+        }
+        final var elementType = ((ParameterizedType) type).getActualTypeArguments()[0];
+        return elementType instanceof Class && !((Class<?>) elementType).isPrimitive() ? SUPPORTED_ID_TYPES.get(elementType) : null;
+    }
+
+    /**
+     * Appends an id component of a certain type to the record identity being built.
+     */
+    @FunctionalInterface
+    private interface ComponentFormatter {
+        void append(RecordIdentityBuffer buffer, Object value);
+    }
+
+    /**
+     * Identity defined by an expression on the arguments of the listener method, e.g. #event.orderId + ':' + #event.version
+     */
+    private static class IdExpression {
+
+        private final Expression expression;
+        private final String[][] variableNames;
+
+        IdExpression(final Expression expression, final String[][] variableNames) {
+            this.expression = expression;
+            this.variableNames = variableNames;
+        }
+
+        RecordIdentity evaluate(final Method method, final Object[] arguments) throws IdempotencyCheckException {
+            final var context = new StandardEvaluationContext();
+            for (int i = 0; i < arguments.length; i++) {
+                for (final var name : variableNames[i]) {
+                    context.setVariable(name, arguments[i]);
+                }
+            }
+            final Object value;
+            try {
+                value = expression.getValue(context);
+            } catch (EvaluationException e) {
+                throw new IdempotencyCheckException("Idempotency check error: could not evaluate the id expression of " + method, e);
+            }
+            if (value == null) {
+                throw new IdempotencyCheckException("Idempotency check error: the id expression of " + method + " evaluated to null");
+            }
+            return RecordIdentityBuffer.get().append(value).toIdentity(null);
+        }
+    }
+
+    /**
+     * Result of the reflective analysis of a listener method: positions of the arguments annotated with {@link IdempotencyId}
+     *   and the formatters for their types, or the id expression, plus the positions of the per-record arguments of a batch listener.
+     */
+    private static class ExtractionPlan {
+
+        private final Method method;
+        private final int[] argumentIndices;
+        private final ComponentFormatter[] formatters;
+        private final boolean batch;
+        private final boolean positional;
+
+        /**
+         * Positions of the topic, partition and offset among the id components; null if the identity is not positional.
+         */
+        private final int[] positionComponents;
+
+        /**
+         * Positions of the arguments of a batch listener holding one element per record, see {@link RecordIdentityExtractor#batchColumns(JoinPoint)}.
+         */
+        private final int[] batchColumns;
+
+        private final IdExpression idExpression;
+
+        ExtractionPlan(final Method method, final int[] argumentIndices, final ComponentFormatter[] formatters, final boolean batch,
+                final int[] positionComponents, final int[] batchColumns) {
+            this.method = method;
+            this.argumentIndices = argumentIndices;
+            this.formatters = formatters;
+            this.batch = batch;
+            this.positional = positionComponents != null;
+            this.positionComponents = positionComponents;
+            this.batchColumns = batchColumns;
+            this.idExpression = null;
+        }
+
+        ExtractionPlan(final Method method, final IdExpression idExpression) {
+            this.method = method;
+            this.argumentIndices = new int[0];
+            this.formatters = new ComponentFormatter[0];
+            this.batch = false;
+            this.positional = false;
+            this.positionComponents = null;
+            this.batchColumns = new int[0];
+            this.idExpression = idExpression;
+        }
+    }
 }
@@ -0,0 +1,54 @@
+package de.idealo.kafka.idempotency;
+
+import java.util.Objects;
+
+/**
+ * Topic, partition and offset of a record, known if its identity consists exactly of these three components
+ *   (see {@link RecordIdentity#getPosition()}).
+ */
+public class RecordPosition {
+
+    private final String topic;
+    private final int partition;
+    private final long offset;
+
+    public RecordPosition(final String topic, final int partition, final long offset) {
+        this.topic = topic;
+        this.partition = partition;
+        this.offset = offset;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public int getPartition() {
+        return partition;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final var that = (RecordPosition) o;
+        return partition == that.partition && offset == that.offset && topic.equals(that.topic);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(topic, partition, offset);
+    }
+
+    @Override
+    public String toString() {
+        return topic + "-" + partition + "-" + offset;
+    }
+}
@@ -0,0 +1,33 @@
+package de.idealo.kafka.idempotency;
+
+import java.util.Collection;
+
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.kafka.core.ConsumerFactory;
+
+import de.idealo.kafka.idempotency.persistence.RedisMarkerWarmup;
+
+/**
+ * Makes the consumers created by the {@link ConsumerFactory} beans warm up the near cache with the markers of the partitions
+ *   they are assigned, and evict the markers of the partitions they lose (see {@link RedisMarkerWarmup}).
+ * The warmup is only started on the consumer thread, so the rebalance is not delayed by it.
+ */
+public class WarmupConsumerFactoryPostProcessor extends ConsumerFactoryPostProcessor {
+
+    private final ObjectProvider<RedisMarkerWarmup> markerWarmup;
+
+    public WarmupConsumerFactoryPostProcessor(final ObjectProvider<RedisMarkerWarmup> markerWarmup) {
+        this.markerWarmup = markerWarmup;
+    }
+
+    @Override
+    protected void beforePartitionsRevoked(final Collection<TopicPartition> partitions) {
+        markerWarmup.getObject().onPartitionsRevoked(partitions);
+    }
+
+    @Override
+    protected void afterPartitionsAssigned(final Collection<TopicPartition> partitions) {
+        markerWarmup.getObject().onPartitionsAssigned(partitions);
+    }
+}
@@ -0,0 +1,45 @@
+package de.idealo.kafka.idempotency;
+
+import java.util.Collection;
+
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.kafka.core.ConsumerFactory;
+
+import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+
+/**
+ * Makes the consumers created by the {@link ConsumerFactory} beans flush the idempotency markers buffered by the lookup
+ *   (see {@link RecordIdempotencyLookup#flush()}) right before they commit offsets and when their partitions are revoked
+ *   or lost. The producers created by the {@link org.springframework.kafka.core.ProducerFactory} beans flush them right
+ *   before they send offsets to a transaction, as transactional listener containers commit this way. So no buffered marker
+ *   is lost for an offset which has been committed. If the markers cannot be flushed, the commit fails.
+ * The listener containers commit and subscribe through these consumers and producers, so no container configuration is needed.
+ */
+public class WriteBehindConsumerFactoryPostProcessor extends ConsumerFactoryPostProcessor {
+
+    private final ObjectProvider<RecordIdempotencyLookup> recordIdempotencyLookup;
+
+    public WriteBehindConsumerFactoryPostProcessor(final ObjectProvider<RecordIdempotencyLookup> recordIdempotencyLookup) {
+        this.recordIdempotencyLookup = recordIdempotencyLookup;
+    }
+
+    @Override
+    protected boolean hooksTransactions() {
+        return true;
+    }
+
+    @Override
+    protected void beforeCommit() {
+        flush();
+    }
+
+    @Override
+    protected void beforePartitionsRevoked(final Collection<TopicPartition> partitions) {
+        flush();
+    }
+
+    private void flush() {
+        recordIdempotencyLookup.getObject().flush();
+    }
+}
@@ -0,0 +1,89 @@
+package de.idealo.kafka.idempotency.actuate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+
+import de.idealo.kafka.idempotency.persistence.LocalMarkerCache;
+import de.idealo.kafka.idempotency.persistence.RedisMarkerAdmin;
+
+/**
+ * Actuator endpoint {@code idempotency}: statistics of the markers of a consumer group in Redis and their bulk deletion,
+ *   e.g. to reprocess a topic after a bug fix. The group defaults to the consumer group of this application.
+ * A purge runs in the background; its progress is part of the statistics and it can be cancelled by DELETE. It only clears
+ *   the near cache of this instance: the other instances keep skipping the purged records until they are restarted.
+ * A group whose keys cannot be told apart from the ones of another consumer group is rejected, see {@link RedisMarkerAdmin}.
+ */
+@Endpoint(id = "idempotency")
+public class IdempotencyEndpoint {
+
+    private final RedisMarkerAdmin admin;
+
+    private final String consumerGroupId;
+
+    private final int sampleSize;
+
+    private final LocalMarkerCache nearCache;
+
+    /**
+     * @param admin
+     * @param consumerGroupId consumer group of this application
+     * @param sampleSize maximum number of keys scanned for the statistics
+     * @param nearCache near cache of this application, cleared along with its markers, or null
+     */
+    public IdempotencyEndpoint(final RedisMarkerAdmin admin, final String consumerGroupId, final int sampleSize,
+            @Nullable final LocalMarkerCache nearCache) {
+        this.admin = admin;
+        this.consumerGroupId = consumerGroupId;
+        this.sampleSize = sampleSize;
+        this.nearCache = nearCache;
+    }
+
+    @ReadOperation
+    public Map<String, Object> statistics(@Nullable final String group) {
+        final Map<String, Object> statistics = new LinkedHashMap<>();
+        try {
+            statistics.put("markers", admin.getStatistics(group == null ? consumerGroupId : group, sampleSize));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidEndpointRequestException(e.getMessage(), "Ambiguous consumer group");
+        }
+        statistics.put("purge", admin.getPurge());
+        return statistics;
+    }
+
+    /**
+     * Starts deleting the markers of the group, or of one of its topics, unless a purge is running already. The near cache
+     *   is only cleared if the purge has been started by this request.
+     * @param group consumer group, by default the one of this application
+     * @param topic topic, by default all of them
+     * @return the progress of the purge
+     */
+    @WriteOperation
+    public RedisMarkerAdmin.Purge purge(@Nullable final String group, @Nullable final String topic) {
+        final var purgedGroup = group == null ? consumerGroupId : group;
+        final var previous = admin.getPurge();
+        final RedisMarkerAdmin.Purge purge;
+        try {
+            purge = admin.purge(purgedGroup, topic);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidEndpointRequestException(e.getMessage(), "Ambiguous consumer group");
+        }
+        final var started = purge != previous && purgedGroup.equals(purge.getGroup()) && Objects.equals(topic, purge.getTopic());
+        if (nearCache != null && started && purgedGroup.equals(consumerGroupId)) {
+            nearCache.removeIf(id -> topic == null || id.getPosition() != null && topic.equals(id.getPosition().getTopic()));
+        }
+        return purge;
+    }
+
+    @DeleteOperation
+    public RedisMarkerAdmin.Purge cancel() {
+        return admin.cancelPurge();
+    }
+}
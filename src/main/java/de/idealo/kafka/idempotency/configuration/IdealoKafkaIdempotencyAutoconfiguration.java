@@ -1,24 +1,96 @@
 package de.idealo.kafka.idempotency.configuration;
 
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.ConsumerGroupListing;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.AnyNestedCondition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.NoneNestedConditions;
+import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
 import org.springframework.boot.autoconfigure.kafka.KafkaAutoConfiguration;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 
+import de.idealo.kafka.idempotency.ConsumerRecordIdentityResolver;
+import de.idealo.kafka.idempotency.IdempotencyMetrics;
 import de.idealo.kafka.idempotency.IdempotentListenerAspect;
+import de.idealo.kafka.idempotency.IdempotentListenerBeanPostProcessor;
 import de.idealo.kafka.idempotency.RecordIdentityExtractor;
+import de.idealo.kafka.idempotency.WarmupConsumerFactoryPostProcessor;
+import de.idealo.kafka.idempotency.WriteBehindConsumerFactoryPostProcessor;
+import de.idealo.kafka.idempotency.actuate.IdempotencyEndpoint;
+import de.idealo.kafka.idempotency.configuration.KafkaListenerIdempotencyProperties.KeyEncoding;
+import de.idealo.kafka.idempotency.container.IdempotentListenerContainerConfigurer;
+import de.idealo.kafka.idempotency.metrics.IdempotencyBackendMetrics;
+import de.idealo.kafka.idempotency.metrics.MicrometerIdempotencyMetrics;
+import de.idealo.kafka.idempotency.persistence.CircuitBreakerRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.HashedRecordKeyEncoder;
+import de.idealo.kafka.idempotency.persistence.IdempotencyCircuitBreaker;
+import de.idealo.kafka.idempotency.persistence.JdbcMarkerStore;
+import de.idealo.kafka.idempotency.persistence.JdbcRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.KafkaChangelogRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.KafkaChangelogStore;
+import de.idealo.kafka.idempotency.persistence.LocalMarkerCache;
+import de.idealo.kafka.idempotency.persistence.NearCacheRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.OffHeapMarkerTable;
+import de.idealo.kafka.idempotency.persistence.OffHeapRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.OffsetRangeRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.ReadableRecordKeyEncoder;
+import de.idealo.kafka.idempotency.persistence.ReactiveRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.ReactiveRedisRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.RecordKeyEncoder;
 import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.RedisBloomFilterRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.RedisBucketedRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.RedisMarkerAdmin;
+import de.idealo.kafka.idempotency.persistence.RedisMarkerWarmup;
+import de.idealo.kafka.idempotency.persistence.RedisOffsetRangeStore;
 import de.idealo.kafka.idempotency.persistence.RedisRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.SegmentedLogRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.SegmentedLogStore;
+import de.idealo.kafka.idempotency.persistence.SingleFlightRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.WriteBehindRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.reactive.ReactiveRecordDeduplicator;
+import de.idealo.kafka.idempotency.serialization.DeduplicatingDeserializerPostProcessor;
 
 @Configuration
-@AutoConfigureAfter({ KafkaAutoConfiguration.class })
+@AutoConfigureAfter(
+        value = { KafkaAutoConfiguration.class, RedisAutoConfiguration.class },
+        name = {
+                "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration",
+                "org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration"
+        }
+)
 @EnableConfigurationProperties(KafkaListenerIdempotencyProperties.class)
 @ConditionalOnProperty(
         prefix = IdealoKafkaIdempotencyAutoconfiguration.PROPERTY_PREFIX,
@@ -36,18 +108,495 @@ public class IdealoKafkaIdempotencyAutoconfiguration {
     private KafkaListenerIdempotencyProperties idempotencyProperties;
 
     /**
-     * Combining conditionals the autoconfiguration in future will be able to use different persistence lookup providers.
+     * Fails fast if more than one persistence provider or Redis layout is enabled, as only one of them could be used.
+     */
+    @PostConstruct
+    void checkBackends() {
+        final var enabled = enabledBackends();
+        if (enabled.size() > 1) {
+            throw new IllegalStateException("Only one persistence provider can be enabled, but found " + enabled + ": " + PROPERTY_PREFIX
+                    + ".listener.changelog, .jdbc, .local-log, .off-heap, .bloom-filter and .time-buckets exclude each other");
+        }
+    }
+
+    /**
+     * Stores the markers in Redis, one key per record unless the Bloom filter or the time buckets are enabled.
+     * @param template
+     * @param offsetRangeStore
+     * @param circuitBreaker
+     * @param nearCache
+     * @return
+     */
+    @Bean
+    @Conditional(RedisBackend.class)
+    public RecordIdempotencyLookup redisRecordIdempotencyLookup(StringRedisTemplate template, ObjectProvider<RedisOffsetRangeStore> offsetRangeStore,
+            ObjectProvider<IdempotencyCircuitBreaker> circuitBreaker, ObjectProvider<LocalMarkerCache> nearCache) {
+        return decorate(storageLookup(template), offsetRangeStore, circuitBreaker, nearCache);
+    }
+
+    @Bean
+    @ConditionalOnProperty(
+            prefix = PROPERTY_PREFIX + ".listener.changelog",
+            name = "enabled", havingValue = "true"
+    )
+    public RecordIdempotencyLookup kafkaChangelogRecordIdempotencyLookup(KafkaChangelogStore changelogStore,
+            ObjectProvider<RedisOffsetRangeStore> offsetRangeStore, ObjectProvider<IdempotencyCircuitBreaker> circuitBreaker,
+            ObjectProvider<LocalMarkerCache> nearCache) {
+        return decorate(new KafkaChangelogRecordIdempotencyLookup(changelogStore), offsetRangeStore, circuitBreaker, nearCache);
+    }
+
+    @Bean
+    @ConditionalOnProperty(
+            prefix = PROPERTY_PREFIX + ".listener.local-log",
+            name = "enabled", havingValue = "true"
+    )
+    public RecordIdempotencyLookup segmentedLogRecordIdempotencyLookup(SegmentedLogStore segmentedLogStore,
+            ObjectProvider<RedisOffsetRangeStore> offsetRangeStore, ObjectProvider<IdempotencyCircuitBreaker> circuitBreaker,
+            ObjectProvider<LocalMarkerCache> nearCache) {
+        return decorate(new SegmentedLogRecordIdempotencyLookup(segmentedLogStore), offsetRangeStore, circuitBreaker, nearCache);
+    }
+
+    @Bean
+    @ConditionalOnProperty(
+            prefix = PROPERTY_PREFIX + ".listener.off-heap",
+            name = "enabled", havingValue = "true"
+    )
+    public RecordIdempotencyLookup offHeapRecordIdempotencyLookup(OffHeapMarkerTable offHeapMarkerTable,
+            ObjectProvider<RedisOffsetRangeStore> offsetRangeStore, ObjectProvider<IdempotencyCircuitBreaker> circuitBreaker,
+            ObjectProvider<LocalMarkerCache> nearCache) {
+        return decorate(new OffHeapRecordIdempotencyLookup(offHeapMarkerTable), offsetRangeStore, circuitBreaker, nearCache);
+    }
+
+    @Bean
+    @ConditionalOnProperty(
+            prefix = PROPERTY_PREFIX + ".listener.offset-ranges",
+            name = "enabled", havingValue = "true"
+    )
+    public RedisOffsetRangeStore redisOffsetRangeStore(StringRedisTemplate template) {
+        final var offsetRanges = idempotencyProperties.getOffsetRanges();
+        return new RedisOffsetRangeStore(this, template, offsetRanges.getFlushInterval(), offsetRanges.getMaxLocalChunks());
+    }
+
+    @Bean
+    @ConditionalOnProperty(
+            prefix = PROPERTY_PREFIX + ".listener.changelog",
+            name = "enabled", havingValue = "true"
+    )
+    public KafkaChangelogStore kafkaChangelogStore() {
+        final var changelog = idempotencyProperties.getChangelog();
+        var topic = changelog.getTopic();
+        if (topic == null || topic.isBlank()) {
+            if (getConsumerGroupId() == null) {
+                throw new IllegalStateException("The changelog topic must be set if there is no consumer group id: "
+                        + PROPERTY_PREFIX + ".listener.changelog.topic");
+            }
+            topic = getConsumerGroupId() + "-idempotency-changelog";
+        }
+        return new KafkaChangelogStore(kafkaProperties.buildAdminProperties(), topic, changelog.getPartitions(),
+                changelog.getReplicationFactor(), changelog.getRetention() == null ? getTtl() : changelog.getRetention(),
+                changelog.getLinger(), changelog.getRestoreTimeout());
+    }
+
+    @Bean
+    @ConditionalOnProperty(
+            prefix = PROPERTY_PREFIX + ".listener.local-log",
+            name = "enabled", havingValue = "true"
+    )
+    public SegmentedLogStore segmentedLogStore() {
+        final var localLog = idempotencyProperties.getLocalLog();
+        if (localLog.getDirectory() == null || localLog.getDirectory().isBlank()) {
+            throw new IllegalStateException("The directory of the local log must be set: " + PROPERTY_PREFIX + ".listener.local-log.directory");
+        }
+        return new SegmentedLogStore(Path.of(localLog.getDirectory()), RedisRecordIdempotencyLookup.keyPrefix(this),
+                localLog.getSegmentSize().toBytes(), localLog.getSegmentDuration(), localLog.getExpectedSize());
+    }
+
+    @Bean
+    @ConditionalOnProperty(
+            prefix = PROPERTY_PREFIX + ".listener.off-heap",
+            name = "enabled", havingValue = "true"
+    )
+    public OffHeapMarkerTable offHeapMarkerTable() {
+        return new OffHeapMarkerTable(idempotencyProperties.getOffHeap().getMaxEntries());
+    }
+
+    @Bean
+    @ConditionalOnProperty(
+            prefix = PROPERTY_PREFIX + ".listener.near-cache",
+            name = "enabled", havingValue = "true"
+    )
+    public LocalMarkerCache idempotencyNearCache() {
+        return new LocalMarkerCache(idempotencyProperties.getNearCache().getMaxSize());
+    }
+
+    @Bean
+    @ConditionalOnProperty(
+            prefix = PROPERTY_PREFIX + ".listener.circuit-breaker",
+            name = "enabled", havingValue = "true"
+    )
+    public IdempotencyCircuitBreaker idempotencyCircuitBreaker() {
+        return new IdempotencyCircuitBreaker(idempotencyProperties.getCircuitBreaker());
+    }
+
+    /**
+     * Loads the markers of the assigned partitions into the near cache. Only the readable keys of the plain Redis layout
+     *  can be mapped to partitions.
      * @param template
+     * @param nearCache
      * @return
      */
     @Bean
-    public RecordIdempotencyLookup redisRecordIdempotencyLookup(StringRedisTemplate template) {
-        return new RedisRecordIdempotencyLookup(this, template);
+    @ConditionalOnProperty(
+            prefix = PROPERTY_PREFIX + ".listener.warmup",
+            name = "enabled", havingValue = "true"
+    )
+    public RedisMarkerWarmup redisMarkerWarmup(StringRedisTemplate template, ObjectProvider<LocalMarkerCache> nearCache) {
+        if (nearCache.getIfAvailable() == null) {
+            throw new IllegalStateException("The warmup needs the near cache: " + PROPERTY_PREFIX + ".listener.near-cache.enabled");
+        }
+        if (getKeyEncoding() != KeyEncoding.READABLE || !"redis".equals(backend())) {
+            throw new IllegalStateException("The warmup needs readable keys of the plain Redis layout: " + PROPERTY_PREFIX
+                    + ".listener.key-encoding=READABLE without the local log, the off-heap table, the Bloom filter and the time buckets");
+        }
+        final var warmup = idempotencyProperties.getWarmup();
+        return new RedisMarkerWarmup(RedisRecordIdempotencyLookup.rawTemplate(template), RedisRecordIdempotencyLookup.keyPrefix(this),
+                nearCache.getObject(), warmup.getBatchSize(), warmup.getThreads());
     }
 
     @Bean
-    public IdempotentListenerAspect idempotentListenerAspect(RecordIdempotencyLookup recordIdempotencyLookup) {
-        return new IdempotentListenerAspect(this, recordIdempotencyLookup, new RecordIdentityExtractor());
+    public IdempotentListenerAspect idempotentListenerAspect(RecordIdempotencyLookup recordIdempotencyLookup,
+            RecordIdentityExtractor recordIdentityExtractor, ObjectProvider<IdempotencyMetrics> metrics) {
+        return new IdempotentListenerAspect(this, recordIdempotencyLookup, recordIdentityExtractor,
+                metrics.getIfAvailable(() -> IdempotencyMetrics.NONE));
+    }
+
+    /**
+     * Makes the listener containers configured by their id idempotent without AOP. Does nothing if none is configured.
+     * @param registry
+     * @param recordIdempotencyLookup
+     * @param metrics
+     * @return
+     */
+    @Bean
+    public IdempotentListenerContainerConfigurer idempotentListenerContainerConfigurer(ObjectProvider<KafkaListenerEndpointRegistry> registry,
+            ObjectProvider<RecordIdempotencyLookup> recordIdempotencyLookup, ObjectProvider<IdempotencyMetrics> metrics) {
+        return new IdempotentListenerContainerConfigurer(registry, idempotencyProperties.getContainers(), this, recordIdempotencyLookup, metrics);
+    }
+
+    @Bean
+    public static RecordIdentityExtractor recordIdentityExtractor() {
+        return new RecordIdentityExtractor();
+    }
+
+    /**
+     * Prepares the identity extraction for all the listener methods at startup, so that misconfigured listeners fail fast.
+     * @param recordIdentityExtractor
+     * @return
+     */
+    @Bean
+    public static IdempotentListenerBeanPostProcessor idempotentListenerBeanPostProcessor(
+            ObjectProvider<RecordIdentityExtractor> recordIdentityExtractor) {
+        return new IdempotentListenerBeanPostProcessor(recordIdentityExtractor);
+    }
+
+    /**
+     * Flushes the markers queued by the write-behind or collected in offset ranges, or waits for the markers sent to the changelog,
+     *  before the consumers commit offsets or lose partitions. One post-processor serves both, so that the consumer factories are proxied only once.
+     * @param recordIdempotencyLookup
+     * @return
+     */
+    @Bean
+    @Conditional(MarkersFlushedBeforeCommit.class)
+    public static WriteBehindConsumerFactoryPostProcessor writeBehindConsumerFactoryPostProcessor(
+            ObjectProvider<RecordIdempotencyLookup> recordIdempotencyLookup) {
+        return new WriteBehindConsumerFactoryPostProcessor(recordIdempotencyLookup);
+    }
+
+    /**
+     * Starts the warmup when partitions are assigned to the consumers, and evicts the markers of the revoked ones.
+     * @param markerWarmup
+     * @return
+     */
+    @Bean
+    @ConditionalOnProperty(
+            prefix = PROPERTY_PREFIX + ".listener.warmup",
+            name = "enabled", havingValue = "true"
+    )
+    public static WarmupConsumerFactoryPostProcessor warmupConsumerFactoryPostProcessor(ObjectProvider<RedisMarkerWarmup> markerWarmup) {
+        return new WarmupConsumerFactoryPostProcessor(markerWarmup);
+    }
+
+    /**
+     * Makes the value deserializers of the consumer factories skip the records consumed already.
+     * @param recordIdempotencyLookup
+     * @param idempotencyProperties
+     * @return
+     */
+    @Bean
+    @ConditionalOnProperty(
+            prefix = PROPERTY_PREFIX + ".listener.deserialization",
+            name = "enabled", havingValue = "true"
+    )
+    public static DeduplicatingDeserializerPostProcessor deduplicatingDeserializerPostProcessor(
+            ObjectProvider<RecordIdempotencyLookup> recordIdempotencyLookup,
+            ObjectProvider<KafkaListenerIdempotencyProperties> idempotencyProperties) {
+        return new DeduplicatingDeserializerPostProcessor(recordIdempotencyLookup, idempotencyProperties);
+    }
+
+    /**
+     * Wraps the persistence lookup provider with the enabled optional layers.
+     * The write-behind is the outermost one but for the single-flight, which closes it (i.e. flushes it) on shutdown,
+     *  so that the threads waiting for an identity in flight see its marker as soon as it has been queued.
+     * @param lookup
+     * @param offsetRangeStore
+     * @param circuitBreaker
+     * @param nearCache
+     * @return
+     */
+    private RecordIdempotencyLookup decorate(final RecordIdempotencyLookup lookup, final ObjectProvider<RedisOffsetRangeStore> offsetRangeStore,
+            final ObjectProvider<IdempotencyCircuitBreaker> circuitBreaker, final ObjectProvider<LocalMarkerCache> nearCache) {
+        RecordIdempotencyLookup decorated = lookup;
+        if (offsetRangeStore.getIfAvailable() != null) {
+            decorated = new OffsetRangeRecordIdempotencyLookup(offsetRangeStore.getObject(), decorated);
+        }
+        if (circuitBreaker.getIfAvailable() != null) {
+            decorated = new CircuitBreakerRecordIdempotencyLookup(decorated, circuitBreaker.getObject());
+        }
+        if (nearCache.getIfAvailable() != null) {
+            decorated = new NearCacheRecordIdempotencyLookup(decorated, nearCache.getObject());
+        }
+        final var writeBehind = idempotencyProperties.getWriteBehind();
+        if (writeBehind.isEnabled()) {
+            decorated = new WriteBehindRecordIdempotencyLookup(decorated, writeBehind.getQueueCapacity(), writeBehind.getBatchSize(),
+                    writeBehind.getFlushInterval());
+        }
+        final var singleFlight = idempotencyProperties.getSingleFlight();
+        if (singleFlight.isEnabled()) {
+            decorated = new SingleFlightRecordIdempotencyLookup(decorated, singleFlight.getPolicy(), singleFlight.getMaxWait(),
+                    singleFlight.getLease());
+        }
+        return decorated;
+    }
+
+    /**
+     * Names the enabled persistence provider, e.g. for tagging the metrics.
+     * @return
+     */
+    private String backend() {
+        final var enabled = enabledBackends();
+        return enabled.isEmpty() ? "redis" : enabled.get(0);
+    }
+
+    /**
+     * Names the enabled persistence providers and Redis layouts other than the plain Redis keys.
+     * @return
+     */
+    private List<String> enabledBackends() {
+        final List<String> enabled = new ArrayList<>();
+        if (idempotencyProperties.getChangelog().isEnabled()) {
+            enabled.add("kafka-changelog");
+        }
+        if (idempotencyProperties.getJdbc().isEnabled()) {
+            enabled.add("jdbc");
+        }
+        if (idempotencyProperties.getLocalLog().isEnabled()) {
+            enabled.add("local-log");
+        }
+        if (idempotencyProperties.getOffHeap().isEnabled()) {
+            enabled.add("off-heap");
+        }
+        if (idempotencyProperties.getBloomFilter().isEnabled()) {
+            enabled.add("redis-bloom-filter");
+        }
+        if (idempotencyProperties.getTimeBuckets().isEnabled()) {
+            enabled.add("redis-time-buckets");
+        }
+        return enabled;
+    }
+
+    /**
+     * Chooses the layout the markers are stored in Redis with.
+     * @param template
+     * @return
+     */
+    private RecordIdempotencyLookup storageLookup(final StringRedisTemplate template) {
+        if (idempotencyProperties.getBloomFilter().isEnabled()) {
+            return bloomFilterLookup(template);
+        }
+        final var rawTemplate = RedisRecordIdempotencyLookup.rawTemplate(template);
+        final var timeBuckets = idempotencyProperties.getTimeBuckets();
+        if (timeBuckets.isEnabled()) {
+            return new RedisBucketedRecordIdempotencyLookup(rawTemplate, RedisRecordIdempotencyLookup.keyPrefix(this),
+                    keyEncoder(getKeyEncoding()), timeBuckets.getWindow(), getTtl(), timeBuckets.getShards());
+        }
+        return new RedisRecordIdempotencyLookup(rawTemplate,
+                keyEncoder(getKeyEncoding()), isReadLegacyKeys() ? keyEncoder(legacyOf(getKeyEncoding())) : null);
+    }
+
+    private RedisBloomFilterRecordIdempotencyLookup bloomFilterLookup(final StringRedisTemplate template) {
+        final var bloomFilter = idempotencyProperties.getBloomFilter();
+        return new RedisBloomFilterRecordIdempotencyLookup(RedisRecordIdempotencyLookup.rawTemplate(template),
+                RedisRecordIdempotencyLookup.keyPrefix(this), getTtl(), bloomFilter.getBuckets(),
+                bloomFilter.getExpectedInsertions(), bloomFilter.getFalsePositiveRate());
+    }
+
+    private RecordKeyEncoder keyEncoder(final KeyEncoding keyEncoding) {
+        final var prefix = RedisRecordIdempotencyLookup.keyPrefix(this);
+        return keyEncoding == KeyEncoding.HASHED ? new HashedRecordKeyEncoder(prefix) : new ReadableRecordKeyEncoder(prefix);
+    }
+
+    private static KeyEncoding legacyOf(final KeyEncoding keyEncoding) {
+        return keyEncoding == KeyEncoding.HASHED ? KeyEncoding.READABLE : KeyEncoding.HASHED;
+    }
+
+    /**
+     * Micrometer metrics of the listeners and the persistence layers, registered if a meter registry is available.
+     */
+    @Configuration
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    @ConditionalOnBean(type = "io.micrometer.core.instrument.MeterRegistry")
+    static class MetricsConfiguration {
+
+        @Bean
+        public MicrometerIdempotencyMetrics micrometerIdempotencyMetrics(IdealoKafkaIdempotencyAutoconfiguration configuration,
+                MeterRegistry meterRegistry) {
+            return new MicrometerIdempotencyMetrics(meterRegistry, configuration.getConsumerGroupId(), configuration.backend());
+        }
+
+        @Bean
+        public IdempotencyBackendMetrics idempotencyBackendMetrics(IdealoKafkaIdempotencyAutoconfiguration configuration,
+                MeterRegistry meterRegistry, RecordIdempotencyLookup recordIdempotencyLookup, ObjectProvider<LocalMarkerCache> nearCache,
+                ObjectProvider<SegmentedLogStore> segmentedLogStore, ObjectProvider<OffHeapMarkerTable> offHeapMarkerTable,
+                ObjectProvider<IdempotencyCircuitBreaker> circuitBreaker) {
+            final var groupId = configuration.getConsumerGroupId();
+            final var backendMetrics = new IdempotencyBackendMetrics(recordIdempotencyLookup, nearCache.getIfAvailable(),
+                    segmentedLogStore.getIfAvailable(), offHeapMarkerTable.getIfAvailable(), circuitBreaker.getIfAvailable(),
+                    Tags.of("group", groupId == null ? "unknown" : groupId, "backend", configuration.backend()));
+            backendMetrics.bindTo(meterRegistry);
+            return backendMetrics;
+        }
+    }
+
+    /**
+     * Statistics and purges of the markers in Redis by the actuator endpoint, if Spring Boot Actuator is available.
+     */
+    @Configuration
+    @ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.annotation.Endpoint")
+    @ConditionalOnBean(StringRedisTemplate.class)
+    static class AdminConfiguration {
+
+        @Bean
+        public RedisMarkerAdmin redisMarkerAdmin(IdealoKafkaIdempotencyAutoconfiguration configuration, StringRedisTemplate template) {
+            final var admin = configuration.idempotencyProperties.getAdmin();
+            final var adminProperties = configuration.kafkaProperties.buildAdminProperties();
+            return new RedisMarkerAdmin(RedisRecordIdempotencyLookup.rawTemplate(template), configuration.getKeyPrefix(),
+                    () -> consumerGroups(adminProperties), admin.getBatchSize(), admin.getMaxKeysPerSecond());
+        }
+
+        /**
+         * Lists the consumer groups of the cluster. If they cannot be listed, the statistics and purges are refused, as they could
+         *  touch the markers of another group.
+         */
+        private static Collection<String> consumerGroups(final Map<String, Object> adminProperties) {
+            try (var adminClient = AdminClient.create(adminProperties)) {
+                return adminClient.listConsumerGroups().all().get(30, TimeUnit.SECONDS).stream()
+                        .map(ConsumerGroupListing::groupId)
+                        .collect(Collectors.toList());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while listing the consumer groups", e);
+            } catch (ExecutionException | TimeoutException e) {
+                throw new IllegalStateException("Could not list the consumer groups", e);
+            }
+        }
+
+        @Bean
+        public IdempotencyEndpoint idempotencyEndpoint(IdealoKafkaIdempotencyAutoconfiguration configuration, RedisMarkerAdmin redisMarkerAdmin,
+                ObjectProvider<LocalMarkerCache> nearCache) {
+            return new IdempotencyEndpoint(redisMarkerAdmin, configuration.getConsumerGroupId(),
+                    configuration.idempotencyProperties.getAdmin().getSampleSize(), nearCache.getIfAvailable());
+        }
+    }
+
+    /**
+     * Persistence of the markers in the database of the application, if Spring JDBC is available.
+     */
+    @Configuration
+    @ConditionalOnClass(name = "org.springframework.jdbc.core.JdbcTemplate")
+    @ConditionalOnProperty(
+            prefix = PROPERTY_PREFIX + ".listener.jdbc",
+            name = "enabled", havingValue = "true"
+    )
+    static class JdbcConfiguration {
+
+        @Bean
+        public JdbcMarkerStore jdbcMarkerStore(IdealoKafkaIdempotencyAutoconfiguration configuration, DataSource dataSource) {
+            final var jdbc = configuration.idempotencyProperties.getJdbc();
+            final var jdbcTemplate = new JdbcTemplate(dataSource);
+            final var dialect = jdbc.getDialect() == null ? JdbcMarkerStore.detectDialect(jdbcTemplate) : jdbc.getDialect();
+            final var store = new JdbcMarkerStore(jdbcTemplate, jdbc.getTable(), dialect, configuration.keyEncoder(configuration.getKeyEncoding()),
+                    jdbc.getBucketWindow(), jdbc.getBatchSize(), jdbc.getSweepInterval(), jdbc.getMaxBucketsPerSweep());
+            if (jdbc.isInitializeSchema()) {
+                store.createSchema();
+            }
+            return store;
+        }
+
+        @Bean
+        public RecordIdempotencyLookup jdbcRecordIdempotencyLookup(IdealoKafkaIdempotencyAutoconfiguration configuration,
+                JdbcMarkerStore jdbcMarkerStore, ObjectProvider<RedisOffsetRangeStore> offsetRangeStore,
+                ObjectProvider<IdempotencyCircuitBreaker> circuitBreaker, ObjectProvider<LocalMarkerCache> nearCache) {
+            return configuration.decorate(new JdbcRecordIdempotencyLookup(jdbcMarkerStore), offsetRangeStore, circuitBreaker, nearCache);
+        }
+    }
+
+    /**
+     * Non-blocking lookup for consumers running on an event loop, wired up if Reactor and a reactive Redis connection are available.
+     * It shares the key layout of the plain Redis lookup (the other storage layouts are not supported). Its beans are lazy,
+     *  so that only an application using them fails to start if another persistence provider or layout is enabled.
+     */
+    @Configuration
+    @ConditionalOnClass(name = "reactor.core.publisher.Flux")
+    @ConditionalOnBean(ReactiveRedisConnectionFactory.class)
+    static class ReactiveLookupConfiguration {
+
+        @Bean
+        @Lazy
+        public ReactiveRecordIdempotencyLookup reactiveRecordIdempotencyLookup(IdealoKafkaIdempotencyAutoconfiguration configuration,
+                ReactiveRedisConnectionFactory connectionFactory) {
+            if (!"redis".equals(configuration.backend()) || configuration.idempotencyProperties.getOffsetRanges().isEnabled()
+                    || configuration.isReadLegacyKeys()) {
+                throw new IllegalStateException("The reactive lookup only supports the plain Redis keys, but found " + configuration.backend()
+                        + " (offset ranges: " + configuration.idempotencyProperties.getOffsetRanges().isEnabled()
+                        + ", legacy keys: " + configuration.isReadLegacyKeys() + ")");
+            }
+            return new ReactiveRedisRecordIdempotencyLookup(ReactiveRedisRecordIdempotencyLookup.rawTemplate(connectionFactory),
+                    configuration.keyEncoder(configuration.getKeyEncoding()));
+        }
+
+        @Configuration
+        @ConditionalOnClass(name = "reactor.kafka.receiver.ReceiverRecord")
+        static class ReactiveKafkaConfiguration {
+
+            /**
+             * Identifies the received records by their topic, partition and offset, unless another resolver is defined.
+             * @return
+             */
+            @Bean
+            @ConditionalOnMissingBean
+            public ConsumerRecordIdentityResolver consumerRecordIdentityResolver() {
+                return ConsumerRecordIdentityResolver.position();
+            }
+
+            @Bean
+            @Lazy
+            public ReactiveRecordDeduplicator reactiveRecordDeduplicator(IdealoKafkaIdempotencyAutoconfiguration configuration,
+                    ReactiveRecordIdempotencyLookup reactiveRecordIdempotencyLookup, ConsumerRecordIdentityResolver consumerRecordIdentityResolver) {
+                final var reactive = configuration.idempotencyProperties.getReactive();
+                return new ReactiveRecordDeduplicator(reactiveRecordIdempotencyLookup, consumerRecordIdentityResolver,
+                        configuration.getTtl(), reactive.getMaxBatchSize(), reactive.getMaxBatchWait());
+            }
+        }
     }
 
     /**
@@ -82,6 +631,22 @@ public class IdealoKafkaIdempotencyAutoconfiguration {
         return idempotencyProperties.getKeyPrefix();
     }
 
+    /**
+     * Gets the encoding of the Redis keys.
+     * @return
+     */
+    public KeyEncoding getKeyEncoding() {
+        return idempotencyProperties.getKeyEncoding();
+    }
+
+    /**
+     * Whether the keys of the other encoding are looked up as well.
+     * @return
+     */
+    public boolean isReadLegacyKeys() {
+        return idempotencyProperties.isReadLegacyKeys();
+    }
+
     /**
      * Gets the consumer group id (set via the standard Spring Kafka properties).
      * @return
@@ -97,4 +662,68 @@ public class IdealoKafkaIdempotencyAutoconfiguration {
     public boolean isSuppressErrors() {
         return idempotencyProperties.isSuppressErrors();
     }
+
+    /**
+     * Whether the records are atomically claimed instead of being looked up before the listener call.
+     * @return
+     */
+    public boolean isClaimEnabled() {
+        return idempotencyProperties.getClaim().isEnabled();
+    }
+
+    /**
+     * Gets the duration after which an unfinished claim expires.
+     * @return
+     */
+    public Duration getClaimLease() {
+        return idempotencyProperties.getClaim().getLease();
+    }
+
+    /**
+     * Matches if none of the persistence providers replacing Redis is enabled.
+     */
+    static class RedisBackend extends NoneNestedConditions {
+
+        RedisBackend() {
+            super(ConfigurationPhase.REGISTER_BEAN);
+        }
+
+        @ConditionalOnProperty(prefix = PROPERTY_PREFIX + ".listener.changelog", name = "enabled", havingValue = "true")
+        static class ChangelogEnabled {
+        }
+
+        @ConditionalOnProperty(prefix = PROPERTY_PREFIX + ".listener.jdbc", name = "enabled", havingValue = "true")
+        static class JdbcEnabled {
+        }
+
+        @ConditionalOnProperty(prefix = PROPERTY_PREFIX + ".listener.local-log", name = "enabled", havingValue = "true")
+        static class LocalLogEnabled {
+        }
+
+        @ConditionalOnProperty(prefix = PROPERTY_PREFIX + ".listener.off-heap", name = "enabled", havingValue = "true")
+        static class OffHeapEnabled {
+        }
+    }
+
+    /**
+     * Matches if the markers are buffered before they are persisted, by the write-behind, the changelog or the offset ranges.
+     */
+    static class MarkersFlushedBeforeCommit extends AnyNestedCondition {
+
+        MarkersFlushedBeforeCommit() {
+            super(ConfigurationPhase.REGISTER_BEAN);
+        }
+
+        @ConditionalOnProperty(prefix = PROPERTY_PREFIX + ".listener.write-behind", name = "enabled", havingValue = "true")
+        static class WriteBehindEnabled {
+        }
+
+        @ConditionalOnProperty(prefix = PROPERTY_PREFIX + ".listener.changelog", name = "enabled", havingValue = "true")
+        static class ChangelogEnabled {
+        }
+
+        @ConditionalOnProperty(prefix = PROPERTY_PREFIX + ".listener.offset-ranges", name = "enabled", havingValue = "true")
+        static class OffsetRangesEnabled {
+        }
+    }
 }
@@ -2,10 +2,15 @@ package de.idealo.kafka.idempotency.configuration;
 
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
 
 import de.idealo.kafka.idempotency.IdempotentListener;
+import de.idealo.kafka.idempotency.persistence.JdbcMarkerStore;
+import de.idealo.kafka.idempotency.persistence.SingleFlightRecordIdempotencyLookup;
 
 @ConfigurationProperties(prefix = IdealoKafkaIdempotencyAutoconfiguration.PROPERTY_PREFIX + ".listener")
 public class KafkaListenerIdempotencyProperties {
@@ -43,6 +48,21 @@ public class KafkaListenerIdempotencyProperties {
      */
     private String keyPrefix = "";
 
+    /**
+     * Encoding of the keys persisted in Redis.
+     * READABLE keys consist of the prefix, the consumer group id and the record id components as they are.
+     * HASHED keys consist of a 4-byte binary namespace of the consumer group and the 128-bit digest of the readable key.
+     *  They take 20 bytes each, no matter how long the record ids are. The probability of any collision among n markers
+     *  is about n^2 / 2^129, i.e. below 10^-18 even for 10^10 markers.
+     */
+    private KeyEncoding keyEncoding = KeyEncoding.READABLE;
+
+    /**
+     * If true, the keys of the other encoding are looked up as well. Enable this after changing {@link #keyEncoding} for
+     *  as long as the TTL, so that the markers persisted before the change are still respected.
+     */
+    private boolean readLegacyKeys = false;
+
     /**
      * If true, any exceptions during the lookup or persistence are logged, but not bubbled up to the listener container.
      * A typical case when this matter is e.g. short outages of the Redis cluster. If this happens, the idempotency data cannot
@@ -56,6 +76,91 @@ public class KafkaListenerIdempotencyProperties {
      */
     private boolean suppressErrors = false;
 
+    /**
+     * Optional bounded in-process cache in front of the persistence, holding the markers logged by this instance.
+     */
+    private final NearCache nearCache = new NearCache();
+
+    /**
+     * Optional claim mode, replacing the look up before the listener call with an atomic claim of the record.
+     */
+    private final Claim claim = new Claim();
+
+    /**
+     * Optional compact storage of the identities consisting of topic, partition and offset.
+     */
+    private final OffsetRanges offsetRanges = new OffsetRanges();
+
+    /**
+     * Optional probabilistic storage of the markers in a ring of Bloom filters.
+     */
+    private final BloomFilter bloomFilter = new BloomFilter();
+
+    /**
+     * Optional storage of the markers in hashes per time window.
+     */
+    private final TimeBuckets timeBuckets = new TimeBuckets();
+
+    /**
+     * Optional asynchronous persistence of the markers.
+     */
+    private final WriteBehind writeBehind = new WriteBehind();
+
+    /**
+     * Optional sharing of the concurrent lookups of the same identity within this instance.
+     */
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    /**
+     * Settings of the non-blocking lookup for reactor-kafka consumers.
+     */
+    private final Reactive reactive = new Reactive();
+
+    /**
+     * Optional local persistence of the markers on the disk, instead of Redis.
+     */
+    private final LocalLog localLog = new LocalLog();
+
+    /**
+     * Optional in-memory storage of the markers outside the heap, instead of Redis.
+     */
+    private final OffHeap offHeap = new OffHeap();
+
+    /**
+     * Optional persistence of the markers in a compacted Kafka topic, instead of Redis.
+     */
+    private final Changelog changelog = new Changelog();
+
+    /**
+     * Optional persistence of the markers in a relational database, instead of Redis.
+     */
+    private final Jdbc jdbc = new Jdbc();
+
+    /**
+     * Optional warmup of the near cache with the markers of newly assigned partitions.
+     */
+    private final Warmup warmup = new Warmup();
+
+    /**
+     * Statistics and purges of the markers in Redis by the actuator endpoint.
+     */
+    private final Admin admin = new Admin();
+
+    /**
+     * Optional circuit breaker around the persistence, falling back to local markers.
+     */
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    /**
+     * Listener containers made idempotent without AOP, by their listener id.
+     */
+    private final Map<String, Container> containers = new HashMap<>();
+
+    /**
+     * Optional lookup of the records before their values are deserialized.
+     */
+    private final Deserialization deserialization = new Deserialization();
+
     public Duration getTtl() {
         return ttl;
     }
@@ -89,6 +194,22 @@ public class KafkaListenerIdempotencyProperties {
     }
 
 
+    public KeyEncoding getKeyEncoding() {
+        return keyEncoding;
+    }
+
+    public void setKeyEncoding(final KeyEncoding keyEncoding) {
+        this.keyEncoding = keyEncoding;
+    }
+
+    public boolean isReadLegacyKeys() {
+        return readLegacyKeys;
+    }
+
+    public void setReadLegacyKeys(final boolean readLegacyKeys) {
+        this.readLegacyKeys = readLegacyKeys;
+    }
+
     public boolean isSuppressErrors() {
         return suppressErrors;
     }
@@ -96,4 +217,1038 @@ public class KafkaListenerIdempotencyProperties {
     public void setSuppressErrors(final boolean suppressErrors) {
         this.suppressErrors = suppressErrors;
     }
+
+    public NearCache getNearCache() {
+        return nearCache;
+    }
+
+    public Claim getClaim() {
+        return claim;
+    }
+
+    public OffsetRanges getOffsetRanges() {
+        return offsetRanges;
+    }
+
+    public BloomFilter getBloomFilter() {
+        return bloomFilter;
+    }
+
+    public TimeBuckets getTimeBuckets() {
+        return timeBuckets;
+    }
+
+    public WriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    public Reactive getReactive() {
+        return reactive;
+    }
+
+    public LocalLog getLocalLog() {
+        return localLog;
+    }
+
+    public OffHeap getOffHeap() {
+        return offHeap;
+    }
+
+    public Changelog getChangelog() {
+        return changelog;
+    }
+
+    public Jdbc getJdbc() {
+        return jdbc;
+    }
+
+    public Warmup getWarmup() {
+        return warmup;
+    }
+
+    public Admin getAdmin() {
+        return admin;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public Map<String, Container> getContainers() {
+        return containers;
+    }
+
+    public Deserialization getDeserialization() {
+        return deserialization;
+    }
+
+    public enum KeyEncoding {
+        READABLE, HASHED
+    }
+
+    public static class NearCache {
+
+        /**
+         * If true, the markers logged by this instance are kept in a local cache, so that the lookups of these records
+         *  do not need a round-trip to the persistence.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Maximum number of markers held in the local cache. When exceeded, the least recently used markers are evicted.
+         */
+        private int maxSize = 100_000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(final int maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    public static class Claim {
+
+        /**
+         * If true, a record is atomically claimed before the listener is called, instead of being looked up.
+         * This costs a single round-trip per record and prevents concurrent consumers (e.g. during a rebalance) from processing
+         *  the same record at once. If the listener fails, the claim is released, otherwise it is turned into a regular marker.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Duration after which the claim of a record expires if the listener has neither finished nor failed, e.g. because
+         *  the consumer has crashed. It should be longer than the longest processing of a record (or a batch).
+         */
+        private Duration lease = Duration.of(5, ChronoUnit.MINUTES);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getLease() {
+            return lease;
+        }
+
+        public void setLease(final Duration lease) {
+            this.lease = lease;
+        }
+    }
+
+    public static class OffsetRanges {
+
+        /**
+         * If true, the identities consisting exactly of the received topic, partition and offset headers are not stored as one
+         *  Redis key per record, but as bitmaps of processed offsets per topic partition, each of them covering a chunk of
+         *  65536 consecutive offsets and expiring as a whole. All other identities are stored as usual.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Interval of merging the locally collected markers into Redis. The markers of the last interval may be lost on a crash.
+         */
+        private Duration flushInterval = Duration.of(1, ChronoUnit.SECONDS);
+
+        /**
+         * Maximum number of offset chunks (8 KiB each at most) kept locally in order to answer the lookups without a round-trip.
+         */
+        private int maxLocalChunks = 1024;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getFlushInterval() {
+            return flushInterval;
+        }
+
+        public void setFlushInterval(final Duration flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+
+        public int getMaxLocalChunks() {
+            return maxLocalChunks;
+        }
+
+        public void setMaxLocalChunks(final int maxLocalChunks) {
+            this.maxLocalChunks = maxLocalChunks;
+        }
+    }
+
+    public static class BloomFilter {
+
+        /**
+         * If true, the markers are not stored as one Redis key per record, but in a ring of Bloom filters (Redis bitmaps),
+         *  one per time bucket, covering the TTL. The memory footprint is fixed, but a small share of the records which have
+         *  never been consumed is skipped as well. Listener-specific TTLs are not supported.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Expected number of markers within the TTL. The filters are dimensioned for it.
+         */
+        private long expectedInsertions = 10_000_000;
+
+        /**
+         * Desired probability of a record which has never been consumed to be considered consumed, given the expected insertions.
+         */
+        private double falsePositiveRate = 0.0001;
+
+        /**
+         * Number of time buckets the TTL is split into. The oldest bucket is dropped as a whole.
+         */
+        private int buckets = 7;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getExpectedInsertions() {
+            return expectedInsertions;
+        }
+
+        public void setExpectedInsertions(final long expectedInsertions) {
+            this.expectedInsertions = expectedInsertions;
+        }
+
+        public double getFalsePositiveRate() {
+            return falsePositiveRate;
+        }
+
+        public void setFalsePositiveRate(final double falsePositiveRate) {
+            this.falsePositiveRate = falsePositiveRate;
+        }
+
+        public int getBuckets() {
+            return buckets;
+        }
+
+        public void setBuckets(final int buckets) {
+            this.buckets = buckets;
+        }
+    }
+
+    public static class TimeBuckets {
+
+        /**
+         * If true, the markers are not stored as one Redis key per record, but as fields of hashes, one per time window
+         *  (and shard), which expire as a whole. Excludes the Bloom filter.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Time covered by one bucket. A lookup checks all the buckets the TTL may reach back to.
+         */
+        private Duration window = Duration.of(1, ChronoUnit.DAYS);
+
+        /**
+         * Number of hashes every bucket is split into. It costs nothing per lookup, as a marker is looked up in one shard only.
+         *  Keep the hashes below hash-max-ziplist-entries for the compact encoding, and at a few thousand fields at most: Redis
+         *  frees an expired hash on its main thread in one step, unless lazyfree-lazy-expire is enabled.
+         */
+        private int shards = 1024;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public void setWindow(final Duration window) {
+            this.window = window;
+        }
+
+        public int getShards() {
+            return shards;
+        }
+
+        public void setShards(final int shards) {
+            this.shards = shards;
+        }
+    }
+
+    public static class WriteBehind {
+
+        /**
+         * If true, the markers are not persisted on the consumer thread, but queued and persisted by a background writer
+         *  in batches. The queue is flushed before the offsets are committed and when partitions are revoked.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Maximum number of markers waiting to be persisted. When exceeded, the consumer thread flushes the queue on its own.
+         */
+        private int queueCapacity = 10_000;
+
+        /**
+         * Maximum number of markers persisted at once. A full batch is flushed without waiting for the flush interval.
+         */
+        private int batchSize = 500;
+
+        /**
+         * Maximum time a marker waits in the queue, unless the offsets are committed before.
+         */
+        private Duration flushInterval = Duration.of(100, ChronoUnit.MILLIS);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(final int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(final int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public Duration getFlushInterval() {
+            return flushInterval;
+        }
+
+        public void setFlushInterval(final Duration flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+    }
+
+    public static class SingleFlight {
+
+        /**
+         * If true, concurrent lookups of the same identity share one call to the persistence, and an identity processed by
+         *  another thread of this instance is handled according to the policy.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Handling of an identity processed by another thread: WAIT, SKIP or PROCEED.
+         */
+        private SingleFlightRecordIdempotencyLookup.InFlightPolicy policy = SingleFlightRecordIdempotencyLookup.InFlightPolicy.WAIT;
+
+        /**
+         * Maximum time a thread waits for another one processing the same identity.
+         */
+        private Duration maxWait = Duration.ofSeconds(10);
+
+        /**
+         * Time after which an identity is no longer regarded as in flight if its record has been neither logged nor released.
+         */
+        private Duration lease = Duration.ofMinutes(5);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public SingleFlightRecordIdempotencyLookup.InFlightPolicy getPolicy() {
+            return policy;
+        }
+
+        public void setPolicy(final SingleFlightRecordIdempotencyLookup.InFlightPolicy policy) {
+            this.policy = policy;
+        }
+
+        public Duration getMaxWait() {
+            return maxWait;
+        }
+
+        public void setMaxWait(final Duration maxWait) {
+            this.maxWait = maxWait;
+        }
+
+        public Duration getLease() {
+            return lease;
+        }
+
+        public void setLease(final Duration lease) {
+            this.lease = lease;
+        }
+    }
+
+    public static class Reactive {
+
+        /**
+         * Maximum number of received records looked up at once by the deduplicating operator.
+         */
+        private int maxBatchSize = 256;
+
+        /**
+         * Maximum time a received record waits for its window to be looked up.
+         */
+        private Duration maxBatchWait = Duration.of(10, ChronoUnit.MILLIS);
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public void setMaxBatchSize(final int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        public Duration getMaxBatchWait() {
+            return maxBatchWait;
+        }
+
+        public void setMaxBatchWait(final Duration maxBatchWait) {
+            this.maxBatchWait = maxBatchWait;
+        }
+    }
+
+    public static class LocalLog {
+
+        /**
+         * If true, the markers are not persisted in Redis, but appended to memory-mapped segment files in a local directory
+         *  and indexed in memory. Only suitable for a single consumer instance per directory.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Directory holding the segment files. It must be set if the local log is enabled.
+         */
+        private String directory;
+
+        /**
+         * Size of a segment file. A segment takes 20 bytes per marker.
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+        /**
+         * Maximum time a segment is appended to. A segment is deleted as a whole once all its markers have expired,
+         *  so the markers are kept at most this long after their TTL.
+         */
+        private Duration segmentDuration = Duration.of(1, ChronoUnit.HOURS);
+
+        /**
+         * Number of markers the in-memory index is sized for at startup. It grows on demand.
+         */
+        private int expectedSize = 1_000_000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(final String directory) {
+            this.directory = directory;
+        }
+
+        public DataSize getSegmentSize() {
+            return segmentSize;
+        }
+
+        public void setSegmentSize(final DataSize segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+
+        public Duration getSegmentDuration() {
+            return segmentDuration;
+        }
+
+        public void setSegmentDuration(final Duration segmentDuration) {
+            this.segmentDuration = segmentDuration;
+        }
+
+        public int getExpectedSize() {
+            return expectedSize;
+        }
+
+        public void setExpectedSize(final int expectedSize) {
+            this.expectedSize = expectedSize;
+        }
+    }
+
+    public static class OffHeap {
+
+        /**
+         * If true, the markers are not persisted in Redis, but kept in a bounded hash table outside the heap.
+         *  The markers are lost on restart and not shared between the consumer instances.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Maximum number of markers. The table takes 27 to 54 bytes of direct memory per marker, allocated at startup.
+         */
+        private long maxEntries = 1_000_000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(final long maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+    }
+
+    public static class Changelog {
+
+        /**
+         * If true, the markers are persisted in a compacted Kafka topic and materialized in the memory of every instance,
+         *  instead of Redis.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Name of the changelog topic; defaults to the consumer group id followed by -idempotency-changelog.
+         */
+        private String topic;
+
+        /**
+         * Number of partitions the changelog is created with, if it does not exist. Should equal the number of partitions
+         *  of the consumed topics.
+         */
+        private int partitions = 1;
+
+        /**
+         * Replication factor the changelog is created with, if it does not exist.
+         */
+        private short replicationFactor = 1;
+
+        /**
+         * Retention the changelog is created with, if it does not exist; defaults to the TTL. Must not be shorter than any TTL.
+         */
+        private Duration retention;
+
+        /**
+         * Time the producer waits for more markers to batch them.
+         */
+        private Duration linger = Duration.ofMillis(10);
+
+        /**
+         * Maximum time a lookup waits for the changelog to be restored at startup.
+         */
+        private Duration restoreTimeout = Duration.ofMinutes(2);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public void setTopic(final String topic) {
+            this.topic = topic;
+        }
+
+        public int getPartitions() {
+            return partitions;
+        }
+
+        public void setPartitions(final int partitions) {
+            this.partitions = partitions;
+        }
+
+        public short getReplicationFactor() {
+            return replicationFactor;
+        }
+
+        public void setReplicationFactor(final short replicationFactor) {
+            this.replicationFactor = replicationFactor;
+        }
+
+        public Duration getRetention() {
+            return retention;
+        }
+
+        public void setRetention(final Duration retention) {
+            this.retention = retention;
+        }
+
+        public Duration getLinger() {
+            return linger;
+        }
+
+        public void setLinger(final Duration linger) {
+            this.linger = linger;
+        }
+
+        public Duration getRestoreTimeout() {
+            return restoreTimeout;
+        }
+
+        public void setRestoreTimeout(final Duration restoreTimeout) {
+            this.restoreTimeout = restoreTimeout;
+        }
+    }
+
+    public static class Jdbc {
+
+        /**
+         * If true, the markers are persisted in a table of the database of the application's DataSource, instead of Redis.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Name of the marker table, optionally qualified by the schema.
+         */
+        private String table = "kafka_idempotency_marker";
+
+        /**
+         * SQL dialect of the database (H2, POSTGRESQL or MYSQL); detected from the DataSource if not set.
+         */
+        private JdbcMarkerStore.Dialect dialect;
+
+        /**
+         * If true, the table and its index are created at startup unless they exist.
+         */
+        private boolean initializeSchema = true;
+
+        /**
+         * Time span of the expiries the rows are grouped by. The sweeper deletes a whole bucket once all of its rows have expired,
+         *  so it bounds the number of rows deleted per statement.
+         */
+        private Duration bucketWindow = Duration.ofHours(1);
+
+        /**
+         * Maximum number of markers written or looked up per statement.
+         */
+        private int batchSize = 500;
+
+        /**
+         * Interval of the deletion of the expired buckets.
+         */
+        private Duration sweepInterval = Duration.ofMinutes(1);
+
+        /**
+         * Maximum number of buckets deleted per sweep, e.g. after a downtime.
+         */
+        private int maxBucketsPerSweep = 24;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public void setTable(final String table) {
+            this.table = table;
+        }
+
+        public JdbcMarkerStore.Dialect getDialect() {
+            return dialect;
+        }
+
+        public void setDialect(final JdbcMarkerStore.Dialect dialect) {
+            this.dialect = dialect;
+        }
+
+        public boolean isInitializeSchema() {
+            return initializeSchema;
+        }
+
+        public void setInitializeSchema(final boolean initializeSchema) {
+            this.initializeSchema = initializeSchema;
+        }
+
+        public Duration getBucketWindow() {
+            return bucketWindow;
+        }
+
+        public void setBucketWindow(final Duration bucketWindow) {
+            this.bucketWindow = bucketWindow;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(final int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public Duration getSweepInterval() {
+            return sweepInterval;
+        }
+
+        public void setSweepInterval(final Duration sweepInterval) {
+            this.sweepInterval = sweepInterval;
+        }
+
+        public int getMaxBucketsPerSweep() {
+            return maxBucketsPerSweep;
+        }
+
+        public void setMaxBucketsPerSweep(final int maxBucketsPerSweep) {
+            this.maxBucketsPerSweep = maxBucketsPerSweep;
+        }
+    }
+
+    public static class Warmup {
+
+        /**
+         * If true, the markers of the partitions assigned to a consumer are loaded from Redis into the near cache in the background,
+         *  and evicted from it when the partitions are revoked. Requires the near cache and readable keys.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Number of keys fetched per SCAN and number of TTLs read per pipeline.
+         */
+        private int batchSize = 1000;
+
+        /**
+         * Number of assignments (e.g. of several consumers) warmed up concurrently.
+         */
+        private int threads = 1;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(final int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(final int threads) {
+            this.threads = threads;
+        }
+    }
+
+    public static class Admin {
+
+        /**
+         * Number of keys fetched per SCAN and deleted per UNLINK.
+         */
+        private int batchSize = 1000;
+
+        /**
+         * Maximum number of keys a purge scans per second, leaving Redis to the live traffic.
+         */
+        private int maxKeysPerSecond = 200_000;
+
+        /**
+         * Maximum number of keys scanned for the statistics, which are extrapolated to the whole keyspace beyond.
+         */
+        private int sampleSize = 100_000;
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(final int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getMaxKeysPerSecond() {
+            return maxKeysPerSecond;
+        }
+
+        public void setMaxKeysPerSecond(final int maxKeysPerSecond) {
+            this.maxKeysPerSecond = maxKeysPerSecond;
+        }
+
+        public int getSampleSize() {
+            return sampleSize;
+        }
+
+        public void setSampleSize(final int sampleSize) {
+            this.sampleSize = sampleSize;
+        }
+    }
+
+    public static class CircuitBreaker {
+
+        /**
+         * If true, every call to the persistence gets a deadline, and the lookups are served from local markers while the
+         *  persistence fails or is slow. The markers logged meanwhile are persisted once the persistence has recovered.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Maximum time a consumer waits for a call to the persistence. A call taking longer counts as failed and is answered locally.
+         */
+        private Duration callTimeout = Duration.ofMillis(250);
+
+        /**
+         * Calls taking longer than this count as slow.
+         */
+        private Duration slowCallDuration = Duration.ofMillis(50);
+
+        /**
+         * Share of the failed (or timed out) calls within the window above which the breaker opens.
+         */
+        private double failureRateThreshold = 0.5;
+
+        /**
+         * Share of the slow calls within the window above which the breaker opens.
+         */
+        private double slowCallRateThreshold = 0.8;
+
+        /**
+         * Number of the latest calls the rates are computed of.
+         */
+        private int windowSize = 100;
+
+        /**
+         * Minimum number of calls within the window before the breaker may open.
+         */
+        private int minimumCalls = 20;
+
+        /**
+         * Time the breaker stays open before a single call probes the persistence again.
+         */
+        private Duration openDuration = Duration.ofSeconds(10);
+
+        /**
+         * Maximum number of the latest markers kept locally in order to answer the lookups while the breaker is open.
+         */
+        private int fallbackSize = 100_000;
+
+        /**
+         * Maximum number of markers logged while the breaker is open, waiting to be persisted once it has closed.
+         */
+        private int backlogCapacity = 100_000;
+
+        /**
+         * Maximum number of calls to the persistence running at the same time. While all of them are running, e.g. blocked by a
+         *  hanging persistence, the further calls are answered locally at once and count as failed.
+         */
+        private int maxConcurrentCalls = 16;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getCallTimeout() {
+            return callTimeout;
+        }
+
+        public void setCallTimeout(final Duration callTimeout) {
+            this.callTimeout = callTimeout;
+        }
+
+        public Duration getSlowCallDuration() {
+            return slowCallDuration;
+        }
+
+        public void setSlowCallDuration(final Duration slowCallDuration) {
+            this.slowCallDuration = slowCallDuration;
+        }
+
+        public double getFailureRateThreshold() {
+            return failureRateThreshold;
+        }
+
+        public void setFailureRateThreshold(final double failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+        }
+
+        public double getSlowCallRateThreshold() {
+            return slowCallRateThreshold;
+        }
+
+        public void setSlowCallRateThreshold(final double slowCallRateThreshold) {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+        }
+
+        public int getWindowSize() {
+            return windowSize;
+        }
+
+        public void setWindowSize(final int windowSize) {
+            this.windowSize = windowSize;
+        }
+
+        public int getMinimumCalls() {
+            return minimumCalls;
+        }
+
+        public void setMinimumCalls(final int minimumCalls) {
+            this.minimumCalls = minimumCalls;
+        }
+
+        public Duration getOpenDuration() {
+            return openDuration;
+        }
+
+        public void setOpenDuration(final Duration openDuration) {
+            this.openDuration = openDuration;
+        }
+
+        public int getFallbackSize() {
+            return fallbackSize;
+        }
+
+        public void setFallbackSize(final int fallbackSize) {
+            this.fallbackSize = fallbackSize;
+        }
+
+        public int getBacklogCapacity() {
+            return backlogCapacity;
+        }
+
+        public void setBacklogCapacity(final int backlogCapacity) {
+            this.backlogCapacity = backlogCapacity;
+        }
+
+        public int getMaxConcurrentCalls() {
+            return maxConcurrentCalls;
+        }
+
+        public void setMaxConcurrentCalls(final int maxConcurrentCalls) {
+            this.maxConcurrentCalls = maxConcurrentCalls;
+        }
+    }
+
+    public static class Container {
+
+        public enum Identity {
+            POSITION, HEADER
+        }
+
+        /**
+         * What the records are identified by: their topic, partition and offset, or the value of a header.
+         */
+        private Identity identity = Identity.POSITION;
+
+        /**
+         * Name of the header identifying the records, required if the identity is HEADER.
+         */
+        private String header;
+
+        /**
+         * TTL of the markers of this container, the global one if not set.
+         */
+        private Duration ttl;
+
+        public Identity getIdentity() {
+            return identity;
+        }
+
+        public void setIdentity(final Identity identity) {
+            this.identity = identity;
+        }
+
+        public String getHeader() {
+            return header;
+        }
+
+        public void setHeader(final String header) {
+            this.header = header;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(final Duration ttl) {
+            this.ttl = ttl;
+        }
+    }
+
+    public static class Deserialization {
+
+        /**
+         * If true, the value deserializers of the consumer factories skip the records consumed already, returning null values
+         *  instead of parsing them. The listeners still have to be checked for idempotency.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Name of the header identifying the records, required if enabled.
+         */
+        private String header;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getHeader() {
+            return header;
+        }
+
+        public void setHeader(final String header) {
+            this.header = header;
+        }
+    }
 }
@@ -0,0 +1,218 @@
+package de.idealo.kafka.idempotency.container;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.listener.adapter.AbstractDelegatingMessageListenerAdapter;
+
+import de.idealo.kafka.idempotency.ConsumerRecordIdentityResolver;
+import de.idealo.kafka.idempotency.IdempotencyCheckException;
+import de.idealo.kafka.idempotency.IdempotencyMetrics;
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.configuration.IdealoKafkaIdempotencyAutoconfiguration;
+import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+
+/**
+ * Base of the listener adapters checking the records before they are dispatched to the listener, and persisting their markers
+ *   after the listener has returned, without any AOP proxy. The settings ({@code checkEnabled}, {@code persistenceEnabled},
+ *   {@code claim}, {@code suppressErrors}) apply like for {@link de.idealo.kafka.idempotency.IdempotentListener} methods,
+ *   and the markers are shared with them as long as the identities are resolved the same way.
+ * The listener method is not known to the adapters, so the metrics are recorded without it.
+ * @param <K> key type
+ * @param <V> value type
+ * @param <T> delegate type
+ */
+public abstract class AbstractIdempotentMessageListenerAdapter<K, V, T> extends AbstractDelegatingMessageListenerAdapter<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractIdempotentMessageListenerAdapter.class);
+
+    private final IdealoKafkaIdempotencyAutoconfiguration configuration;
+
+    private final RecordIdempotencyLookup lookup;
+
+    private final ConsumerRecordIdentityResolver identityResolver;
+
+    private final Duration ttl;
+
+    private final IdempotencyMetrics metrics;
+
+    /**
+     * @param delegate
+     * @param configuration
+     * @param lookup
+     * @param identityResolver resolver of the record identities
+     * @param ttl TTL for the idempotency markers, null for the default one
+     * @param metrics
+     */
+    protected AbstractIdempotentMessageListenerAdapter(final T delegate, final IdealoKafkaIdempotencyAutoconfiguration configuration,
+            final RecordIdempotencyLookup lookup, final ConsumerRecordIdentityResolver identityResolver, final Duration ttl,
+            final IdempotencyMetrics metrics) {
+        super(delegate);
+        this.configuration = configuration;
+        this.lookup = lookup;
+        this.identityResolver = identityResolver;
+        this.ttl = ttl;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Resolves the identities of the records and looks them up (or claims them).
+     * @param records
+     * @return the outcome, telling which records to pass to the listener
+     */
+    protected Check check(final List<ConsumerRecord<K, V>> records) {
+        if (!configuration.isCheckEnabled()) {
+            return new Check(null, null, false);
+        }
+        final var claim = configuration.isClaimEnabled();
+        final var started = System.nanoTime();
+        metrics.started();
+        final List<RecordIdentity> ids;
+        final List<Boolean> skipped;
+        try {
+            ids = resolve(records);
+            skipped = claim ? notClaimed(ids) : isLogged(ids);
+        } catch (Throwable e) { // NOSONAR
+            metrics.lookupFailed(null, System.nanoTime() - started);
+            LOG.error("Could not look up the idempotency information due to an error", e);
+            if (!configuration.isSuppressErrors()) {
+                throw new KafkaException("Could not look up the idempotency information", e);
+            }
+            return new Check(null, null, false);
+        }
+        var hits = 0;
+        for (final var flag : skipped) {
+            hits += flag ? 1 : 0;
+        }
+        metrics.lookedUp(null, System.nanoTime() - started, hits, ids.size() - hits);
+        if (hits > 0) {
+            metrics.skipped(null, hits);
+            LOG.debug("{} of {} records will be skipped due to idempotency check", hits, ids.size());
+        }
+        return new Check(ids, skipped, claim);
+    }
+
+    /**
+     * Persists the markers of the records passed to the listener. A failure is only logged, as the records have been processed.
+     * @param check
+     * @param records the records passed to the listener, used if they have not been checked
+     */
+    protected void persist(final Check check, final List<ConsumerRecord<K, V>> records) {
+        if (!configuration.isPersistenceEnabled()) {
+            return;
+        }
+        final var started = System.nanoTime();
+        metrics.started();
+        try {
+            final var ids = check.ids == null ? resolve(records) : check.getPassedIds();
+            if (ids.size() == 1) {
+                lookup.log(ids.get(0), ttl());
+            } else if (!ids.isEmpty()) {
+                lookup.logAll(ids, ttl());
+            }
+            metrics.persisted(null, System.nanoTime() - started, ids.size());
+        } catch (Throwable e) { // NOSONAR
+            metrics.persistFailed(null, System.nanoTime() - started);
+            LOG.error("Could not save idempotency marker for the record", e);
+        }
+    }
+
+    /**
+     * Gives up the claims of the records whose listener has failed, so that they can be consumed again.
+     * A failure here is only logged: the claims expire after their lease anyway.
+     * @param check
+     */
+    protected void release(final Check check) {
+        if (!check.claimed) {
+            return;
+        }
+        try {
+            lookup.releaseAll(check.getPassedIds());
+        } catch (Throwable e) { // NOSONAR
+            LOG.error("Could not release the claim of the records", e);
+        }
+    }
+
+    private List<Boolean> isLogged(final List<RecordIdentity> ids) {
+        return ids.size() == 1 ? List.of(lookup.isLogged(ids.get(0))) : lookup.areLogged(ids);
+    }
+
+    private List<Boolean> notClaimed(final List<RecordIdentity> ids) {
+        final var claimed = ids.size() == 1 ? List.of(lookup.claim(ids.get(0), configuration.getClaimLease()))
+                : lookup.claimAll(ids, configuration.getClaimLease());
+        final List<Boolean> notClaimed = new ArrayList<>(claimed.size());
+        for (final var flag : claimed) {
+            notClaimed.add(!flag);
+        }
+        return notClaimed;
+    }
+
+    private List<RecordIdentity> resolve(final List<ConsumerRecord<K, V>> records) throws IdempotencyCheckException {
+        final List<RecordIdentity> ids = new ArrayList<>(records.size());
+        for (final var record : records) {
+            ids.add(identityResolver.resolve(record));
+        }
+        return ids;
+    }
+
+    private Duration ttl() {
+        return ttl == null ? configuration.getTtl() : ttl;
+    }
+
+    /**
+     * Outcome of {@link #check(List)}.
+     */
+    protected static class Check {
+
+        /**
+         * Identities of the records or null if they have not been checked.
+         */
+        private final List<RecordIdentity> ids;
+
+        /**
+         * Flags telling whether the record is to be skipped, null if none is.
+         */
+        private final List<Boolean> skipped;
+
+        private final boolean claimed;
+
+        Check(final List<RecordIdentity> ids, final List<Boolean> skipped, final boolean claimed) {
+            this.ids = ids;
+            this.skipped = skipped;
+            this.claimed = claimed;
+        }
+
+        /**
+         * @param index index of the record
+         * @return true if the record is not to be passed to the listener
+         */
+        protected boolean isSkipped(final int index) {
+            return skipped != null && skipped.get(index);
+        }
+
+        /**
+         * @return true if none of the records is to be skipped
+         */
+        protected boolean isNoneSkipped() {
+            return skipped == null || !skipped.contains(true);
+        }
+
+        private List<RecordIdentity> getPassedIds() {
+            if (isNoneSkipped()) {
+                return ids;
+            }
+            final List<RecordIdentity> passed = new ArrayList<>(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                if (!skipped.get(i)) {
+                    passed.add(ids.get(i));
+                }
+            }
+            return passed;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package de.idealo.kafka.idempotency.container;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.listener.BatchAcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.BatchMessageListener;
+import org.springframework.kafka.support.Acknowledgment;
+
+import de.idealo.kafka.idempotency.ConsumerRecordIdentityResolver;
+import de.idealo.kafka.idempotency.IdempotencyMetrics;
+import de.idealo.kafka.idempotency.configuration.IdealoKafkaIdempotencyAutoconfiguration;
+import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+
+/**
+ * Batch listener adapter which removes the records consumed already from the batch before it is passed to the listener.
+ *   The whole batch is looked up within one round-trip. If all the records have been consumed already, the listener is not
+ *   invoked at all. The markers of the passed records are persisted once the listener has returned.
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class IdempotentBatchMessageListenerAdapter<K, V> extends AbstractIdempotentMessageListenerAdapter<K, V, BatchMessageListener<K, V>>
+        implements BatchAcknowledgingConsumerAwareMessageListener<K, V> {
+
+    public IdempotentBatchMessageListenerAdapter(final BatchMessageListener<K, V> delegate,
+            final IdealoKafkaIdempotencyAutoconfiguration configuration, final RecordIdempotencyLookup lookup,
+            final ConsumerRecordIdentityResolver identityResolver, final Duration ttl, final IdempotencyMetrics metrics) {
+        super(delegate, configuration, lookup, identityResolver, ttl, metrics);
+    }
+
+    @Override
+    public void onMessage(final List<ConsumerRecord<K, V>> records, final Acknowledgment acknowledgment, final Consumer<?, ?> consumer) {
+        final var check = check(records);
+        final List<ConsumerRecord<K, V>> passed;
+        if (check.isNoneSkipped()) {
+            passed = records;
+        } else {
+            passed = new ArrayList<>(records.size());
+            for (int i = 0; i < records.size(); i++) {
+                if (!check.isSkipped(i)) {
+                    passed.add(records.get(i));
+                }
+            }
+            if (passed.isEmpty()) {
+                return;
+            }
+        }
+        try {
+            invokeDelegate(passed, acknowledgment, consumer);
+        } catch (RuntimeException e) {
+            release(check);
+            throw e;
+        }
+        persist(check, passed);
+    }
+
+    @Override
+    public void onMessage(final List<ConsumerRecord<K, V>> records) {
+        onMessage(records, null, null);
+    }
+
+    @Override
+    public void onMessage(final List<ConsumerRecord<K, V>> records, final Acknowledgment acknowledgment) {
+        onMessage(records, acknowledgment, null);
+    }
+
+    @Override
+    public void onMessage(final List<ConsumerRecord<K, V>> records, final Consumer<?, ?> consumer) {
+        onMessage(records, null, consumer);
+    }
+
+    private void invokeDelegate(final List<ConsumerRecord<K, V>> records, final Acknowledgment acknowledgment, final Consumer<?, ?> consumer) {
+        switch (delegateType) {
+            case ACKNOWLEDGING_CONSUMER_AWARE:
+                delegate.onMessage(records, acknowledgment, consumer);
+                break;
+            case ACKNOWLEDGING:
+                delegate.onMessage(records, acknowledgment);
+                break;
+            case CONSUMER_AWARE:
+                delegate.onMessage(records, consumer);
+                break;
+            default:
+                delegate.onMessage(records);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package de.idealo.kafka.idempotency.container;
+
+import java.util.HashSet;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.listener.BatchMessageListener;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.util.StringUtils;
+
+import de.idealo.kafka.idempotency.ConsumerRecordIdentityResolver;
+import de.idealo.kafka.idempotency.IdempotencyMetrics;
+import de.idealo.kafka.idempotency.configuration.IdealoKafkaIdempotencyAutoconfiguration;
+import de.idealo.kafka.idempotency.configuration.KafkaListenerIdempotencyProperties.Container;
+import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+
+/**
+ * Makes the listener containers configured by their listener id idempotent without AOP: right before the containers are started,
+ *   their message listeners are wrapped by an {@link IdempotentMessageListenerAdapter} (or an {@link IdempotentBatchMessageListenerAdapter}),
+ *   so duplicates are dropped before they are converted and dispatched to the listener method.
+ * The listener methods of these containers must not be annotated with {@link de.idealo.kafka.idempotency.IdempotentListener},
+ *   otherwise every record is checked twice.
+ */
+public class IdempotentListenerContainerConfigurer implements SmartLifecycle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IdempotentListenerContainerConfigurer.class);
+
+    private final ObjectProvider<KafkaListenerEndpointRegistry> registry;
+
+    private final Map<String, Container> containers;
+
+    private final IdealoKafkaIdempotencyAutoconfiguration configuration;
+
+    private final ObjectProvider<RecordIdempotencyLookup> lookup;
+
+    private final ObjectProvider<IdempotencyMetrics> metrics;
+
+    private volatile boolean running;
+
+    /**
+     * @param registry registry of the listener containers
+     * @param containers settings per listener id
+     * @param configuration
+     * @param lookup
+     * @param metrics
+     */
+    public IdempotentListenerContainerConfigurer(final ObjectProvider<KafkaListenerEndpointRegistry> registry,
+            final Map<String, Container> containers, final IdealoKafkaIdempotencyAutoconfiguration configuration,
+            final ObjectProvider<RecordIdempotencyLookup> lookup, final ObjectProvider<IdempotencyMetrics> metrics) {
+        this.registry = registry;
+        this.containers = containers;
+        this.configuration = configuration;
+        this.lookup = lookup;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void start() {
+        final var listenerRegistry = registry.getIfAvailable();
+        if (!containers.isEmpty() && listenerRegistry != null) {
+            final var unknown = new HashSet<>(containers.keySet());
+            for (final var container : listenerRegistry.getListenerContainers()) {
+                final var settings = containers.get(container.getListenerId());
+                if (settings != null) {
+                    configure(container, settings);
+                    unknown.remove(container.getListenerId());
+                }
+            }
+            if (!unknown.isEmpty()) {
+                LOG.warn("No listener containers found with the ids {}, their idempotency settings are ignored", unknown);
+            }
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Runs right before the listener containers are started by the registry.
+     */
+    @Override
+    public int getPhase() {
+        return AbstractMessageListenerContainer.DEFAULT_PHASE - 1;
+    }
+
+    /**
+     * Wraps the message listener of the container, unless it is wrapped already (e.g. after a restart of the context).
+     * @param container
+     * @param settings
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void configure(final MessageListenerContainer container, final Container settings) {
+        final var listener = container.getContainerProperties().getMessageListener();
+        if (listener instanceof AbstractIdempotentMessageListenerAdapter) {
+            return;
+        }
+        final var identityResolver = identityResolverOf(container.getListenerId(), settings);
+        final var idempotencyMetrics = metrics.getIfAvailable(() -> IdempotencyMetrics.NONE);
+        if (listener instanceof BatchMessageListener) {
+            container.setupMessageListener(new IdempotentBatchMessageListenerAdapter((BatchMessageListener) listener, configuration,
+                    lookup.getObject(), identityResolver, settings.getTtl(), idempotencyMetrics));
+        } else if (listener instanceof MessageListener) {
+            container.setupMessageListener(new IdempotentMessageListenerAdapter((MessageListener) listener, configuration,
+                    lookup.getObject(), identityResolver, settings.getTtl(), idempotencyMetrics));
+        } else {
+            throw new IllegalStateException("Unsupported message listener of the container " + container.getListenerId() + ": " + listener);
+        }
+        LOG.info("Listener container {} checks the records for idempotency by their {}", container.getListenerId(),
+                settings.getIdentity() == Container.Identity.HEADER ? "header " + settings.getHeader() : "topic, partition and offset");
+    }
+
+    private static ConsumerRecordIdentityResolver identityResolverOf(final String listenerId, final Container settings) {
+        if (settings.getIdentity() == Container.Identity.POSITION) {
+            return ConsumerRecordIdentityResolver.position();
+        }
+        if (!StringUtils.hasText(settings.getHeader())) {
+            throw new IllegalStateException("The header identifying the records of the listener container " + listenerId + " must be set: "
+                    + IdealoKafkaIdempotencyAutoconfiguration.PROPERTY_PREFIX + ".listener.containers." + listenerId + ".header");
+        }
+        return ConsumerRecordIdentityResolver.header(settings.getHeader());
+    }
+}
@@ -0,0 +1,78 @@
+package de.idealo.kafka.idempotency.container;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.listener.AcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.support.Acknowledgment;
+
+import de.idealo.kafka.idempotency.ConsumerRecordIdentityResolver;
+import de.idealo.kafka.idempotency.IdempotencyMetrics;
+import de.idealo.kafka.idempotency.configuration.IdealoKafkaIdempotencyAutoconfiguration;
+import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+
+/**
+ * Record listener adapter which does not pass the records consumed already to the listener, i.e. they are neither converted
+ *   nor dispatched to the listener method. The marker of a record is persisted once the listener has returned.
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class IdempotentMessageListenerAdapter<K, V> extends AbstractIdempotentMessageListenerAdapter<K, V, MessageListener<K, V>>
+        implements AcknowledgingConsumerAwareMessageListener<K, V> {
+
+    public IdempotentMessageListenerAdapter(final MessageListener<K, V> delegate, final IdealoKafkaIdempotencyAutoconfiguration configuration,
+            final RecordIdempotencyLookup lookup, final ConsumerRecordIdentityResolver identityResolver, final Duration ttl,
+            final IdempotencyMetrics metrics) {
+        super(delegate, configuration, lookup, identityResolver, ttl, metrics);
+    }
+
+    @Override
+    public void onMessage(final ConsumerRecord<K, V> record, final Acknowledgment acknowledgment, final Consumer<?, ?> consumer) {
+        final var records = List.of(record);
+        final var check = check(records);
+        if (check.isSkipped(0)) {
+            return;
+        }
+        try {
+            invokeDelegate(record, acknowledgment, consumer);
+        } catch (RuntimeException e) {
+            release(check);
+            throw e;
+        }
+        persist(check, records);
+    }
+
+    @Override
+    public void onMessage(final ConsumerRecord<K, V> record) {
+        onMessage(record, null, null);
+    }
+
+    @Override
+    public void onMessage(final ConsumerRecord<K, V> record, final Acknowledgment acknowledgment) {
+        onMessage(record, acknowledgment, null);
+    }
+
+    @Override
+    public void onMessage(final ConsumerRecord<K, V> record, final Consumer<?, ?> consumer) {
+        onMessage(record, null, consumer);
+    }
+
+    private void invokeDelegate(final ConsumerRecord<K, V> record, final Acknowledgment acknowledgment, final Consumer<?, ?> consumer) {
+        switch (delegateType) {
+            case ACKNOWLEDGING_CONSUMER_AWARE:
+                delegate.onMessage(record, acknowledgment, consumer);
+                break;
+            case ACKNOWLEDGING:
+                delegate.onMessage(record, acknowledgment);
+                break;
+            case CONSUMER_AWARE:
+                delegate.onMessage(record, consumer);
+                break;
+            default:
+                delegate.onMessage(record);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package de.idealo.kafka.idempotency.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import de.idealo.kafka.idempotency.persistence.IdempotencyCircuitBreaker;
+import de.idealo.kafka.idempotency.persistence.LocalMarkerCache;
+import de.idealo.kafka.idempotency.persistence.OffHeapMarkerTable;
+import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.SegmentedLogStore;
+import de.idealo.kafka.idempotency.persistence.SingleFlightRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.WriteBehindRecordIdempotencyLookup;
+
+/**
+ * Exposes the statistics the enabled persistence layers keep anyway, tagged by the consumer group and the persistence provider:
+ * <ul>
+ *     <li>single-flight: {@code kafka.idempotency.single.flight.in.flight}, {@code kafka.idempotency.single.flight.coalesced}
+ *       and {@code kafka.idempotency.single.flight.held} (tagged by {@code outcome}, {@code waited} or {@code skipped})</li>
+ *     <li>write-behind: {@code kafka.idempotency.write.behind.queue}, {@code kafka.idempotency.write.behind.flushed}
+ *       and {@code kafka.idempotency.write.behind.dropped}</li>
+ *     <li>near cache: {@code kafka.idempotency.near.cache.size} and {@code kafka.idempotency.near.cache.requests}
+ *       (tagged by {@code result})</li>
+ *     <li>local log: {@code kafka.idempotency.local.log.markers} and {@code kafka.idempotency.local.log.segments}</li>
+ *     <li>off-heap table: {@code kafka.idempotency.off.heap.markers} and {@code kafka.idempotency.off.heap.evicted}</li>
+ *     <li>circuit breaker: {@code kafka.idempotency.circuit.breaker.state} (tagged by {@code state}, 1 for the current one),
+ *       {@code kafka.idempotency.circuit.breaker.transitions} (tagged by {@code state}), {@code kafka.idempotency.circuit.breaker.fallback.calls},
+ *       {@code kafka.idempotency.circuit.breaker.fallback.lookups} (tagged by {@code result}), {@code kafka.idempotency.circuit.breaker.backlog}
+ *       and {@code kafka.idempotency.circuit.breaker.dropped}</li>
+ * </ul>
+ * The meters read the statistics when they are published, so nothing is recorded on the consumer threads.
+ */
+public class IdempotencyBackendMetrics implements MeterBinder {
+
+    private final RecordIdempotencyLookup lookup;
+
+    private final LocalMarkerCache nearCache;
+
+    private final SegmentedLogStore segmentedLogStore;
+
+    private final OffHeapMarkerTable offHeapMarkerTable;
+
+    private final IdempotencyCircuitBreaker circuitBreaker;
+
+    private final Tags tags;
+
+    /**
+     * @param lookup the lookup used by the listeners, i.e. the outermost layer
+     * @param nearCache near cache or null if disabled
+     * @param segmentedLogStore local log or null if disabled
+     * @param offHeapMarkerTable off-heap table or null if disabled
+     * @param circuitBreaker circuit breaker or null if disabled
+     * @param tags common tags of the meters
+     */
+    public IdempotencyBackendMetrics(final RecordIdempotencyLookup lookup, final LocalMarkerCache nearCache,
+            final SegmentedLogStore segmentedLogStore, final OffHeapMarkerTable offHeapMarkerTable,
+            final IdempotencyCircuitBreaker circuitBreaker, final Tags tags) {
+        this.lookup = lookup;
+        this.nearCache = nearCache;
+        this.segmentedLogStore = segmentedLogStore;
+        this.offHeapMarkerTable = offHeapMarkerTable;
+        this.circuitBreaker = circuitBreaker;
+        this.tags = tags;
+    }
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        var decorated = lookup;
+        if (lookup instanceof SingleFlightRecordIdempotencyLookup) {
+            final var singleFlight = (SingleFlightRecordIdempotencyLookup) lookup;
+            Gauge.builder("kafka.idempotency.single.flight.in.flight", singleFlight, SingleFlightRecordIdempotencyLookup::getInFlightCount)
+                    .description("Identities being processed by a thread of this instance").tags(tags).register(registry);
+            FunctionCounter.builder("kafka.idempotency.single.flight.coalesced", singleFlight, SingleFlightRecordIdempotencyLookup::getCoalescedCount)
+                    .description("Lookups shared with another thread").tags(tags).register(registry);
+            FunctionCounter.builder("kafka.idempotency.single.flight.held", singleFlight, SingleFlightRecordIdempotencyLookup::getHeldCount)
+                    .description("Lookups of identities processed by another thread").tags(tags.and("outcome", "waited")).register(registry);
+            FunctionCounter.builder("kafka.idempotency.single.flight.held", singleFlight, SingleFlightRecordIdempotencyLookup::getSkippedCount)
+                    .description("Lookups of identities processed by another thread").tags(tags.and("outcome", "skipped")).register(registry);
+            decorated = singleFlight.getDelegate();
+        }
+        if (decorated instanceof WriteBehindRecordIdempotencyLookup) {
+            final var writeBehind = (WriteBehindRecordIdempotencyLookup) decorated;
+            Gauge.builder("kafka.idempotency.write.behind.queue", writeBehind, WriteBehindRecordIdempotencyLookup::getQueueDepth)
+                    .description("Markers waiting to be persisted").tags(tags).register(registry);
+            FunctionCounter.builder("kafka.idempotency.write.behind.flushed", writeBehind, WriteBehindRecordIdempotencyLookup::getFlushedCount)
+                    .description("Markers persisted by the write-behind").tags(tags).register(registry);
+            FunctionCounter.builder("kafka.idempotency.write.behind.dropped", writeBehind, WriteBehindRecordIdempotencyLookup::getDroppedCount)
+                    .description("Markers which could neither be persisted nor queued again").tags(tags).register(registry);
+        }
+        if (nearCache != null) {
+            Gauge.builder("kafka.idempotency.near.cache.size", nearCache, LocalMarkerCache::size)
+                    .description("Markers in the near cache").tags(tags).register(registry);
+            FunctionCounter.builder("kafka.idempotency.near.cache.requests", nearCache, LocalMarkerCache::getHitCount)
+                    .description("Lookups in the near cache").tags(tags.and("result", "hit")).register(registry);
+            FunctionCounter.builder("kafka.idempotency.near.cache.requests", nearCache, LocalMarkerCache::getMissCount)
+                    .description("Lookups in the near cache").tags(tags.and("result", "miss")).register(registry);
+        }
+        if (segmentedLogStore != null) {
+            Gauge.builder("kafka.idempotency.local.log.markers", segmentedLogStore, SegmentedLogStore::size)
+                    .description("Markers indexed by the local log").tags(tags).register(registry);
+            Gauge.builder("kafka.idempotency.local.log.segments", segmentedLogStore, SegmentedLogStore::getSegmentCount)
+                    .description("Segment files of the local log").tags(tags).register(registry);
+        }
+        if (offHeapMarkerTable != null) {
+            Gauge.builder("kafka.idempotency.off.heap.markers", offHeapMarkerTable, OffHeapMarkerTable::size)
+                    .description("Markers in the off-heap table, including the expired ones not swept yet").tags(tags).register(registry);
+            FunctionCounter.builder("kafka.idempotency.off.heap.evicted", offHeapMarkerTable, OffHeapMarkerTable::getEvictedCount)
+                    .description("Markers evicted from the full off-heap table before their expiry").tags(tags).register(registry);
+        }
+        if (circuitBreaker != null) {
+            bindCircuitBreaker(registry);
+        }
+    }
+
+    private void bindCircuitBreaker(final MeterRegistry registry) {
+        for (final var state : IdempotencyCircuitBreaker.State.values()) {
+            Gauge.builder("kafka.idempotency.circuit.breaker.state", circuitBreaker, breaker -> breaker.getState() == state ? 1 : 0)
+                    .description("State of the circuit breaker of the persistence").tags(tags.and("state", state.name().toLowerCase()))
+                    .register(registry);
+        }
+        FunctionCounter.builder("kafka.idempotency.circuit.breaker.transitions", circuitBreaker, IdempotencyCircuitBreaker::getOpenedCount)
+                .description("Transitions of the circuit breaker").tags(tags.and("state", "open")).register(registry);
+        FunctionCounter.builder("kafka.idempotency.circuit.breaker.transitions", circuitBreaker, IdempotencyCircuitBreaker::getClosedCount)
+                .description("Transitions of the circuit breaker").tags(tags.and("state", "closed")).register(registry);
+        FunctionCounter.builder("kafka.idempotency.circuit.breaker.fallback.calls", circuitBreaker, IdempotencyCircuitBreaker::getFallbackCount)
+                .description("Calls answered locally as the persistence failed, timed out or was not called").tags(tags).register(registry);
+        final var fallbackStore = circuitBreaker.getFallbackStore();
+        FunctionCounter.builder("kafka.idempotency.circuit.breaker.fallback.lookups", fallbackStore, LocalMarkerCache::getHitCount)
+                .description("Lookups in the local fallback store").tags(tags.and("result", "hit")).register(registry);
+        FunctionCounter.builder("kafka.idempotency.circuit.breaker.fallback.lookups", fallbackStore, LocalMarkerCache::getMissCount)
+                .description("Lookups in the local fallback store").tags(tags.and("result", "miss")).register(registry);
+        Gauge.builder("kafka.idempotency.circuit.breaker.backlog", circuitBreaker, IdempotencyCircuitBreaker::getBacklogSize)
+                .description("Markers waiting to be persisted once the circuit breaker has closed").tags(tags).register(registry);
+        FunctionCounter.builder("kafka.idempotency.circuit.breaker.dropped", circuitBreaker, IdempotencyCircuitBreaker::getDroppedCount)
+                .description("Markers dropped as the backlog was full").tags(tags).register(registry);
+    }
+}
@@ -0,0 +1,149 @@
+package de.idealo.kafka.idempotency.metrics;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import de.idealo.kafka.idempotency.IdempotencyMetrics;
+
+/**
+ * Records the idempotency checks with Micrometer, tagged by the listener method ({@code listener}, e.g. {@code OrderListener.onOrder}),
+ *   the consumer group ({@code group}) and the persistence provider ({@code backend}, e.g. {@code redis}):
+ * <ul>
+ *     <li>{@code kafka.idempotency.lookup}: timer (with a percentile histogram) of the checks, including the identity extraction</li>
+ *     <li>{@code kafka.idempotency.persist}: timer (with a percentile histogram) of the persisted markers</li>
+ *     <li>{@code kafka.idempotency.lookup.results}: counter of the looked up records, tagged by {@code result} ({@code hit} or {@code miss})</li>
+ *     <li>{@code kafka.idempotency.duplicates.skipped}: counter of the records not passed to the listener</li>
+ *     <li>{@code kafka.idempotency.errors}: counter of the failed operations, tagged by {@code operation} ({@code lookup} or {@code persist})</li>
+ *     <li>{@code kafka.idempotency.in.flight}: gauge of the running checks and persist operations (without the listener tag)</li>
+ * </ul>
+ */
+public class MicrometerIdempotencyMetrics implements IdempotencyMetrics {
+
+    private static final String UNKNOWN = "unknown";
+
+    private final MeterRegistry registry;
+
+    private final Tags tags;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final Map<Method, ListenerMeters> listenerMeters = new ConcurrentHashMap<>();
+
+    /**
+     * Meters of the invocations whose listener method is not known, created on demand.
+     */
+    private volatile ListenerMeters unknownListenerMeters;
+
+    /**
+     * @param registry
+     * @param consumerGroup consumer group of the listeners, null if not known
+     * @param backend name of the persistence provider
+     */
+    public MicrometerIdempotencyMetrics(final MeterRegistry registry, final String consumerGroup, final String backend) {
+        this.registry = registry;
+        this.tags = Tags.of("group", consumerGroup == null ? UNKNOWN : consumerGroup, "backend", backend);
+        Gauge.builder("kafka.idempotency.in.flight", inFlight, AtomicInteger::get)
+                .description("Idempotency checks and persist operations in progress")
+                .tags(tags)
+                .register(registry);
+    }
+
+    @Override
+    public void started() {
+        inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void lookedUp(final Method listener, final long elapsedNanos, final int hits, final int misses) {
+        inFlight.decrementAndGet();
+        final var meters = metersOf(listener);
+        meters.lookup.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        meters.hits.increment(hits);
+        meters.misses.increment(misses);
+    }
+
+    @Override
+    public void lookupFailed(final Method listener, final long elapsedNanos) {
+        inFlight.decrementAndGet();
+        final var meters = metersOf(listener);
+        meters.lookup.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        meters.lookupErrors.increment();
+    }
+
+    @Override
+    public void persisted(final Method listener, final long elapsedNanos, final int records) {
+        inFlight.decrementAndGet();
+        metersOf(listener).persist.record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void persistFailed(final Method listener, final long elapsedNanos) {
+        inFlight.decrementAndGet();
+        final var meters = metersOf(listener);
+        meters.persist.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        meters.persistErrors.increment();
+    }
+
+    @Override
+    public void skipped(final Method listener, final int records) {
+        metersOf(listener).skipped.increment(records);
+    }
+
+    private ListenerMeters metersOf(final Method listener) {
+        if (listener == null) {
+            if (unknownListenerMeters == null) {
+                // the registry returns the existing meters if two threads get here
+                unknownListenerMeters = new ListenerMeters(UNKNOWN);
+            }
+            return unknownListenerMeters;
+        }
+        return listenerMeters.computeIfAbsent(listener,
+                method -> new ListenerMeters(method.getDeclaringClass().getSimpleName() + "." + method.getName()));
+    }
+
+    /**
+     * Meters of one listener method, resolved once so that recording does not look them up in the registry.
+     */
+    private class ListenerMeters {
+
+        private final Timer lookup;
+        private final Timer persist;
+        private final Counter hits;
+        private final Counter misses;
+        private final Counter skipped;
+        private final Counter lookupErrors;
+        private final Counter persistErrors;
+
+        private ListenerMeters(final String listener) {
+            final var listenerTags = tags.and("listener", listener);
+            this.lookup = Timer.builder("kafka.idempotency.lookup")
+                    .description("Idempotency checks of the records before they are passed to the listener")
+                    .tags(listenerTags)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            this.persist = Timer.builder("kafka.idempotency.persist")
+                    .description("Persistence of the idempotency markers after the listener has returned")
+                    .tags(listenerTags)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            this.hits = counter("kafka.idempotency.lookup.results", "Looked up records", listenerTags.and("result", "hit"));
+            this.misses = counter("kafka.idempotency.lookup.results", "Looked up records", listenerTags.and("result", "miss"));
+            this.skipped = counter("kafka.idempotency.duplicates.skipped", "Records not passed to the listener as duplicates", listenerTags);
+            this.lookupErrors = counter("kafka.idempotency.errors", "Failed idempotency operations", listenerTags.and("operation", "lookup"));
+            this.persistErrors = counter("kafka.idempotency.errors", "Failed idempotency operations", listenerTags.and("operation", "persist"));
+        }
+
+        private Counter counter(final String name, final String description, final Tags counterTags) {
+            return Counter.builder(name).description(description).tags(counterTags).register(registry);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Decorates any {@link RecordIdempotencyLookup} with an {@link IdempotencyCircuitBreaker}, so that a slow or failing persistence
+ *   degrades the guarantee instead of stalling the consumers or failing the records.
+ * Every logged marker is additionally kept in the local fallback store of the breaker. While the persistence cannot be reached,
+ *   the lookups are answered by this store, i.e. only the records processed by this instance recently are recognized, and the
+ *   logged markers are queued in the backlog of the breaker, as are the markers of a single failed call. As soon as a call succeeds
+ *   again, the backlog is persisted in the background; until then a record missing in the persistence is also looked up in the
+ *   fallback store.
+ * Errors of the persistence never reach the caller, hence the {@code suppressErrors} setting has no effect. The only exception is
+ *   {@link #flush()}: it is called before the offsets are committed, which must fail if the buffered markers cannot be persisted.
+ */
+public class CircuitBreakerRecordIdempotencyLookup implements RecordIdempotencyLookup {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreakerRecordIdempotencyLookup.class);
+
+    private static final int RECONCILIATION_BATCH_SIZE = 500;
+
+    private final RecordIdempotencyLookup delegate;
+
+    private final IdempotencyCircuitBreaker breaker;
+
+    private final LocalMarkerCache fallbackStore;
+
+    public CircuitBreakerRecordIdempotencyLookup(final RecordIdempotencyLookup delegate, final IdempotencyCircuitBreaker breaker) {
+        this.delegate = delegate;
+        this.breaker = breaker;
+        this.fallbackStore = breaker.getFallbackStore();
+        breaker.addBacklogListener(this::reconcile);
+    }
+
+    @Override
+    public boolean isLogged(final RecordIdentity id) {
+        return breaker.call(() -> delegate.isLogged(id) || isPending(id), () -> fallbackStore.contains(id));
+    }
+
+    @Override
+    public void log(final RecordIdentity id, final Duration ttl) {
+        fallbackStore.put(id, ttl);
+        breaker.call(() -> {
+            delegate.log(id, ttl);
+            return null;
+        }, () -> {
+            breaker.enqueue(id, ttl);
+            return null;
+        });
+    }
+
+    @Override
+    public List<Boolean> areLogged(final List<RecordIdentity> ids) {
+        return breaker.call(() -> {
+            final var logged = new ArrayList<>(delegate.areLogged(ids));
+            for (int i = 0; i < logged.size(); i++) {
+                if (!logged.get(i) && isPending(ids.get(i))) {
+                    logged.set(i, true);
+                }
+            }
+            return logged;
+        }, () -> {
+            final List<Boolean> logged = new ArrayList<>(ids.size());
+            for (final var id : ids) {
+                logged.add(fallbackStore.contains(id));
+            }
+            return logged;
+        });
+    }
+
+    @Override
+    public void logAll(final List<RecordIdentity> ids, final Duration ttl) {
+        for (final var id : ids) {
+            fallbackStore.put(id, ttl);
+        }
+        breaker.call(() -> {
+            delegate.logAll(ids, ttl);
+            return null;
+        }, () -> {
+            for (final var id : ids) {
+                breaker.enqueue(id, ttl);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * While the persistence cannot be reached, a record is claimed unless the fallback store knows it.
+     */
+    @Override
+    public boolean claim(final RecordIdentity id, final Duration lease) {
+        return breaker.call(() -> !isPending(id) && delegate.claim(id, lease), () -> !fallbackStore.contains(id));
+    }
+
+    @Override
+    public List<Boolean> claimAll(final List<RecordIdentity> ids, final Duration lease) {
+        return breaker.call(() -> claimUnlogged(ids, lease), () -> {
+            final List<Boolean> claimed = new ArrayList<>(ids.size());
+            for (final var id : ids) {
+                claimed.add(!fallbackStore.contains(id));
+            }
+            return claimed;
+        });
+    }
+
+    @Override
+    public void release(final RecordIdentity id) {
+        breaker.call(() -> {
+            delegate.release(id);
+            return null;
+        }, () -> null);
+    }
+
+    @Override
+    public void releaseAll(final List<RecordIdentity> ids) {
+        breaker.call(() -> {
+            delegate.releaseAll(ids);
+            return null;
+        }, () -> null);
+    }
+
+    @Override
+    public void flush() {
+        final var failure = new AtomicReference<Exception>();
+        breaker.call(() -> {
+            try {
+                delegate.flush();
+            } catch (Exception e) {
+                failure.set(e);
+                throw e;
+            }
+            return null;
+        }, () -> {
+            throw new IllegalStateException("Could not flush the idempotency markers: the persistence has failed, has timed out "
+                    + "or its circuit breaker is open", failure.get());
+        });
+    }
+
+    /**
+     * A marker still waiting in the backlog has been processed already, even though the persistence does not know it yet.
+     */
+    private boolean isPending(final RecordIdentity id) {
+        return breaker.getBacklogSize() > 0 && fallbackStore.contains(id);
+    }
+
+    private List<Boolean> claimUnlogged(final List<RecordIdentity> ids, final Duration lease) {
+        final List<Boolean> logged = new ArrayList<>(ids.size());
+        final List<RecordIdentity> unlogged = new ArrayList<>();
+        for (final var id : ids) {
+            final var pending = isPending(id);
+            logged.add(pending);
+            if (!pending) {
+                unlogged.add(id);
+            }
+        }
+        final var remote = unlogged.isEmpty() ? List.<Boolean>of() : delegate.claimAll(unlogged, lease);
+        final List<Boolean> claimed = new ArrayList<>(ids.size());
+        int n = 0;
+        for (final var isLogged : logged) {
+            claimed.add(!isLogged && remote.get(n++));
+        }
+        return claimed;
+    }
+
+    /**
+     * Persists the queued markers, batch by batch. A batch which cannot be persisted is queued again and the reconciliation stops
+     *   until the next call succeeds.
+     */
+    private void reconcile() {
+        var reconciled = 0;
+        List<IdempotencyCircuitBreaker.Marker> batch;
+        while (breaker.getState() == IdempotencyCircuitBreaker.State.CLOSED
+                && !(batch = breaker.drainBacklog(RECONCILIATION_BATCH_SIZE)).isEmpty()) {
+            final Map<Duration, List<RecordIdentity>> idsByTtl = new LinkedHashMap<>();
+            for (final var marker : batch) {
+                idsByTtl.computeIfAbsent(marker.getTtl(), ttl -> new ArrayList<>()).add(marker.getId());
+            }
+            final boolean persisted = breaker.call(() -> {
+                idsByTtl.forEach((ttl, ids) -> delegate.logAll(ids, ttl));
+                return true;
+            }, () -> false);
+            if (!persisted) {
+                batch.forEach(marker -> breaker.enqueue(marker.getId(), marker.getTtl()));
+                LOG.warn("Could not persist the queued idempotency markers, {} are waiting", breaker.getBacklogSize());
+                return;
+            }
+            reconciled += batch.size();
+        }
+        LOG.info("Persisted {} queued idempotency markers", reconciled);
+    }
+}
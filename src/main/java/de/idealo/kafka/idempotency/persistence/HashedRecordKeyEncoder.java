@@ -0,0 +1,67 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Compact key encoding: a 4-byte namespace of the consumer group followed by the 128-bit MD5 digest of the readable key
+ *   (prefix, consumer group and record identity). Every key takes 20 bytes, no matter how long the identity is.
+ * The digest covers the consumer group as well, so two groups sharing a namespace by chance do not share their markers.
+ *   The probability of any collision among n markers is about n^2 / 2^129, i.e. below 10^-18 even for 10^10 markers.
+ *   A collision would make a record be skipped as if it had been consumed already. MD5 is only used as a well-distributed
+ *   hash here, the identities are not supposed to be crafted by an adversary.
+ */
+public class HashedRecordKeyEncoder implements RecordKeyEncoder {
+
+    private static final int NAMESPACE_LENGTH = 4;
+
+    private static final int DIGEST_LENGTH = 16;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(HashedRecordKeyEncoder::md5);
+
+    private final byte[] prefix;
+
+    private final byte[] namespace;
+
+    /**
+     * @param prefix key prefix including the consumer group
+     */
+    public HashedRecordKeyEncoder(final String prefix) {
+        this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+        this.namespace = Arrays.copyOf(md5().digest(this.prefix), NAMESPACE_LENGTH);
+    }
+
+    @Override
+    public byte[] encode(final RecordIdentity id) {
+        final var digest = DIGEST.get();
+        digest.update(prefix);
+        digest.update(id.getBytes());
+
+        final var key = new byte[NAMESPACE_LENGTH + DIGEST_LENGTH];
+        System.arraycopy(namespace, 0, key, 0, NAMESPACE_LENGTH);
+        try {
+            digest.digest(key, NAMESPACE_LENGTH, DIGEST_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        return key;
+    }
+
+    @Override
+    public byte[] namespace() {
+        return namespace.clone();
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.configuration.KafkaListenerIdempotencyProperties.CircuitBreaker;
+
+/**
+ * Circuit breaker around the calls to the persistence (see {@link CircuitBreakerRecordIdempotencyLookup}).
+ * Every call runs on a worker thread while the consumer waits at most for the call timeout, so a slow or hanging persistence
+ *   costs the consumer the timeout instead of the client timeout. A call which fails or times out is answered by the fallback.
+ *   A timed out call keeps its worker until the client gives up, so the workers are bounded: while all of them are busy, the
+ *   calls are answered by the fallback at once and count as failed.
+ * The outcomes of the latest calls are kept in a window: if too many of them have failed or have been slow, the breaker opens
+ *   and all the calls are answered by the fallback without touching the persistence. After the open duration a single call
+ *   probes the persistence (half-open): if it succeeds, the breaker closes, otherwise it opens again.
+ * While the breaker is open, the lookups are answered by a local store of the latest markers, and the logged markers are queued
+ *   in a bounded backlog until they can be persisted. Markers are queued as well when a single call fails while the breaker stays
+ *   closed, so the backlog listeners are run in the background after every successful call finding the backlog not empty.
+ */
+public class IdempotencyCircuitBreaker implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IdempotencyCircuitBreaker.class);
+
+    private static final byte SUCCEEDED = 0;
+    private static final byte SLOW = 1;
+    private static final byte FAILED = 2;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final long callTimeoutNanos;
+
+    private final long slowCallNanos;
+
+    private final long openNanos;
+
+    private final double failureRateThreshold;
+
+    private final double slowCallRateThreshold;
+
+    private final int minimumCalls;
+
+    private final int maxConcurrentCalls;
+
+    /**
+     * Ring of the outcomes of the latest calls while the breaker is closed.
+     */
+    private final byte[] window;
+    private int windowIndex;
+    private int windowCalls;
+    private int windowSlowCalls;
+    private int windowFailures;
+
+    private volatile State state = State.CLOSED;
+
+    private long openedAt;
+
+    private final AtomicBoolean probing = new AtomicBoolean();
+
+    private final ExecutorService executor;
+
+    private final ExecutorService reconciler;
+
+    private final AtomicBoolean reconciling = new AtomicBoolean();
+
+    private final LocalMarkerCache fallbackStore;
+
+    private final BlockingQueue<Marker> backlog;
+
+    private final List<Runnable> backlogListeners = new CopyOnWriteArrayList<>();
+
+    private final LongAdder openedCount = new LongAdder();
+
+    private final LongAdder closedCount = new LongAdder();
+
+    private final LongAdder fallbackCount = new LongAdder();
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    /**
+     * @param settings
+     */
+    public IdempotencyCircuitBreaker(final CircuitBreaker settings) {
+        if (settings.getWindowSize() <= 0 || settings.getMinimumCalls() <= 0 || settings.getBacklogCapacity() <= 0
+                || settings.getMaxConcurrentCalls() <= 0) {
+            throw new IllegalArgumentException("The window size, the minimum calls, the backlog capacity and the maximum concurrent calls "
+                    + "of the circuit breaker must be positive");
+        }
+        this.callTimeoutNanos = settings.getCallTimeout().toNanos();
+        this.slowCallNanos = settings.getSlowCallDuration().toNanos();
+        this.openNanos = settings.getOpenDuration().toNanos();
+        this.failureRateThreshold = settings.getFailureRateThreshold();
+        this.slowCallRateThreshold = settings.getSlowCallRateThreshold();
+        this.minimumCalls = Math.min(settings.getMinimumCalls(), settings.getWindowSize());
+        this.maxConcurrentCalls = settings.getMaxConcurrentCalls();
+        this.window = new byte[settings.getWindowSize()];
+        this.fallbackStore = new LocalMarkerCache(settings.getFallbackSize());
+        this.backlog = new LinkedBlockingQueue<>(settings.getBacklogCapacity());
+        this.executor = newExecutor(settings.getMaxConcurrentCalls(), "idempotency-circuit-breaker");
+        this.reconciler = newExecutor(1, "idempotency-circuit-breaker-reconciler");
+    }
+
+    /**
+     * Calls the persistence within the call timeout, unless the breaker is open.
+     * @param remote call to the persistence
+     * @param fallback local answer if the breaker is open or the call fails or times out
+     * @return
+     */
+    public <T> T call(final Callable<T> remote, final Supplier<T> fallback) {
+        final var probe = state != State.CLOSED;
+        if (probe && !tryProbe()) {
+            fallbackCount.increment();
+            return fallback.get();
+        }
+        final var start = System.nanoTime();
+        final Future<T> future;
+        try {
+            future = executor.submit(remote);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("All the {} workers of the idempotency circuit breaker are busy", maxConcurrentCalls);
+            onFailure(probe);
+            fallbackCount.increment();
+            return fallback.get();
+        }
+        try {
+            final var result = future.get(callTimeoutNanos, TimeUnit.NANOSECONDS);
+            onSuccess(probe, System.nanoTime() - start);
+            return result;
+        } catch (ExecutionException e) {
+            LOG.debug("Idempotency persistence call failed", e.getCause());
+            onFailure(probe);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            onFailure(probe);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            if (probe) {
+                probing.set(false);
+            }
+        }
+        fallbackCount.increment();
+        return fallback.get();
+    }
+
+    /**
+     * @param listener run in the background, never concurrently, whenever a call has succeeded while markers are waiting in the backlog
+     */
+    public void addBacklogListener(final Runnable listener) {
+        backlogListeners.add(listener);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return local store of the latest markers, answering the lookups while the breaker is open
+     */
+    public LocalMarkerCache getFallbackStore() {
+        return fallbackStore;
+    }
+
+    /**
+     * Queues a marker which could not be persisted. If the backlog is full, the marker is dropped.
+     * @param id
+     * @param ttl
+     */
+    public void enqueue(final RecordIdentity id, final Duration ttl) {
+        if (!backlog.offer(new Marker(id, ttl))) {
+            droppedCount.increment();
+        }
+    }
+
+    /**
+     * Takes the oldest markers out of the backlog.
+     * @param maxMarkers
+     * @return
+     */
+    public List<Marker> drainBacklog(final int maxMarkers) {
+        final List<Marker> markers = new ArrayList<>(Math.min(maxMarkers, backlog.size()));
+        backlog.drainTo(markers, maxMarkers);
+        return markers;
+    }
+
+    /**
+     * @return number of markers waiting to be persisted
+     */
+    public int getBacklogSize() {
+        return backlog.size();
+    }
+
+    /**
+     * @return number of times the breaker has opened
+     */
+    public long getOpenedCount() {
+        return openedCount.sum();
+    }
+
+    /**
+     * @return number of times the breaker has closed after being open
+     */
+    public long getClosedCount() {
+        return closedCount.sum();
+    }
+
+    /**
+     * @return number of calls answered by the fallback
+     */
+    public long getFallbackCount() {
+        return fallbackCount.sum();
+    }
+
+    /**
+     * @return number of markers dropped as the backlog was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        reconciler.shutdownNow();
+    }
+
+    private synchronized boolean tryProbe() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+        }
+        return state == State.HALF_OPEN && probing.compareAndSet(false, true);
+    }
+
+    private void onSuccess(final boolean probe, final long elapsedNanos) {
+        if (probe) {
+            close(elapsedNanos);
+        } else {
+            record(elapsedNanos > slowCallNanos ? SLOW : SUCCEEDED);
+        }
+        if (!backlog.isEmpty() && state == State.CLOSED) {
+            reconcile();
+        }
+    }
+
+    /**
+     * Runs the backlog listeners unless they are running already.
+     */
+    private void reconcile() {
+        if (!reconciling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            reconciler.execute(() -> {
+                try {
+                    backlogListeners.forEach(Runnable::run);
+                } finally {
+                    reconciling.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed
+            reconciling.set(false);
+        }
+    }
+
+    private void onFailure(final boolean probe) {
+        if (probe) {
+            open("the probe call has failed");
+        } else {
+            record(FAILED);
+        }
+    }
+
+    private synchronized void record(final byte outcome) {
+        if (state != State.CLOSED) {
+            // a call started before the breaker opened
+            return;
+        }
+        if (windowCalls == window.length) {
+            count(window[windowIndex], -1);
+        } else {
+            windowCalls++;
+        }
+        window[windowIndex] = outcome;
+        count(outcome, 1);
+        windowIndex = (windowIndex + 1) % window.length;
+        if (windowCalls >= minimumCalls) {
+            if (windowFailures >= failureRateThreshold * windowCalls) {
+                open(windowFailures + " of the latest " + windowCalls + " calls have failed");
+            } else if (windowSlowCalls >= slowCallRateThreshold * windowCalls) {
+                open(windowSlowCalls + " of the latest " + windowCalls + " calls have been slow");
+            }
+        }
+    }
+
+    private void count(final byte outcome, final int delta) {
+        if (outcome == FAILED) {
+            windowFailures += delta;
+        } else if (outcome == SLOW) {
+            windowSlowCalls += delta;
+        }
+    }
+
+    private synchronized void open(final String reason) {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        probing.set(false);
+        resetWindow();
+        openedCount.increment();
+        LOG.warn("Opened the circuit breaker of the idempotency persistence as {}, the lookups are answered locally for {} ms",
+                reason, TimeUnit.NANOSECONDS.toMillis(openNanos));
+    }
+
+    private void close(final long elapsedNanos) {
+        synchronized (this) {
+            state = State.CLOSED;
+            probing.set(false);
+            resetWindow();
+            closedCount.increment();
+        }
+        LOG.info("Closed the circuit breaker of the idempotency persistence after a probe call of {} µs, {} markers are waiting to be persisted",
+                TimeUnit.NANOSECONDS.toMicros(elapsedNanos), backlog.size());
+    }
+
+    private static ExecutorService newExecutor(final int threads, final String name) {
+        // no queue: a call is either taken by an idle worker at once or rejected
+        return new ThreadPoolExecutor(0, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            final var thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void resetWindow() {
+        windowIndex = 0;
+        windowCalls = 0;
+        windowSlowCalls = 0;
+        windowFailures = 0;
+    }
+
+    /**
+     * Marker waiting in the backlog.
+     */
+    public static class Marker {
+
+        private final RecordIdentity id;
+        private final Duration ttl;
+
+        Marker(final RecordIdentity id, final Duration ttl) {
+            this.id = id;
+            this.ttl = ttl;
+        }
+
+        public RecordIdentity getId() {
+            return id;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+    }
+}
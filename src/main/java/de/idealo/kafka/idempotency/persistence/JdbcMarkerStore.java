@@ -0,0 +1,340 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Persistence of the markers in a relational database table, one row per marker keyed by the encoded identity.
+ * Every row carries its exact expiry, which the lookups compare with, and the time bucket the expiry falls into. Expired rows
+ *   are not deleted one by one: a background sweeper deletes whole buckets once all of their rows have expired, the oldest
+ *   bucket first and at most {@code batchSize} rows per statement, so that no delete locks a large part of the table.
+ * The markers are written by batched upserts (replacing an expired or claimed row of the same key, but never shortening its
+ *   expiry) and looked up by batched
+ *   {@code IN (...)} queries, at most {@code batchSize} rows per statement. A claim is a row in the claimed state which is
+ *   inserted only if the key is absent, relying on the primary key, so it is atomic across the consumer instances.
+ */
+public class JdbcMarkerStore implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcMarkerStore.class);
+
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+
+    private static final int CLAIMED = 0;
+
+    private static final int LOGGED = 1;
+
+    /**
+     * SQL dialects the upserts and the table definition are available for.
+     */
+    public enum Dialect {
+
+        H2("MERGE INTO %1$s m USING (SELECT CAST(? AS VARBINARY(512)) AS marker_key, CAST(? AS SMALLINT) AS state,"
+                + " CAST(? AS BIGINT) AS expires_at, CAST(? AS BIGINT) AS bucket) s ON m.marker_key = s.marker_key"
+                + " WHEN MATCHED THEN UPDATE SET state = s.state, expires_at = GREATEST(m.expires_at, s.expires_at),"
+                + " bucket = GREATEST(m.bucket, s.bucket)"
+                + " WHEN NOT MATCHED THEN INSERT (marker_key, state, expires_at, bucket) VALUES (s.marker_key, s.state, s.expires_at, s.bucket)",
+                "DELETE FROM %1$s WHERE bucket = ? LIMIT ?",
+                "CREATE TABLE IF NOT EXISTS %1$s (marker_key VARBINARY(512) NOT NULL PRIMARY KEY, state SMALLINT NOT NULL,"
+                        + " expires_at BIGINT NOT NULL, bucket BIGINT NOT NULL)",
+                "CREATE INDEX IF NOT EXISTS %2$s ON %1$s (bucket)"),
+
+        POSTGRESQL("INSERT INTO %1$s AS m (marker_key, state, expires_at, bucket) VALUES (?, ?, ?, ?) ON CONFLICT (marker_key)"
+                + " DO UPDATE SET state = EXCLUDED.state, expires_at = GREATEST(m.expires_at, EXCLUDED.expires_at),"
+                + " bucket = GREATEST(m.bucket, EXCLUDED.bucket)",
+                "DELETE FROM %1$s WHERE marker_key IN (SELECT marker_key FROM %1$s WHERE bucket = ? LIMIT ?)",
+                "CREATE TABLE IF NOT EXISTS %1$s (marker_key BYTEA NOT NULL PRIMARY KEY, state SMALLINT NOT NULL,"
+                        + " expires_at BIGINT NOT NULL, bucket BIGINT NOT NULL)",
+                "CREATE INDEX IF NOT EXISTS %2$s ON %1$s (bucket)"),
+
+        MYSQL("INSERT INTO %1$s (marker_key, state, expires_at, bucket) VALUES (?, ?, ?, ?)"
+                + " ON DUPLICATE KEY UPDATE state = VALUES(state), expires_at = GREATEST(expires_at, VALUES(expires_at)),"
+                + " bucket = GREATEST(bucket, VALUES(bucket))",
+                "DELETE FROM %1$s WHERE bucket = ? LIMIT ?",
+                "CREATE TABLE IF NOT EXISTS %1$s (marker_key VARBINARY(512) NOT NULL PRIMARY KEY, state SMALLINT NOT NULL,"
+                        + " expires_at BIGINT NOT NULL, bucket BIGINT NOT NULL, INDEX %2$s (bucket))");
+
+        private final String upsert;
+
+        /**
+         * Deletes at most the given number of rows of a bucket.
+         */
+        private final String sweep;
+
+        private final String[] schema;
+
+        Dialect(final String upsert, final String sweep, final String... schema) {
+            this.upsert = upsert;
+            this.sweep = sweep;
+            this.schema = schema;
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final String table;
+
+    private final Dialect dialect;
+
+    private final RecordKeyEncoder keyEncoder;
+
+    private final long bucketMillis;
+
+    private final int batchSize;
+
+    private final int maxBucketsPerSweep;
+
+    private final String upsertSql;
+
+    private final String sweepSql;
+
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * @param jdbcTemplate
+     * @param table name of the table, optionally qualified by the schema
+     * @param dialect
+     * @param keyEncoder encoder of the primary keys
+     * @param bucketWindow time span of the expiries deleted at once
+     * @param batchSize maximum number of rows written, looked up or deleted per statement
+     * @param sweepInterval interval of the sweeper, null to sweep only on demand (see {@link #sweep()})
+     * @param maxBucketsPerSweep maximum number of buckets deleted per sweep
+     */
+    public JdbcMarkerStore(final JdbcTemplate jdbcTemplate, final String table, final Dialect dialect, final RecordKeyEncoder keyEncoder,
+            final Duration bucketWindow, final int batchSize, final Duration sweepInterval, final int maxBucketsPerSweep) {
+        if (!TABLE_NAME.matcher(table).matches()) {
+            throw new IllegalArgumentException("Invalid name of the idempotency marker table: " + table);
+        }
+        if (batchSize <= 0 || maxBucketsPerSweep <= 0 || bucketWindow.toMillis() <= 0) {
+            throw new IllegalArgumentException("The bucket window, the batch size and the buckets per sweep must be positive");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.table = table;
+        this.dialect = dialect;
+        this.keyEncoder = keyEncoder;
+        this.bucketMillis = bucketWindow.toMillis();
+        this.batchSize = batchSize;
+        this.maxBucketsPerSweep = maxBucketsPerSweep;
+        this.upsertSql = String.format(dialect.upsert, table);
+        this.sweepSql = String.format(dialect.sweep, table);
+        if (sweepInterval == null || sweepInterval.isZero() || sweepInterval.isNegative()) {
+            this.sweeper = null;
+        } else {
+            this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final var thread = new Thread(runnable, "idempotency-jdbc-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sweeper.scheduleWithFixedDelay(this::sweepQuietly, sweepInterval.toMillis(), sweepInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @param jdbcTemplate
+     * @return the dialect of the database
+     * @throws IllegalStateException if the database is not supported
+     */
+    public static Dialect detectDialect(final JdbcTemplate jdbcTemplate) {
+        final var productName = jdbcTemplate.execute((ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+        final var name = productName == null ? "" : productName.toLowerCase(Locale.ROOT);
+        if (name.contains("h2")) {
+            return Dialect.H2;
+        } else if (name.contains("postgres")) {
+            return Dialect.POSTGRESQL;
+        } else if (name.contains("mysql") || name.contains("mariadb")) {
+            return Dialect.MYSQL;
+        }
+        throw new IllegalStateException("The idempotency markers cannot be stored in " + productName + ", the supported databases are " + List.of(Dialect.values()));
+    }
+
+    /**
+     * Creates the table and the index of the buckets, unless they exist.
+     */
+    public void createSchema() {
+        final var indexName = table.substring(table.lastIndexOf('.') + 1) + "_bucket";
+        for (final var statement : dialect.schema) {
+            jdbcTemplate.execute(String.format(statement, table, indexName));
+        }
+    }
+
+    /**
+     * @param ids
+     * @return flags telling whether the record has been logged and its marker has not expired, in the same order as the given identities
+     */
+    public List<Boolean> containsAll(final List<RecordIdentity> ids) {
+        final var keys = encode(ids);
+        final Set<ByteBuffer> found = new HashSet<>();
+        final var now = System.currentTimeMillis();
+        for (int from = 0; from < keys.size(); from += batchSize) {
+            final var chunk = keys.subList(from, Math.min(from + batchSize, keys.size()));
+            final var sql = new StringBuilder("SELECT marker_key FROM ").append(table)
+                    .append(" WHERE state = ? AND expires_at > ? AND marker_key IN (?");
+            for (int i = 1; i < chunk.size(); i++) {
+                sql.append(", ?");
+            }
+            final var args = new Object[chunk.size() + 2];
+            args[0] = LOGGED;
+            args[1] = now;
+            for (int i = 0; i < chunk.size(); i++) {
+                args[i + 2] = chunk.get(i);
+            }
+            jdbcTemplate.query(sql.append(')').toString(), resultSet -> {
+                found.add(ByteBuffer.wrap(resultSet.getBytes(1)));
+            }, args);
+        }
+        final List<Boolean> contained = new ArrayList<>(keys.size());
+        for (final var key : keys) {
+            contained.add(found.contains(ByteBuffer.wrap(key)));
+        }
+        return contained;
+    }
+
+    /**
+     * Upserts the markers in batches, replacing the claims of the records. The expiry of an existing row is only ever extended.
+     * @param ids
+     * @param ttl
+     */
+    public void addAll(final List<RecordIdentity> ids, final Duration ttl) {
+        final var expiresAt = System.currentTimeMillis() + ttl.toMillis();
+        final var keys = encode(ids);
+        for (int from = 0; from < keys.size(); from += batchSize) {
+            final var chunk = keys.subList(from, Math.min(from + batchSize, keys.size()));
+            jdbcTemplate.batchUpdate(upsertSql, new BatchPreparedStatementSetter() {
+
+                @Override
+                public void setValues(final PreparedStatement statement, final int i) throws SQLException {
+                    statement.setBytes(1, chunk.get(i));
+                    statement.setInt(2, LOGGED);
+                    statement.setLong(3, expiresAt);
+                    statement.setLong(4, bucketOf(expiresAt));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return chunk.size();
+                }
+            });
+        }
+    }
+
+    /**
+     * Claims the record unless a marker or a claim of it exists, replacing an expired one.
+     * @param id
+     * @param lease
+     * @return true if the record has been claimed
+     */
+    public boolean claim(final RecordIdentity id, final Duration lease) {
+        final var key = keyEncoder.encode(id);
+        final var now = System.currentTimeMillis();
+        jdbcTemplate.update("DELETE FROM " + table + " WHERE marker_key = ? AND expires_at <= ?", key, now);
+        final var expiresAt = now + lease.toMillis();
+        try {
+            return jdbcTemplate.update("INSERT INTO " + table + " (marker_key, state, expires_at, bucket) VALUES (?, ?, ?, ?)",
+                    key, CLAIMED, expiresAt, bucketOf(expiresAt)) == 1;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the claims of the records, leaving the logged ones untouched.
+     * @param ids
+     */
+    public void releaseAll(final List<RecordIdentity> ids) {
+        final var keys = encode(ids);
+        for (int from = 0; from < keys.size(); from += batchSize) {
+            final var chunk = keys.subList(from, Math.min(from + batchSize, keys.size()));
+            jdbcTemplate.batchUpdate("DELETE FROM " + table + " WHERE marker_key = ? AND state = " + CLAIMED, new BatchPreparedStatementSetter() {
+
+                @Override
+                public void setValues(final PreparedStatement statement, final int i) throws SQLException {
+                    statement.setBytes(1, chunk.get(i));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return chunk.size();
+                }
+            });
+        }
+    }
+
+    /**
+     * Deletes the oldest buckets whose rows have all expired, at most {@code maxBucketsPerSweep} of them and {@code batchSize}
+     *   rows per statement.
+     * @return number of deleted rows
+     */
+    public int sweep() {
+        final var current = Math.floorDiv(System.currentTimeMillis(), bucketMillis);
+        var deleted = 0;
+        for (int i = 0; i < maxBucketsPerSweep; i++) {
+            final var oldest = jdbcTemplate.queryForObject("SELECT MIN(bucket) FROM " + table, Long.class);
+            if (oldest == null || oldest >= current) {
+                break;
+            }
+            int chunk;
+            do {
+                chunk = jdbcTemplate.update(sweepSql, oldest, batchSize);
+                deleted += chunk;
+            } while (chunk >= batchSize);
+        }
+        return deleted;
+    }
+
+    /**
+     * @return number of rows, including the claims and the expired rows which have not been swept yet
+     */
+    public long size() {
+        final var count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Long.class);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    private void sweepQuietly() {
+        try {
+            final var deleted = sweep();
+            if (deleted > 0) {
+                LOG.debug("Swept {} expired idempotency markers from {}", deleted, table);
+            }
+        } catch (Throwable e) { // NOSONAR
+            LOG.warn("Could not sweep the expired idempotency markers from {}", table, e);
+        }
+    }
+
+    private long bucketOf(final long expiresAt) {
+        return Math.floorDiv(expiresAt, bucketMillis);
+    }
+
+    private List<byte[]> encode(final List<RecordIdentity> ids) {
+        final List<byte[]> keys = new ArrayList<>(ids.size());
+        for (final var id : ids) {
+            keys.add(keyEncoder.encode(id));
+        }
+        return keys;
+    }
+}
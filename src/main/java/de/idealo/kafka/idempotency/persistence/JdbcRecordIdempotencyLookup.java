@@ -0,0 +1,54 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.time.Duration;
+import java.util.List;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Keeps the markers in a relational database (see {@link JdbcMarkerStore}), e.g. where the consumers have a database at hand,
+ *   but no Redis. A batch is looked up and logged within a few statements, so batch listeners should be preferred.
+ */
+public class JdbcRecordIdempotencyLookup implements RecordIdempotencyLookup {
+
+    private final JdbcMarkerStore store;
+
+    public JdbcRecordIdempotencyLookup(final JdbcMarkerStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public boolean isLogged(final RecordIdentity id) {
+        return store.containsAll(List.of(id)).get(0);
+    }
+
+    @Override
+    public void log(final RecordIdentity id, final Duration ttl) {
+        store.addAll(List.of(id), ttl);
+    }
+
+    @Override
+    public List<Boolean> areLogged(final List<RecordIdentity> ids) {
+        return store.containsAll(ids);
+    }
+
+    @Override
+    public void logAll(final List<RecordIdentity> ids, final Duration ttl) {
+        store.addAll(ids, ttl);
+    }
+
+    @Override
+    public boolean claim(final RecordIdentity id, final Duration lease) {
+        return store.claim(id, lease);
+    }
+
+    @Override
+    public void release(final RecordIdentity id) {
+        store.releaseAll(List.of(id));
+    }
+
+    @Override
+    public void releaseAll(final List<RecordIdentity> ids) {
+        store.releaseAll(ids);
+    }
+}
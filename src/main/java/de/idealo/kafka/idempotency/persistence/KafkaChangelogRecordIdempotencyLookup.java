@@ -0,0 +1,58 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Keeps the markers in a {@link KafkaChangelogStore}, so the lookups are answered from local memory and no other infrastructure
+ *   than Kafka is needed.
+ * The claims are only held locally, as the changelog cannot place them atomically: they are exclusive within this instance,
+ *   whereas the records of a partition are only consumed by one instance at a time anyway.
+ */
+public class KafkaChangelogRecordIdempotencyLookup implements RecordIdempotencyLookup {
+
+    private final KafkaChangelogStore store;
+
+    /**
+     * Expiry of the leases of the claims (in nanoseconds of {@link System#nanoTime()}).
+     */
+    private final Map<RecordIdentity, Long> claims = new ConcurrentHashMap<>();
+
+    public KafkaChangelogRecordIdempotencyLookup(final KafkaChangelogStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public boolean isLogged(final RecordIdentity id) {
+        return store.contains(id);
+    }
+
+    @Override
+    public void log(final RecordIdentity id, final Duration ttl) {
+        store.add(id, ttl);
+        claims.remove(id);
+    }
+
+    @Override
+    public boolean claim(final RecordIdentity id, final Duration lease) {
+        if (store.contains(id)) {
+            return false;
+        }
+        final var now = System.nanoTime();
+        final var expiresAt = now + lease.toNanos();
+        return claims.compute(id, (claimed, current) -> current == null || current - now <= 0 ? expiresAt : current) == expiresAt;
+    }
+
+    @Override
+    public void release(final RecordIdentity id) {
+        claims.remove(id);
+    }
+
+    @Override
+    public void flush() {
+        store.flush();
+    }
+}
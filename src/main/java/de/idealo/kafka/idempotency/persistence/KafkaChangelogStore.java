@@ -0,0 +1,306 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.config.TopicConfig;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.idealo.kafka.idempotency.IdempotencyCheckException;
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Persistence of the markers in a compacted Kafka topic (the changelog), materialized in the memory of every instance.
+ * A marker is a record keyed by the identity, whose value is the expiry (epoch millis, 8 bytes); a tombstone removes it.
+ *   Markers of positional identities are written to the changelog partition of their source partition (modulo the number
+ *   of changelog partitions), the other ones are spread by the hash of the identity.
+ * The markers are added to the local state at once and sent in the background by a batching producer; {@link #flush()} waits
+ *   until they have been acknowledged. A background consumer restores the whole changelog at startup and keeps following it,
+ *   so the markers written by the other instances of the consumer group become visible as well. The lookups wait until the
+ *   restoration has completed, as they could not recognize any duplicate before. If the consumer fails, the lookups and the
+ *   flushes fail from then on, since the markers of the other instances would silently be missing.
+ * The TTL is enforced locally (expired markers are ignored and evicted periodically) and by the retention of the topic: it is
+ *   created with cleanup.policy=compact,delete, so the broker drops the segments older than the retention.
+ */
+public class KafkaChangelogStore implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KafkaChangelogStore.class);
+
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(100);
+
+    private static final long EVICTION_INTERVAL_MILLIS = 60_000;
+
+    private final String topic;
+
+    private final KafkaProducer<byte[], byte[]> producer;
+
+    private final KafkaConsumer<byte[], byte[]> consumer;
+
+    private final int partitions;
+
+    private final Duration restoreTimeout;
+
+    private final Map<RecordIdentity, Long> markers = new ConcurrentHashMap<>();
+
+    private final CountDownLatch restored = new CountDownLatch(1);
+
+    private final AtomicReference<Exception> sendError = new AtomicReference<>();
+
+    private volatile Throwable followError;
+
+    private final Thread follower;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param configs common client configs, e.g. bootstrap servers and security
+     * @param topic name of the changelog topic, created if missing
+     * @param partitions number of partitions of a newly created changelog
+     * @param replicationFactor replication factor of a newly created changelog
+     * @param retention retention of a newly created changelog, at least the longest TTL
+     * @param linger time the producer waits for more markers to batch
+     * @param restoreTimeout maximum time a lookup waits for the restoration
+     */
+    public KafkaChangelogStore(final Map<String, Object> configs, final String topic, final int partitions, final short replicationFactor,
+            final Duration retention, final Duration linger, final Duration restoreTimeout) {
+        this.topic = topic;
+        this.restoreTimeout = restoreTimeout;
+        createTopic(configs, partitions, replicationFactor, retention);
+
+        final Map<String, Object> producerConfigs = new HashMap<>(configs);
+        producerConfigs.put(ProducerConfig.ACKS_CONFIG, "all");
+        producerConfigs.put(ProducerConfig.LINGER_MS_CONFIG, (int) linger.toMillis());
+        producerConfigs.put(ProducerConfig.CLIENT_ID_CONFIG, topic + "-producer");
+        this.producer = new KafkaProducer<>(producerConfigs, new ByteArraySerializer(), new ByteArraySerializer());
+        this.partitions = producer.partitionsFor(topic).size();
+
+        final Map<String, Object> consumerConfigs = new HashMap<>(configs);
+        consumerConfigs.remove(ConsumerConfig.GROUP_ID_CONFIG);
+        consumerConfigs.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        consumerConfigs.put(ConsumerConfig.CLIENT_ID_CONFIG, topic + "-consumer");
+        this.consumer = new KafkaConsumer<>(consumerConfigs, new ByteArrayDeserializer(), new ByteArrayDeserializer());
+
+        this.follower = new Thread(this::follow, "idempotency-changelog");
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    /**
+     * @param id
+     * @return true if the marker is known and has not expired
+     * @throws IllegalStateException if the changelog is not followed anymore
+     */
+    public boolean contains(final RecordIdentity id) {
+        awaitRestored();
+        checkFollowing();
+        final var expiresAt = markers.get(id);
+        return expiresAt != null && expiresAt > System.currentTimeMillis();
+    }
+
+    /**
+     * Adds the marker locally and sends it to the changelog in the background.
+     * @param id
+     * @param ttl
+     */
+    public void add(final RecordIdentity id, final Duration ttl) {
+        final var expiresAt = System.currentTimeMillis() + ttl.toMillis();
+        markers.merge(id, expiresAt, Math::max);
+        send(id, ByteBuffer.allocate(Long.BYTES).putLong(expiresAt).array());
+    }
+
+    /**
+     * Removes the marker locally and writes a tombstone to the changelog.
+     * @param id
+     */
+    public void remove(final RecordIdentity id) {
+        markers.remove(id);
+        send(id, null);
+    }
+
+    /**
+     * Waits until the markers sent so far have been acknowledged.
+     * @throws IllegalStateException if any of them could not be written, or if the changelog is not followed anymore
+     */
+    public void flush() {
+        checkFollowing();
+        producer.flush();
+        final var error = sendError.getAndSet(null);
+        if (error != null) {
+            throw new IllegalStateException("Could not write idempotency markers to the changelog " + topic, error);
+        }
+    }
+
+    /**
+     * @return number of markers held locally, including the expired ones which have not been evicted yet
+     */
+    public int size() {
+        return markers.size();
+    }
+
+    /**
+     * @return true once the changelog has been restored
+     */
+    public boolean isRestored() {
+        return restored.getCount() == 0 && followError == null;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        consumer.wakeup();
+        try {
+            follower.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        producer.close(Duration.ofSeconds(10));
+    }
+
+    private void send(final RecordIdentity id, final byte[] value) {
+        final var key = id.getBytes();
+        producer.send(new ProducerRecord<>(topic, partitionOf(id, key), key, value), (metadata, e) -> {
+            if (e != null) {
+                sendError.compareAndSet(null, e);
+                LOG.warn("Could not write an idempotency marker to the changelog {}", topic, e);
+            }
+        });
+    }
+
+    private int partitionOf(final RecordIdentity id, final byte[] key) {
+        final var position = id.getPosition();
+        return position != null ? position.getPartition() % partitions : Utils.toPositive(Utils.murmur2(key)) % partitions;
+    }
+
+    private void checkFollowing() {
+        final var error = followError;
+        if (error != null) {
+            throw new IllegalStateException("The idempotency changelog " + topic + " is not followed anymore", error);
+        }
+    }
+
+    private void awaitRestored() {
+        try {
+            if (!restored.await(restoreTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("The idempotency changelog " + topic + " has not been restored within " + restoreTimeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the idempotency changelog " + topic, e);
+        }
+    }
+
+    private void follow() {
+        try {
+            final List<TopicPartition> topicPartitions = new ArrayList<>(partitions);
+            for (int i = 0; i < partitions; i++) {
+                topicPartitions.add(new TopicPartition(topic, i));
+            }
+            consumer.assign(topicPartitions);
+            consumer.seekToBeginning(topicPartitions);
+            final var endOffsets = consumer.endOffsets(topicPartitions);
+            final var started = System.nanoTime();
+            var evicted = System.currentTimeMillis();
+            while (running) {
+                for (final var record : consumer.poll(POLL_TIMEOUT)) {
+                    apply(record);
+                }
+                if (!isRestored() && isCaughtUp(endOffsets)) {
+                    restored.countDown();
+                    LOG.info("Restored {} idempotency markers from the changelog {} in {} ms", markers.size(), topic,
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                }
+                final var now = System.currentTimeMillis();
+                if (now - evicted >= EVICTION_INTERVAL_MILLIS) {
+                    markers.values().removeIf(expiresAt -> expiresAt <= now);
+                    evicted = now;
+                }
+            }
+        } catch (WakeupException e) {
+            // closed
+        } catch (Throwable e) { // NOSONAR
+            followError = e;
+            LOG.error("Stopped following the idempotency changelog {}", topic, e);
+        } finally {
+            // releases the lookups waiting for the restoration
+            restored.countDown();
+            consumer.close(Duration.ofSeconds(5));
+        }
+    }
+
+    private void apply(final ConsumerRecord<byte[], byte[]> record) {
+        if (record.key() == null || record.key().length == 0) {
+            return;
+        }
+        final var id = identityOf(record.key());
+        if (record.value() == null) {
+            markers.remove(id);
+            return;
+        }
+        final var expiresAt = ByteBuffer.wrap(record.value()).getLong();
+        if (expiresAt > System.currentTimeMillis()) {
+            markers.merge(id, expiresAt, Math::max);
+        }
+    }
+
+    private boolean isCaughtUp(final Map<TopicPartition, Long> endOffsets) {
+        for (final var endOffset : endOffsets.entrySet()) {
+            if (consumer.position(endOffset.getKey()) < endOffset.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void createTopic(final Map<String, Object> configs, final int partitions, final short replicationFactor, final Duration retention) {
+        final var newTopic = new NewTopic(topic, partitions, replicationFactor).configs(Map.of(
+                TopicConfig.CLEANUP_POLICY_CONFIG, TopicConfig.CLEANUP_POLICY_COMPACT + "," + TopicConfig.CLEANUP_POLICY_DELETE,
+                TopicConfig.RETENTION_MS_CONFIG, String.valueOf(retention.toMillis())));
+        try (var admin = AdminClient.create(configs)) {
+            admin.createTopics(List.of(newTopic)).all().get(30, TimeUnit.SECONDS);
+            LOG.info("Created the idempotency changelog {} with {} partitions", topic, partitions);
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof TopicExistsException)) {
+                throw new IllegalStateException("Could not create the idempotency changelog " + topic, e.getCause());
+            }
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Could not create the idempotency changelog " + topic, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while creating the idempotency changelog " + topic, e);
+        }
+    }
+
+    private static RecordIdentity identityOf(final byte[] key) {
+        try {
+            return RecordIdentity.of(key, null);
+        } catch (IdempotencyCheckException e) {
+            // empty keys are skipped
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Bounded in-process store of idempotency markers.
+ * Every marker expires after the TTL it was put with. When the store is full, the least recently used markers are evicted.
+ * In order to keep the contention low the store is split into independently locked stripes, each of them maintaining its own
+ *   LRU order. The maximum size is spread over the stripes, so that together they hold exactly that many markers; a store smaller
+ *   than {@value #STRIPES} markers has fewer stripes.
+ */
+public class LocalMarkerCache {
+
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxSize maximum number of markers held in the cache
+     */
+    public LocalMarkerCache(final int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The size of the local marker cache must be positive");
+        }
+        // a power of two, so that the stripe of an identity is selected by a mask
+        stripes = new Stripe[Math.min(STRIPES, Integer.highestOneBit(maxSize))];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(maxSize / stripes.length + (i < maxSize % stripes.length ? 1 : 0));
+        }
+    }
+
+    /**
+     * Checks if there is a non-expired marker for the given identity. Counts a hit or a miss.
+     * @param id
+     * @return
+     */
+    public boolean contains(final RecordIdentity id) {
+        if (stripeOf(id).contains(id, System.currentTimeMillis())) {
+            hits.increment();
+            return true;
+        }
+        misses.increment();
+        return false;
+    }
+
+    /**
+     * Puts a marker which expires after the given TTL.
+     * @param id
+     * @param ttl
+     */
+    public void put(final RecordIdentity id, final Duration ttl) {
+        putUntil(id, System.currentTimeMillis() + ttl.toMillis());
+    }
+
+    /**
+     * Puts a marker which expires at the given point of time.
+     * @param id
+     * @param expiresAt epoch millis
+     */
+    public void putUntil(final RecordIdentity id, final long expiresAt) {
+        stripeOf(id).put(id, expiresAt);
+    }
+
+    public void remove(final RecordIdentity id) {
+        stripeOf(id).remove(id);
+    }
+
+    /**
+     * Removes all the markers whose identity matches the filter, e.g. the ones of revoked partitions.
+     * @param filter
+     * @return number of removed markers
+     */
+    public int removeIf(final Predicate<RecordIdentity> filter) {
+        int removed = 0;
+        for (final var stripe : stripes) {
+            removed += stripe.removeIf(filter);
+        }
+        return removed;
+    }
+
+    /**
+     * @return number of markers currently held, including the expired ones which have not been evicted yet
+     */
+    public long size() {
+        long size = 0;
+        for (final var stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    private Stripe stripeOf(final RecordIdentity id) {
+        final var hash = id.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static class Stripe {
+
+        private final Map<RecordIdentity, Long> markers;
+
+        Stripe(final int maxSize) {
+            this.markers = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<RecordIdentity, Long> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        synchronized boolean contains(final RecordIdentity id, final long now) {
+            final var expiresAt = markers.get(id);
+            if (expiresAt == null) {
+                return false;
+            }
+            if (expiresAt <= now) {
+                markers.remove(id);
+                return false;
+            }
+            return true;
+        }
+
+        synchronized void put(final RecordIdentity id, final long expiresAt) {
+            markers.put(id, expiresAt);
+        }
+
+        synchronized void remove(final RecordIdentity id) {
+            markers.remove(id);
+        }
+
+        synchronized int removeIf(final Predicate<RecordIdentity> filter) {
+            final var size = markers.size();
+            markers.keySet().removeIf(filter);
+            return size - markers.size();
+        }
+
+        synchronized int size() {
+            return markers.size();
+        }
+    }
+}
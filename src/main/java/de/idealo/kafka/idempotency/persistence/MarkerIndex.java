@@ -0,0 +1,171 @@
+package de.idealo.kafka.idempotency.persistence;
+
+/**
+ * Compact in-memory hash index of markers, mapping 128-bit record digests to their expiry.
+ * It is an open-addressing table with linear probing over primitive arrays, so an entry takes 20 bytes (plus the free
+ *   slots) and no object at all. The expiry is held in seconds relative to {@link #EPOCH_SECONDS}, 0 stands for a free slot.
+ * The index is not thread-safe.
+ */
+public class MarkerIndex {
+
+    /**
+     * 2020-01-01T00:00:00Z, so that an int holds expiries until the year 2088.
+     */
+    public static final long EPOCH_SECONDS = 1_577_836_800L;
+
+    private static final double MAX_LOAD = 0.75;
+
+    /**
+     * Largest number of slots, limited by the maximum size of the digest array.
+     */
+    private static final int MAX_CAPACITY = 1 << 29;
+
+    /**
+     * Pairs of the high and the low half of the digests.
+     */
+    private long[] digests;
+
+    private int[] expiries;
+
+    private int mask;
+
+    private int size;
+
+    /**
+     * @param expectedSize number of entries the index is sized for initially; it grows on demand
+     */
+    public MarkerIndex(final int expectedSize) {
+        allocate(Math.max(16, Integer.highestOneBit((int) Math.min(MAX_CAPACITY / 2, expectedSize / MAX_LOAD)) << 1));
+    }
+
+    /**
+     * Converts epoch millis to the expiry representation of the index, rounding up.
+     * @param epochMillis
+     * @return
+     */
+    public static int toExpiry(final long epochMillis) {
+        return (int) Math.max(1, (epochMillis + 999) / 1000 - EPOCH_SECONDS);
+    }
+
+    /**
+     * @param high
+     * @param low
+     * @return the expiry of the digest or 0 if it is not indexed
+     */
+    public int get(final long high, final long low) {
+        for (int slot = slotOf(high, low); ; slot = (slot + 1) & mask) {
+            final var expiry = expiries[slot];
+            if (expiry == 0) {
+                return 0;
+            }
+            if (digests[2 * slot] == high && digests[2 * slot + 1] == low) {
+                return expiry;
+            }
+        }
+    }
+
+    /**
+     * Indexes the digest, keeping the later expiry if it is indexed already.
+     * @param high
+     * @param low
+     * @param expiry positive expiry (see {@link #toExpiry(long)})
+     */
+    public void put(final long high, final long low, final int expiry) {
+        if (size + 1 > MAX_LOAD * expiries.length) {
+            grow();
+        }
+        for (int slot = slotOf(high, low); ; slot = (slot + 1) & mask) {
+            if (expiries[slot] == 0) {
+                digests[2 * slot] = high;
+                digests[2 * slot + 1] = low;
+                expiries[slot] = expiry;
+                size++;
+                return;
+            }
+            if (digests[2 * slot] == high && digests[2 * slot + 1] == low) {
+                expiries[slot] = Math.max(expiries[slot], expiry);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the digest unless it has been indexed with a later expiry.
+     * @param high
+     * @param low
+     * @param expiry
+     * @return true if the digest has been removed
+     */
+    public boolean removeIfNotAfter(final long high, final long low, final int expiry) {
+        for (int slot = slotOf(high, low); ; slot = (slot + 1) & mask) {
+            if (expiries[slot] == 0) {
+                return false;
+            }
+            if (digests[2 * slot] == high && digests[2 * slot + 1] == low) {
+                if (expiries[slot] > expiry) {
+                    return false;
+                }
+                delete(slot);
+                return true;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of slots, i.e. the capacity including the free slots.
+     * @return
+     */
+    public int capacity() {
+        return expiries.length;
+    }
+
+    /**
+     * Frees the slot, shifting the following entries of the probe sequence back so that no tombstone is needed.
+     * @param slot
+     */
+    private void delete(final int slot) {
+        var free = slot;
+        for (int next = (free + 1) & mask; expiries[next] != 0; next = (next + 1) & mask) {
+            final var home = slotOf(digests[2 * next], digests[2 * next + 1]);
+            // move the entry unless its home lies cyclically within (free, next]
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                digests[2 * free] = digests[2 * next];
+                digests[2 * free + 1] = digests[2 * next + 1];
+                expiries[free] = expiries[next];
+                free = next;
+            }
+        }
+        expiries[free] = 0;
+        size--;
+    }
+
+    private void grow() {
+        if (expiries.length == MAX_CAPACITY) {
+            throw new IllegalStateException("The marker index cannot hold more than " + (int) (MAX_LOAD * MAX_CAPACITY) + " entries");
+        }
+        final var oldDigests = digests;
+        final var oldExpiries = expiries;
+        allocate(oldExpiries.length << 1);
+        for (int slot = 0; slot < oldExpiries.length; slot++) {
+            if (oldExpiries[slot] != 0) {
+                put(oldDigests[2 * slot], oldDigests[2 * slot + 1], oldExpiries[slot]);
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        digests = new long[2 * capacity];
+        expiries = new int[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private int slotOf(final long high, final long low) {
+        final var hash = low ^ (high >>> 29);
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
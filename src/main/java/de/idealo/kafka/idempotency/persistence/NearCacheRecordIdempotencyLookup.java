@@ -0,0 +1,110 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Decorates any {@link RecordIdempotencyLookup} with a {@link LocalMarkerCache}.
+ * A marker found in the local cache skips the round-trip to the underlying lookup completely. The local cache is only populated
+ *   by the markers logged by this instance, so a local miss always falls through to the underlying lookup.
+ */
+public class NearCacheRecordIdempotencyLookup implements RecordIdempotencyLookup {
+
+    private final RecordIdempotencyLookup delegate;
+    private final LocalMarkerCache cache;
+
+    public NearCacheRecordIdempotencyLookup(final RecordIdempotencyLookup delegate, final LocalMarkerCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public boolean isLogged(final RecordIdentity id) {
+        return cache.contains(id) || delegate.isLogged(id);
+    }
+
+    @Override
+    public void log(final RecordIdentity id, final Duration ttl) {
+        delegate.log(id, ttl);
+        cache.put(id, ttl);
+    }
+
+    @Override
+    public List<Boolean> areLogged(final List<RecordIdentity> ids) {
+        final List<Boolean> logged = new ArrayList<>(ids.size());
+        final List<RecordIdentity> misses = new ArrayList<>();
+        for (final var id : ids) {
+            final var hit = cache.contains(id);
+            logged.add(hit);
+            if (!hit) {
+                misses.add(id);
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            final var remote = delegate.areLogged(misses);
+            int n = 0;
+            for (int i = 0; i < logged.size(); i++) {
+                if (!logged.get(i)) {
+                    logged.set(i, remote.get(n++));
+                }
+            }
+        }
+        return logged;
+    }
+
+    @Override
+    public void logAll(final List<RecordIdentity> ids, final Duration ttl) {
+        delegate.logAll(ids, ttl);
+        for (final var id : ids) {
+            cache.put(id, ttl);
+        }
+    }
+
+    @Override
+    public boolean claim(final RecordIdentity id, final Duration lease) {
+        return !cache.contains(id) && delegate.claim(id, lease);
+    }
+
+    @Override
+    public List<Boolean> claimAll(final List<RecordIdentity> ids, final Duration lease) {
+        final List<Boolean> claimed = new ArrayList<>(ids.size());
+        final List<RecordIdentity> misses = new ArrayList<>();
+        for (final var id : ids) {
+            final var hit = cache.contains(id);
+            claimed.add(!hit);
+            if (!hit) {
+                misses.add(id);
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            final var remote = delegate.claimAll(misses, lease);
+            int n = 0;
+            for (int i = 0; i < claimed.size(); i++) {
+                if (claimed.get(i)) {
+                    claimed.set(i, remote.get(n++));
+                }
+            }
+        }
+        return claimed;
+    }
+
+    @Override
+    public void release(final RecordIdentity id) {
+        delegate.release(id);
+    }
+
+    @Override
+    public void releaseAll(final List<RecordIdentity> ids) {
+        delegate.releaseAll(ids);
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+}
@@ -0,0 +1,286 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded hash table of markers outside the heap, mapping 128-bit keys to their expiry.
+ * Like {@link MarkerIndex} it is an open-addressing table with linear probing, but its slots (20 bytes each) live in
+ *   direct buffers, allocated once for the maximum number of entries: the table neither grows nor creates any object
+ *   per entry, so it adds nothing to the heap and to the work of the garbage collector.
+ * The table is split into stripes with their own lock. Expired entries are removed incrementally: every insertion sweeps
+ *   a few slots of its stripe. If a stripe is full anyway, the insertion evicts an entry before its expiry (see
+ *   {@link #getEvictedCount()}), so the maximum number of entries has to cover all the markers within the TTL.
+ * The expiries are represented like in {@link MarkerIndex}.
+ */
+public class OffHeapMarkerTable {
+
+    /**
+     * High and low half of the key (16 bytes) and expiry (4 bytes).
+     */
+    private static final int ENTRY_LENGTH = 20;
+
+    private static final double MAX_LOAD = 0.75;
+
+    /**
+     * Largest number of slots of a stripe, limited by the maximum size of a buffer.
+     */
+    private static final int MAX_STRIPE_CAPACITY = 1 << 26;
+
+    private static final int MAX_STRIPES = 64;
+
+    private static final int MIN_STRIPE_CAPACITY = 1 << 10;
+
+    /**
+     * Number of slots swept by every insertion.
+     */
+    private static final int SWEEP_STEP = 4;
+
+    /**
+     * Number of slots swept for an expired entry before an entry is evicted from a full stripe.
+     */
+    private static final int MAX_SWEEP = 1024;
+
+    private final Stripe[] stripes;
+
+    private final int stripeShift;
+
+    private final LongAdder evictedCount = new LongAdder();
+
+    /**
+     * @param maxEntries maximum number of entries, determining the off-heap memory of 27 to 54 bytes per entry
+     *  (the number of slots is a power of two)
+     */
+    public OffHeapMarkerTable(final long maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The maximum number of entries must be positive");
+        }
+        final var capacity = Math.max(MIN_STRIPE_CAPACITY, Long.highestOneBit((long) Math.ceil(maxEntries / MAX_LOAD) - 1) << 1);
+        final var stripeCount = (int) Math.min(MAX_STRIPES, capacity / MIN_STRIPE_CAPACITY);
+        if (capacity / stripeCount > MAX_STRIPE_CAPACITY) {
+            throw new IllegalArgumentException("The off-heap table cannot hold " + maxEntries + " entries");
+        }
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe((int) (capacity / stripeCount));
+        }
+        this.stripeShift = 64 - Integer.numberOfTrailingZeros(stripeCount);
+    }
+
+    /**
+     * @param high
+     * @param low
+     * @param now current time (see {@link MarkerIndex#toExpiry(long)}, but rounded down)
+     * @return true if the key is in the table and has not expired
+     */
+    public boolean contains(final long high, final long low, final int now) {
+        final var hash = hash(high, low);
+        return stripeOf(hash).contains(hash, high, low, now);
+    }
+
+    /**
+     * Puts the key into the table, keeping the later expiry if it is there already.
+     * @param high
+     * @param low
+     * @param expiry positive expiry (see {@link MarkerIndex#toExpiry(long)})
+     * @param now current time (see {@link MarkerIndex#toExpiry(long)}, but rounded down)
+     */
+    public void put(final long high, final long low, final int expiry, final int now) {
+        final var hash = hash(high, low);
+        stripeOf(hash).put(hash, high, low, expiry, now);
+    }
+
+    /**
+     * Gets the number of entries, including the expired ones which have not been swept yet.
+     * @return
+     */
+    public long size() {
+        long size = 0;
+        for (final var stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    /**
+     * Gets the number of slots, i.e. the capacity including the free slots.
+     * @return
+     */
+    public long capacity() {
+        return (long) stripes.length * stripes[0].capacity;
+    }
+
+    /**
+     * Gets the number of entries evicted before their expiry because their stripe was full.
+     * @return
+     */
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    private Stripe stripeOf(final long hash) {
+        return stripes[stripeShift == 64 ? 0 : (int) (hash >>> stripeShift)];
+    }
+
+    /**
+     * Mixes both halves of the key (the finalizer of MurmurHash3), as a half may be a plain sequence, e.g. of offsets.
+     */
+    private static long hash(final long high, final long low) {
+        var hash = low ^ Long.rotateLeft(high, 32);
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private class Stripe {
+
+        private final ByteBuffer slots;
+
+        private final int capacity;
+
+        private final int mask;
+
+        private final int maxSize;
+
+        private int size;
+
+        /**
+         * Next slot to be swept.
+         */
+        private int cursor;
+
+        private Stripe(final int capacity) {
+            this.slots = ByteBuffer.allocateDirect(capacity * ENTRY_LENGTH).order(ByteOrder.nativeOrder());
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.maxSize = (int) (capacity * MAX_LOAD);
+        }
+
+        private synchronized boolean contains(final long hash, final long high, final long low, final int now) {
+            for (int slot = home(hash); ; slot = (slot + 1) & mask) {
+                final var expiry = expiry(slot);
+                if (expiry == 0) {
+                    return false;
+                }
+                if (high(slot) == high && low(slot) == low) {
+                    return expiry > now;
+                }
+            }
+        }
+
+        private synchronized void put(final long hash, final long high, final long low, final int expiry, final int now) {
+            sweep(SWEEP_STEP, now);
+            if (size >= maxSize) {
+                if (update(hash, high, low, expiry)) {
+                    return;
+                }
+                makeRoom(now);
+            }
+            for (int slot = home(hash); ; slot = (slot + 1) & mask) {
+                final var existing = expiry(slot);
+                if (existing == 0) {
+                    slots.putLong(slot * ENTRY_LENGTH, high);
+                    slots.putLong(slot * ENTRY_LENGTH + 8, low);
+                    slots.putInt(slot * ENTRY_LENGTH + 16, expiry);
+                    size++;
+                    return;
+                }
+                if (high(slot) == high && low(slot) == low) {
+                    slots.putInt(slot * ENTRY_LENGTH + 16, Math.max(existing, expiry));
+                    return;
+                }
+            }
+        }
+
+        private synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Updates the expiry if the key is in the stripe already.
+         * @return true if the key has been found
+         */
+        private boolean update(final long hash, final long high, final long low, final int expiry) {
+            for (int slot = home(hash); ; slot = (slot + 1) & mask) {
+                final var existing = expiry(slot);
+                if (existing == 0) {
+                    return false;
+                }
+                if (high(slot) == high && low(slot) == low) {
+                    slots.putInt(slot * ENTRY_LENGTH + 16, Math.max(existing, expiry));
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Removes the expired entries among the next slots.
+         */
+        private void sweep(final int steps, final int now) {
+            for (int i = 0; i < steps; i++) {
+                final var expiry = expiry(cursor);
+                if (expiry != 0 && expiry <= now) {
+                    // the slot may be taken by a shifted entry, so it is swept again
+                    delete(cursor);
+                } else {
+                    cursor = (cursor + 1) & mask;
+                }
+            }
+        }
+
+        /**
+         * Frees a slot of the full stripe, evicting an entry which has not expired if no expired one is found nearby.
+         */
+        private void makeRoom(final int now) {
+            for (int i = 0; i < MAX_SWEEP; i++) {
+                final var expiry = expiry(cursor);
+                if (expiry != 0 && expiry <= now) {
+                    delete(cursor);
+                    return;
+                }
+                cursor = (cursor + 1) & mask;
+            }
+            while (expiry(cursor) == 0) {
+                cursor = (cursor + 1) & mask;
+            }
+            delete(cursor);
+            evictedCount.increment();
+        }
+
+        /**
+         * Frees the slot, shifting the following entries of the probe sequence back so that no tombstone is needed.
+         */
+        private void delete(final int slot) {
+            var free = slot;
+            for (int next = (free + 1) & mask; expiry(next) != 0; next = (next + 1) & mask) {
+                final var home = home(hash(high(next), low(next)));
+                // move the entry unless its home lies cyclically within (free, next]
+                if (((next - home) & mask) >= ((next - free) & mask)) {
+                    slots.putLong(free * ENTRY_LENGTH, high(next));
+                    slots.putLong(free * ENTRY_LENGTH + 8, low(next));
+                    slots.putInt(free * ENTRY_LENGTH + 16, expiry(next));
+                    free = next;
+                }
+            }
+            slots.putInt(free * ENTRY_LENGTH + 16, 0);
+            size--;
+        }
+
+        private int home(final long hash) {
+            return (int) hash & mask;
+        }
+
+        private long high(final int slot) {
+            return slots.getLong(slot * ENTRY_LENGTH);
+        }
+
+        private long low(final int slot) {
+            return slots.getLong(slot * ENTRY_LENGTH + 8);
+        }
+
+        private int expiry(final int slot) {
+            return slots.getInt(slot * ENTRY_LENGTH + 16);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.time.Duration;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * In-memory lookup keeping the markers in an {@link OffHeapMarkerTable}, without any string or object per marker.
+ * An identity with a known position (see {@link RecordIdentity#getPosition()}) is keyed by its numeric components:
+ *   a 64-bit hash of the topic and the partition as the high half of the key, the offset itself as the low half.
+ *   Any other identity is keyed by a 128-bit hash of its bytes, so that it is neither decoded nor confused with another
+ *   binary identity which is not valid UTF-8.
+ * The markers are neither persistent nor shared: they are lost on restart and only known to this instance, e.g. for
+ *   consumers whose duplicates come from redeliveries within the same process. Claims are not atomic.
+ */
+public class OffHeapRecordIdempotencyLookup implements RecordIdempotencyLookup {
+
+    private static final long SEED_HIGH = 0x9e3779b97f4a7c15L;
+
+    private static final long SEED_LOW = 0xc2b2ae3d27d4eb4fL;
+
+    private static final long PRIME = 0x100000001b3L;
+
+    private final OffHeapMarkerTable table;
+
+    public OffHeapRecordIdempotencyLookup(final OffHeapMarkerTable table) {
+        this.table = table;
+    }
+
+    @Override
+    public boolean isLogged(final RecordIdentity id) {
+        return table.contains(high(id), low(id), now());
+    }
+
+    @Override
+    public void log(final RecordIdentity id, final Duration ttl) {
+        final var millis = System.currentTimeMillis();
+        table.put(high(id), low(id), MarkerIndex.toExpiry(millis + ttl.toMillis()), (int) (millis / 1000 - MarkerIndex.EPOCH_SECONDS));
+    }
+
+    public OffHeapMarkerTable getTable() {
+        return table;
+    }
+
+    private static int now() {
+        return (int) (System.currentTimeMillis() / 1000 - MarkerIndex.EPOCH_SECONDS);
+    }
+
+    private static long high(final RecordIdentity id) {
+        final var position = id.getPosition();
+        if (position != null) {
+            // an odd multiplier keeps the partitions of a topic apart
+            return mix(hash(position.getTopic(), SEED_HIGH) ^ (position.getPartition() * SEED_LOW));
+        }
+        return mix(hash(id.getBytes(), SEED_HIGH));
+    }
+
+    private static long low(final RecordIdentity id) {
+        final var position = id.getPosition();
+        return position != null ? position.getOffset() : mix(hash(id.getBytes(), SEED_LOW));
+    }
+
+    /**
+     * FNV-1a over the characters, started with the seed.
+     */
+    private static long hash(final String value, final long seed) {
+        var hash = seed;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * FNV-1a over the bytes, started with the seed.
+     */
+    private static long hash(final byte[] value, final long seed) {
+        var hash = seed;
+        for (final var b : value) {
+            hash = (hash ^ (b & 0xff)) * PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Finalizer of MurmurHash3, a bijection spreading every input bit over the whole hash.
+     */
+    private static long mix(final long value) {
+        var hash = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,117 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.RecordPosition;
+
+/**
+ * Stores the identities consisting of topic, partition and offset (see {@link RecordIdentity#getPosition()}) in
+ *   a {@link RedisOffsetRangeStore}, all other identities are passed over to the decorated lookup.
+ * Note that claims of such records are not atomic: they are only looked up.
+ */
+public class OffsetRangeRecordIdempotencyLookup implements RecordIdempotencyLookup {
+
+    private final RedisOffsetRangeStore store;
+    private final RecordIdempotencyLookup delegate;
+
+    public OffsetRangeRecordIdempotencyLookup(final RedisOffsetRangeStore store, final RecordIdempotencyLookup delegate) {
+        this.store = store;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean isLogged(final RecordIdentity id) {
+        final var position = id.getPosition();
+        return position != null ? store.contains(position) : delegate.isLogged(id);
+    }
+
+    @Override
+    public void log(final RecordIdentity id, final Duration ttl) {
+        final var position = id.getPosition();
+        if (position != null) {
+            store.add(position, ttl);
+        } else {
+            delegate.log(id, ttl);
+        }
+    }
+
+    @Override
+    public List<Boolean> areLogged(final List<RecordIdentity> ids) {
+        final var split = new Split(ids);
+        final List<Boolean> logged = new ArrayList<>(ids.size());
+        final var fromStore = split.positions.isEmpty() ? List.<Boolean>of() : store.containsAll(split.positions);
+        final var fromDelegate = split.others.isEmpty() ? List.<Boolean>of() : delegate.areLogged(split.others);
+        int p = 0;
+        int o = 0;
+        for (final var id : ids) {
+            logged.add(id.getPosition() != null ? fromStore.get(p++) : fromDelegate.get(o++));
+        }
+        return logged;
+    }
+
+    @Override
+    public void logAll(final List<RecordIdentity> ids, final Duration ttl) {
+        final var split = new Split(ids);
+        for (final var position : split.positions) {
+            store.add(position, ttl);
+        }
+        if (!split.others.isEmpty()) {
+            delegate.logAll(split.others, ttl);
+        }
+    }
+
+    @Override
+    public boolean claim(final RecordIdentity id, final Duration lease) {
+        final var position = id.getPosition();
+        return position != null ? !store.contains(position) : delegate.claim(id, lease);
+    }
+
+    @Override
+    public List<Boolean> claimAll(final List<RecordIdentity> ids, final Duration lease) {
+        final var split = new Split(ids);
+        final List<Boolean> claimed = new ArrayList<>(ids.size());
+        final var fromStore = split.positions.isEmpty() ? List.<Boolean>of() : store.containsAll(split.positions);
+        final var fromDelegate = split.others.isEmpty() ? List.<Boolean>of() : delegate.claimAll(split.others, lease);
+        int p = 0;
+        int o = 0;
+        for (final var id : ids) {
+            claimed.add(id.getPosition() != null ? !fromStore.get(p++) : fromDelegate.get(o++));
+        }
+        return claimed;
+    }
+
+    @Override
+    public void release(final RecordIdentity id) {
+        if (id.getPosition() == null) {
+            delegate.release(id);
+        }
+    }
+
+    @Override
+    public void flush() {
+        store.flush();
+        delegate.flush();
+    }
+
+    /**
+     * Identities of a batch split into the positional ones and the rest.
+     */
+    private static class Split {
+
+        private final List<RecordPosition> positions = new ArrayList<>();
+        private final List<RecordIdentity> others = new ArrayList<>();
+
+        Split(final List<RecordIdentity> ids) {
+            for (final var id : ids) {
+                if (id.getPosition() != null) {
+                    positions.add(id.getPosition());
+                } else {
+                    others.add(id);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+/**
+ * Runs a Lua script by its SHA1 (EVALSHA) several times within one pipelined round-trip, which
+ *   {@link RedisOperations#execute(RedisScript, List, Object[])} cannot do. If Redis does not know the script (yet, or anymore
+ *   after a restart), it is loaded and the pipeline is run again. As the calls before the failed one may have been executed
+ *   already, only scripts which can be run twice with the same outcome may be used, such as merging offset bits (BITOP OR),
+ *   setting Bloom filter bits, promoting claims or writing markers whose expiry is only ever extended.
+ */
+final class PipelinedScripts {
+
+    private PipelinedScripts() {
+    }
+
+    /**
+     * @param template
+     * @param script
+     * @param numKeys number of keys at the beginning of the keys and arguments of every call
+     * @param keysAndArgs keys and arguments of every call
+     * @return results of the calls, in the same order
+     */
+    static List<Object> execute(final RedisOperations<?, ?> template, final RedisScript<?> script, final int numKeys,
+            final List<byte[][]> keysAndArgs) {
+        try {
+            return evalSha(template, script, numKeys, keysAndArgs);
+        } catch (RuntimeException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            template.execute((RedisCallback<String>) connection ->
+                    connection.scriptingCommands().scriptLoad(script.getScriptAsString().getBytes(StandardCharsets.UTF_8)));
+            return evalSha(template, script, numKeys, keysAndArgs);
+        }
+    }
+
+    private static List<Object> evalSha(final RedisOperations<?, ?> template, final RedisScript<?> script, final int numKeys,
+            final List<byte[][]> keysAndArgs) {
+        final var returnType = ReturnType.fromJavaType(script.getResultType());
+        return template.executePipelined((RedisCallback<Object>) connection -> {
+            for (final var call : keysAndArgs) {
+                connection.scriptingCommands().evalSha(script.getSha1(), returnType, numKeys, call);
+            }
+            return null;
+        });
+    }
+
+    private static boolean isNoScript(final Throwable e) {
+        for (var cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
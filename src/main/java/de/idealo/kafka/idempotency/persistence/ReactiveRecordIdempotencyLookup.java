@@ -0,0 +1,38 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.time.Duration;
+import java.util.List;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Non-blocking counterpart of {@link RecordIdempotencyLookup}, for consumers running on an event loop (e.g. reactor-kafka).
+ */
+public interface ReactiveRecordIdempotencyLookup {
+
+    Mono<Boolean> isLogged(RecordIdentity id);
+
+    Mono<Void> log(RecordIdentity id, Duration ttl);
+
+    /**
+     * Batch variant of {@link #isLogged(RecordIdentity)}.
+     * Implementations should override it in order to look up the whole batch within a single round-trip.
+     * @param ids record identities of the batch
+     * @return flags telling whether the record is logged, in the same order as the given identities
+     */
+    default Mono<List<Boolean>> areLogged(final List<RecordIdentity> ids) {
+        return Flux.fromIterable(ids).concatMap(this::isLogged).collectList();
+    }
+
+    /**
+     * Batch variant of {@link #log(RecordIdentity, Duration)}.
+     * @param ids record identities of the batch
+     * @param ttl TTL for the idempotency markers
+     */
+    default Mono<Void> logAll(final List<RecordIdentity> ids, final Duration ttl) {
+        return Flux.fromIterable(ids).flatMap(id -> log(id, ttl)).then();
+    }
+}
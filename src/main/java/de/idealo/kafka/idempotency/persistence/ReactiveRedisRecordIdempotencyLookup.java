@@ -0,0 +1,89 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Non-blocking variant of {@link RedisRecordIdempotencyLookup}, sharing its key layout: one key per record, encoded by the
+ *   same {@link RecordKeyEncoder}. Hence the markers persisted by one are found by the other.
+ */
+public class ReactiveRedisRecordIdempotencyLookup implements ReactiveRecordIdempotencyLookup {
+
+    private static final byte[] LOOKUP_VALUE = "1".getBytes(StandardCharsets.UTF_8);
+
+    private final ReactiveRedisTemplate<byte[], byte[]> redisTemplate;
+
+    private final RecordKeyEncoder keyEncoder;
+
+    /**
+     * @param template template without serializers, working on raw keys and values
+     * @param keyEncoder encoder of the keys to read and write
+     */
+    public ReactiveRedisRecordIdempotencyLookup(final ReactiveRedisTemplate<byte[], byte[]> template, final RecordKeyEncoder keyEncoder) {
+        this.redisTemplate = template;
+        this.keyEncoder = keyEncoder;
+    }
+
+    /**
+     * Creates a template passing keys and values to the connection as they are.
+     * @param connectionFactory
+     * @return
+     */
+    public static ReactiveRedisTemplate<byte[], byte[]> rawTemplate(final ReactiveRedisConnectionFactory connectionFactory) {
+        return new ReactiveRedisTemplate<>(connectionFactory, RedisSerializationContext.byteArray());
+    }
+
+    @Override
+    public Mono<Boolean> isLogged(final RecordIdentity id) {
+        return redisTemplate.hasKey(keyEncoder.encode(id));
+    }
+
+    @Override
+    public Mono<Void> log(final RecordIdentity id, final Duration ttl) {
+        return redisTemplate.opsForValue().set(keyEncoder.encode(id), LOOKUP_VALUE, ttl).then();
+    }
+
+    /**
+     * Looks up the whole batch with a single MGET.
+     */
+    @Override
+    public Mono<List<Boolean>> areLogged(final List<RecordIdentity> ids) {
+        if (ids.isEmpty()) {
+            return Mono.just(List.of());
+        }
+
+        final List<byte[]> keys = new ArrayList<>(ids.size());
+        for (final var id : ids) {
+            keys.add(keyEncoder.encode(id));
+        }
+        return redisTemplate.opsForValue().multiGet(keys).map(values -> {
+            final List<Boolean> logged = new ArrayList<>(values.size());
+            for (final var value : values) {
+                // missing keys come back as empty values, as reactive streams cannot hold nulls
+                logged.add(value != null && value.length > 0);
+            }
+            return logged;
+        });
+    }
+
+    /**
+     * Writes all the markers of the batch without awaiting each other, so that the connection pipelines them.
+     */
+    @Override
+    public Mono<Void> logAll(final List<RecordIdentity> ids, final Duration ttl) {
+        return Flux.fromIterable(ids)
+                .flatMap(id -> redisTemplate.opsForValue().set(keyEncoder.encode(id), LOOKUP_VALUE, ttl))
+                .then();
+    }
+}
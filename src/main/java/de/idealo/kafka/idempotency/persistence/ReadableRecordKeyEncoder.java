@@ -0,0 +1,38 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.nio.charset.StandardCharsets;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Default key encoding: the prefix followed by the record identity as it is, e.g.
+ *   kafkaidmp_myconsumerid_1c9bb6f0-5b91-4be7-acad-6bf089ed0bef
+ */
+public class ReadableRecordKeyEncoder implements RecordKeyEncoder {
+
+    private final byte[] prefix;
+
+    /**
+     * @param prefix key prefix including the consumer group
+     */
+    public ReadableRecordKeyEncoder(final String prefix) {
+        this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies the prefix and the encoded identity into the key, without building a String.
+     */
+    @Override
+    public byte[] encode(final RecordIdentity id) {
+        final var idBytes = id.getBytes();
+        final var key = new byte[prefix.length + idBytes.length];
+        System.arraycopy(prefix, 0, key, 0, prefix.length);
+        System.arraycopy(idBytes, 0, key, prefix.length, idBytes.length);
+        return key;
+    }
+
+    @Override
+    public byte[] namespace() {
+        return prefix.clone();
+    }
+}
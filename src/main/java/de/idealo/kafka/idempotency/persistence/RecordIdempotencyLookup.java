@@ -1,6 +1,8 @@
 package de.idealo.kafka.idempotency.persistence;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 import de.idealo.kafka.idempotency.RecordIdentity;
 
@@ -9,4 +11,81 @@ public interface RecordIdempotencyLookup {
     boolean isLogged(RecordIdentity id);
 
     void log(final RecordIdentity id, final Duration ttl);
+
+    /**
+     * Batch variant of {@link #isLogged(RecordIdentity)}.
+     * Implementations should override it in order to look up the whole batch within a single round-trip.
+     * @param ids record identities of the batch
+     * @return flags telling whether the record is logged, in the same order as the given identities
+     */
+    default List<Boolean> areLogged(final List<RecordIdentity> ids) {
+        final List<Boolean> logged = new ArrayList<>(ids.size());
+        for (final var id : ids) {
+            logged.add(isLogged(id));
+        }
+        return logged;
+    }
+
+    /**
+     * Batch variant of {@link #log(RecordIdentity, Duration)}.
+     * Implementations should override it in order to persist the whole batch within a single round-trip.
+     * @param ids record identities of the batch
+     * @param ttl TTL for the idempotency markers
+     */
+    default void logAll(final List<RecordIdentity> ids, final Duration ttl) {
+        for (final var id : ids) {
+            log(id, ttl);
+        }
+    }
+
+    /**
+     * Atomically claims the record for processing by placing an in-progress lease, unless the record is already logged or claimed.
+     * A successful claim is meant to be either promoted by {@link #log(RecordIdentity, Duration)} or given up by {@link #release(RecordIdentity)}.
+     * The default implementation is not atomic: it only checks that the record is not logged.
+     * @param id record identity
+     * @param lease duration after which an unfinished claim expires
+     * @return true if the record has been claimed by the caller
+     */
+    default boolean claim(final RecordIdentity id, final Duration lease) {
+        return !isLogged(id);
+    }
+
+    /**
+     * Batch variant of {@link #claim(RecordIdentity, Duration)}.
+     * @param ids record identities of the batch
+     * @param lease duration after which an unfinished claim expires
+     * @return flags telling whether the record has been claimed, in the same order as the given identities
+     */
+    default List<Boolean> claimAll(final List<RecordIdentity> ids, final Duration lease) {
+        final List<Boolean> claimed = new ArrayList<>(ids.size());
+        for (final var id : ids) {
+            claimed.add(claim(id, lease));
+        }
+        return claimed;
+    }
+
+    /**
+     * Gives up a claim made by {@link #claim(RecordIdentity, Duration)}, e.g. because the listener has failed.
+     * A record which has already been logged is left untouched.
+     * @param id record identity
+     */
+    default void release(final RecordIdentity id) {
+    }
+
+    /**
+     * Batch variant of {@link #release(RecordIdentity)}.
+     * @param ids record identities of the batch
+     */
+    default void releaseAll(final List<RecordIdentity> ids) {
+        for (final var id : ids) {
+            release(id);
+        }
+    }
+
+    /**
+     * Persists all the markers which have been logged, but are still buffered locally.
+     * It is called before the offsets are committed and when partitions are revoked (see write-behind).
+     */
+    default void flush() {
+    }
 }
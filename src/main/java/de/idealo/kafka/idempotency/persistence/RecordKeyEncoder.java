@@ -0,0 +1,20 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Encodes record identities into the keys under which their idempotency markers are persisted.
+ */
+public interface RecordKeyEncoder {
+
+    /**
+     * @param id record identity
+     * @return key of the idempotency marker, including the namespace of the consumer group
+     */
+    byte[] encode(RecordIdentity id);
+
+    /**
+     * @return common beginning of all the keys of the consumer group
+     */
+    byte[] namespace();
+}
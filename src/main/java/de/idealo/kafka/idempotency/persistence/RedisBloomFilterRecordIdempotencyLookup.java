@@ -0,0 +1,307 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Probabilistic lookup keeping the markers in a ring of Bloom filters, each of them being one Redis bitmap covering
+ *   a time bucket. The ring covers the configured TTL, the oldest bucket is dropped as a whole with a single UNLINK.
+ *   Hence the memory is fixed and predictable no matter how many records are consumed.
+ * A record is considered logged if all its bits are set in any of the buckets, so a small share of the records which have
+ *   never been consumed is skipped as well (see {@link #getExpectedFalsePositiveRate()}). Records are never processed twice
+ *   within the TTL though. The TTL of a marker is always the configured one, listener-specific TTLs are not supported.
+ * All the buckets share the same hash tag, so that the lookup script can access them on a Redis cluster as well.
+ */
+public class RedisBloomFilterRecordIdempotencyLookup implements RecordIdempotencyLookup {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisBloomFilterRecordIdempotencyLookup.class);
+
+    /**
+     * Maximum size of a Redis bitmap.
+     */
+    private static final long MAX_BITS = 1L << 32;
+
+    private static final double LN2 = Math.log(2);
+
+    /**
+     * Returns 1 if all the bits (ARGV) are set in any of the buckets (KEYS).
+     */
+    private static final RedisScript<Long> LOOKUP_SCRIPT = new DefaultRedisScript<>("for i = 1, #KEYS do "
+            + "local all = true "
+            + "for j = 1, #ARGV do "
+            + "if redis.call('getbit', KEYS[i], ARGV[j]) == 0 then all = false break end "
+            + "end "
+            + "if all then return 1 end "
+            + "end "
+            + "return 0", Long.class);
+
+    /**
+     * Sets all the bits (ARGV but the last one) in the bucket (KEYS[1]) and prolongs its TTL (last ARGV).
+     */
+    private static final RedisScript<Long> LOG_SCRIPT = new DefaultRedisScript<>("for j = 1, #ARGV - 1 do "
+            + "redis.call('setbit', KEYS[1], ARGV[j], 1) "
+            + "end "
+            + "return redis.call('pexpire', KEYS[1], ARGV[#ARGV])", Long.class);
+
+    private final RedisTemplate<byte[], byte[]> redisTemplate;
+
+    private final HashedRecordKeyEncoder hasher;
+
+    private final String keyPrefix;
+
+    private final int buckets;
+
+    private final long bucketMillis;
+
+    /**
+     * Number of bits per bucket.
+     */
+    private final long bits;
+
+    /**
+     * Number of hash functions.
+     */
+    private final int hashes;
+
+    private final double expectedFalsePositiveRate;
+
+    private final AtomicLong lastRotatedBucket = new AtomicLong();
+
+    private volatile boolean unlinkSupported = true;
+
+    /**
+     * @param prefix key prefix including the consumer group
+     * @return prefix of all the filters of the group, hashed to one slot of a Redis cluster
+     */
+    static String keyPrefix(final String prefix) {
+        return "{" + prefix + "bloom}_";
+    }
+
+    /**
+     * @param template template without serializers, working on raw keys and values
+     * @param prefix key prefix including the consumer group
+     * @param ttl duration covered by the ring
+     * @param buckets number of time buckets the TTL is split into
+     * @param expectedInsertions expected number of markers within the TTL
+     * @param falsePositiveRate desired probability of a record which has never been consumed to be considered logged
+     */
+    public RedisBloomFilterRecordIdempotencyLookup(final RedisTemplate<byte[], byte[]> template, final String prefix, final Duration ttl,
+            final int buckets, final long expectedInsertions, final double falsePositiveRate) {
+        if (buckets <= 0 || expectedInsertions <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("The number of buckets and expected insertions must be positive, the false positive rate between 0 and 1");
+        }
+        this.redisTemplate = template;
+        this.hasher = new HashedRecordKeyEncoder(prefix);
+        this.keyPrefix = keyPrefix(prefix);
+        this.buckets = buckets;
+        this.bucketMillis = Math.max(1, ttl.toMillis() / buckets);
+
+        // a lookup checks buckets + 1 filters (the current one is partial), so the rate per filter must be accordingly lower
+        final var insertionsPerBucket = Math.max(1, expectedInsertions / buckets);
+        final var bucketFalsePositiveRate = 1 - Math.pow(1 - falsePositiveRate, 1.0 / (buckets + 1));
+        this.bits = Math.min(MAX_BITS, (long) Math.ceil(-insertionsPerBucket * Math.log(bucketFalsePositiveRate) / (LN2 * LN2)));
+        this.hashes = Math.max(1, (int) Math.round((double) bits / insertionsPerBucket * LN2));
+        this.expectedFalsePositiveRate = ringFalsePositiveRate(
+                Math.pow(1 - Math.exp(-(double) hashes * insertionsPerBucket / bits), hashes));
+
+        LOG.info("Bloom filter ring of {} buckets of {} ms, {} bits and {} hashes each; expected false positive rate {}",
+                buckets, bucketMillis, bits, hashes, expectedFalsePositiveRate);
+    }
+
+    @Override
+    public boolean isLogged(final RecordIdentity id) {
+        final var bucket = currentBucket();
+        final var result = execute(LOOKUP_SCRIPT, buckets + 1, lookupArguments(id, bucket));
+        return result != null && result == 1;
+    }
+
+    @Override
+    public void log(final RecordIdentity id, final Duration ttl) {
+        final var bucket = currentBucket();
+        rotate(bucket);
+        execute(LOG_SCRIPT, 1, logArguments(id, bucket));
+    }
+
+    /**
+     * Runs the script by its SHA1 (EVALSHA), loading it first if Redis does not know it.
+     * @param script
+     * @param numKeys number of keys at the beginning of the keys and arguments
+     * @param keysAndArgs
+     * @return
+     */
+    private Long execute(final RedisScript<Long> script, final int numKeys, final byte[][] keysAndArgs) {
+        return redisTemplate.execute(script, Arrays.asList(keysAndArgs).subList(0, numKeys),
+                (Object[]) Arrays.copyOfRange(keysAndArgs, numKeys, keysAndArgs.length));
+    }
+
+    /**
+     * Runs the lookup script for all the records of the batch within one pipelined round-trip.
+     */
+    @Override
+    public List<Boolean> areLogged(final List<RecordIdentity> ids) {
+        final List<Boolean> logged = new ArrayList<>(ids.size());
+        if (ids.isEmpty()) {
+            return logged;
+        }
+
+        final var bucket = currentBucket();
+        final List<byte[][]> lookups = new ArrayList<>(ids.size());
+        for (final var id : ids) {
+            lookups.add(lookupArguments(id, bucket));
+        }
+        final var results = PipelinedScripts.execute(redisTemplate, LOOKUP_SCRIPT, buckets + 1, lookups);
+        for (final var result : results) {
+            logged.add(result instanceof Long && (Long) result == 1);
+        }
+        return logged;
+    }
+
+    /**
+     * Runs the log script for all the records of the batch within one pipelined round-trip.
+     */
+    @Override
+    public void logAll(final List<RecordIdentity> ids, final Duration ttl) {
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        final var bucket = currentBucket();
+        rotate(bucket);
+        final List<byte[][]> logs = new ArrayList<>(ids.size());
+        for (final var id : ids) {
+            logs.add(logArguments(id, bucket));
+        }
+        PipelinedScripts.execute(redisTemplate, LOG_SCRIPT, 1, logs);
+    }
+
+    /**
+     * Gets the false positive rate the ring has been dimensioned for, given the expected number of insertions.
+     * @return
+     */
+    public double getExpectedFalsePositiveRate() {
+        return expectedFalsePositiveRate;
+    }
+
+    /**
+     * Estimates the current false positive rate out of the actual fill ratio of the filters (BITCOUNT of all the buckets).
+     * @return
+     */
+    public double estimateFalsePositiveRate() {
+        final var bucket = currentBucket();
+        final var results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i <= buckets; i++) {
+                connection.bitCount(bucketKey(bucket - i));
+            }
+            return null;
+        });
+
+        var notFalsePositive = 1.0;
+        for (final var result : results) {
+            final var fill = result instanceof Long ? (double) (Long) result / bits : 0;
+            notFalsePositive *= 1 - Math.pow(fill, hashes);
+        }
+        return 1 - notFalsePositive;
+    }
+
+    public long getBitsPerBucket() {
+        return bits;
+    }
+
+    public int getHashes() {
+        return hashes;
+    }
+
+    private double ringFalsePositiveRate(final double bucketFalsePositiveRate) {
+        return 1 - Math.pow(1 - bucketFalsePositiveRate, buckets + 1);
+    }
+
+    private long currentBucket() {
+        return System.currentTimeMillis() / bucketMillis;
+    }
+
+    /**
+     * Drops the bucket which has just left the ring, once per bucket change.
+     * @param bucket current bucket
+     */
+    private void rotate(final long bucket) {
+        final var last = lastRotatedBucket.get();
+        if (last >= bucket || !lastRotatedBucket.compareAndSet(last, bucket)) {
+            return;
+        }
+
+        final var expired = bucketKey(bucket - buckets - 1);
+        try {
+            if (unlinkSupported) {
+                redisTemplate.execute((RedisCallback<Long>) connection -> connection.unlink(expired));
+            } else {
+                redisTemplate.delete(expired);
+            }
+        } catch (DataAccessException e) {
+            // servers before Redis 4 do not know UNLINK
+            LOG.warn("Could not UNLINK the expired Bloom filter bucket, falling back to DEL", e);
+            unlinkSupported = false;
+            redisTemplate.delete(expired);
+        }
+    }
+
+    /**
+     * @param id
+     * @param bucket
+     * @return keys of all the buckets of the ring followed by the bit positions of the record
+     */
+    private byte[][] lookupArguments(final RecordIdentity id, final long bucket) {
+        final var arguments = new byte[buckets + 1 + hashes][];
+        for (int i = 0; i <= buckets; i++) {
+            arguments[i] = bucketKey(bucket - i);
+        }
+        writePositions(id, arguments, buckets + 1);
+        return arguments;
+    }
+
+    /**
+     * @param id
+     * @param bucket
+     * @return key of the current bucket followed by the bit positions of the record and the TTL of the bucket
+     */
+    private byte[][] logArguments(final RecordIdentity id, final long bucket) {
+        final var arguments = new byte[1 + hashes + 1][];
+        arguments[0] = bucketKey(bucket);
+        writePositions(id, arguments, 1);
+        arguments[arguments.length - 1] = String.valueOf(bucketMillis * (buckets + 2)).getBytes(StandardCharsets.UTF_8);
+        return arguments;
+    }
+
+    /**
+     * Derives the bit positions of the record from its 128-bit digest by double hashing.
+     * @param id
+     * @param arguments
+     * @param offset
+     */
+    private void writePositions(final RecordIdentity id, final byte[][] arguments, final int offset) {
+        final var digest = ByteBuffer.wrap(hasher.encode(id), 4, 16);
+        final var h1 = digest.getLong();
+        final var h2 = digest.getLong();
+        for (int i = 0; i < hashes; i++) {
+            arguments[offset + i] = String.valueOf(Math.floorMod(h1 + i * h2, bits)).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private byte[] bucketKey(final long bucket) {
+        return (keyPrefix + bucket).getBytes(StandardCharsets.UTF_8);
+    }
+}
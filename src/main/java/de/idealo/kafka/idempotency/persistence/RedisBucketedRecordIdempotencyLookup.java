@@ -0,0 +1,185 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Exact lookup keeping the markers as fields of Redis hashes, one hash per time window (bucket) and optionally per shard, e.g.
+ *   kafkaidmp_myconsumerid_bucket_452731_17
+ * Every hash expires as a whole once the longest TTL of its markers has passed, so Redis tracks the expiry of a few keys
+ *   instead of one key per record. If the shards are small enough to fit hash-max-ziplist-entries, Redis keeps them in
+ *   the compact encoding as well. Redis frees an expired hash in one step, on its main thread unless lazyfree-lazy-expire is
+ *   enabled, so the shards should not grow beyond a few thousand fields.
+ * A lookup checks the current bucket and all the previous buckets the TTL may reach back to within one pipelined round-trip.
+ *   A marker is thereby kept for at least its TTL and at most one window longer. Listener-specific TTLs longer than
+ *   the configured TTL are capped by it.
+ * Claims are not atomic, as fields of a hash cannot expire on their own.
+ */
+public class RedisBucketedRecordIdempotencyLookup implements RecordIdempotencyLookup {
+
+    /**
+     * Sets the fields (ARGV but the first one) of the hash (KEYS[1]) and prolongs its TTL to ARGV[1], but never shortens it,
+     *  so that a marker written with a shorter TTL does not cut short the ones already in the hash.
+     */
+    private static final RedisScript<Long> LOG_SCRIPT = new DefaultRedisScript<>("for i = 2, #ARGV do "
+            + "redis.call('hset', KEYS[1], ARGV[i], '1') "
+            + "end "
+            + "if redis.call('pttl', KEYS[1]) < tonumber(ARGV[1]) then redis.call('pexpire', KEYS[1], ARGV[1]) end "
+            + "return 1", Long.class);
+
+    private static final String BUCKET_INFIX = "bucket_";
+
+    /**
+     * Every bucket costs one command per lookup, so the window must not be too small compared to the TTL.
+     */
+    private static final int MAX_BUCKETS = 1000;
+
+    private final RedisTemplate<byte[], byte[]> redisTemplate;
+
+    private final RecordKeyEncoder keyEncoder;
+
+    private final int namespaceLength;
+
+    private final String keyPrefix;
+
+    private final long windowMillis;
+
+    private final int shards;
+
+    /**
+     * Number of buckets preceding the current one which a lookup has to check.
+     */
+    private final int previousBuckets;
+
+    /**
+     * @param template template without serializers, working on raw keys and values
+     * @param prefix key prefix including the consumer group
+     * @param keyEncoder encoder of the record identities; the fields of the hashes are the keys stripped of their namespace
+     * @param window time covered by one bucket
+     * @param ttl longest TTL of the markers
+     * @param shards number of hashes each bucket is split into
+     */
+    public RedisBucketedRecordIdempotencyLookup(final RedisTemplate<byte[], byte[]> template, final String prefix,
+            final RecordKeyEncoder keyEncoder, final Duration window, final Duration ttl, final int shards) {
+        if (window.toMillis() <= 0 || shards <= 0) {
+            throw new IllegalArgumentException("The window and the number of shards must be positive");
+        }
+        this.redisTemplate = template;
+        this.keyPrefix = prefix + BUCKET_INFIX;
+        this.keyEncoder = keyEncoder;
+        this.namespaceLength = keyEncoder.namespace().length;
+        this.windowMillis = window.toMillis();
+        this.shards = shards;
+        final var buckets = (ttl.toMillis() + windowMillis - 1) / windowMillis;
+        if (buckets > MAX_BUCKETS) {
+            throw new IllegalArgumentException("The TTL must not span more than " + MAX_BUCKETS + " windows");
+        }
+        this.previousBuckets = (int) buckets;
+    }
+
+    @Override
+    public boolean isLogged(final RecordIdentity id) {
+        return areLogged(List.of(id)).get(0);
+    }
+
+    @Override
+    public void log(final RecordIdentity id, final Duration ttl) {
+        logAll(List.of(id), ttl);
+    }
+
+    /**
+     * Checks every record of the batch in all the buckets within one pipelined round-trip of HEXISTS commands.
+     */
+    @Override
+    public List<Boolean> areLogged(final List<RecordIdentity> ids) {
+        final List<Boolean> logged = new ArrayList<>(ids.size());
+        if (ids.isEmpty()) {
+            return logged;
+        }
+
+        final var bucket = currentBucket();
+        final var results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (final var id : ids) {
+                final var field = toField(id);
+                for (int i = 0; i <= previousBuckets; i++) {
+                    connection.hExists(bucketKey(bucket - i, field), field);
+                }
+            }
+            return null;
+        });
+
+        for (int i = 0; i < ids.size(); i++) {
+            var found = false;
+            for (int j = 0; j <= previousBuckets && !found; j++) {
+                found = Boolean.TRUE.equals(results.get(i * (previousBuckets + 1) + j));
+            }
+            logged.add(found);
+        }
+        return logged;
+    }
+
+    /**
+     * Writes all the markers of the batch into the current bucket within one pipelined round-trip, prolonging every
+     *  touched hash once (one script call per hash).
+     */
+    @Override
+    public void logAll(final List<RecordIdentity> ids, final Duration ttl) {
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        final var now = System.currentTimeMillis();
+        final var bucket = now / windowMillis;
+        // the hash must outlive the last marker of the window
+        final var expiry = (bucket + 1) * windowMillis - now + ttl.toMillis();
+
+        final var fieldsByKey = new LinkedHashMap<String, List<byte[]>>();
+        for (final var id : ids) {
+            final var field = toField(id);
+            fieldsByKey.computeIfAbsent(bucketKeyName(bucket, field), key -> new ArrayList<>()).add(field);
+        }
+        final var expiryArgument = String.valueOf(expiry).getBytes(StandardCharsets.UTF_8);
+        final List<byte[][]> writes = new ArrayList<>(fieldsByKey.size());
+        for (final var entry : fieldsByKey.entrySet()) {
+            final var keysAndArgs = new byte[2 + entry.getValue().size()][];
+            keysAndArgs[0] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            keysAndArgs[1] = expiryArgument;
+            for (int i = 0; i < entry.getValue().size(); i++) {
+                keysAndArgs[2 + i] = entry.getValue().get(i);
+            }
+            writes.add(keysAndArgs);
+        }
+        PipelinedScripts.execute(redisTemplate, LOG_SCRIPT, 1, writes);
+    }
+
+    private long currentBucket() {
+        return System.currentTimeMillis() / windowMillis;
+    }
+
+    private byte[] toField(final RecordIdentity id) {
+        final var key = keyEncoder.encode(id);
+        return Arrays.copyOfRange(key, namespaceLength, key.length);
+    }
+
+    private byte[] bucketKey(final long bucket, final byte[] field) {
+        return bucketKeyName(bucket, field).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String bucketKeyName(final long bucket, final byte[] field) {
+        if (shards == 1) {
+            return keyPrefix + bucket;
+        }
+        return keyPrefix + bucket + "_" + Math.floorMod(Arrays.hashCode(field), shards);
+    }
+}
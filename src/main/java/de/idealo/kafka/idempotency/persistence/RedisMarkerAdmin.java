@@ -0,0 +1,536 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Administration of the markers of any consumer group in Redis: statistics sampled from the keyspace and bulk deletion.
+ * The keys of a group are recognized by their namespaces: the readable prefix (also used by the time buckets and the offset
+ *   ranges), the binary namespace of the hashed keys and the prefix of the Bloom filter. The readable prefix of a group is also
+ *   the beginning of the readable keys of any group whose id starts with the same id followed by _, so a group is rejected
+ *   while such a group exists in either direction, e.g. {@code orders} along with {@code orders_v2}.
+ * The statistics scan a bounded sample of the keyspace and extrapolate it by DBSIZE, unless the whole keyspace fits into the sample.
+ * A purge runs in the background, one at a time: it iterates the keyspace with SCAN and deletes the matching keys with one
+ *   UNLINK (DEL before Redis 4) per batch, throttled to a maximum number of scanned keys per second, so Redis is never blocked
+ *   and the live traffic keeps its share. Its progress can be polled and it can be cancelled.
+ */
+public class RedisMarkerAdmin implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisMarkerAdmin.class);
+
+    private static final int DETAIL_SAMPLE_SIZE = 1000;
+
+    /**
+     * Approximate overhead of a key with an expiry in Redis (dict entries, object headers), if MEMORY USAGE is not available.
+     */
+    private static final int KEY_OVERHEAD_BYTES = 80;
+
+    private static final Pattern POSITION = Pattern.compile("\\d+" + Pattern.quote(RecordIdentity.DELIMITER) + "\\d+");
+
+    private static final long NO_EXPIRY = -1;
+
+    private final RedisTemplate<byte[], byte[]> redisTemplate;
+
+    private final String keyPrefix;
+
+    private final Supplier<Collection<String>> consumerGroups;
+
+    private final int batchSize;
+
+    private final int maxKeysPerSecond;
+
+    private final ExecutorService executor;
+
+    private volatile Boolean unlinkSupported;
+
+    private volatile Boolean memoryUsageSupported;
+
+    private volatile Purge purge;
+
+    /**
+     * @param redisTemplate template without serializers, working on raw keys and values
+     * @param keyPrefix configured prefix of all the keys, without the consumer group
+     * @param consumerGroups ids of the existing consumer groups, which must not share the readable keys of the group administrated
+     * @param batchSize number of keys scanned and deleted per round-trip
+     * @param maxKeysPerSecond maximum number of keys a purge scans per second
+     */
+    public RedisMarkerAdmin(final RedisTemplate<byte[], byte[]> redisTemplate, final String keyPrefix,
+            final Supplier<Collection<String>> consumerGroups, final int batchSize, final int maxKeysPerSecond) {
+        if (batchSize <= 0 || maxKeysPerSecond <= 0) {
+            throw new IllegalArgumentException("The batch size and the maximum keys per second of the purge must be positive");
+        }
+        this.redisTemplate = redisTemplate;
+        this.keyPrefix = keyPrefix;
+        this.consumerGroups = consumerGroups;
+        this.batchSize = batchSize;
+        this.maxKeysPerSecond = maxKeysPerSecond;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            final var thread = new Thread(runnable, "idempotency-purge");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Samples the keyspace: the share of the keys of the group, their size and their remaining TTL.
+     * @param group consumer group id
+     * @param sampleSize maximum number of keys scanned
+     * @return
+     * @throws IllegalArgumentException if the keys of the group cannot be told apart from the ones of another group
+     */
+    public Statistics getStatistics(final String group, final int sampleSize) {
+        checkUnambiguous(group);
+        final var namespaces = namespaces(group);
+        return redisTemplate.execute((RedisCallback<Statistics>) connection -> {
+            final var statistics = new Statistics(group);
+            statistics.totalKeys = connection.dbSize();
+            final List<byte[]> detailed = new ArrayList<>(DETAIL_SAMPLE_SIZE);
+            try (Cursor<byte[]> cursor = connection.scan(ScanOptions.scanOptions().count(batchSize).build())) {
+                while (statistics.sampledKeys < sampleSize && cursor.hasNext()) {
+                    final var key = cursor.next();
+                    statistics.sampledKeys++;
+                    if (matches(key, namespaces)) {
+                        statistics.matchedKeys++;
+                        if (detailed.size() < DETAIL_SAMPLE_SIZE) {
+                            detailed.add(key);
+                        }
+                    }
+                }
+                statistics.exact = !cursor.hasNext();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            statistics.estimatedMarkers = statistics.exact || statistics.sampledKeys == 0 ? statistics.matchedKeys
+                    : Math.round((double) statistics.matchedKeys / statistics.sampledKeys * statistics.totalKeys);
+            if (!detailed.isEmpty()) {
+                sampleDetails(connection, detailed, statistics);
+            }
+            return statistics;
+        });
+    }
+
+    /**
+     * Starts deleting the markers of the group, or of the topic within the group, unless a purge is running already.
+     * Only the readable keys of positional identities (topic, partition and offset) can be assigned to a topic.
+     * @param group consumer group id
+     * @param topic topic or null for all the keys of the group
+     * @return the purge started, or the one running
+     * @throws IllegalArgumentException if the keys of the group cannot be told apart from the ones of another group
+     */
+    public synchronized Purge purge(final String group, final String topic) {
+        final var running = purge;
+        if (running != null && running.state == Purge.State.RUNNING) {
+            return running;
+        }
+        checkUnambiguous(group);
+        final var started = new Purge(group, topic);
+        purge = started;
+        executor.execute(() -> run(started));
+        return started;
+    }
+
+    /**
+     * @return the running or the latest purge, null if none has been started
+     */
+    public Purge getPurge() {
+        return purge;
+    }
+
+    /**
+     * Stops the running purge after its current batch.
+     * @return the cancelled purge, null if none is running
+     */
+    public Purge cancelPurge() {
+        final var running = purge;
+        if (running == null || running.state != Purge.State.RUNNING) {
+            return null;
+        }
+        running.cancelled = true;
+        return running;
+    }
+
+    @Override
+    public void close() {
+        cancelPurge();
+        executor.shutdownNow();
+    }
+
+    private void run(final Purge purge) {
+        LOG.info("Purging the idempotency markers of group {}{}", purge.group, purge.topic == null ? "" : " and topic " + purge.topic);
+        try {
+            redisTemplate.execute((RedisCallback<Void>) connection -> {
+                scanAndDelete(connection, purge);
+                return null;
+            });
+            purge.finish(purge.cancelled ? Purge.State.CANCELLED : Purge.State.COMPLETED, null);
+            LOG.info("Purged {} idempotency markers of group {} after scanning {} keys", purge.deleted, purge.group, purge.scanned);
+        } catch (Throwable e) { // NOSONAR
+            purge.finish(Purge.State.FAILED, e.toString());
+            LOG.error("Could not purge the idempotency markers of group {}, {} have been deleted", purge.group, purge.deleted, e);
+        }
+    }
+
+    private void scanAndDelete(final RedisConnection connection, final Purge purge) {
+        final ScanOptions options;
+        final List<byte[]> namespaces;
+        final String topicPrefix;
+        if (purge.topic == null) {
+            // the binary namespace of the hashed keys cannot be matched by the glob-style patterns
+            options = ScanOptions.scanOptions().count(batchSize).build();
+            namespaces = namespaces(purge.group);
+            topicPrefix = null;
+        } else {
+            topicPrefix = RedisRecordIdempotencyLookup.keyPrefix(keyPrefix, purge.group) + purge.topic + RecordIdentity.DELIMITER;
+            options = ScanOptions.scanOptions().match(escape(topicPrefix) + "*").count(batchSize).build();
+            namespaces = null;
+        }
+        final var startedNanos = System.nanoTime();
+        final List<byte[]> keys = new ArrayList<>(batchSize);
+        try (Cursor<byte[]> cursor = connection.scan(options)) {
+            while (!purge.cancelled && cursor.hasNext()) {
+                final var key = cursor.next();
+                purge.scanned++;
+                if (topicPrefix == null ? matches(key, namespaces) : isPositionOf(key, topicPrefix)) {
+                    keys.add(key);
+                }
+                if (keys.size() == batchSize) {
+                    purge.deleted += delete(connection, keys);
+                    keys.clear();
+                }
+                if (purge.scanned % batchSize == 0) {
+                    throttle(purge.scanned, startedNanos);
+                }
+            }
+            if (!keys.isEmpty() && !purge.cancelled) {
+                purge.deleted += delete(connection, keys);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Sleeps while the purge is ahead of the maximum rate.
+     */
+    private void throttle(final long scanned, final long startedNanos) {
+        final var aheadNanos = TimeUnit.SECONDS.toNanos(scanned) / maxKeysPerSecond - (System.nanoTime() - startedNanos);
+        if (aheadNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(aheadNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                purge.cancelled = true;
+            }
+        }
+    }
+
+    private long delete(final RedisConnection connection, final List<byte[]> keys) {
+        final var batch = keys.toArray(new byte[0][]);
+        if (!Boolean.FALSE.equals(unlinkSupported)) {
+            try {
+                final var deleted = connection.unlink(batch);
+                unlinkSupported = true;
+                return deleted == null ? 0 : deleted;
+            } catch (DataAccessException e) {
+                if (unlinkSupported != null) {
+                    throw e;
+                }
+                LOG.info("UNLINK is not supported by Redis, the idempotency markers are purged by DEL");
+                unlinkSupported = false;
+            }
+        }
+        final var deleted = connection.del(batch);
+        return deleted == null ? 0 : deleted;
+    }
+
+    /**
+     * Reads the remaining TTL and the memory usage of the sampled keys with one pipeline.
+     */
+    private void sampleDetails(final RedisConnection connection, final List<byte[]> keys, final Statistics statistics) {
+        if (memoryUsageSupported == null) {
+            try {
+                connection.execute("MEMORY", "USAGE".getBytes(StandardCharsets.US_ASCII), keys.get(0));
+                memoryUsageSupported = true;
+            } catch (DataAccessException e) {
+                memoryUsageSupported = false;
+            }
+        }
+        final var measured = memoryUsageSupported;
+        connection.openPipeline();
+        for (final var key : keys) {
+            connection.pTtl(key);
+            if (measured) {
+                connection.execute("MEMORY", "USAGE".getBytes(StandardCharsets.US_ASCII), key);
+            }
+        }
+        final var results = connection.closePipeline();
+        var bytes = 0L;
+        for (int i = 0; i < keys.size(); i++) {
+            final var ttl = (Long) results.get(measured ? 2 * i : i);
+            statistics.ttlDistribution.merge(ttlRange(ttl), 1L, Long::sum);
+            final var usage = measured ? results.get(2 * i + 1) : null;
+            bytes += usage instanceof Long ? (Long) usage : keys.get(i).length + KEY_OVERHEAD_BYTES;
+        }
+        statistics.memoryMeasured = measured;
+        statistics.averageMarkerBytes = bytes / keys.size();
+        statistics.estimatedMemoryBytes = statistics.averageMarkerBytes * statistics.estimatedMarkers;
+    }
+
+    /**
+     * Rejects a group if the readable keys of another existing group start with its readable prefix, or the other way round.
+     */
+    private void checkUnambiguous(final String group) {
+        final var prefix = RedisRecordIdempotencyLookup.keyPrefix(keyPrefix, group);
+        final var ambiguous = consumerGroups.get().stream()
+                .filter(other -> !other.equals(group))
+                .filter(other -> {
+                    final var otherPrefix = RedisRecordIdempotencyLookup.keyPrefix(keyPrefix, other);
+                    return otherPrefix.startsWith(prefix) || prefix.startsWith(otherPrefix);
+                })
+                .sorted()
+                .collect(Collectors.toList());
+        if (!ambiguous.isEmpty()) {
+            throw new IllegalArgumentException("The idempotency markers of group " + group + " cannot be told apart from the ones of "
+                    + "the consumer groups " + ambiguous);
+        }
+    }
+
+    private List<byte[]> namespaces(final String group) {
+        final var prefix = RedisRecordIdempotencyLookup.keyPrefix(keyPrefix, group);
+        return List.of(new ReadableRecordKeyEncoder(prefix).namespace(), new HashedRecordKeyEncoder(prefix).namespace(),
+                RedisBloomFilterRecordIdempotencyLookup.keyPrefix(prefix).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean matches(final byte[] key, final List<byte[]> namespaces) {
+        for (final var namespace : namespaces) {
+            if (startsWith(key, namespace)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPositionOf(final byte[] key, final String topicPrefix) {
+        final var prefixLength = topicPrefix.getBytes(StandardCharsets.UTF_8).length;
+        return key.length > prefixLength
+                && POSITION.matcher(new String(key, prefixLength, key.length - prefixLength, StandardCharsets.UTF_8)).matches();
+    }
+
+    private static boolean startsWith(final byte[] key, final byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String ttlRange(final Long ttl) {
+        if (ttl == null || ttl == NO_EXPIRY) {
+            return "none";
+        } else if (ttl < Duration.ofHours(1).toMillis()) {
+            return "<1h";
+        } else if (ttl < Duration.ofDays(1).toMillis()) {
+            return "<1d";
+        } else if (ttl < Duration.ofDays(7).toMillis()) {
+            return "<7d";
+        }
+        return ">=7d";
+    }
+
+    /**
+     * Escapes the characters having a special meaning in the glob-style patterns of SCAN.
+     */
+    private static String escape(final String literal) {
+        final var escaped = new StringBuilder(literal.length() + 8);
+        for (final var c : literal.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Keys of a consumer group, sampled from the keyspace.
+     */
+    public static class Statistics {
+
+        private final String group;
+        private long totalKeys;
+        private long sampledKeys;
+        private long matchedKeys;
+        private boolean exact;
+        private long estimatedMarkers;
+        private long averageMarkerBytes;
+        private long estimatedMemoryBytes;
+        private boolean memoryMeasured;
+        private final Map<String, Long> ttlDistribution = new LinkedHashMap<>();
+
+        Statistics(final String group) {
+            this.group = group;
+            for (final var range : List.of("<1h", "<1d", "<7d", ">=7d", "none")) {
+                ttlDistribution.put(range, 0L);
+            }
+        }
+
+        public String getGroup() {
+            return group;
+        }
+
+        /**
+         * @return number of keys in the database (DBSIZE)
+         */
+        public long getTotalKeys() {
+            return totalKeys;
+        }
+
+        public long getSampledKeys() {
+            return sampledKeys;
+        }
+
+        /**
+         * @return number of sampled keys belonging to the group
+         */
+        public long getMatchedKeys() {
+            return matchedKeys;
+        }
+
+        /**
+         * @return true if the whole keyspace has been scanned, i.e. the number of markers is exact
+         */
+        public boolean isExact() {
+            return exact;
+        }
+
+        /**
+         * @return number of keys of the group, extrapolated from the sample
+         */
+        public long getEstimatedMarkers() {
+            return estimatedMarkers;
+        }
+
+        public long getAverageMarkerBytes() {
+            return averageMarkerBytes;
+        }
+
+        public long getEstimatedMemoryBytes() {
+            return estimatedMemoryBytes;
+        }
+
+        /**
+         * @return true if the memory has been measured by MEMORY USAGE, false if it has been estimated from the key lengths
+         */
+        public boolean isMemoryMeasured() {
+            return memoryMeasured;
+        }
+
+        /**
+         * @return number of sampled keys of the group (at most 1000) by remaining TTL
+         */
+        public Map<String, Long> getTtlDistribution() {
+            return ttlDistribution;
+        }
+    }
+
+    /**
+     * Progress of a purge.
+     */
+    public static class Purge {
+
+        public enum State {
+            RUNNING, COMPLETED, CANCELLED, FAILED
+        }
+
+        private final String group;
+        private final String topic;
+        private final Instant startedAt = Instant.now();
+        private volatile Instant finishedAt;
+        private volatile State state = State.RUNNING;
+        private volatile String error;
+        private volatile boolean cancelled;
+        private volatile long scanned;
+        private volatile long deleted;
+
+        Purge(final String group, final String topic) {
+            this.group = group;
+            this.topic = topic;
+        }
+
+        public String getGroup() {
+            return group;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public Instant getStartedAt() {
+            return startedAt;
+        }
+
+        public Instant getFinishedAt() {
+            return finishedAt;
+        }
+
+        public long getScannedKeys() {
+            return scanned;
+        }
+
+        public long getDeletedKeys() {
+            return deleted;
+        }
+
+        /**
+         * @return scanned keys per second so far
+         */
+        public long getScanRate() {
+            final var end = finishedAt == null ? Instant.now() : finishedAt;
+            final var millis = Math.max(1, Duration.between(startedAt, end).toMillis());
+            return scanned * 1000 / millis;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        private void finish(final State state, final String error) {
+            this.error = error;
+            this.finishedAt = Instant.now();
+            this.state = state;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+
+import de.idealo.kafka.idempotency.IdempotencyCheckException;
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.RecordPosition;
+
+/**
+ * Loads the markers of newly assigned partitions from Redis into the near cache, so that a consumer taking over partitions
+ *   (e.g. after a deploy or a scale-out) does not need a round-trip for every replayed record.
+ * The markers are found by scanning for the readable keys of positional identities, e.g.
+ *   kafkaidmp_myconsumerid_orders-*
+ *   once per assignment, whose keys are sorted out by their topic and partition. Their values and remaining TTLs are read in
+ *   pipelined batches; claims of records still being processed are skipped. Markers of other identities are not warmed up.
+ * The warmup runs in the background, so the assignment is not blocked; until it has completed, the lookups fall through
+ *   to Redis as usual. When partitions are revoked, their markers are evicted from the near cache.
+ */
+public class RedisMarkerWarmup implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisMarkerWarmup.class);
+
+    private static final long NO_EXPIRY = -1;
+
+    private static final byte[] LOGGED_VALUE = "1".getBytes(StandardCharsets.UTF_8);
+
+    private final RedisTemplate<byte[], byte[]> redisTemplate;
+
+    private final String prefix;
+
+    private final LocalMarkerCache cache;
+
+    private final int batchSize;
+
+    private final ExecutorService executor;
+
+    private final Set<TopicPartition> assigned = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final LongAdder warmed = new LongAdder();
+
+    /**
+     * @param template template without serializers, working on raw keys and values
+     * @param prefix key prefix including the consumer group
+     * @param cache near cache to load the markers into
+     * @param batchSize number of keys fetched per SCAN and per pipeline
+     * @param threads number of assignments warmed up concurrently, e.g. of several consumers
+     */
+    public RedisMarkerWarmup(final RedisTemplate<byte[], byte[]> template, final String prefix, final LocalMarkerCache cache,
+            final int batchSize, final int threads) {
+        if (batchSize <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("The batch size and the number of threads of the warmup must be positive");
+        }
+        this.redisTemplate = template;
+        this.prefix = prefix;
+        this.cache = cache;
+        this.batchSize = batchSize;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final var thread = new Thread(runnable, "idempotency-warmup");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts loading the markers of the partitions in the background, with one scan of the keyspace for all of them.
+     * @param partitions
+     */
+    public void onPartitionsAssigned(final Collection<TopicPartition> partitions) {
+        final Set<TopicPartition> added = new HashSet<>();
+        for (final var partition : partitions) {
+            if (assigned.add(partition)) {
+                added.add(partition);
+            }
+        }
+        if (!added.isEmpty()) {
+            running.incrementAndGet();
+            executor.execute(() -> warmUp(added));
+        }
+    }
+
+    /**
+     * Stops loading the markers of the partitions and evicts them from the near cache.
+     * @param partitions
+     */
+    public void onPartitionsRevoked(final Collection<TopicPartition> partitions) {
+        if (partitions.isEmpty()) {
+            return;
+        }
+        final var revoked = new HashSet<>(partitions);
+        assigned.removeAll(revoked);
+        final var evicted = cache.removeIf(id -> {
+            final var position = id.getPosition();
+            return position != null && revoked.contains(new TopicPartition(position.getTopic(), position.getPartition()));
+        });
+        LOG.debug("Evicted {} idempotency markers of the revoked partitions {}", evicted, revoked);
+    }
+
+    /**
+     * @return true while markers of assigned partitions are being loaded
+     */
+    public boolean isWarmingUp() {
+        return running.get() > 0;
+    }
+
+    /**
+     * @return number of markers loaded so far
+     */
+    public long getWarmedCount() {
+        return warmed.sum();
+    }
+
+    @Override
+    public void close() {
+        assigned.clear();
+        executor.shutdownNow();
+    }
+
+    private void warmUp(final Set<TopicPartition> partitions) {
+        try {
+            final var topics = partitions.stream().map(TopicPartition::topic).distinct().collect(Collectors.toList());
+            // SCAN visits the whole keyspace anyway, but a single topic narrows the keys returned
+            final var pattern = escape(topics.size() == 1 ? prefix + topics.get(0) + RecordIdentity.DELIMITER : prefix) + "*";
+            final var options = ScanOptions.scanOptions().match(pattern).count(batchSize).build();
+            final var loaded = redisTemplate.execute((RedisCallback<Integer>) connection -> {
+                var count = 0;
+                try (Cursor<byte[]> cursor = connection.scan(options)) {
+                    final var keys = new ArrayList<byte[]>(batchSize);
+                    final var positions = new ArrayList<RecordPosition>(batchSize);
+                    while (cursor.hasNext() && isAnyAssigned(partitions)) {
+                        final var key = cursor.next();
+                        final var position = positionOf(key);
+                        if (position != null && isStillAssigned(partitions, position)) {
+                            keys.add(key);
+                            positions.add(position);
+                        }
+                        if (keys.size() == batchSize) {
+                            count += load(keys, positions);
+                            keys.clear();
+                            positions.clear();
+                        }
+                    }
+                    if (!keys.isEmpty()) {
+                        count += load(keys, positions);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return count;
+            });
+            LOG.debug("Warmed up {} idempotency markers of the partitions {}", loaded, partitions);
+        } catch (Throwable e) { // NOSONAR
+            LOG.warn("Could not warm up the idempotency markers of the partitions {}, the lookups fall through to Redis", partitions, e);
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    private boolean isStillAssigned(final Set<TopicPartition> partitions, final RecordPosition position) {
+        final var partition = new TopicPartition(position.getTopic(), position.getPartition());
+        return partitions.contains(partition) && assigned.contains(partition);
+    }
+
+    private boolean isAnyAssigned(final Set<TopicPartition> partitions) {
+        for (final var partition : partitions) {
+            if (assigned.contains(partition)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses the readable key of a positional identity, {@code <prefix><topic>-<partition>-<offset>}; the topic may contain
+     *   the delimiter itself.
+     * @return position, or null if the key is not the one of a positional identity
+     */
+    private RecordPosition positionOf(final byte[] key) {
+        final var id = new String(key, StandardCharsets.UTF_8).substring(prefix.length());
+        final var offsetDelimiter = id.lastIndexOf(RecordIdentity.DELIMITER);
+        final var partitionDelimiter = offsetDelimiter <= 0 ? -1 : id.lastIndexOf(RecordIdentity.DELIMITER, offsetDelimiter - 1);
+        if (partitionDelimiter <= 0) {
+            return null;
+        }
+        final var partition = parseNumber(id.substring(partitionDelimiter + 1, offsetDelimiter));
+        final var offset = parseNumber(id.substring(offsetDelimiter + 1));
+        if (partition < 0 || partition > Integer.MAX_VALUE || offset < 0) {
+            return null;
+        }
+        return new RecordPosition(id.substring(0, partitionDelimiter), (int) partition, offset);
+    }
+
+    /**
+     * Reads the values and the TTLs of the keys with one pipeline and puts the markers into the near cache. Claims of records
+     *   still being processed are skipped, as the records may yet fail.
+     * @return number of markers put
+     */
+    private int load(final List<byte[]> keys, final List<RecordPosition> positions) {
+        final var results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (final var key : keys) {
+                connection.get(key);
+                connection.pTtl(key);
+            }
+            return null;
+        });
+        final var now = System.currentTimeMillis();
+        var count = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            final var value = (byte[]) results.get(2 * i);
+            final var ttl = (Long) results.get(2 * i + 1);
+            if (!Arrays.equals(value, LOGGED_VALUE) || ttl == null || (ttl <= 0 && ttl != NO_EXPIRY)) {
+                // claimed, or expired in the meantime
+                continue;
+            }
+            final var position = positions.get(i);
+            cache.putUntil(identityOf(position.toString(), position), ttl == NO_EXPIRY ? Long.MAX_VALUE : now + ttl);
+            count++;
+        }
+        warmed.add(count);
+        return count;
+    }
+
+    private static RecordIdentity identityOf(final String id, final RecordPosition position) {
+        try {
+            return new RecordIdentity(id, position);
+        } catch (IdempotencyCheckException e) {
+            // the id contains at least the topic and the partition
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long parseNumber(final String number) {
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Escapes the characters having a special meaning in the glob-style patterns of SCAN.
+     */
+    private static String escape(final String literal) {
+        final var escaped = new StringBuilder(literal.length() + 8);
+        for (final var c : literal.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,330 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import de.idealo.kafka.idempotency.RecordPosition;
+import de.idealo.kafka.idempotency.configuration.IdealoKafkaIdempotencyAutoconfiguration;
+
+/**
+ * Stores the processed offsets of every topic partition as bitmaps in Redis instead of one key per record.
+ * The offsets of a partition are split into chunks of {@link #CHUNK_SIZE} consecutive offsets, each of them being one Redis
+ *   bitmap (at most 8 KiB) holding one bit per offset. Out-of-order and skipped offsets are simply bits set or not set.
+ *   A chunk expires as a whole after the TTL of its latest marker, so the memory footprint per partition stays nearly constant
+ *   instead of growing linearly with the number of records.
+ * A local copy of the recently used chunks answers most of the lookups without a round-trip. New markers are collected locally
+ *   and merged into Redis (BITOP OR) periodically, so a crash may lose the markers of the last flush interval.
+ */
+public class RedisOffsetRangeStore implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisOffsetRangeStore.class);
+
+    /**
+     * Number of consecutive offsets held by one chunk.
+     */
+    static final int CHUNK_SIZE = 1 << 16;
+
+    private static final String KEY_DELIMITER = "_";
+
+    private static final String KEY_INFIX = "offsets" + KEY_DELIMITER;
+
+    private static final String MERGE_KEY_SUFFIX = KEY_DELIMITER + "merge";
+
+    /**
+     * Merges the new bits (ARGV[1]) into the chunk (KEYS[1]) through a temporary key (KEYS[2]) and prolongs the chunk TTL (ARGV[2]).
+     */
+    private static final RedisScript<Long> MERGE_SCRIPT = new DefaultRedisScript<>("redis.call('set', KEYS[2], ARGV[1], 'px', 60000) "
+            + "redis.call('bitop', 'or', KEYS[1], KEYS[1], KEYS[2]) "
+            + "redis.call('del', KEYS[2]) "
+            + "return redis.call('pexpire', KEYS[1], ARGV[2])", Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final String prefix;
+
+    private final int maxLocalChunks;
+
+    /**
+     * Local retention of the chunks which have only been looked up.
+     */
+    private final long defaultTtlMillis;
+
+    private final Map<String, Chunk> chunks = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService flusher;
+
+    public RedisOffsetRangeStore(final IdealoKafkaIdempotencyAutoconfiguration configuration, final StringRedisTemplate template,
+            final Duration flushInterval, final int maxLocalChunks) {
+        this.redisTemplate = template;
+        this.prefix = configuration.getKeyPrefix() + KEY_DELIMITER + configuration.getConsumerGroupId() + KEY_DELIMITER + KEY_INFIX;
+        this.maxLocalChunks = maxLocalChunks;
+        this.defaultTtlMillis = configuration.getTtl().toMillis();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final var thread = new Thread(runnable, "idempotency-offset-range-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushAndEvict, flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public boolean contains(final RecordPosition position) {
+        return containsAll(List.of(position)).get(0);
+    }
+
+    /**
+     * Looks up the offsets locally first. The misses are resolved within one pipelined round-trip: a chunk which has not been
+     *   used locally yet is loaded completely (GET), otherwise only the missing bits are asked for (GETBIT), as other consumers
+     *   of the partition may have written them meanwhile.
+     * @param positions
+     * @return flags in the order of the given positions
+     */
+    public List<Boolean> containsAll(final List<RecordPosition> positions) {
+        final var now = System.currentTimeMillis();
+        final List<Boolean> contained = new ArrayList<>(positions.size());
+        final Map<Chunk, List<Integer>> toLoad = new HashMap<>();
+        final List<Integer> toAsk = new ArrayList<>();
+
+        for (int i = 0; i < positions.size(); i++) {
+            final var chunk = chunkOf(positions.get(i));
+            final var bit = bitOf(positions.get(i));
+            synchronized (chunk) {
+                chunk.lastAccess = now;
+                if (chunk.processed.get(bit)) {
+                    contained.add(true);
+                    continue;
+                }
+                contained.add(false);
+                if (chunk.loaded) {
+                    toAsk.add(i);
+                } else {
+                    toLoad.computeIfAbsent(chunk, c -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+
+        if (toLoad.isEmpty() && toAsk.isEmpty()) {
+            return contained;
+        }
+
+        final List<Chunk> loading = new ArrayList<>(toLoad.keySet());
+        final var results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (final var chunk : loading) {
+                connection.get(chunk.key);
+            }
+            for (final var i : toAsk) {
+                connection.getBit(chunkOf(positions.get(i)).key, bitOf(positions.get(i)));
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+
+        for (int n = 0; n < loading.size(); n++) {
+            final var chunk = loading.get(n);
+            final var bitmap = (byte[]) results.get(n);
+            synchronized (chunk) {
+                if (bitmap != null) {
+                    chunk.processed.or(fromRedisBitmap(bitmap));
+                }
+                chunk.loaded = true;
+                for (final var i : toLoad.get(chunk)) {
+                    contained.set(i, chunk.processed.get(bitOf(positions.get(i))));
+                }
+            }
+        }
+        for (int n = 0; n < toAsk.size(); n++) {
+            if (Boolean.TRUE.equals(results.get(loading.size() + n))) {
+                final var i = toAsk.get(n);
+                final var chunk = chunkOf(positions.get(i));
+                synchronized (chunk) {
+                    chunk.processed.set(bitOf(positions.get(i)));
+                }
+                contained.set(i, true);
+            }
+        }
+        return contained;
+    }
+
+    /**
+     * Marks the offset as processed locally. It is written to Redis with the next flush.
+     * @param position
+     * @param ttl
+     */
+    public void add(final RecordPosition position, final Duration ttl) {
+        final var bit = bitOf(position);
+        while (true) {
+            final var chunk = chunkOf(position);
+            synchronized (chunk) {
+                if (chunk.evicted) {
+                    // evicted concurrently, the marker must go to its replacement
+                    continue;
+                }
+                chunk.processed.set(bit);
+                chunk.dirty.set(bit);
+                chunk.ttlMillis = Math.max(chunk.ttlMillis, ttl.toMillis());
+                chunk.lastAccess = System.currentTimeMillis();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Merges all the locally collected markers into Redis within one pipelined round-trip, calling the merge script by its SHA1.
+     */
+    public void flush() {
+        final List<Chunk> flushed = new ArrayList<>();
+        final List<BitSet> flushedBits = new ArrayList<>();
+        final List<Long> flushedTtls = new ArrayList<>();
+        for (final var chunk : chunks.values()) {
+            synchronized (chunk) {
+                if (!chunk.dirty.isEmpty()) {
+                    flushed.add(chunk);
+                    flushedBits.add(chunk.dirty);
+                    flushedTtls.add(chunk.ttlMillis);
+                    chunk.dirty = new BitSet();
+                }
+            }
+        }
+
+        if (flushed.isEmpty()) {
+            return;
+        }
+
+        try {
+            final List<byte[][]> merges = new ArrayList<>(flushed.size());
+            for (int n = 0; n < flushed.size(); n++) {
+                merges.add(new byte[][] { flushed.get(n).key, (flushed.get(n).keyString + MERGE_KEY_SUFFIX).getBytes(StandardCharsets.UTF_8),
+                        toRedisBitmap(flushedBits.get(n)), String.valueOf(flushedTtls.get(n)).getBytes(StandardCharsets.UTF_8) });
+            }
+            PipelinedScripts.execute(redisTemplate, MERGE_SCRIPT, 2, merges);
+        } catch (RuntimeException e) {
+            // keep the markers for the next attempt
+            for (int n = 0; n < flushed.size(); n++) {
+                final var chunk = flushed.get(n);
+                synchronized (chunk) {
+                    chunk.dirty.or(flushedBits.get(n));
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Flushes the remaining markers.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        flush();
+    }
+
+    /**
+     * @return number of chunks held locally
+     */
+    public int getLocalChunkCount() {
+        return chunks.size();
+    }
+
+    private void flushAndEvict() {
+        try {
+            flush();
+            evict();
+        } catch (Throwable e) { // NOSONAR
+            LOG.error("Could not flush the offset ranges", e);
+        }
+    }
+
+    /**
+     * Discards the local chunks which have not been used within their TTL (or the default one), then the least recently used ones above the limit.
+     * Chunks with unflushed markers are always kept.
+     */
+    private void evict() {
+        final var now = System.currentTimeMillis();
+        chunks.values().removeIf(chunk -> {
+            synchronized (chunk) {
+                chunk.evicted = chunk.dirty.isEmpty() && chunk.lastAccess + Math.max(chunk.ttlMillis, defaultTtlMillis) < now;
+                return chunk.evicted;
+            }
+        });
+
+        final var excess = chunks.size() - maxLocalChunks;
+        if (excess > 0) {
+            chunks.values().stream()
+                    .sorted(Comparator.comparingLong(chunk -> chunk.lastAccess))
+                    .limit(excess)
+                    .forEach(chunk -> {
+                        synchronized (chunk) {
+                            if (chunk.dirty.isEmpty()) {
+                                chunk.evicted = true;
+                                chunks.remove(chunk.keyString);
+                            }
+                        }
+                    });
+        }
+    }
+
+    private Chunk chunkOf(final RecordPosition position) {
+        final var keyString = prefix + "{" + position.getTopic() + "-" + position.getPartition() + "}" + KEY_DELIMITER
+                + (position.getOffset() / CHUNK_SIZE);
+        return chunks.computeIfAbsent(keyString, Chunk::new);
+    }
+
+    private static int bitOf(final RecordPosition position) {
+        return (int) (position.getOffset() % CHUNK_SIZE);
+    }
+
+    /**
+     * Redis numbers the bits of a bitmap starting with the most significant bit of the first byte, whereas BitSet starts with the least
+     *   significant one.
+     * @param bits
+     * @return
+     */
+    static byte[] toRedisBitmap(final BitSet bits) {
+        final var bytes = bits.toByteArray();
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (Integer.reverse(bytes[i] & 0xff) >>> 24);
+        }
+        return bytes;
+    }
+
+    static BitSet fromRedisBitmap(final byte[] bitmap) {
+        final var bytes = bitmap.clone();
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (Integer.reverse(bytes[i] & 0xff) >>> 24);
+        }
+        return BitSet.valueOf(bytes);
+    }
+
+    private static class Chunk {
+
+        private final String keyString;
+        private final byte[] key;
+        private final BitSet processed = new BitSet();
+        private BitSet dirty = new BitSet();
+        private boolean loaded;
+        private boolean evicted;
+        private long ttlMillis;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        Chunk(final String keyString) {
+            this.keyString = keyString;
+            this.key = keyString.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
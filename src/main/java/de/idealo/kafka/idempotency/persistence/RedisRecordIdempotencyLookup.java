@@ -1,8 +1,21 @@
 package de.idealo.kafka.idempotency.persistence;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.core.types.Expiration;
 
 import de.idealo.kafka.idempotency.RecordIdentity;
 import de.idealo.kafka.idempotency.configuration.IdealoKafkaIdempotencyAutoconfiguration;
@@ -12,28 +25,285 @@ public class RedisRecordIdempotencyLookup implements RecordIdempotencyLookup {
     /**
      * Actually this can be everything.
      */
-    private static final String LOOKUP_VALUE = "1";
+    private static final byte[] LOOKUP_VALUE = "1".getBytes(StandardCharsets.UTF_8);
 
     private static final String KEY_DELIMITER = "_";
 
-    private final StringRedisTemplate redisTemplate;
+    /**
+     * Deletes the key only if it still holds the claim with the given token, so that neither a logged record nor the claim
+     *   another consumer has made after the lease has expired is released.
+     */
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end", Long.class);
+
+    /**
+     * Claims the record (KEYS[1]) unless its marker exists under the legacy key (KEYS[2]).
+     */
+    private static final RedisScript<Boolean> CLAIM_WITH_LEGACY_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[2]) == 1 then return false end "
+                    + "return redis.call('set', KEYS[1], ARGV[1], 'nx', 'px', ARGV[2]) ~= false", Boolean.class);
+
+    /**
+     * Turns the claim with the given token (ARGV[1]) into the marker (ARGV[2]) with its TTL (ARGV[3]), unless another consumer
+     *   has claimed or logged the record after the lease has expired. A key gone with the lease is written anyway.
+     */
+    private static final RedisScript<Long> PROMOTE_SCRIPT = new DefaultRedisScript<>(
+            "local value = redis.call('get', KEYS[1]) "
+                    + "if value == ARGV[1] or not value then redis.call('set', KEYS[1], ARGV[2], 'px', ARGV[3]) return 1 end "
+                    + "return 0", Long.class);
+
+    /**
+     * Number of claims held at least before the expired ones are pruned.
+     */
+    private static final int MIN_PRUNE_SIZE = 1024;
+
+    private final RedisTemplate<byte[], byte[]> redisTemplate;
+
+    private final RecordKeyEncoder keyEncoder;
+
+    /**
+     * Encoder of the keys written before a migration to {@link #keyEncoder}; null if there is nothing to migrate from.
+     */
+    private final RecordKeyEncoder legacyKeyEncoder;
 
-    private final String prefix;
+    /**
+     * Claims made by this instance which have been neither promoted nor released. Each claim holds a unique token as its value,
+     *   so that only its owner can promote or release it.
+     */
+    private final Map<RecordIdentity, Claim> claims = new ConcurrentHashMap<>();
+
+    /**
+     * Number of claims from which on the expired ones are pruned, e.g. as the markers are not persisted.
+     */
+    private volatile int pruneSize = MIN_PRUNE_SIZE;
 
     public RedisRecordIdempotencyLookup(final IdealoKafkaIdempotencyAutoconfiguration configuration,
             final StringRedisTemplate template) {
+        this(rawTemplate(template), new ReadableRecordKeyEncoder(keyPrefix(configuration)), null);
+    }
+
+    /**
+     * @param template template without serializers, working on raw keys and values
+     * @param keyEncoder encoder of the keys to read and write
+     * @param legacyKeyEncoder encoder of the keys to additionally read while migrating from one encoding to another, or null
+     */
+    public RedisRecordIdempotencyLookup(final RedisTemplate<byte[], byte[]> template, final RecordKeyEncoder keyEncoder,
+            final RecordKeyEncoder legacyKeyEncoder) {
         this.redisTemplate = template;
-        this.prefix = configuration.getKeyPrefix() + KEY_DELIMITER + configuration.getConsumerGroupId() + KEY_DELIMITER;
+        this.keyEncoder = keyEncoder;
+        this.legacyKeyEncoder = legacyKeyEncoder;
+    }
+
+    /**
+     * Gets the readable prefix of all the keys of the consumer group.
+     * @param configuration
+     * @return
+     */
+    public static String keyPrefix(final IdealoKafkaIdempotencyAutoconfiguration configuration) {
+        return keyPrefix(configuration.getKeyPrefix(), configuration.getConsumerGroupId());
+    }
+
+    /**
+     * Gets the readable prefix of all the keys of any consumer group.
+     * @param keyPrefix configured prefix of all the keys
+     * @param consumerGroupId
+     * @return
+     */
+    public static String keyPrefix(final String keyPrefix, final String consumerGroupId) {
+        return keyPrefix + KEY_DELIMITER + consumerGroupId + KEY_DELIMITER;
+    }
+
+    /**
+     * Creates a template passing keys and values to the connection as they are.
+     * @param template template providing the connection factory
+     * @return
+     */
+    public static RedisTemplate<byte[], byte[]> rawTemplate(final StringRedisTemplate template) {
+        final var rawTemplate = new RedisTemplate<byte[], byte[]>();
+        rawTemplate.setConnectionFactory(template.getRequiredConnectionFactory());
+        rawTemplate.setEnableDefaultSerializer(false);
+        rawTemplate.afterPropertiesSet();
+        return rawTemplate;
     }
 
     @Override
     public boolean isLogged(RecordIdentity id) {
-        return redisTemplate.hasKey(id.toString(prefix));
+        if (legacyKeyEncoder == null) {
+            return redisTemplate.hasKey(keyEncoder.encode(id));
+        }
+        final var values = redisTemplate.opsForValue().multiGet(List.of(keyEncoder.encode(id), legacyKeyEncoder.encode(id)));
+        return values != null && (values.get(0) != null || values.get(1) != null);
     }
 
+    /**
+     * Writes the marker, or promotes the claim this instance holds on the record.
+     */
     @Override
     public void log(final RecordIdentity id, final Duration ttl) {
-        redisTemplate.opsForValue().set(id.toString(prefix), LOOKUP_VALUE, ttl);
+        final var claim = claims.remove(id);
+        if (claim == null) {
+            redisTemplate.opsForValue().set(keyEncoder.encode(id), LOOKUP_VALUE, ttl);
+            return;
+        }
+        redisTemplate.execute(PROMOTE_SCRIPT, Collections.singletonList(keyEncoder.encode(id)),
+                claim.token, LOOKUP_VALUE, String.valueOf(ttl.toMillis()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Looks up the whole batch with a single MGET.
+     */
+    @Override
+    public List<Boolean> areLogged(final List<RecordIdentity> ids) {
+        final List<Boolean> logged = new ArrayList<>(ids.size());
+        if (ids.isEmpty()) {
+            return logged;
+        }
+
+        final List<byte[]> keys = toKeys(ids, keyEncoder);
+        if (legacyKeyEncoder != null) {
+            keys.addAll(toKeys(ids, legacyKeyEncoder));
+        }
+        final var values = redisTemplate.opsForValue().multiGet(keys);
+        for (int i = 0; i < ids.size(); i++) {
+            logged.add(values != null && (values.get(i) != null || (legacyKeyEncoder != null && values.get(ids.size() + i) != null)));
+        }
+        return logged;
+    }
+
+    /**
+     * Writes all the markers of the batch as pipelined SET ... PX commands; the claims this instance holds are promoted
+     *   by pipelined scripts instead.
+     */
+    @Override
+    public void logAll(final List<RecordIdentity> ids, final Duration ttl) {
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        final List<byte[]> keys = new ArrayList<>(ids.size());
+        final List<byte[][]> promotions = new ArrayList<>();
+        final var millis = String.valueOf(ttl.toMillis()).getBytes(StandardCharsets.UTF_8);
+        for (final var id : ids) {
+            final var claim = claims.remove(id);
+            if (claim == null) {
+                keys.add(keyEncoder.encode(id));
+            } else {
+                promotions.add(new byte[][] { keyEncoder.encode(id), claim.token, LOOKUP_VALUE, millis });
+            }
+        }
+        if (!keys.isEmpty()) {
+            final var expiration = Expiration.milliseconds(ttl.toMillis());
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (final var key : keys) {
+                    connection.set(key, LOOKUP_VALUE, expiration, SetOption.upsert());
+                }
+                return null;
+            });
+        }
+        if (!promotions.isEmpty()) {
+            PipelinedScripts.execute(redisTemplate, PROMOTE_SCRIPT, 1, promotions);
+        }
+    }
+
+    /**
+     * Claims the record with a single SET ... NX PX placing a lease which holds a unique token.
+     * A successful claim is promoted by {@link #log(RecordIdentity, Duration)}, which overwrites the lease with the marker and its full TTL
+     *   as long as the lease still holds the token.
+     */
+    @Override
+    public boolean claim(final RecordIdentity id, final Duration lease) {
+        final var claim = new Claim(lease);
+        final boolean claimed;
+        if (legacyKeyEncoder != null) {
+            claimed = Boolean.TRUE.equals(redisTemplate.execute(CLAIM_WITH_LEGACY_SCRIPT,
+                    List.of(keyEncoder.encode(id), legacyKeyEncoder.encode(id)),
+                    claim.token, String.valueOf(lease.toMillis()).getBytes(StandardCharsets.UTF_8)));
+        } else {
+            claimed = Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(keyEncoder.encode(id), claim.token, lease));
+        }
+        if (claimed) {
+            hold(id, claim);
+        }
+        return claimed;
+    }
+
+    /**
+     * Claims the whole batch with pipelined SET ... NX PX commands.
+     */
+    @Override
+    public List<Boolean> claimAll(final List<RecordIdentity> ids, final Duration lease) {
+        if (legacyKeyEncoder != null) {
+            return RecordIdempotencyLookup.super.claimAll(ids, lease);
+        }
+
+        final List<Boolean> claimed = new ArrayList<>(ids.size());
+        if (ids.isEmpty()) {
+            return claimed;
+        }
+
+        final var keys = toKeys(ids, keyEncoder);
+        final List<Claim> leases = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            leases.add(new Claim(lease));
+        }
+        final var expiration = Expiration.milliseconds(lease.toMillis());
+        final var results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < keys.size(); i++) {
+                connection.set(keys.get(i), leases.get(i).token, expiration, SetOption.ifAbsent());
+            }
+            return null;
+        });
+        for (int i = 0; i < results.size(); i++) {
+            final var success = Boolean.TRUE.equals(results.get(i));
+            if (success) {
+                hold(ids.get(i), leases.get(i));
+            }
+            claimed.add(success);
+        }
+        return claimed;
+    }
+
+    /**
+     * Releases the claim this instance holds on the record, if it still holds the token; otherwise there is nothing to release.
+     */
+    @Override
+    public void release(final RecordIdentity id) {
+        final var claim = claims.remove(id);
+        if (claim != null) {
+            redisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(keyEncoder.encode(id)), claim.token);
+        }
+    }
+
+    private void hold(final RecordIdentity id, final Claim claim) {
+        claims.put(id, claim);
+        if (claims.size() >= pruneSize) {
+            final var now = System.nanoTime();
+            claims.values().removeIf(held -> now - held.prunableAt >= 0);
+            pruneSize = Math.max(MIN_PRUNE_SIZE, 2 * claims.size());
+        }
+    }
+
+    private static List<byte[]> toKeys(final List<RecordIdentity> ids, final RecordKeyEncoder encoder) {
+        final List<byte[]> keys = new ArrayList<>(ids.size());
+        for (final var id : ids) {
+            keys.add(encoder.encode(id));
+        }
+        return keys;
+    }
+
+    private static final class Claim {
+
+        private final byte[] token = UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+
+        /**
+         * The claim is kept for twice its lease, so that a listener having overrun its lease still does not overwrite the claim
+         *   of another consumer.
+         */
+        private final long prunableAt;
+
+        private Claim(final Duration lease) {
+            this.prunableAt = System.nanoTime() + 2 * lease.toNanos();
+        }
     }
 
 }
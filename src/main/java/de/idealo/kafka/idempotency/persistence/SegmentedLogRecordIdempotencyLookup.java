@@ -0,0 +1,44 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.time.Duration;
+import java.util.List;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Keeps the markers locally in a {@link SegmentedLogStore}, without any network round-trip.
+ * Note that claims are not atomic: they are only looked up.
+ */
+public class SegmentedLogRecordIdempotencyLookup implements RecordIdempotencyLookup {
+
+    private final SegmentedLogStore store;
+
+    public SegmentedLogRecordIdempotencyLookup(final SegmentedLogStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public boolean isLogged(final RecordIdentity id) {
+        return store.contains(id);
+    }
+
+    @Override
+    public void log(final RecordIdentity id, final Duration ttl) {
+        store.add(id, ttl);
+    }
+
+    @Override
+    public List<Boolean> areLogged(final List<RecordIdentity> ids) {
+        return store.containsAll(ids);
+    }
+
+    @Override
+    public void logAll(final List<RecordIdentity> ids, final Duration ttl) {
+        store.addAll(ids, ttl);
+    }
+
+    @Override
+    public void flush() {
+        store.flush();
+    }
+}
@@ -0,0 +1,371 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Local persistence of the markers in a directory of append-only, memory-mapped segment files, e.g.
+ *   /var/lib/myconsumer/idempotency/segment-00000000000000000042.log
+ * Every marker is appended as the 128-bit digest of the record (see {@link HashedRecordKeyEncoder}) followed by its expiry,
+ *   20 bytes in total, and indexed in a {@link MarkerIndex}, so a lookup never touches the disk. The index is rebuilt from
+ *   the segments at startup. A new segment is started when the current one is full or older than the segment duration,
+ *   so the markers expire by deleting whole segments once all their markers have expired.
+ * The segments are written through the page cache: the markers survive a crash of the process at once, but a crash of
+ *   the operating system only after {@link #flush()} (e.g. before the offsets are committed when write-behind is enabled).
+ * Only a single process may use the directory at a time.
+ */
+public class SegmentedLogStore implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedLogStore.class);
+
+    private static final int MAGIC = 0x49444d50;
+
+    private static final int VERSION = 1;
+
+    /**
+     * Magic number, version and creation time.
+     */
+    private static final int HEADER_LENGTH = 16;
+
+    /**
+     * Digest (16 bytes) and expiry (4 bytes).
+     */
+    private static final int ENTRY_LENGTH = 20;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+
+    private final HashedRecordKeyEncoder hasher;
+
+    private final int entriesPerSegment;
+
+    private final long segmentMillis;
+
+    private final MarkerIndex index;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * All the segments from the oldest one to the current one.
+     */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private final Duration recoveryTime;
+
+    private long nextSequence;
+
+    /**
+     * @param directory directory holding the segments; created if missing
+     * @param prefix key prefix including the consumer group, which the digests are computed with
+     * @param segmentBytes size of a segment file
+     * @param segmentDuration maximum time a segment is appended to
+     * @param expectedSize number of markers the index is sized for initially
+     */
+    public SegmentedLogStore(final Path directory, final String prefix, final long segmentBytes, final Duration segmentDuration,
+            final int expectedSize) {
+        if (segmentBytes < HEADER_LENGTH + ENTRY_LENGTH || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The segment size must be between " + (HEADER_LENGTH + ENTRY_LENGTH) + " bytes and 2 GiB");
+        }
+        this.directory = directory;
+        this.hasher = new HashedRecordKeyEncoder(prefix);
+        this.entriesPerSegment = (int) ((segmentBytes - HEADER_LENGTH) / ENTRY_LENGTH);
+        this.segmentMillis = segmentDuration.toMillis();
+        this.index = new MarkerIndex(expectedSize);
+
+        final var started = System.nanoTime();
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not recover the idempotency markers from " + directory, e);
+        }
+        this.recoveryTime = Duration.ofNanos(System.nanoTime() - started);
+        LOG.info("Recovered {} idempotency markers from {} segments in {} ms", index.size(), segments.size(), recoveryTime.toMillis());
+    }
+
+    public boolean contains(final RecordIdentity id) {
+        final var digest = digest(id);
+        final var now = MarkerIndex.toExpiry(System.currentTimeMillis());
+        lock.readLock().lock();
+        try {
+            return index.get(digest.getLong(), digest.getLong()) > now;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Boolean> containsAll(final List<RecordIdentity> ids) {
+        final List<ByteBuffer> digests = new ArrayList<>(ids.size());
+        for (final var id : ids) {
+            digests.add(digest(id));
+        }
+
+        final List<Boolean> contained = new ArrayList<>(ids.size());
+        final var now = MarkerIndex.toExpiry(System.currentTimeMillis());
+        lock.readLock().lock();
+        try {
+            for (final var digest : digests) {
+                contained.add(index.get(digest.getLong(), digest.getLong()) > now);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return contained;
+    }
+
+    public void add(final RecordIdentity id, final Duration ttl) {
+        addAll(List.of(id), ttl);
+    }
+
+    public void addAll(final List<RecordIdentity> ids, final Duration ttl) {
+        final var now = System.currentTimeMillis();
+        final var expiry = MarkerIndex.toExpiry(now + ttl.toMillis());
+        lock.writeLock().lock();
+        try {
+            for (final var id : ids) {
+                final var digest = digest(id);
+                final var high = digest.getLong();
+                final var low = digest.getLong();
+                current(now).append(high, low, expiry);
+                index.put(high, low, expiry);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces the current segment to the disk.
+     */
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            if (!segments.isEmpty()) {
+                segments.getLast().buffer.force();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            for (final var segment : segments) {
+                segment.buffer.force();
+                segment.close();
+            }
+            segments.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the time it took to rebuild the index from the segments at startup.
+     * @return
+     */
+    public Duration getRecoveryTime() {
+        return recoveryTime;
+    }
+
+    /**
+     * Indexes the markers of all the segments which have not expired yet, deleting the expired segments.
+     */
+    private void recover() throws IOException {
+        final List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                    && path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        final var now = MarkerIndex.toExpiry(System.currentTimeMillis());
+        for (final var path : paths) {
+            final var name = path.getFileName().toString();
+            nextSequence = Math.max(nextSequence,
+                    Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())) + 1);
+
+            final var segment = Segment.open(path);
+            if (segment.maxExpiry <= now) {
+                segment.close();
+                Files.delete(path);
+                continue;
+            }
+            for (int i = 0; i < segment.count; i++) {
+                final var position = HEADER_LENGTH + i * ENTRY_LENGTH;
+                final var expiry = segment.buffer.getInt(position + 16);
+                if (expiry > now) {
+                    index.put(segment.buffer.getLong(position), segment.buffer.getLong(position + 8), expiry);
+                }
+            }
+            segments.addLast(segment);
+        }
+    }
+
+    /**
+     * Gets the segment to append to, starting a new one if needed. Must be called under the write lock.
+     * @param now
+     * @return
+     */
+    private Segment current(final long now) {
+        final var last = segments.peekLast();
+        if (last != null && last.count < last.capacity && now - last.createdAt < segmentMillis) {
+            return last;
+        }
+
+        if (last != null) {
+            last.buffer.force();
+        }
+        dropExpired(MarkerIndex.toExpiry(now));
+        try {
+            final var segment = Segment.create(directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSequence++, SEGMENT_SUFFIX)),
+                    entriesPerSegment, now);
+            segments.addLast(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create a new segment in " + directory, e);
+        }
+    }
+
+    /**
+     * Deletes the oldest segments as long as all their markers have expired, removing the markers from the index unless
+     *  they have been logged again later. Must be called under the write lock.
+     * @param now
+     */
+    private void dropExpired(final int now) {
+        while (!segments.isEmpty() && segments.getFirst().maxExpiry <= now) {
+            final var segment = segments.removeFirst();
+            for (int i = 0; i < segment.count; i++) {
+                final var position = HEADER_LENGTH + i * ENTRY_LENGTH;
+                index.removeIfNotAfter(segment.buffer.getLong(position), segment.buffer.getLong(position + 8),
+                        segment.buffer.getInt(position + 16));
+            }
+            segment.close();
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                LOG.warn("Could not delete the expired segment {}", segment.path, e);
+            }
+        }
+    }
+
+    private ByteBuffer digest(final RecordIdentity id) {
+        return ByteBuffer.wrap(hasher.encode(id), 4, 16);
+    }
+
+    private static class Segment {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        private final long createdAt;
+        private int count;
+        private int maxExpiry;
+
+        private Segment(final Path path, final FileChannel channel, final MappedByteBuffer buffer, final int capacity, final long createdAt) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.createdAt = createdAt;
+        }
+
+        private static Segment create(final Path path, final int capacity, final long now) throws IOException {
+            final var channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            final var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH + (long) capacity * ENTRY_LENGTH);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, now);
+            return new Segment(path, channel, buffer, capacity, now);
+        }
+
+        /**
+         * Opens an existing segment, counting its entries up to the first empty one. The segment is not appended to anymore.
+         */
+        private static Segment open(final Path path) throws IOException {
+            final var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            final var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (channel.size() < HEADER_LENGTH || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                channel.close();
+                throw new IOException("Not a segment of idempotency markers: " + path);
+            }
+
+            final var fileCapacity = (int) ((channel.size() - HEADER_LENGTH) / ENTRY_LENGTH);
+            final var segment = new Segment(path, channel, buffer, 0, buffer.getLong(8));
+            while (segment.count < fileCapacity) {
+                final var expiry = buffer.getInt(HEADER_LENGTH + segment.count * ENTRY_LENGTH + 16);
+                if (expiry == 0) {
+                    break;
+                }
+                segment.maxExpiry = Math.max(segment.maxExpiry, expiry);
+                segment.count++;
+            }
+            return segment;
+        }
+
+        /**
+         * Writes the expiry last, as a non-zero expiry marks a complete entry on recovery.
+         */
+        private void append(final long high, final long low, final int expiry) {
+            final var position = HEADER_LENGTH + count * ENTRY_LENGTH;
+            buffer.putLong(position, high);
+            buffer.putLong(position + 8, low);
+            buffer.putInt(position + 16, expiry);
+            count++;
+            maxExpiry = Math.max(maxExpiry, expiry);
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.warn("Could not close the segment {}", path, e);
+            }
+        }
+    }
+}
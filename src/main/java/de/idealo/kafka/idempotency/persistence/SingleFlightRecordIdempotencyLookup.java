@@ -0,0 +1,384 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Decorates any {@link RecordIdempotencyLookup}, so that the consumer threads of this instance do not look up the same
+ *   identity concurrently, nor process it concurrently, e.g. with a listener concurrency above one or an event id spread over
+ *   several partitions.
+ * Concurrent lookups of the same identity share a single call to the persistence (batches are merged per identity).
+ *   An identity which has not been logged is registered as in flight by the thread which is going to process it, until
+ *   its marker is logged or released. Another thread looking up an identity in flight follows the {@link InFlightPolicy}.
+ * The registrations are held in concurrent hash maps (no global lock), and expire after the lease in case a listener never
+ *   logs nor releases its record, e.g. as it has failed without claims. The thread owning a registration is never held back,
+ *   so a record redelivered to the same consumer after a failure is processed again.
+ * It narrows the window of duplicate processing within one instance, but only the claims are atomic across instances.
+ */
+public class SingleFlightRecordIdempotencyLookup implements RecordIdempotencyLookup, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SingleFlightRecordIdempotencyLookup.class);
+
+    private static final int SWEEP_INTERVAL = 1024;
+
+    /**
+     * Handling of an identity which is processed by another thread of this instance.
+     */
+    public enum InFlightPolicy {
+        /**
+         * Wait until the other thread has logged or released it (at most {@code maxWait}), then look it up again.
+         */
+        WAIT,
+        /**
+         * Treat it as logged, i.e. skip the record.
+         */
+        SKIP,
+        /**
+         * Process it anyway; only the lookups are shared.
+         */
+        PROCEED
+    }
+
+    private final RecordIdempotencyLookup delegate;
+
+    private final InFlightPolicy policy;
+
+    private final long maxWaitNanos;
+
+    private final long leaseNanos;
+
+    private final Map<RecordIdentity, CompletableFuture<Boolean>> lookups = new ConcurrentHashMap<>();
+
+    private final Map<RecordIdentity, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicInteger registrations = new AtomicInteger();
+
+    private final LongAdder coalescedCount = new LongAdder();
+
+    private final LongAdder heldCount = new LongAdder();
+
+    private final LongAdder skippedCount = new LongAdder();
+
+    /**
+     * @param delegate
+     * @param policy handling of the identities processed by another thread
+     * @param maxWait maximum time a thread waits for another one with {@link InFlightPolicy#WAIT}
+     * @param lease time after which a registration expires if its record has been neither logged nor released
+     */
+    public SingleFlightRecordIdempotencyLookup(final RecordIdempotencyLookup delegate, final InFlightPolicy policy, final Duration maxWait,
+            final Duration lease) {
+        this.delegate = delegate;
+        this.policy = policy;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.leaseNanos = lease.toNanos();
+    }
+
+    @Override
+    public boolean isLogged(final RecordIdentity id) {
+        return areLogged(List.of(id)).get(0);
+    }
+
+    @Override
+    public List<Boolean> areLogged(final List<RecordIdentity> ids) {
+        final var waited = new boolean[ids.size()];
+        final var logged = new Boolean[ids.size()];
+        final List<RecordIdentity> shared = new ArrayList<>(ids.size());
+        final List<RecordIdentity> fresh = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            final var id = ids.get(i);
+            final var other = othersInFlight(id);
+            if (other == null || policy == InFlightPolicy.PROCEED) {
+                shared.add(id);
+            } else if (policy == InFlightPolicy.SKIP) {
+                skippedCount.increment();
+                logged[i] = true;
+            } else {
+                await(other);
+                waited[i] = true;
+                fresh.add(id);
+            }
+        }
+        final var sharedFound = lookUp(shared);
+        // not shared, as a shared lookup might have started before the other thread logged the marker
+        final var freshFound = fresh.isEmpty() ? List.<Boolean>of() : fresh.size() == 1 ? List.of(delegate.isLogged(fresh.get(0))) : delegate.areLogged(fresh);
+        for (int i = 0, s = 0, f = 0; i < ids.size(); i++) {
+            if (logged[i] == null) {
+                final boolean found = waited[i] ? freshFound.get(f++) : sharedFound.get(s++);
+                logged[i] = found || !process(ids.get(i), waited[i]);
+            }
+        }
+        return List.of(logged);
+    }
+
+    @Override
+    public void log(final RecordIdentity id, final Duration ttl) {
+        try {
+            delegate.log(id, ttl);
+        } finally {
+            complete(id);
+        }
+    }
+
+    @Override
+    public void logAll(final List<RecordIdentity> ids, final Duration ttl) {
+        try {
+            delegate.logAll(ids, ttl);
+        } finally {
+            ids.forEach(this::complete);
+        }
+    }
+
+    /**
+     * The claims are atomic already, so they are passed on as they are.
+     */
+    @Override
+    public boolean claim(final RecordIdentity id, final Duration lease) {
+        return delegate.claim(id, lease);
+    }
+
+    @Override
+    public List<Boolean> claimAll(final List<RecordIdentity> ids, final Duration lease) {
+        return delegate.claimAll(ids, lease);
+    }
+
+    @Override
+    public void release(final RecordIdentity id) {
+        try {
+            delegate.release(id);
+        } finally {
+            complete(id);
+        }
+    }
+
+    @Override
+    public void releaseAll(final List<RecordIdentity> ids) {
+        try {
+            delegate.releaseAll(ids);
+        } finally {
+            ids.forEach(this::complete);
+        }
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    /**
+     * Closes the decorated lookup, e.g. flushes the write-behind. A checked exception of the decorated lookup is only logged.
+     */
+    @Override
+    public void close() {
+        if (delegate instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) delegate).close();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                LOG.error("Could not close the decorated idempotency lookup", e);
+            }
+        }
+    }
+
+    public RecordIdempotencyLookup getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return number of identities registered as in flight, including the expired ones which have not been swept yet
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return number of identities whose lookup has been shared with another thread
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    /**
+     * @return number of times a thread has waited for another one processing the same identity
+     */
+    public long getHeldCount() {
+        return heldCount.sum();
+    }
+
+    /**
+     * @return number of identities skipped as another thread was processing them
+     */
+    public long getSkippedCount() {
+        return skippedCount.sum();
+    }
+
+    /**
+     * Registers the identity which has not been logged as in flight, unless another thread has registered it meanwhile
+     *   (e.g. as both have shared the lookup), in which case the policy applies once more.
+     * @param id
+     * @param waited true if the caller has waited for another thread already
+     * @return true if the caller is to process the record
+     */
+    private boolean process(final RecordIdentity id, final boolean waited) {
+        if (register(id) || waited || policy == InFlightPolicy.PROCEED) {
+            return true;
+        }
+        final var other = othersInFlight(id);
+        if (other != null && policy == InFlightPolicy.SKIP) {
+            skippedCount.increment();
+            return false;
+        }
+        if (other != null) {
+            await(other);
+        }
+        if (delegate.isLogged(id)) {
+            return false;
+        }
+        register(id);
+        return true;
+    }
+
+    /**
+     * Looks up the identities, sharing the calls to the persistence with the concurrent lookups of the same identities.
+     */
+    private List<Boolean> lookUp(final List<RecordIdentity> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        final List<CompletableFuture<Boolean>> results = new ArrayList<>(ids.size());
+        final List<RecordIdentity> own = new ArrayList<>(ids.size());
+        final List<CompletableFuture<Boolean>> ownResults = new ArrayList<>(ids.size());
+        for (final var id : ids) {
+            final var result = new CompletableFuture<Boolean>();
+            final var shared = lookups.putIfAbsent(id, result);
+            if (shared == null) {
+                own.add(id);
+                ownResults.add(result);
+                results.add(result);
+            } else {
+                coalescedCount.increment();
+                results.add(shared);
+            }
+        }
+        if (!own.isEmpty()) {
+            try {
+                final var found = own.size() == 1 ? List.of(delegate.isLogged(own.get(0))) : delegate.areLogged(own);
+                for (int i = 0; i < own.size(); i++) {
+                    ownResults.get(i).complete(found.get(i));
+                }
+            } catch (RuntimeException | Error e) {
+                ownResults.forEach(result -> result.completeExceptionally(e));
+                throw e;
+            } finally {
+                for (int i = 0; i < own.size(); i++) {
+                    lookups.remove(own.get(i), ownResults.get(i));
+                }
+            }
+        }
+        final List<Boolean> found = new ArrayList<>(ids.size());
+        for (final var result : results) {
+            found.add(join(result));
+        }
+        return found;
+    }
+
+    private boolean register(final RecordIdentity id) {
+        final var current = Thread.currentThread();
+        final var now = System.nanoTime();
+        final var registration = new InFlight(current, now + leaseNanos);
+        final var registered = inFlight.compute(id, (key, other) -> {
+            if (other == null || other.owner == current || other.isExpired(now)) {
+                if (other != null) {
+                    other.done.countDown();
+                }
+                return registration;
+            }
+            return other;
+        });
+        if (registrations.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            inFlight.values().removeIf(entry -> entry.isExpired(now) && entry.complete());
+        }
+        return registered == registration;
+    }
+
+    private InFlight othersInFlight(final RecordIdentity id) {
+        final var other = inFlight.get(id);
+        if (other == null || other.owner == Thread.currentThread()) {
+            return null;
+        }
+        if (other.isExpired(System.nanoTime())) {
+            if (inFlight.remove(id, other)) {
+                other.complete();
+            }
+            return null;
+        }
+        return other;
+    }
+
+    private void await(final InFlight other) {
+        heldCount.increment();
+        try {
+            other.done.await(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void complete(final RecordIdentity id) {
+        final var registration = inFlight.remove(id);
+        if (registration != null) {
+            registration.complete();
+        }
+    }
+
+    private static boolean join(final CompletableFuture<Boolean> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Registration of an identity processed by a thread.
+     */
+    private static class InFlight {
+
+        private final Thread owner;
+
+        private final long expiresAt;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        InFlight(final Thread owner, final long expiresAt) {
+            this.owner = owner;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(final long now) {
+            return now - expiresAt >= 0;
+        }
+
+        boolean complete() {
+            done.countDown();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+/**
+ * Decorates any {@link RecordIdempotencyLookup} with an asynchronous write-behind of the markers.
+ * A logged marker is put into a bounded local queue and persisted by a background writer in batches, as soon as a batch
+ *   is full or the flush interval has passed. If the queue is full, the consumer thread flushes it on its own.
+ *   Until a marker has been persisted, the lookups find it in the queue.
+ * In order not to lose a marker of a committed offset, {@link #flush()} must be called before the offsets are committed
+ *   and when partitions are revoked, which {@link de.idealo.kafka.idempotency.WriteBehindConsumerFactoryPostProcessor}
+ *   takes care of. A batch which could not be persisted is put back to the queue, unless the queue is full, in which case
+ *   its markers are dropped.
+ */
+public class WriteBehindRecordIdempotencyLookup implements RecordIdempotencyLookup, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindRecordIdempotencyLookup.class);
+
+    private final RecordIdempotencyLookup delegate;
+
+    private final BlockingDeque<Marker> queue;
+
+    /**
+     * Number of queued markers per identity, so that the lookups do not need to scan the queue.
+     */
+    private final Map<RecordIdentity, Integer> pending = new ConcurrentHashMap<>();
+
+    private final int batchSize;
+
+    private final Object flushLock = new Object();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final ScheduledExecutorService flusher;
+
+    private final LongAdder flushedCount = new LongAdder();
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    private final LongAdder flushCount = new LongAdder();
+
+    private final AtomicLong lastFlushLatencyNanos = new AtomicLong();
+
+    private final AtomicLong maxFlushLatencyNanos = new AtomicLong();
+
+    /**
+     * @param delegate lookup the markers are persisted with
+     * @param queueCapacity maximum number of markers waiting to be persisted
+     * @param batchSize maximum number of markers persisted at once
+     * @param flushInterval maximum time a marker waits in the queue, unless the persistence fails
+     */
+    public WriteBehindRecordIdempotencyLookup(final RecordIdempotencyLookup delegate, final int queueCapacity, final int batchSize,
+            final Duration flushInterval) {
+        if (queueCapacity <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("The queue capacity and the batch size must be positive");
+        }
+        this.delegate = delegate;
+        this.queue = new LinkedBlockingDeque<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final var thread = new Thread(runnable, "idempotency-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean isLogged(final RecordIdentity id) {
+        return pending.containsKey(id) || delegate.isLogged(id);
+    }
+
+    @Override
+    public void log(final RecordIdentity id, final Duration ttl) {
+        enqueue(new Marker(id, ttl));
+        requestFlushIfBatchFull();
+    }
+
+    @Override
+    public List<Boolean> areLogged(final List<RecordIdentity> ids) {
+        final List<Boolean> logged = new ArrayList<>(ids.size());
+        final List<RecordIdentity> misses = new ArrayList<>();
+        for (final var id : ids) {
+            final var hit = pending.containsKey(id);
+            logged.add(hit);
+            if (!hit) {
+                misses.add(id);
+            }
+        }
+        return merge(logged, misses.isEmpty() ? List.of() : delegate.areLogged(misses));
+    }
+
+    @Override
+    public void logAll(final List<RecordIdentity> ids, final Duration ttl) {
+        for (final var id : ids) {
+            enqueue(new Marker(id, ttl));
+        }
+        requestFlushIfBatchFull();
+    }
+
+    /**
+     * A record still waiting in the queue has been processed already, hence it cannot be claimed.
+     */
+    @Override
+    public boolean claim(final RecordIdentity id, final Duration lease) {
+        return !pending.containsKey(id) && delegate.claim(id, lease);
+    }
+
+    @Override
+    public List<Boolean> claimAll(final List<RecordIdentity> ids, final Duration lease) {
+        final List<Boolean> queued = new ArrayList<>(ids.size());
+        final List<RecordIdentity> others = new ArrayList<>();
+        for (final var id : ids) {
+            final var hit = pending.containsKey(id);
+            queued.add(hit);
+            if (!hit) {
+                others.add(id);
+            }
+        }
+
+        final var claimed = merge(queued, others.isEmpty() ? List.of() : delegate.claimAll(others, lease));
+        for (int i = 0; i < claimed.size(); i++) {
+            if (queued.get(i)) {
+                claimed.set(i, false);
+            }
+        }
+        return claimed;
+    }
+
+    @Override
+    public void release(final RecordIdentity id) {
+        delegate.release(id);
+    }
+
+    @Override
+    public void releaseAll(final List<RecordIdentity> ids) {
+        delegate.releaseAll(ids);
+    }
+
+    /**
+     * Persists all the queued markers in batches on the calling thread.
+     * If a batch cannot be persisted, it is put back to the queue and the exception is rethrown, so that the offsets
+     *  are not committed.
+     */
+    @Override
+    public void flush() {
+        synchronized (flushLock) {
+            flushRequested.set(false);
+            final List<Marker> batch = new ArrayList<>(batchSize);
+            while (queue.drainTo(batch, batchSize) > 0) {
+                write(batch);
+                batch.clear();
+            }
+        }
+        delegate.flush();
+    }
+
+    /**
+     * Stops the background writer and persists the queued markers. Markers which cannot be persisted are dropped.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOG.error("Dropped {} idempotency markers which could not be persisted on shutdown", queue.size(), e);
+            droppedCount.add(queue.size());
+            queue.clear();
+        }
+    }
+
+    /**
+     * Gets the number of markers waiting to be persisted.
+     * @return
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Gets the number of markers persisted so far.
+     * @return
+     */
+    public long getFlushedCount() {
+        return flushedCount.sum();
+    }
+
+    /**
+     * Gets the number of markers which could neither be persisted nor put back to the queue.
+     * @return
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * Gets the number of batches persisted so far.
+     * @return
+     */
+    public long getFlushCount() {
+        return flushCount.sum();
+    }
+
+    public Duration getLastFlushLatency() {
+        return Duration.ofNanos(lastFlushLatencyNanos.get());
+    }
+
+    public Duration getMaxFlushLatency() {
+        return Duration.ofNanos(maxFlushLatencyNanos.get());
+    }
+
+    private void enqueue(final Marker marker) {
+        pending.merge(marker.id, 1, Integer::sum);
+        try {
+            while (!queue.offerLast(marker)) {
+                // back-pressure: the consumer thread persists the queue on its own
+                flush();
+            }
+        } catch (RuntimeException e) {
+            unpend(marker.id);
+            throw e;
+        }
+    }
+
+    private void requestFlushIfBatchFull() {
+        if (queue.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Persists one batch, grouped by the TTL of the markers.
+     * @param batch
+     */
+    private void write(final List<Marker> batch) {
+        final var started = System.nanoTime();
+        final Map<Duration, List<RecordIdentity>> idsByTtl = new LinkedHashMap<>();
+        for (final var marker : batch) {
+            idsByTtl.computeIfAbsent(marker.ttl, ttl -> new ArrayList<>()).add(marker.id);
+        }
+
+        try {
+            for (final var entry : idsByTtl.entrySet()) {
+                delegate.logAll(entry.getValue(), entry.getKey());
+            }
+        } catch (RuntimeException e) {
+            requeue(batch);
+            throw e;
+        }
+
+        for (final var marker : batch) {
+            unpend(marker.id);
+        }
+        final var latency = System.nanoTime() - started;
+        lastFlushLatencyNanos.set(latency);
+        maxFlushLatencyNanos.accumulateAndGet(latency, Math::max);
+        flushedCount.add(batch.size());
+        flushCount.increment();
+    }
+
+    /**
+     * Puts the batch back to the head of the queue in its original order. Markers which do not fit anymore are dropped.
+     * @param batch
+     */
+    private void requeue(final List<Marker> batch) {
+        var dropped = 0;
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            final var marker = batch.get(i);
+            if (!queue.offerFirst(marker)) {
+                unpend(marker.id);
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            LOG.error("Dropped {} idempotency markers which could not be persisted", dropped);
+            droppedCount.add(dropped);
+        }
+    }
+
+    private void unpend(final RecordIdentity id) {
+        pending.computeIfPresent(id, (key, count) -> count == 1 ? null : count - 1);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Throwable e) { // NOSONAR
+            LOG.error("Could not persist the queued idempotency markers", e);
+        }
+    }
+
+    /**
+     * Fills the gaps (false flags) with the results of the delegate, in order.
+     */
+    private static List<Boolean> merge(final List<Boolean> flags, final List<Boolean> fromDelegate) {
+        final List<Boolean> merged = new ArrayList<>(flags);
+        int n = 0;
+        for (int i = 0; i < merged.size(); i++) {
+            if (!merged.get(i)) {
+                merged.set(i, fromDelegate.get(n++));
+            }
+        }
+        return merged;
+    }
+
+    private static class Marker {
+
+        private final RecordIdentity id;
+        private final Duration ttl;
+
+        private Marker(final RecordIdentity id, final Duration ttl) {
+            this.id = id;
+            this.ttl = ttl;
+        }
+    }
+}
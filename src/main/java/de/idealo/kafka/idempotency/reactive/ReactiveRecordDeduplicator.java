@@ -0,0 +1,254 @@
+package de.idealo.kafka.idempotency.reactive;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.kafka.receiver.ReceiverOffset;
+import reactor.kafka.receiver.ReceiverPartition;
+import reactor.kafka.receiver.ReceiverRecord;
+
+import de.idealo.kafka.idempotency.ConsumerRecordIdentityResolver;
+import de.idealo.kafka.idempotency.IdempotencyCheckException;
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.persistence.ReactiveRecordIdempotencyLookup;
+
+/**
+ * Flux operator dropping the records of a reactor-kafka receiver which have already been consumed.
+ * The records are looked up in windows (up to a maximum size or time), each window within one round-trip. The marker of
+ *   a passed record is persisted when it is acknowledged (or committed) downstream, and the acknowledgement is only
+ *   passed on to the receiver after the marker has been persisted. The markers are persisted concurrently, but the
+ *   acknowledgements (and commits) of a partition are passed on in the order of the offsets, each once the markers of all the
+ *   preceding records have been persisted, so the committed offset never goes back nor skips a record still in flight.
+ *   Hence every passed record must be acknowledged or committed downstream. The acknowledgement of a record whose marker
+ *   could not be persisted is not passed on.
+ * Dropped duplicates are acknowledged in the same order, so that a replay consisting of duplicates only is committed as well.
+ * The pending acknowledgements of revoked partitions are discarded by {@link #onPartitionsRevoked(Collection)}, to be registered
+ *   as a revoke listener of the receiver options.
+ */
+public class ReactiveRecordDeduplicator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReactiveRecordDeduplicator.class);
+
+    private final ReactiveRecordIdempotencyLookup lookup;
+
+    private final ConsumerRecordIdentityResolver identityResolver;
+
+    private final Duration ttl;
+
+    private final int maxBatchSize;
+
+    private final Duration maxBatchWait;
+
+    /**
+     * Acknowledgements of the received records per partition, in the order of their offsets.
+     */
+    private final Map<TopicPartition, Queue<PendingAcknowledgement>> pendingAcknowledgements = new ConcurrentHashMap<>();
+
+    /**
+     * @param lookup
+     * @param identityResolver resolver of the record identities
+     * @param ttl TTL for the idempotency markers
+     * @param maxBatchSize maximum number of records looked up at once
+     * @param maxBatchWait maximum time a record waits for its window to be looked up
+     */
+    public ReactiveRecordDeduplicator(final ReactiveRecordIdempotencyLookup lookup, final ConsumerRecordIdentityResolver identityResolver,
+            final Duration ttl, final int maxBatchSize, final Duration maxBatchWait) {
+        this.lookup = lookup;
+        this.identityResolver = identityResolver;
+        this.ttl = ttl;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchWait = maxBatchWait;
+    }
+
+    /**
+     * @param records records of the receiver
+     * @param <K>
+     * @param <V>
+     * @return the records which have not been consumed yet, in the same order
+     */
+    public <K, V> Flux<ReceiverRecord<K, V>> deduplicate(final Flux<ReceiverRecord<K, V>> records) {
+        return records
+                .bufferTimeout(maxBatchSize, maxBatchWait)
+                .concatMap(this::filter);
+    }
+
+    /**
+     * Discards the pending acknowledgements of the revoked partitions, e.g.
+     *   {@code receiverOptions.addRevokeListener(deduplicator::onPartitionsRevoked)}.
+     * @param partitions
+     */
+    public void onPartitionsRevoked(final Collection<ReceiverPartition> partitions) {
+        for (final var partition : partitions) {
+            final var pending = pendingAcknowledgements.remove(partition.topicPartition());
+            if (pending != null) {
+                synchronized (pending) {
+                    pending.stream()
+                            .filter(acknowledgement -> acknowledgement.commit != null)
+                            .forEach(acknowledgement -> acknowledgement.commit.error(
+                                    new IllegalStateException("The partition " + partition.topicPartition() + " has been revoked")));
+                    pending.clear();
+                }
+            }
+        }
+    }
+
+    private <K, V> Flux<ReceiverRecord<K, V>> filter(final List<ReceiverRecord<K, V>> batch) {
+        final List<RecordIdentity> ids = new ArrayList<>(batch.size());
+        try {
+            for (final var record : batch) {
+                ids.add(identityResolver.resolve(record));
+            }
+        } catch (IdempotencyCheckException e) {
+            return Flux.error(e);
+        }
+
+        return lookup.areLogged(ids).flatMapIterable(logged -> {
+            final List<ReceiverRecord<K, V>> passed = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                final var record = batch.get(i);
+                final var pending = pendingAcknowledgements(new TopicPartition(record.topic(), record.partition()));
+                final var acknowledgement = new PendingAcknowledgement(record.receiverOffset());
+                synchronized (pending) {
+                    pending.add(acknowledgement);
+                }
+                if (logged.get(i)) {
+                    LOG.debug("The record {} is skipped due to idempotency check", ids.get(i));
+                    acknowledgement.complete(pending, null);
+                } else {
+                    passed.add(new ReceiverRecord<>(record, new MarkingReceiverOffset(ids.get(i), pending, acknowledgement)));
+                }
+            }
+            return passed;
+        });
+    }
+
+    private Queue<PendingAcknowledgement> pendingAcknowledgements(final TopicPartition topicPartition) {
+        return pendingAcknowledgements.computeIfAbsent(topicPartition, partition -> new ArrayDeque<>());
+    }
+
+    /**
+     * Persists the marker of the record before passing on the acknowledgement or the commit.
+     */
+    private class MarkingReceiverOffset implements ReceiverOffset {
+
+        private final RecordIdentity id;
+        private final Queue<PendingAcknowledgement> pending;
+        private final PendingAcknowledgement acknowledgement;
+
+        private MarkingReceiverOffset(final RecordIdentity id, final Queue<PendingAcknowledgement> pending,
+                final PendingAcknowledgement acknowledgement) {
+            this.id = id;
+            this.pending = pending;
+            this.acknowledgement = acknowledgement;
+        }
+
+        @Override
+        public TopicPartition topicPartition() {
+            return acknowledgement.delegate.topicPartition();
+        }
+
+        @Override
+        public long offset() {
+            return acknowledgement.delegate.offset();
+        }
+
+        @Override
+        public void acknowledge() {
+            log();
+        }
+
+        /**
+         * @return completes once the commit of the receiver has completed, i.e. after the markers of this record and of all
+         *   the preceding ones of the partition have been persisted
+         */
+        @Override
+        public Mono<Void> commit() {
+            return Mono.create(commit -> {
+                final boolean passedOn;
+                synchronized (pending) {
+                    passedOn = acknowledgement.passedOn;
+                    acknowledgement.commit = commit;
+                }
+                if (passedOn) {
+                    acknowledgement.delegate.commit().subscribe(null, commit::error, commit::success);
+                } else {
+                    log();
+                }
+            });
+        }
+
+        private void log() {
+            lookup.log(id, ttl).subscribe(null,
+                    e -> {
+                        LOG.error("Could not save idempotency marker for the record {}", id, e);
+                        acknowledgement.complete(pending, e);
+                    },
+                    () -> acknowledgement.complete(pending, null));
+        }
+    }
+
+    /**
+     * Acknowledgement of a received record waiting for its marker, and for the ones of the preceding records of the partition.
+     */
+    private static class PendingAcknowledgement {
+
+        private final ReceiverOffset delegate;
+        private boolean completed;
+        private boolean passedOn;
+        private Throwable failure;
+
+        /**
+         * Set if the record is committed instead of acknowledged.
+         */
+        private MonoSink<Void> commit;
+
+        private PendingAcknowledgement(final ReceiverOffset delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * Passes on the acknowledgements at the head of the partition whose markers have been persisted.
+         * Only the first completion counts, e.g. if a record is acknowledged twice.
+         * @param pending acknowledgements of the partition, in the order of the offsets
+         * @param failure why the marker could not be persisted; null if it has been persisted (or is not needed)
+         */
+        private void complete(final Queue<PendingAcknowledgement> pending, final Throwable failure) {
+            synchronized (pending) {
+                if (completed) {
+                    return;
+                }
+                this.completed = true;
+                this.failure = failure;
+                while (!pending.isEmpty() && pending.peek().completed) {
+                    pending.poll().passOn();
+                }
+            }
+        }
+
+        private void passOn() {
+            passedOn = true;
+            if (commit == null) {
+                if (failure == null) {
+                    delegate.acknowledge();
+                }
+            } else if (failure == null) {
+                delegate.commit().subscribe(null, commit::error, commit::success);
+            } else {
+                commit.error(failure);
+            }
+        }
+    }
+}
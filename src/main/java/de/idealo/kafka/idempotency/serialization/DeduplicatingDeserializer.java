@@ -0,0 +1,101 @@
+package de.idealo.kafka.idempotency.serialization;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+
+/**
+ * Value deserializer which looks the records up before their payload is deserialized: a record consumed already is returned
+ *   as a null value marked by the {@link #DUPLICATE_HEADER}, without parsing its bytes. This saves most of the deserialization
+ *   work when replaying a topic whose records have mostly been consumed.
+ * A deserializer only knows the topic and the headers of a record, so the records are identified by the (last) value of a header,
+ *   like {@link de.idealo.kafka.idempotency.ConsumerRecordIdentityResolver#header(String)} does. Records without
+ *   the header, and all the records if the lookup fails, are deserialized as usual.
+ * This is an optimization only: the listeners still have to be checked (by {@link de.idealo.kafka.idempotency.IdempotentListener}
+ *   or by a listener container configured in the idempotency properties), which skips the null values as they are logged already.
+ *   Listener methods bound to the payload must accept the null value of a duplicate, e.g. by {@code @Payload(required = false)}.
+ * @param <T> value type
+ */
+public class DeduplicatingDeserializer<T> implements Deserializer<T> {
+
+    /**
+     * Header added to the duplicates, whose value is null.
+     */
+    public static final String DUPLICATE_HEADER = "kafka_idempotencyDuplicate";
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeduplicatingDeserializer.class);
+
+    private static final byte[] TRUE = { 1 };
+
+    private final Deserializer<T> delegate;
+
+    private final Supplier<RecordIdempotencyLookup> lookup;
+
+    private final String header;
+
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * @param delegate deserializer of the records which have not been consumed yet
+     * @param lookup supplier of the lookup, called on the first record
+     * @param header name of the header identifying the records
+     */
+    public DeduplicatingDeserializer(final Deserializer<T> delegate, final Supplier<RecordIdempotencyLookup> lookup, final String header) {
+        this.delegate = delegate;
+        this.lookup = lookup;
+        this.header = header;
+    }
+
+    @Override
+    public void configure(final Map<String, ?> configs, final boolean isKey) {
+        delegate.configure(configs, isKey);
+    }
+
+    @Override
+    public T deserialize(final String topic, final byte[] data) {
+        return delegate.deserialize(topic, data);
+    }
+
+    @Override
+    public T deserialize(final String topic, final Headers headers, final byte[] data) {
+        if (data != null && headers != null && isLogged(headers)) {
+            headers.add(DUPLICATE_HEADER, TRUE);
+            skipped.increment();
+            return null;
+        }
+        return delegate.deserialize(topic, headers, data);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    /**
+     * @return number of records which have not been deserialized as they are consumed already
+     */
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+
+    private boolean isLogged(final Headers headers) {
+        final var idHeader = headers.lastHeader(header);
+        if (idHeader == null || idHeader.value() == null || idHeader.value().length == 0) {
+            return false;
+        }
+        try {
+            return lookup.get().isLogged(RecordIdentity.of(idHeader.value(), null));
+        } catch (Throwable e) { // NOSONAR
+            LOG.debug("Could not look up the record before deserializing it, it is deserialized and checked by the listener", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package de.idealo.kafka.idempotency.serialization;
+
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
+
+import de.idealo.kafka.idempotency.configuration.IdealoKafkaIdempotencyAutoconfiguration;
+import de.idealo.kafka.idempotency.configuration.KafkaListenerIdempotencyProperties;
+import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+
+/**
+ * Wraps the value deserializer of the {@link DefaultKafkaConsumerFactory} beans by a {@link DeduplicatingDeserializer}.
+ * If the factory has no deserializer instance, the one configured by its class (e.g. by spring.kafka.consumer.value-deserializer)
+ *   is instantiated and configured here. Either way, the consumers of the factory share the deserializer instance, so it must be
+ *   thread-safe, like the deserializers of Kafka and spring-kafka are.
+ * Does nothing if the idempotency check is disabled, nor in claim mode: a lookup cannot tell a record which has been processed
+ *   from a record claimed by another consumer, whose listener may still fail and release the claim. Its payload would be lost.
+ */
+public class DeduplicatingDeserializerPostProcessor implements BeanPostProcessor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeduplicatingDeserializerPostProcessor.class);
+
+    private final ObjectProvider<RecordIdempotencyLookup> recordIdempotencyLookup;
+
+    private final ObjectProvider<KafkaListenerIdempotencyProperties> idempotencyProperties;
+
+    public DeduplicatingDeserializerPostProcessor(final ObjectProvider<RecordIdempotencyLookup> recordIdempotencyLookup,
+            final ObjectProvider<KafkaListenerIdempotencyProperties> idempotencyProperties) {
+        this.recordIdempotencyLookup = recordIdempotencyLookup;
+        this.idempotencyProperties = idempotencyProperties;
+    }
+
+    /**
+     * Runs before the other consumer factory post-processors may hide the factory behind a proxy.
+     */
+    @Override
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public Object postProcessBeforeInitialization(final Object bean, final String beanName) throws BeansException {
+        if (!(bean instanceof DefaultKafkaConsumerFactory)) {
+            return bean;
+        }
+        final var properties = idempotencyProperties.getObject();
+        if (!properties.isCheckEnabled()) {
+            return bean;
+        }
+        if (properties.getClaim().isEnabled()) {
+            LOG.warn("The deduplicating deserializer is not installed into the consumer factory {} as the records are claimed", beanName);
+            return bean;
+        }
+        final var header = properties.getDeserialization().getHeader();
+        if (!StringUtils.hasText(header)) {
+            throw new IllegalStateException("The header identifying the records must be set: "
+                    + IdealoKafkaIdempotencyAutoconfiguration.PROPERTY_PREFIX + ".listener.deserialization.header");
+        }
+        final var factory = (DefaultKafkaConsumerFactory) bean;
+        var delegate = factory.getValueDeserializer();
+        if (delegate instanceof DeduplicatingDeserializer) {
+            return bean;
+        }
+        if (delegate == null) {
+            delegate = instantiate(beanName, factory.getConfigurationProperties());
+        }
+        factory.setValueDeserializer(new DeduplicatingDeserializer<>(delegate, recordIdempotencyLookup::getObject, header));
+        return bean;
+    }
+
+    private static Deserializer<?> instantiate(final String beanName, final Map<String, Object> configs) {
+        final var type = configs.get(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG);
+        if (type == null) {
+            throw new IllegalStateException("The consumer factory " + beanName + " has no value deserializer to wrap");
+        }
+        try {
+            final var deserializerClass = type instanceof Class ? (Class<?>) type : ClassUtils.forName(type.toString(), null);
+            final var deserializer = (Deserializer<?>) BeanUtils.instantiateClass(deserializerClass);
+            deserializer.configure(configs, false);
+            return deserializer;
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Could not load the value deserializer of the consumer factory " + beanName, e);
+        }
+    }
+}
@@ -3,13 +3,16 @@ package de.idealo.kafka.idempotency;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.time.Duration;
 import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 
 import org.aspectj.lang.ProceedingJoinPoint;
@@ -123,4 +126,96 @@ public class IdempotentListenerAspectTest {
 
         verify(lookup, never()).log(any(), any());
     }
+
+    @Test
+    public void persists_checked_record_without_extracting_again() throws Throwable {
+        when(configuration.isCheckEnabled()).thenReturn(true);
+        when(configuration.isPersistenceEnabled()).thenReturn(true);
+        when(configuration.getTtl()).thenReturn(Duration.ofSeconds(2));
+        when(lookup.isLogged(any())).thenReturn(false);
+        when(proceedingJoinPoint.proceed()).thenAnswer(invocation -> {
+            aspect.persist(proceedingJoinPoint, annotation);
+            return proceedingJoinPoint;
+        });
+
+        aspect.check(proceedingJoinPoint);
+
+        verify(idExtractor, times(1)).extract(proceedingJoinPoint);
+        verify(lookup).log(recordId, Duration.ofSeconds(2));
+    }
+
+    @Test
+    public void claims_record() throws Throwable {
+        when(configuration.isCheckEnabled()).thenReturn(true);
+        when(configuration.isClaimEnabled()).thenReturn(true);
+        when(configuration.getClaimLease()).thenReturn(Duration.ofMinutes(1));
+        when(lookup.claim(recordId, Duration.ofMinutes(1))).thenReturn(true);
+
+        assertThat(aspect.check(proceedingJoinPoint)).isNotNull();
+        verify(lookup, never()).isLogged(any());
+    }
+
+    @Test
+    public void skips_record_not_claimed() throws Throwable {
+        when(configuration.isCheckEnabled()).thenReturn(true);
+        when(configuration.isClaimEnabled()).thenReturn(true);
+        when(configuration.getClaimLease()).thenReturn(Duration.ofMinutes(1));
+        when(lookup.claim(recordId, Duration.ofMinutes(1))).thenReturn(false);
+
+        assertThat(aspect.check(proceedingJoinPoint)).isNull();
+        verify(proceedingJoinPoint, never()).proceed();
+    }
+
+    @Test
+    public void releases_claim_on_listener_failure() throws Throwable {
+        when(configuration.isCheckEnabled()).thenReturn(true);
+        when(configuration.isClaimEnabled()).thenReturn(true);
+        when(configuration.getClaimLease()).thenReturn(Duration.ofMinutes(1));
+        when(lookup.claim(recordId, Duration.ofMinutes(1))).thenReturn(true);
+        when(proceedingJoinPoint.proceed()).thenThrow(new IllegalStateException("test"));
+
+        assertThrows(IllegalStateException.class, () -> aspect.check(proceedingJoinPoint));
+        verify(lookup).releaseAll(List.of(recordId));
+    }
+
+    @Test
+    public void checks_batch_all_logged() throws Throwable {
+        when(configuration.isCheckEnabled()).thenReturn(true);
+        when(idExtractor.isBatch(proceedingJoinPoint)).thenReturn(true);
+        when(idExtractor.extractBatch(proceedingJoinPoint)).thenReturn(Arrays.asList(recordId, recordId));
+        when(lookup.areLogged(anyList())).thenReturn(Arrays.asList(true, true));
+
+        assertThat(aspect.check(proceedingJoinPoint)).isNull();
+        verify(proceedingJoinPoint, never()).proceed();
+    }
+
+    @Test
+    public void checks_batch_partially_logged() throws Throwable {
+        final var unseenId = new RecordIdentity(Arrays.asList(UUID.randomUUID().toString()));
+        when(configuration.isCheckEnabled()).thenReturn(true);
+        when(idExtractor.isBatch(proceedingJoinPoint)).thenReturn(true);
+        when(idExtractor.extractBatch(proceedingJoinPoint)).thenReturn(Arrays.asList(recordId, unseenId));
+        when(lookup.areLogged(anyList())).thenReturn(Arrays.asList(true, false));
+        when(idExtractor.batchColumns(proceedingJoinPoint)).thenReturn(new int[] { 0, 1 });
+        when(proceedingJoinPoint.getArgs()).thenReturn(new Object[] { Arrays.asList("payload1", "payload2"), Arrays.asList(1L, 2L), "other",
+                Arrays.asList("not", "per-record") });
+        when(proceedingJoinPoint.proceed(any())).thenReturn(proceedingJoinPoint);
+
+        assertThat(aspect.check(proceedingJoinPoint)).isNotNull();
+        verify(proceedingJoinPoint).proceed(new Object[] { List.of("payload2"), List.of(2L), "other", Arrays.asList("not", "per-record") });
+    }
+
+    @Test
+    public void logs_batch() throws Throwable {
+        when(configuration.isPersistenceEnabled()).thenReturn(true);
+        when(configuration.getTtl()).thenReturn(Duration.ofSeconds(2));
+        when(annotation.ttl()).thenReturn(0);
+        when(idExtractor.isBatch(proceedingJoinPoint)).thenReturn(true);
+        when(idExtractor.extractBatch(proceedingJoinPoint)).thenReturn(Arrays.asList(recordId));
+
+        aspect.persist(proceedingJoinPoint, annotation);
+
+        verify(lookup).logAll(Arrays.asList(recordId), Duration.ofSeconds(2));
+        verify(lookup, never()).log(any(), any());
+    }
 }
@@ -0,0 +1,196 @@
+package de.idealo.kafka.idempotency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.kafka.common.header.internals.RecordHeader;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+
+public class RecordIdentityExtractorTest {
+
+    private final RecordIdentityExtractor extractor = new RecordIdentityExtractor();
+
+    @Test
+    public void extracts_annotated_arguments() throws Exception {
+        final var joinPoint = joinPoint("single", "payload", "topic", 3, 42L);
+
+        assertThat(extractor.isBatch(joinPoint)).isFalse();
+        assertThat(extractor.extract(joinPoint).toString()).isEqualTo("topic-3-42");
+    }
+
+    @Test
+    public void extracts_null_arguments_as_string() throws Exception {
+        final var joinPoint = joinPoint("single", "payload", null, 3, null);
+
+        assertThat(extractor.extract(joinPoint).toString()).isEqualTo("null-3-null");
+    }
+
+    @Test
+    public void extracts_position() throws Exception {
+        final var joinPoint = joinPoint("positional", "payload", "topic", 3, 42L);
+
+        assertThat(extractor.extract(joinPoint).getPosition()).isEqualTo(new RecordPosition("topic", 3, 42L));
+        assertThat(extractor.extract(joinPoint("single", "payload", "topic", 3, 42L)).getPosition()).isNull();
+    }
+
+    @Test
+    public void extracts_batch() throws Exception {
+        final var joinPoint = joinPoint("batch", List.of("p1", "p2"), List.of("topic", "topic"), List.of(0, 1), List.of(7L, 8L));
+
+        assertThat(extractor.isBatch(joinPoint)).isTrue();
+        assertThat(extractor.extractBatch(joinPoint)).extracting(RecordIdentity::toString).containsExactly("topic-0-7", "topic-1-8");
+    }
+
+    @Test
+    public void finds_the_per_record_arguments_of_a_batch() throws Exception {
+        assertThat(extractor.batchColumns(joinPoint("batch"))).containsExactly(0, 1, 2, 3);
+        assertThat(extractor.batchColumns(joinPoint("batchWithOtherList"))).containsExactly(0, 2);
+        assertThat(extractor.batchColumns(joinPoint("single"))).isEmpty();
+    }
+
+    @Test
+    public void extracts_binary_and_uuid_arguments_like_their_string_form() throws Exception {
+        final var uuid = UUID.fromString("1c9bb6f0-5b91-4be7-acad-6bf089ed0bef");
+        final var eventId = "event-ü".getBytes(StandardCharsets.UTF_8);
+        final var joinPoint = joinPoint("binary", "payload", uuid, eventId, ByteBuffer.wrap(eventId), new RecordHeader("id", eventId));
+
+        final var identity = extractor.extract(joinPoint);
+
+        final var expected = uuid + "-event-ü-event-ü-event-ü";
+        assertThat(identity.toString()).isEqualTo(expected);
+        assertThat(identity.getBytes()).isEqualTo(expected.getBytes(StandardCharsets.UTF_8));
+        assertThat(identity).isEqualTo(new RecordIdentity(expected));
+    }
+
+    @Test
+    public void extracts_identity_by_the_id_expression() throws Exception {
+        final var expression = joinPoint("expression", new Event("order-1", 3), "ignored");
+        final var positional = joinPoint("positionalExpression", new Event("order-1", 3));
+
+        assertThat(extractor.extract(expression).toString()).isEqualTo("order-1:3");
+        assertThat(extractor.extract(joinPoint("expression", new Event("order-2", 4), "ignored")).toString()).isEqualTo("order-2:4");
+        assertThat(extractor.extract(positional).toString()).isEqualTo("order-1");
+    }
+
+    @Test
+    public void rejects_invalid_id_expressions() throws Exception {
+        assertThrows(IdempotencyCheckException.class, () -> extractor.prepare(findMethod("invalidExpression")));
+        assertThrows(IdempotencyCheckException.class, () -> extractor.prepare(findMethod("expressionAndIdempotencyId")));
+        assertThrows(IdempotencyCheckException.class, () -> extractor.prepare(findMethod("batchExpression")));
+        assertThrows(IdempotencyCheckException.class, () -> extractor.extract(joinPoint("positionalExpression", new Event(null, 0))));
+    }
+
+    @Test
+    public void rejects_unsupported_types_in_advance() throws Exception {
+        final var method = Listeners.class.getMethod("unsupported", Object.class, Double.class);
+
+        assertThrows(IdempotencyCheckException.class, () -> extractor.prepare(method));
+    }
+
+    @Test
+    public void rejects_missing_id() throws Exception {
+        final var joinPoint = joinPoint("none", "payload");
+
+        assertThrows(IdempotencyCheckException.class, () -> extractor.extract(joinPoint));
+    }
+
+    private JoinPoint joinPoint(final String methodName, final Object... args) {
+        final var method = findMethod(methodName);
+        final var signature = mock(MethodSignature.class);
+        when(signature.getMethod()).thenReturn(method);
+        final var joinPoint = mock(JoinPoint.class);
+        when(joinPoint.getSignature()).thenReturn(signature);
+        when(joinPoint.getArgs()).thenReturn(args);
+        return joinPoint;
+    }
+
+    private static Method findMethod(final String name) {
+        for (final var method : Listeners.class.getMethods()) {
+            if (method.getName().equals(name)) {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    public static class Listeners {
+
+        public void single(Object payload, @IdempotencyId String topic, @IdempotencyId int partition, @IdempotencyId Long offset) {
+        }
+
+        public void positional(Object payload,
+                @IdempotencyId @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
+                @IdempotencyId @Header(KafkaHeaders.RECEIVED_PARTITION_ID) int partition,
+                @IdempotencyId @Header(KafkaHeaders.OFFSET) Long offset) {
+        }
+
+        public void batch(List<Object> payloads, @IdempotencyId List<String> topics, @IdempotencyId List<Integer> partitions,
+                @IdempotencyId List<Long> offsets) {
+        }
+
+        public void batchWithOtherList(List<Object> payloads, List<String> other, @IdempotencyId List<Long> offsets) {
+        }
+
+        public void binary(Object payload, @IdempotencyId UUID uuid, @IdempotencyId byte[] bytes, @IdempotencyId ByteBuffer buffer,
+                @IdempotencyId org.apache.kafka.common.header.Header header) {
+        }
+
+        @IdempotentListener(id = "#event.orderId + ':' + #event.version")
+        public void expression(Event event, String other) {
+        }
+
+        @IdempotentListener(id = "#p0.orderId")
+        public void positionalExpression(Event event) {
+        }
+
+        @IdempotentListener(id = "#event.")
+        public void invalidExpression(Event event) {
+        }
+
+        @IdempotentListener(id = "#event.orderId")
+        public void expressionAndIdempotencyId(Event event, @IdempotencyId String id) {
+        }
+
+        @IdempotentListener(id = "#events[0].orderId")
+        public void batchExpression(List<Event> events) {
+        }
+
+        public void unsupported(Object payload, @IdempotencyId Double id) {
+        }
+
+        public void none(Object payload) {
+        }
+    }
+
+    public static class Event {
+
+        private final String orderId;
+        private final int version;
+
+        Event(final String orderId, final int version) {
+            this.orderId = orderId;
+            this.version = version;
+        }
+
+        public String getOrderId() {
+            return orderId;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+    }
+}
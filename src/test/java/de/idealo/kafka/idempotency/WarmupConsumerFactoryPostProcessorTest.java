@@ -0,0 +1,51 @@
+package de.idealo.kafka.idempotency;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.kafka.core.ConsumerFactory;
+
+import de.idealo.kafka.idempotency.persistence.RedisMarkerWarmup;
+
+public class WarmupConsumerFactoryPostProcessorTest {
+
+    @SuppressWarnings("unchecked")
+    private final ObjectProvider<RedisMarkerWarmup> warmupProvider = mock(ObjectProvider.class);
+    private final RedisMarkerWarmup warmup = mock(RedisMarkerWarmup.class);
+    private final WarmupConsumerFactoryPostProcessor postProcessor = new WarmupConsumerFactoryPostProcessor(warmupProvider);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void warms_up_after_assignment_and_evicts_before_revocation() {
+        when(warmupProvider.getObject()).thenReturn(warmup);
+        final ConsumerFactory<String, String> factory = mock(ConsumerFactory.class);
+        final Consumer<String, String> consumer = mock(Consumer.class);
+        when(factory.createConsumer(any(), any(), any())).thenReturn(consumer);
+        final var partitions = List.of(new TopicPartition("orders", 1));
+
+        final var proxied = (ConsumerFactory<String, String>) postProcessor.postProcessAfterInitialization(factory, "consumerFactory");
+        final var listener = mock(ConsumerRebalanceListener.class);
+        proxied.createConsumer("group", "client", "-0").subscribe(List.of("orders"), listener);
+        final var captor = ArgumentCaptor.forClass(ConsumerRebalanceListener.class);
+        verify(consumer).subscribe(any(List.class), captor.capture());
+        captor.getValue().onPartitionsAssigned(partitions);
+        captor.getValue().onPartitionsRevoked(partitions);
+
+        final var order = inOrder(listener, warmup);
+        order.verify(listener).onPartitionsAssigned(partitions);
+        order.verify(warmup).onPartitionsAssigned(partitions);
+        order.verify(warmup).onPartitionsRevoked(partitions);
+        order.verify(listener).onPartitionsRevoked(partitions);
+    }
+}
@@ -0,0 +1,95 @@
+package de.idealo.kafka.idempotency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.ProducerFactory;
+
+import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+
+public class WriteBehindConsumerFactoryPostProcessorTest {
+
+    @SuppressWarnings("unchecked")
+    private final ObjectProvider<RecordIdempotencyLookup> lookupProvider = mock(ObjectProvider.class);
+    private final RecordIdempotencyLookup lookup = mock(RecordIdempotencyLookup.class);
+    private final WriteBehindConsumerFactoryPostProcessor postProcessor = new WriteBehindConsumerFactoryPostProcessor(lookupProvider);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void flushes_before_commit_and_on_revocation() {
+        when(lookupProvider.getObject()).thenReturn(lookup);
+        final ConsumerFactory<String, String> factory = mock(ConsumerFactory.class);
+        final Consumer<String, String> consumer = mock(Consumer.class);
+        when(factory.createConsumer(any(), any(), any())).thenReturn(consumer);
+
+        final var proxied = (ConsumerFactory<String, String>) postProcessor.postProcessAfterInitialization(factory, "consumerFactory");
+        final var proxiedConsumer = proxied.createConsumer("group", "client", "-0");
+        proxiedConsumer.commitSync();
+        verify(lookup).flush();
+        verify(consumer).commitSync();
+
+        final var listener = mock(ConsumerRebalanceListener.class);
+        proxiedConsumer.subscribe(List.of("topic"), listener);
+        final var captor = ArgumentCaptor.forClass(ConsumerRebalanceListener.class);
+        verify(consumer).subscribe(any(List.class), captor.capture());
+        captor.getValue().onPartitionsRevoked(List.of());
+
+        verify(lookup, times(2)).flush();
+        verify(listener).onPartitionsRevoked(List.of());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void flushes_before_offsets_are_sent_to_a_transaction() {
+        when(lookupProvider.getObject()).thenReturn(lookup);
+        final ProducerFactory<String, String> factory = mock(ProducerFactory.class);
+        final Producer<String, String> producer = mock(Producer.class);
+        when(factory.createProducer()).thenReturn(producer);
+        final Map<TopicPartition, OffsetAndMetadata> offsets = Map.of(new TopicPartition("topic", 0), new OffsetAndMetadata(1));
+
+        final var proxied = (ProducerFactory<String, String>) postProcessor.postProcessAfterInitialization(factory, "producerFactory");
+        proxied.createProducer().sendOffsetsToTransaction(offsets, "group");
+
+        verify(lookup).flush();
+        verify(producer).sendOffsetsToTransaction(offsets, "group");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void keeps_the_class_of_the_factory() {
+        when(lookupProvider.getObject()).thenReturn(lookup);
+        final KafkaConsumer<String, String> consumer = mock(KafkaConsumer.class);
+        final var factory = new DefaultKafkaConsumerFactory<String, String>(Map.of()) {
+
+            @Override
+            protected KafkaConsumer<String, String> createKafkaConsumer(final Map<String, Object> configProps) {
+                return consumer;
+            }
+        };
+
+        final var proxied = postProcessor.postProcessAfterInitialization(factory, "consumerFactory");
+        assertThat(proxied).isInstanceOf(DefaultKafkaConsumerFactory.class);
+        ((DefaultKafkaConsumerFactory<String, String>) proxied).createConsumer("group", "client", "-0").commitSync();
+
+        verify(lookup).flush();
+        verify(consumer).commitSync();
+    }
+}
@@ -0,0 +1,107 @@
+package de.idealo.kafka.idempotency.configuration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.LazyInitializationBeanFactoryPostProcessor;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.kafka.KafkaAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+
+import de.idealo.kafka.idempotency.WriteBehindConsumerFactoryPostProcessor;
+import de.idealo.kafka.idempotency.persistence.KafkaChangelogStore;
+import de.idealo.kafka.idempotency.persistence.ReactiveRecordIdempotencyLookup;
+import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+
+public class IdealoKafkaIdempotencyAutoconfigurationTest {
+
+    /**
+     * Lazy, so that the stores are not connected.
+     */
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(KafkaAutoConfiguration.class, IdealoKafkaIdempotencyAutoconfiguration.class))
+            .withInitializer(context -> context.addBeanFactoryPostProcessor(new LazyInitializationBeanFactoryPostProcessor()))
+            .withPropertyValues("spring.kafka.consumer.group-id=group");
+
+    /**
+     * Eager, so that the configuration is checked on startup.
+     */
+    private final ApplicationContextRunner eagerContextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(KafkaAutoConfiguration.class, IdealoKafkaIdempotencyAutoconfiguration.class))
+            .withPropertyValues("spring.kafka.consumer.group-id=group");
+
+    @Test
+    public void registers_one_flushing_post_processor_for_the_write_behind_and_the_changelog() {
+        contextRunner
+                .withPropertyValues("idealo.kafka.idempotency.listener.write-behind.enabled=true",
+                        "idealo.kafka.idempotency.listener.changelog.enabled=true")
+                .run(context -> assertThat(context).hasSingleBean(WriteBehindConsumerFactoryPostProcessor.class));
+    }
+
+    @Test
+    public void registers_the_flushing_post_processor_for_the_offset_ranges() {
+        contextRunner
+                .withPropertyValues("idealo.kafka.idempotency.listener.offset-ranges.enabled=true")
+                .run(context -> assertThat(context).hasSingleBean(WriteBehindConsumerFactoryPostProcessor.class));
+    }
+
+    @Test
+    public void registers_no_flushing_post_processor_by_default() {
+        contextRunner.run(context -> assertThat(context).doesNotHaveBean(WriteBehindConsumerFactoryPostProcessor.class));
+    }
+
+    @Test
+    public void registers_the_redis_lookup_by_default() {
+        contextRunner.run(context -> assertThat(context.getBeanNamesForType(RecordIdempotencyLookup.class))
+                .containsExactly("redisRecordIdempotencyLookup"));
+    }
+
+    @Test
+    public void registers_only_the_lookup_and_the_store_of_the_enabled_backend() {
+        contextRunner
+                .withPropertyValues("idealo.kafka.idempotency.listener.off-heap.enabled=true")
+                .run(context -> {
+                    assertThat(context.getBeanNamesForType(RecordIdempotencyLookup.class)).containsExactly("offHeapRecordIdempotencyLookup");
+                    assertThat(context).doesNotHaveBean(KafkaChangelogStore.class);
+                });
+    }
+
+    @Test
+    public void fails_to_start_if_two_backends_are_enabled() {
+        eagerContextRunner
+                .withPropertyValues("idealo.kafka.idempotency.listener.jdbc.enabled=true",
+                        "idealo.kafka.idempotency.listener.changelog.enabled=true")
+                .run(context -> assertThat(context).getFailure()
+                        .hasRootCauseInstanceOf(IllegalStateException.class)
+                        .hasStackTraceContaining("Only one persistence provider can be enabled, but found [kafka-changelog, jdbc]"));
+    }
+
+    @Test
+    public void fails_to_start_if_two_redis_layouts_are_enabled() {
+        eagerContextRunner
+                .withPropertyValues("idealo.kafka.idempotency.listener.bloom-filter.enabled=true",
+                        "idealo.kafka.idempotency.listener.time-buckets.enabled=true")
+                .run(context -> assertThat(context).getFailure()
+                        .hasStackTraceContaining("[redis-bloom-filter, redis-time-buckets]"));
+    }
+
+    @Test
+    public void provides_the_reactive_lookup_for_the_plain_redis_keys() {
+        contextRunner
+                .withBean(ReactiveRedisConnectionFactory.class, () -> mock(ReactiveRedisConnectionFactory.class))
+                .run(context -> assertThat(context.getBean(ReactiveRecordIdempotencyLookup.class)).isNotNull());
+    }
+
+    @Test
+    public void rejects_the_reactive_lookup_with_another_layout() {
+        contextRunner
+                .withBean(ReactiveRedisConnectionFactory.class, () -> mock(ReactiveRedisConnectionFactory.class))
+                .withPropertyValues("idealo.kafka.idempotency.listener.time-buckets.enabled=true")
+                .run(context -> assertThatThrownBy(() -> context.getBean(ReactiveRecordIdempotencyLookup.class))
+                        .hasRootCauseInstanceOf(IllegalStateException.class)
+                        .hasStackTraceContaining("The reactive lookup only supports the plain Redis keys, but found redis-time-buckets"));
+    }
+}
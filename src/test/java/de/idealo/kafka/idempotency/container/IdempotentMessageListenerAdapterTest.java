@@ -0,0 +1,147 @@
+package de.idealo.kafka.idempotency.container;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.AcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.BatchMessageListener;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+
+import de.idealo.kafka.idempotency.ConsumerRecordIdentityResolver;
+import de.idealo.kafka.idempotency.IdempotencyMetrics;
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.RecordPosition;
+import de.idealo.kafka.idempotency.configuration.IdealoKafkaIdempotencyAutoconfiguration;
+import de.idealo.kafka.idempotency.configuration.KafkaListenerIdempotencyProperties.Container;
+import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+
+public class IdempotentMessageListenerAdapterTest {
+
+    private static final Duration TTL = Duration.ofDays(1);
+
+    private final IdealoKafkaIdempotencyAutoconfiguration configuration = mock(IdealoKafkaIdempotencyAutoconfiguration.class);
+    private final RecordIdempotencyLookup lookup = mock(RecordIdempotencyLookup.class);
+
+    @BeforeEach
+    public void setUp() {
+        when(configuration.isCheckEnabled()).thenReturn(true);
+        when(configuration.isPersistenceEnabled()).thenReturn(true);
+        when(configuration.getTtl()).thenReturn(TTL);
+        when(configuration.getClaimLease()).thenReturn(Duration.ofMinutes(5));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void skips_duplicates_and_persists_the_processed_records() throws Exception {
+        final AcknowledgingConsumerAwareMessageListener<String, String> delegate = mock(AcknowledgingConsumerAwareMessageListener.class);
+        final var adapter = new IdempotentMessageListenerAdapter<>(delegate, configuration, lookup, ConsumerRecordIdentityResolver.position(),
+                null, IdempotencyMetrics.NONE);
+        final var duplicate = record(1);
+        final var fresh = record(2);
+        final var acknowledgment = mock(Acknowledgment.class);
+        final Consumer<?, ?> consumer = mock(Consumer.class);
+        when(lookup.isLogged(identity(1))).thenReturn(true);
+
+        adapter.onMessage(duplicate, acknowledgment, consumer);
+        adapter.onMessage(fresh, acknowledgment, consumer);
+
+        verify(delegate, never()).onMessage(duplicate, acknowledgment, consumer);
+        verify(delegate).onMessage(fresh, acknowledgment, consumer);
+        verify(lookup).log(identity(2), TTL);
+        verify(lookup, never()).log(identity(1), TTL);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void passes_the_unseen_records_of_a_batch() throws Exception {
+        final BatchMessageListener<String, String> delegate = mock(BatchMessageListener.class);
+        final var adapter = new IdempotentBatchMessageListenerAdapter<>(delegate, configuration, lookup,
+                ConsumerRecordIdentityResolver.position(), Duration.ofHours(1), IdempotencyMetrics.NONE);
+        when(lookup.areLogged(List.of(identity(1), identity(2), identity(3)))).thenReturn(List.of(false, true, false));
+
+        final var first = record(1);
+        final var third = record(3);
+
+        adapter.onMessage(List.of(first, record(2), third), null, null);
+
+        verify(delegate).onMessage(List.of(first, third));
+        verify(lookup).logAll(List.of(identity(1), identity(3)), Duration.ofHours(1));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void releases_the_claims_if_the_listener_fails() throws Exception {
+        when(configuration.isClaimEnabled()).thenReturn(true);
+        when(lookup.claim(any(), any())).thenReturn(true);
+        final MessageListener<String, String> delegate = mock(MessageListener.class);
+        final var adapter = new IdempotentMessageListenerAdapter<>(delegate, configuration, lookup, ConsumerRecordIdentityResolver.position(),
+                null, IdempotencyMetrics.NONE);
+        final var record = record(1);
+        doThrow(new IllegalStateException("listener")).when(delegate).onMessage(record);
+
+        assertThatThrownBy(() -> adapter.onMessage(record, null, null)).isInstanceOf(IllegalStateException.class);
+
+        verify(lookup).releaseAll(List.of(identity(1)));
+        verify(lookup, never()).log(any(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void wraps_the_listeners_of_the_configured_containers() {
+        final ObjectProvider<KafkaListenerEndpointRegistry> registryProvider = mock(ObjectProvider.class);
+        final var registry = mock(KafkaListenerEndpointRegistry.class);
+        when(registryProvider.getIfAvailable()).thenReturn(registry);
+        final var configured = container("orders");
+        final var other = container("payments");
+        when(registry.getListenerContainers()).thenReturn(List.of(configured, other));
+        final ObjectProvider<RecordIdempotencyLookup> lookupProvider = mock(ObjectProvider.class);
+        when(lookupProvider.getObject()).thenReturn(lookup);
+        final var settings = new Container();
+        settings.setIdentity(Container.Identity.HEADER);
+        settings.setHeader("EVENT_ID");
+
+        new IdempotentListenerContainerConfigurer(registryProvider, Map.of("orders", settings), configuration, lookupProvider,
+                mock(ObjectProvider.class)).start();
+
+        verify(configured).setupMessageListener(any(IdempotentMessageListenerAdapter.class));
+        verify(other, never()).setupMessageListener(any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MessageListenerContainer container(final String listenerId) {
+        final var container = mock(MessageListenerContainer.class);
+        final var properties = new ContainerProperties("orders");
+        properties.setMessageListener(mock(MessageListener.class));
+        when(container.getListenerId()).thenReturn(listenerId);
+        when(container.getContainerProperties()).thenReturn(properties);
+        return container;
+    }
+
+    private static ConsumerRecord<String, String> record(final long offset) {
+        return new ConsumerRecord<>("orders", 0, offset, "key", "value");
+    }
+
+    private static RecordIdentity identity(final long offset) throws Exception {
+        final var position = new RecordPosition("orders", 0, offset);
+        return new RecordIdentity(position.toString(), position);
+    }
+}
@@ -0,0 +1,78 @@
+package de.idealo.kafka.idempotency.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import de.idealo.kafka.idempotency.IdempotentListener;
+import de.idealo.kafka.idempotency.IdempotentListenerAspect;
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.RecordIdentityExtractor;
+import de.idealo.kafka.idempotency.configuration.IdealoKafkaIdempotencyAutoconfiguration;
+import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+
+public class MicrometerIdempotencyMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final RecordIdempotencyLookup lookup = mock(RecordIdempotencyLookup.class);
+    private final RecordIdentityExtractor idExtractor = mock(RecordIdentityExtractor.class);
+    private final MethodSignature methodSignature = mock(MethodSignature.class);
+    private final ProceedingJoinPoint joinPoint = mock(ProceedingJoinPoint.class);
+    private final IdealoKafkaIdempotencyAutoconfiguration configuration = mock(IdealoKafkaIdempotencyAutoconfiguration.class);
+    private final IdempotentListener annotation = mock(IdempotentListener.class);
+    private final IdempotentListenerAspect aspect = new IdempotentListenerAspect(configuration, lookup, idExtractor,
+            new MicrometerIdempotencyMetrics(registry, "group", "redis"));
+
+    @BeforeEach
+    public void setUp() throws Throwable {
+        when(idExtractor.extract(joinPoint)).thenReturn(new RecordIdentity("orders-1-42"));
+        when(joinPoint.getSignature()).thenReturn(methodSignature);
+        when(methodSignature.getMethod()).thenReturn(MicrometerIdempotencyMetricsTest.class.getMethod("setUp"));
+        when(configuration.isCheckEnabled()).thenReturn(true);
+        when(configuration.isPersistenceEnabled()).thenReturn(true);
+        when(configuration.isSuppressErrors()).thenReturn(true);
+        when(configuration.getTtl()).thenReturn(Duration.ofDays(1));
+    }
+
+    @Test
+    public void records_lookups_duplicates_and_persistence() throws Throwable {
+        when(lookup.isLogged(any())).thenReturn(false, true);
+
+        aspect.check(joinPoint);
+        aspect.persist(joinPoint, annotation);
+        aspect.check(joinPoint);
+
+        assertThat(registry.get("kafka.idempotency.lookup").tags("listener", "MicrometerIdempotencyMetricsTest.setUp", "group", "group",
+                "backend", "redis").timer().count()).isEqualTo(2);
+        assertThat(registry.get("kafka.idempotency.persist").timer().count()).isEqualTo(1);
+        assertThat(registry.get("kafka.idempotency.lookup.results").tag("result", "hit").counter().count()).isEqualTo(1);
+        assertThat(registry.get("kafka.idempotency.lookup.results").tag("result", "miss").counter().count()).isEqualTo(1);
+        assertThat(registry.get("kafka.idempotency.duplicates.skipped").counter().count()).isEqualTo(1);
+        assertThat(registry.get("kafka.idempotency.in.flight").gauge().value()).isZero();
+    }
+
+    @Test
+    public void records_errors() throws Throwable {
+        when(lookup.isLogged(any())).thenThrow(new IllegalStateException("lookup"));
+        doThrow(new IllegalStateException("persist")).when(lookup).log(any(), eq(Duration.ofDays(1)));
+
+        aspect.check(joinPoint);
+        aspect.persist(joinPoint, annotation);
+
+        assertThat(registry.get("kafka.idempotency.errors").tag("operation", "lookup").counter().count()).isEqualTo(1);
+        assertThat(registry.get("kafka.idempotency.errors").tag("operation", "persist").counter().count()).isEqualTo(1);
+        assertThat(registry.get("kafka.idempotency.in.flight").gauge().value()).isZero();
+    }
+}
@@ -0,0 +1,159 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.configuration.KafkaListenerIdempotencyProperties.CircuitBreaker;
+import de.idealo.kafka.idempotency.persistence.IdempotencyCircuitBreaker.State;
+
+public class CircuitBreakerRecordIdempotencyLookupTest {
+
+    private static final Duration TTL = Duration.ofHours(1);
+
+    private final RecordIdempotencyLookup delegate = mock(RecordIdempotencyLookup.class);
+    private final IdempotencyCircuitBreaker breaker = new IdempotencyCircuitBreaker(settings());
+    private final CircuitBreakerRecordIdempotencyLookup lookup = new CircuitBreakerRecordIdempotencyLookup(delegate, breaker);
+
+    @AfterEach
+    void tearDown() {
+        breaker.close();
+    }
+
+    @Test
+    void answers_slow_calls_locally_and_opens() throws Exception {
+        final var logged = new RecordIdentity("logged");
+        lookup.log(logged, TTL);
+        when(delegate.isLogged(any())).thenAnswer(invocation -> {
+            Thread.sleep(1000);
+            return true;
+        });
+
+        final var start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            assertThat(lookup.isLogged(new RecordIdentity("unknown-" + i))).isFalse();
+        }
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(1000));
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+
+        reset(delegate);
+        assertThat(lookup.isLogged(logged)).isTrue();
+        assertThat(lookup.isLogged(new RecordIdentity("unknown"))).isFalse();
+        verify(delegate, never()).isLogged(any());
+        assertThat(breaker.getFallbackCount()).isEqualTo(6);
+        assertThat(breaker.getFallbackStore().getHitCount()).isEqualTo(1);
+        assertThat(breaker.getOpenedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void queues_markers_while_open_and_persists_them_once_closed() throws Exception {
+        doThrow(new IllegalStateException("down")).when(delegate).log(any(), any());
+        for (int i = 0; i < 4; i++) {
+            lookup.log(new RecordIdentity("record-" + i), TTL);
+        }
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        lookup.log(new RecordIdentity("record-4"), TTL);
+        assertThat(breaker.getBacklogSize()).isEqualTo(5);
+
+        Thread.sleep(250);
+        when(delegate.isLogged(any())).thenReturn(false);
+        assertThat(lookup.isLogged(new RecordIdentity("probe"))).isFalse();
+
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        verify(delegate, timeout(1000)).logAll(List.of(new RecordIdentity("record-0"), new RecordIdentity("record-1"),
+                new RecordIdentity("record-2"), new RecordIdentity("record-3"), new RecordIdentity("record-4")), TTL);
+        assertThat(breaker.getBacklogSize()).isZero();
+        assertThat(breaker.getClosedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void probes_again_if_the_persistence_still_fails() throws Exception {
+        when(delegate.isLogged(any())).thenThrow(new IllegalStateException("down"));
+        for (int i = 0; i < 4; i++) {
+            lookup.isLogged(new RecordIdentity("record-" + i));
+        }
+        Thread.sleep(250);
+
+        lookup.isLogged(new RecordIdentity("probe"));
+
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(breaker.getOpenedCount()).isEqualTo(2);
+    }
+
+    @Test
+    void persists_the_markers_of_a_failed_call_once_a_call_succeeds() throws Exception {
+        doThrow(new IllegalStateException("down")).doNothing().when(delegate).log(any(), any());
+        lookup.log(new RecordIdentity("record-0"), TTL);
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        assertThat(breaker.getBacklogSize()).isEqualTo(1);
+
+        lookup.log(new RecordIdentity("record-1"), TTL);
+
+        verify(delegate, timeout(1000)).logAll(List.of(new RecordIdentity("record-0")), TTL);
+        assertThat(breaker.getBacklogSize()).isZero();
+    }
+
+    @Test
+    void fails_the_flush_if_the_persistence_fails() {
+        final var cause = new IllegalStateException("down");
+        doThrow(cause).when(delegate).flush();
+
+        assertThatThrownBy(lookup::flush).isInstanceOf(IllegalStateException.class).hasCause(cause);
+    }
+
+    @Test
+    void answers_locally_at_once_while_all_the_workers_are_busy() throws Exception {
+        final var hanging = new CountDownLatch(1);
+        when(delegate.isLogged(any())).thenAnswer(invocation -> {
+            // like a blocked client, which is not released by the interrupt of the cancelled call
+            while (hanging.getCount() > 0) {
+                try {
+                    hanging.await();
+                } catch (InterruptedException e) {
+                    // ignored
+                }
+            }
+            return true;
+        });
+        try {
+            for (int i = 0; i < 2; i++) {
+                lookup.isLogged(new RecordIdentity("record-" + i));
+            }
+
+            final var start = System.nanoTime();
+            assertThat(lookup.isLogged(new RecordIdentity("record-2"))).isFalse();
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(50));
+            verify(delegate, times(2)).isLogged(any());
+        } finally {
+            hanging.countDown();
+        }
+    }
+
+    private static CircuitBreaker settings() {
+        final var settings = new CircuitBreaker();
+        settings.setCallTimeout(Duration.ofMillis(50));
+        settings.setWindowSize(10);
+        settings.setMinimumCalls(4);
+        settings.setOpenDuration(Duration.ofMillis(200));
+        settings.setFallbackSize(100);
+        settings.setBacklogCapacity(100);
+        settings.setMaxConcurrentCalls(2);
+        return settings;
+    }
+}
@@ -0,0 +1,65 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+
+import org.junit.jupiter.api.extension.AfterAllCallback;
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import redis.embedded.RedisServer;
+
+/**
+ * Starts an embedded Redis on a free port for the tests of a class, and empties it before every test.
+ * To be registered as a static field with {@code @RegisterExtension}.
+ */
+class EmbeddedRedisExtension implements BeforeAllCallback, AfterAllCallback, BeforeEachCallback {
+
+    private RedisServer redisServer;
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate template;
+
+    @Override
+    public void beforeAll(final ExtensionContext context) {
+        final var port = freePort();
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory("localhost", port);
+        connectionFactory.afterPropertiesSet();
+        template = new StringRedisTemplate(connectionFactory);
+    }
+
+    @Override
+    public void afterAll(final ExtensionContext context) {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @Override
+    public void beforeEach(final ExtensionContext context) {
+        template.execute(connection -> {
+            connection.flushDb();
+            return null;
+        }, true);
+    }
+
+    LettuceConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    StringRedisTemplate getTemplate() {
+        return template;
+    }
+
+    private static int freePort() {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not find a free port for Redis", e);
+        }
+    }
+}
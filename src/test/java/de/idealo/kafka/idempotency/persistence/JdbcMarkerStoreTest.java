@@ -0,0 +1,97 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+public class JdbcMarkerStoreTest {
+
+    private JdbcTemplate jdbcTemplate;
+
+    private JdbcMarkerStore store;
+
+    private JdbcRecordIdempotencyLookup lookup;
+
+    @BeforeEach
+    public void setUp() {
+        final var dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:markers;DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        store = new JdbcMarkerStore(jdbcTemplate, "kafka_idempotency_marker", JdbcMarkerStore.detectDialect(jdbcTemplate),
+                new ReadableRecordKeyEncoder("kafkaidmp_test_"), Duration.ofMillis(10), 2, null, 24);
+        store.createSchema();
+        lookup = new JdbcRecordIdempotencyLookup(store);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        store.close();
+        jdbcTemplate.execute("DROP TABLE kafka_idempotency_marker");
+    }
+
+    @Test
+    public void logs_and_looks_up_batches_in_chunks() throws Exception {
+        final var ids = List.of(new RecordIdentity("order-1"), new RecordIdentity("order-2"), new RecordIdentity("order-3"));
+        lookup.logAll(ids, Duration.ofMinutes(1));
+        lookup.log(new RecordIdentity("order-2"), Duration.ofMinutes(1));
+
+        assertThat(lookup.areLogged(List.of(new RecordIdentity("order-3"), new RecordIdentity("order-4"), new RecordIdentity("order-1"))))
+                .containsExactly(true, false, true);
+        assertThat(lookup.isLogged(new RecordIdentity("order-2"))).isTrue();
+        assertThat(store.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void claims_records_exclusively() throws Exception {
+        final var id = new RecordIdentity("order-1");
+        assertThat(lookup.claim(id, Duration.ofMinutes(1))).isTrue();
+        assertThat(lookup.claim(id, Duration.ofMinutes(1))).isFalse();
+        assertThat(lookup.isLogged(id)).isFalse();
+
+        lookup.release(id);
+        assertThat(lookup.claim(id, Duration.ofMinutes(1))).isTrue();
+
+        lookup.log(id, Duration.ofMinutes(1));
+        lookup.release(id);
+        assertThat(lookup.isLogged(id)).isTrue();
+        assertThat(lookup.claim(id, Duration.ofMinutes(1))).isFalse();
+    }
+
+    @Test
+    public void ignores_expired_markers_and_sweeps_whole_buckets() throws Exception {
+        final var expiring = new RecordIdentity("order-1");
+        lookup.logAll(List.of(expiring, new RecordIdentity("order-2"), new RecordIdentity("order-3")), Duration.ofMillis(1));
+        lookup.log(new RecordIdentity("order-4"), Duration.ofMinutes(1));
+        Thread.sleep(30);
+
+        assertThat(lookup.isLogged(expiring)).isFalse();
+        assertThat(lookup.isLogged(new RecordIdentity("order-4"))).isTrue();
+        assertThat(store.sweep()).isEqualTo(3);
+        assertThat(store.size()).isEqualTo(1);
+
+        lookup.claim(new RecordIdentity("order-5"), Duration.ofMillis(1));
+        Thread.sleep(30);
+        assertThat(lookup.claim(new RecordIdentity("order-5"), Duration.ofMinutes(1))).isTrue();
+    }
+
+    @Test
+    public void never_shortens_the_expiry_of_a_marker() throws Exception {
+        final var id = new RecordIdentity("order-1");
+        lookup.log(id, Duration.ofMinutes(1));
+        lookup.logAll(List.of(id, new RecordIdentity("order-2")), Duration.ofMillis(1));
+        Thread.sleep(30);
+
+        assertThat(lookup.areLogged(List.of(id, new RecordIdentity("order-2")))).containsExactly(true, false);
+        assertThat(store.sweep()).isEqualTo(1);
+        assertThat(store.size()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,113 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.clients.CommonClientConfigs;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.RecordPosition;
+
+public class KafkaChangelogStoreTest {
+
+    private static EmbeddedKafkaBroker broker;
+
+    @BeforeAll
+    static void startKafka() {
+        broker = new EmbeddedKafkaBroker(1);
+        broker.afterPropertiesSet();
+    }
+
+    @AfterAll
+    static void stopKafka() {
+        broker.destroy();
+    }
+
+    @Test
+    void restores_the_markers_written_by_other_instances() throws Exception {
+        final var position = new RecordPosition("orders", 1, 42L);
+        final var positional = new RecordIdentity(position.toString(), position);
+        final var byHeader = new RecordIdentity("1c9bb6f0-5b91-4be7-acad-6bf089ed0bef");
+        final var expiring = new RecordIdentity("expiring");
+
+        try (var writer = newStore("restore-changelog")) {
+            writer.add(positional, Duration.ofMinutes(1));
+            writer.add(byHeader, Duration.ofMinutes(1));
+            writer.add(expiring, Duration.ofMillis(1));
+            writer.flush();
+
+            assertThat(writer.contains(positional)).isTrue();
+
+            try (var reader = newStore("restore-changelog")) {
+                assertThat(reader.contains(positional)).isTrue();
+                assertThat(reader.contains(byHeader)).isTrue();
+                assertThat(reader.contains(expiring)).isFalse();
+                assertThat(reader.contains(new RecordIdentity("unknown"))).isFalse();
+
+                writer.remove(byHeader);
+                writer.flush();
+                awaitRemoval(reader, byHeader);
+                assertThat(reader.contains(byHeader)).isFalse();
+                assertThat(reader.contains(positional)).isTrue();
+            }
+        }
+    }
+
+    @Test
+    void claims_within_the_instance() throws Exception {
+        try (var store = newStore("claim-changelog")) {
+            final var lookup = new KafkaChangelogRecordIdempotencyLookup(store);
+            final var claimed = new RecordIdentity("claimed");
+            final var logged = new RecordIdentity("logged");
+            lookup.log(logged, Duration.ofMinutes(1));
+
+            assertThat(lookup.claim(claimed, Duration.ofMinutes(1))).isTrue();
+            assertThat(lookup.claim(claimed, Duration.ofMinutes(1))).isFalse();
+            assertThat(lookup.claim(logged, Duration.ofMinutes(1))).isFalse();
+
+            lookup.release(claimed);
+
+            assertThat(lookup.claim(claimed, Duration.ofMinutes(1))).isTrue();
+            assertThat(lookup.areLogged(List.of(claimed, logged))).containsExactly(false, true);
+        }
+    }
+
+    @Test
+    void fails_the_lookups_once_the_changelog_is_not_followed_anymore() throws Exception {
+        try (var producer = new KafkaProducer<>(Map.<String, Object>of(CommonClientConfigs.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString()),
+                new ByteArraySerializer(), new ByteArraySerializer())) {
+            newStore("broken-changelog").close();
+            producer.send(new ProducerRecord<>("broken-changelog", 0, new byte[] { 1 }, new byte[] { 1 })).get();
+        }
+
+        try (var store = newStore("broken-changelog")) {
+            assertThatThrownBy(() -> store.contains(new RecordIdentity("any"))).isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("not followed anymore");
+            assertThatThrownBy(store::flush).isInstanceOf(IllegalStateException.class);
+            assertThat(store.isRestored()).isFalse();
+        }
+    }
+
+    private static KafkaChangelogStore newStore(final String topic) {
+        return new KafkaChangelogStore(Map.of(CommonClientConfigs.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString()), topic, 2,
+                (short) 1, Duration.ofDays(1), Duration.ofMillis(5), Duration.ofSeconds(30));
+    }
+
+    private static void awaitRemoval(final KafkaChangelogStore store, final RecordIdentity id) throws InterruptedException {
+        final var deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (store.contains(id) && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+public class LocalMarkerCacheTest {
+
+    @Test
+    void holds_exactly_the_maximum_size_if_it_is_not_a_multiple_of_the_stripes() throws Exception {
+        assertThat(filled(new LocalMarkerCache(100)).size()).isEqualTo(100);
+    }
+
+    @Test
+    void holds_no_more_than_the_maximum_size_if_it_is_below_the_stripes() throws Exception {
+        assertThat(filled(new LocalMarkerCache(5)).size()).isEqualTo(5);
+        assertThat(filled(new LocalMarkerCache(1)).size()).isEqualTo(1);
+    }
+
+    @Test
+    void evicts_the_least_recently_used_markers() throws Exception {
+        final var cache = new LocalMarkerCache(1);
+        cache.put(new RecordIdentity("first"), Duration.ofMinutes(1));
+        cache.put(new RecordIdentity("second"), Duration.ofMinutes(1));
+
+        assertThat(cache.contains(new RecordIdentity("first"))).isFalse();
+        assertThat(cache.contains(new RecordIdentity("second"))).isTrue();
+    }
+
+    private static LocalMarkerCache filled(final LocalMarkerCache cache) throws Exception {
+        for (int i = 0; i < 10_000; i++) {
+            cache.put(new RecordIdentity("record-" + i), Duration.ofMinutes(1));
+        }
+        return cache;
+    }
+}
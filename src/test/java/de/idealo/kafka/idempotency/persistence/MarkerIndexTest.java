@@ -0,0 +1,50 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class MarkerIndexTest {
+
+    @Test
+    public void grows_and_keeps_latest_expiry() {
+        final var index = new MarkerIndex(4);
+        final var random = new Random(42);
+        final var digests = new long[10_000][2];
+        for (final var digest : digests) {
+            digest[0] = random.nextLong();
+            digest[1] = random.nextLong();
+            index.put(digest[0], digest[1], 100);
+        }
+        index.put(digests[0][0], digests[0][1], 200);
+        index.put(digests[0][0], digests[0][1], 150);
+
+        assertThat(index.size()).isEqualTo(digests.length);
+        assertThat(index.capacity()).isGreaterThan(digests.length);
+        assertThat(index.get(digests[0][0], digests[0][1])).isEqualTo(200);
+        assertThat(index.get(digests[9_999][0], digests[9_999][1])).isEqualTo(100);
+        assertThat(index.get(1, 2)).isZero();
+    }
+
+    @Test
+    public void removes_entries_without_breaking_probe_sequences() {
+        final var index = new MarkerIndex(16);
+        // same low half and high halves differing above the hashed bits only, so that they collide
+        for (long i = 1; i <= 8; i++) {
+            index.put(i << 61, 7, (int) i);
+        }
+
+        assertThat(index.removeIfNotAfter(3L << 61, 7, 2)).isFalse();
+        assertThat(index.removeIfNotAfter(3L << 61, 7, 3)).isTrue();
+        assertThat(index.removeIfNotAfter(1L << 61, 7, 1)).isTrue();
+
+        assertThat(index.size()).isEqualTo(6);
+        assertThat(index.get(3L << 61, 7)).isZero();
+        for (long i = 4; i <= 8; i++) {
+            assertThat(index.get(i << 61, 7)).isEqualTo((int) i);
+        }
+        assertThat(index.get(2L << 61, 7)).isEqualTo(2);
+    }
+}
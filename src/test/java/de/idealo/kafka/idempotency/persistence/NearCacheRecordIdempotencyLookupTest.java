@@ -0,0 +1,69 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import de.idealo.kafka.idempotency.IdempotencyCheckException;
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+public class NearCacheRecordIdempotencyLookupTest {
+
+    private final RecordIdempotencyLookup delegate = mock(RecordIdempotencyLookup.class);
+    private final LocalMarkerCache cache = new LocalMarkerCache(1000);
+    private final NearCacheRecordIdempotencyLookup lookup = new NearCacheRecordIdempotencyLookup(delegate, cache);
+
+    @Test
+    public void serves_logged_markers_locally() throws IdempotencyCheckException {
+        final var id = new RecordIdentity(List.of("topic", "0", "1"));
+
+        lookup.log(id, Duration.ofMinutes(1));
+
+        assertThat(lookup.isLogged(id)).isTrue();
+        verify(delegate).log(id, Duration.ofMinutes(1));
+        verify(delegate, never()).isLogged(id);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void falls_through_on_miss() throws IdempotencyCheckException {
+        final var id = new RecordIdentity(List.of("topic", "0", "1"));
+        when(delegate.isLogged(id)).thenReturn(true);
+
+        assertThat(lookup.isLogged(id)).isTrue();
+        verify(delegate).isLogged(id);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void expires_markers() throws Exception {
+        final var id = new RecordIdentity(List.of("topic", "0", "1"));
+
+        lookup.log(id, Duration.ofMillis(1));
+        Thread.sleep(5);
+
+        assertThat(lookup.isLogged(id)).isFalse();
+        verify(delegate).isLogged(id);
+    }
+
+    @Test
+    public void looks_up_only_misses_of_batch() throws IdempotencyCheckException {
+        final var cached = new RecordIdentity(List.of("topic", "0", "1"));
+        final var remote = new RecordIdentity(List.of("topic", "0", "2"));
+        final var unseen = new RecordIdentity(List.of("topic", "0", "3"));
+        lookup.log(cached, Duration.ofMinutes(1));
+        when(delegate.areLogged(anyList())).thenReturn(Arrays.asList(true, false));
+
+        assertThat(lookup.areLogged(List.of(cached, remote, unseen))).containsExactly(true, true, false);
+        verify(delegate).areLogged(List.of(remote, unseen));
+    }
+}
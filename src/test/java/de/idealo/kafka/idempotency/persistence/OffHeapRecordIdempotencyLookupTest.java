@@ -0,0 +1,69 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.RecordPosition;
+
+public class OffHeapRecordIdempotencyLookupTest {
+
+    @Test
+    public void logs_numeric_and_textual_identities() throws Exception {
+        final var lookup = new OffHeapRecordIdempotencyLookup(new OffHeapMarkerTable(1000));
+        for (long offset = 0; offset < 500; offset++) {
+            lookup.log(new RecordIdentity("orders-1-" + offset, new RecordPosition("orders", 1, offset)), Duration.ofMinutes(1));
+        }
+        lookup.log(new RecordIdentity("order-42"), Duration.ofMinutes(1));
+
+        assertThat(lookup.isLogged(new RecordIdentity("orders-1-499", new RecordPosition("orders", 1, 499)))).isTrue();
+        assertThat(lookup.isLogged(new RecordIdentity("orders-2-499", new RecordPosition("orders", 2, 499)))).isFalse();
+        assertThat(lookup.isLogged(new RecordIdentity("orders-1-500", new RecordPosition("orders", 1, 500)))).isFalse();
+        assertThat(lookup.isLogged(new RecordIdentity("order-42"))).isTrue();
+        assertThat(lookup.isLogged(new RecordIdentity("order-43"))).isFalse();
+        assertThat(lookup.getTable().size()).isEqualTo(501);
+    }
+
+    @Test
+    public void keeps_binary_identities_apart_which_are_not_valid_utf8() throws Exception {
+        final var lookup = new OffHeapRecordIdempotencyLookup(new OffHeapMarkerTable(1000));
+        lookup.log(RecordIdentity.of(new byte[] { (byte) 0xff, 1 }, null), Duration.ofMinutes(1));
+
+        assertThat(lookup.isLogged(RecordIdentity.of(new byte[] { (byte) 0xff, 1 }, null))).isTrue();
+        assertThat(lookup.isLogged(RecordIdentity.of(new byte[] { (byte) 0xfe, 1 }, null))).isFalse();
+    }
+
+    @Test
+    public void sweeps_expired_entries_incrementally() {
+        final var table = new OffHeapMarkerTable(1000);
+        for (long i = 0; i < 700; i++) {
+            table.put(1, i, 10, 0);
+        }
+        assertThat(table.contains(1, 0, 9)).isTrue();
+        assertThat(table.contains(1, 0, 10)).isFalse();
+
+        // every insertion sweeps some slots, so the expired entries make room for the new ones
+        for (long i = 0; i < 1000; i++) {
+            table.put(2, i, 100, 10);
+        }
+
+        assertThat(table.getEvictedCount()).isZero();
+        assertThat(table.size()).isLessThanOrEqualTo(table.capacity());
+        assertThat(table.contains(2, 999, 10)).isTrue();
+    }
+
+    @Test
+    public void evicts_live_entries_when_full() {
+        final var table = new OffHeapMarkerTable(1000);
+        for (long i = 0; i < 2 * table.capacity(); i++) {
+            table.put(3, i, 100, 0);
+        }
+
+        assertThat(table.size()).isEqualTo(table.capacity() * 3 / 4);
+        assertThat(table.getEvictedCount()).isEqualTo(2 * table.capacity() - table.size());
+        assertThat(table.contains(3, 2 * table.capacity() - 1, 0)).isTrue();
+    }
+}
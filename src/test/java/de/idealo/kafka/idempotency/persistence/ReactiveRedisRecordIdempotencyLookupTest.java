@@ -0,0 +1,51 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+public class ReactiveRedisRecordIdempotencyLookupTest {
+
+    private static final String PREFIX = "kafkaidmp_group_";
+
+    @RegisterExtension
+    static final EmbeddedRedisExtension REDIS = new EmbeddedRedisExtension();
+
+    private final StringRedisTemplate template = REDIS.getTemplate();
+
+    private final ReactiveRedisRecordIdempotencyLookup lookup = new ReactiveRedisRecordIdempotencyLookup(
+            ReactiveRedisRecordIdempotencyLookup.rawTemplate(REDIS.getConnectionFactory()), new ReadableRecordKeyEncoder(PREFIX));
+
+    @Test
+    void logs_and_looks_up_without_blocking() throws Exception {
+        final var id = new RecordIdentity("logged");
+
+        assertThat(lookup.isLogged(id).block()).isFalse();
+        lookup.log(id, Duration.ofMinutes(1)).block();
+        lookup.logAll(List.of(new RecordIdentity("first"), new RecordIdentity("second")), Duration.ofMinutes(1)).block();
+
+        assertThat(lookup.isLogged(id).block()).isTrue();
+        assertThat(lookup.areLogged(List.of(new RecordIdentity("first"), new RecordIdentity("unknown"), new RecordIdentity("second"))).block())
+                .containsExactly(true, false, true);
+        assertThat(template.getExpire(PREFIX + "first")).isPositive();
+    }
+
+    @Test
+    void shares_markers_with_blocking_lookup() throws Exception {
+        final var blocking = new RedisRecordIdempotencyLookup(RedisRecordIdempotencyLookup.rawTemplate(template),
+                new ReadableRecordKeyEncoder(PREFIX), null);
+
+        blocking.log(new RecordIdentity("blocking"), Duration.ofMinutes(1));
+        lookup.log(new RecordIdentity("reactive"), Duration.ofMinutes(1)).block();
+
+        assertThat(lookup.isLogged(new RecordIdentity("blocking")).block()).isTrue();
+        assertThat(blocking.isLogged(new RecordIdentity("reactive"))).isTrue();
+    }
+}
@@ -0,0 +1,90 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+public class RedisBloomFilterRecordIdempotencyLookupTest {
+
+    @RegisterExtension
+    static final EmbeddedRedisExtension REDIS = new EmbeddedRedisExtension();
+
+    private final StringRedisTemplate template = REDIS.getTemplate();
+
+    @Test
+    void looks_up_logged_records() throws Exception {
+        final var lookup = newLookup(Duration.ofDays(1));
+        final var logged = new RecordIdentity("logged");
+
+        lookup.log(logged, Duration.ofDays(1));
+        lookup.logAll(List.of(new RecordIdentity("first"), new RecordIdentity("second")), Duration.ofDays(1));
+
+        assertThat(lookup.isLogged(logged)).isTrue();
+        assertThat(lookup.isLogged(new RecordIdentity("unknown"))).isFalse();
+        assertThat(lookup.areLogged(List.of(new RecordIdentity("first"), new RecordIdentity("unknown"), new RecordIdentity("second"))))
+                .containsExactly(true, false, true);
+        assertThat(template.keys("{kafkaidmp_group_bloom}_*")).hasSize(1);
+    }
+
+    @Test
+    void dimensions_filters_for_desired_false_positive_rate() throws Exception {
+        final var lookup = newLookup(Duration.ofDays(1));
+
+        assertThat(lookup.getExpectedFalsePositiveRate()).isCloseTo(0.01, within(0.001));
+        assertThat(lookup.getHashes()).isGreaterThan(1);
+        assertThat(lookup.estimateFalsePositiveRate()).isZero();
+
+        for (int i = 0; i < 1000; i++) {
+            lookup.log(new RecordIdentity("record-" + i), Duration.ofDays(1));
+        }
+        assertThat(lookup.estimateFalsePositiveRate()).isPositive().isLessThan(0.01);
+    }
+
+    @Test
+    void drops_buckets_leaving_the_ring() throws Exception {
+        final var lookup = newLookup(Duration.ofMillis(400));
+        final var old = new RecordIdentity("old");
+        lookup.log(old, Duration.ofMillis(400));
+
+        // the ring covers 4 buckets of 100 ms plus the current one
+        Thread.sleep(600);
+        lookup.log(new RecordIdentity("new"), Duration.ofMillis(400));
+
+        assertThat(lookup.isLogged(old)).isFalse();
+        assertThat(template.keys("{kafkaidmp_group_bloom}_*")).hasSize(1);
+    }
+
+    @Test
+    void calls_the_scripts_by_their_sha_and_reloads_them_when_redis_has_lost_them() throws Exception {
+        final var lookup = newLookup(Duration.ofDays(1));
+        template.execute((RedisCallback<Object>) connection -> {
+            connection.scriptingCommands().scriptFlush();
+            connection.resetConfigStats();
+            return null;
+        });
+
+        lookup.logAll(List.of(new RecordIdentity("first"), new RecordIdentity("second")), Duration.ofDays(1));
+        lookup.log(new RecordIdentity("third"), Duration.ofDays(1));
+
+        assertThat(lookup.areLogged(List.of(new RecordIdentity("first"), new RecordIdentity("unknown"), new RecordIdentity("second"))))
+                .containsExactly(true, false, true);
+        assertThat(lookup.isLogged(new RecordIdentity("third"))).isTrue();
+        final var commandStats = template.execute((RedisCallback<Properties>) connection -> connection.info("commandstats"));
+        assertThat(commandStats).containsKeys("cmdstat_evalsha", "cmdstat_script");
+    }
+
+    private RedisBloomFilterRecordIdempotencyLookup newLookup(final Duration ttl) {
+        return new RedisBloomFilterRecordIdempotencyLookup(RedisRecordIdempotencyLookup.rawTemplate(template), "kafkaidmp_group_",
+                ttl, 4, 10_000, 0.01);
+    }
+}
@@ -0,0 +1,80 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+public class RedisBucketedRecordIdempotencyLookupTest {
+
+    private static final String PREFIX = "kafkaidmp_group_";
+
+    @RegisterExtension
+    static final EmbeddedRedisExtension REDIS = new EmbeddedRedisExtension();
+
+    private final StringRedisTemplate template = REDIS.getTemplate();
+
+    @Test
+    void stores_markers_in_expiring_buckets() throws Exception {
+        final var lookup = newLookup(new ReadableRecordKeyEncoder(PREFIX), Duration.ofHours(1), Duration.ofDays(1), 1);
+
+        lookup.log(new RecordIdentity("logged"), Duration.ofDays(1));
+        lookup.logAll(List.of(new RecordIdentity("first"), new RecordIdentity("second")), Duration.ofDays(1));
+
+        assertThat(lookup.isLogged(new RecordIdentity("logged"))).isTrue();
+        assertThat(lookup.areLogged(List.of(new RecordIdentity("first"), new RecordIdentity("unknown"), new RecordIdentity("second"))))
+                .containsExactly(true, false, true);
+
+        final var keys = template.keys(PREFIX + "bucket_*");
+        assertThat(keys).hasSize(1);
+        final var key = keys.iterator().next();
+        assertThat(template.opsForHash().keys(key)).containsExactlyInAnyOrder("logged", "first", "second");
+        assertThat(template.getExpire(key)).isGreaterThan(Duration.ofDays(1).getSeconds());
+    }
+
+    @Test
+    void never_shortens_the_expiry_of_a_bucket() throws Exception {
+        final var lookup = newLookup(new ReadableRecordKeyEncoder(PREFIX), Duration.ofHours(1), Duration.ofDays(1), 1);
+
+        lookup.log(new RecordIdentity("long"), Duration.ofDays(1));
+        lookup.log(new RecordIdentity("short"), Duration.ofMinutes(1));
+
+        final var key = template.keys(PREFIX + "bucket_*").iterator().next();
+        assertThat(template.opsForHash().keys(key)).containsExactlyInAnyOrder("long", "short");
+        assertThat(template.getExpire(key)).isGreaterThan(Duration.ofDays(1).getSeconds());
+    }
+
+    @Test
+    void finds_markers_of_previous_buckets() throws Exception {
+        final var lookup = newLookup(new ReadableRecordKeyEncoder(PREFIX), Duration.ofMillis(100), Duration.ofSeconds(1), 1);
+        lookup.log(new RecordIdentity("logged"), Duration.ofSeconds(1));
+
+        Thread.sleep(300);
+
+        assertThat(lookup.isLogged(new RecordIdentity("logged"))).isTrue();
+    }
+
+    @Test
+    void spreads_hashed_markers_over_shards() throws Exception {
+        final var lookup = newLookup(new HashedRecordKeyEncoder(PREFIX), Duration.ofHours(1), Duration.ofDays(1), 4);
+        for (int i = 0; i < 100; i++) {
+            lookup.log(new RecordIdentity("record-" + i), Duration.ofDays(1));
+        }
+
+        assertThat(template.keys(PREFIX + "bucket_*")).hasSize(4);
+        assertThat(lookup.isLogged(new RecordIdentity("record-42"))).isTrue();
+        assertThat(lookup.isLogged(new RecordIdentity("record-100"))).isFalse();
+    }
+
+    private RedisBucketedRecordIdempotencyLookup newLookup(final RecordKeyEncoder keyEncoder, final Duration window,
+            final Duration ttl, final int shards) {
+        return new RedisBucketedRecordIdempotencyLookup(RedisRecordIdempotencyLookup.rawTemplate(template), PREFIX,
+                keyEncoder, window, ttl, shards);
+    }
+}
@@ -0,0 +1,102 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+public class RedisMarkerAdminTest {
+
+    private static final String PREFIX = "kafkaidmp_group_";
+
+    @RegisterExtension
+    static final EmbeddedRedisExtension REDIS = new EmbeddedRedisExtension();
+
+    private final StringRedisTemplate template = REDIS.getTemplate();
+
+    private RedisMarkerAdmin admin;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        admin = new RedisMarkerAdmin(RedisRecordIdempotencyLookup.rawTemplate(template), "kafkaidmp",
+                () -> List.of("group", "other", "orders", "orders_v2"), 10, 100_000);
+
+        final var readable = new RedisRecordIdempotencyLookup(RedisRecordIdempotencyLookup.rawTemplate(template),
+                new ReadableRecordKeyEncoder(PREFIX), null);
+        final var hashed = new RedisRecordIdempotencyLookup(RedisRecordIdempotencyLookup.rawTemplate(template),
+                new HashedRecordKeyEncoder(PREFIX), null);
+        for (int offset = 0; offset < 25; offset++) {
+            readable.log(new RecordIdentity("orders-1-" + offset), Duration.ofMinutes(10));
+        }
+        readable.log(new RecordIdentity("payments-0-1"), Duration.ofDays(2));
+        readable.log(new RecordIdentity("orders-event-1"), Duration.ofDays(2));
+        hashed.log(new RecordIdentity("orders-1-100"), Duration.ofMinutes(10));
+        template.opsForValue().set("kafkaidmp_other_orders-1-0", "1", Duration.ofMinutes(10));
+    }
+
+    @AfterEach
+    void tearDown() {
+        admin.close();
+    }
+
+    @Test
+    void samples_the_markers_of_a_group() {
+        final var statistics = admin.getStatistics("group", 1000);
+
+        assertThat(statistics.isExact()).isTrue();
+        assertThat(statistics.getTotalKeys()).isEqualTo(29);
+        assertThat(statistics.getEstimatedMarkers()).isEqualTo(28);
+        assertThat(statistics.getTtlDistribution()).containsEntry("<1h", 26L).containsEntry("<7d", 2L);
+        assertThat(statistics.getEstimatedMemoryBytes()).isPositive();
+    }
+
+    @Test
+    void purges_the_markers_of_a_group() throws Exception {
+        final var purge = admin.purge("group", null);
+        awaitPurge();
+
+        assertThat(purge.getState()).isEqualTo(RedisMarkerAdmin.Purge.State.COMPLETED);
+        assertThat(purge.getDeletedKeys()).isEqualTo(28);
+        assertThat(template.keys("*")).containsExactly("kafkaidmp_other_orders-1-0");
+    }
+
+    @Test
+    void purges_the_positional_markers_of_a_topic() throws Exception {
+        final var purge = admin.purge("group", "orders");
+        awaitPurge();
+
+        assertThat(purge.getState()).isEqualTo(RedisMarkerAdmin.Purge.State.COMPLETED);
+        assertThat(purge.getDeletedKeys()).isEqualTo(25);
+        assertThat(admin.getStatistics("group", 1000).getEstimatedMarkers()).isEqualTo(3);
+        assertThat(template.hasKey(PREFIX + "payments-0-1")).isTrue();
+        assertThat(template.hasKey(PREFIX + "orders-event-1")).isTrue();
+    }
+
+    @Test
+    void rejects_groups_sharing_the_readable_prefix_with_another_group() {
+        template.opsForValue().set("kafkaidmp_orders_v2_orders-1-0", "1", Duration.ofMinutes(10));
+
+        assertThatThrownBy(() -> admin.purge("orders", null)).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("orders_v2");
+        assertThatThrownBy(() -> admin.purge("orders_v2", null)).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("[orders]");
+        assertThatThrownBy(() -> admin.getStatistics("orders", 1000)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(admin.getPurge()).isNull();
+        assertThat(template.hasKey("kafkaidmp_orders_v2_orders-1-0")).isTrue();
+    }
+
+    private void awaitPurge() throws InterruptedException {
+        final var deadline = System.currentTimeMillis() + 5000;
+        while (admin.getPurge().getState() == RedisMarkerAdmin.Purge.State.RUNNING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(admin.getPurge().getState()).isNotEqualTo(RedisMarkerAdmin.Purge.State.RUNNING);
+    }
+}
@@ -0,0 +1,87 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.RecordPosition;
+
+public class RedisMarkerWarmupTest {
+
+    private static final String PREFIX = "kafkaidmp_group_";
+
+    @RegisterExtension
+    static final EmbeddedRedisExtension REDIS = new EmbeddedRedisExtension();
+
+    private final StringRedisTemplate template = REDIS.getTemplate();
+
+    private final LocalMarkerCache cache = new LocalMarkerCache(1000);
+
+    private RedisMarkerWarmup warmup;
+
+    @BeforeEach
+    void setUp() {
+        warmup = new RedisMarkerWarmup(RedisRecordIdempotencyLookup.rawTemplate(template), PREFIX, cache, 10, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        warmup.close();
+    }
+
+    @Test
+    void loads_the_markers_of_the_assigned_partitions() throws Exception {
+        for (int offset = 0; offset < 25; offset++) {
+            template.opsForValue().set(PREFIX + "orders-1-" + offset, "1", Duration.ofHours(1));
+        }
+        template.opsForValue().set(PREFIX + "orders-2-0", "1", Duration.ofHours(1));
+        template.opsForValue().set(PREFIX + "orders-1-abc", "1", Duration.ofHours(1));
+        template.opsForValue().set(PREFIX + "orders-1-25", "0", Duration.ofHours(1));
+        template.opsForValue().set(PREFIX + "order-events-3-7", "1", Duration.ofHours(1));
+        template.opsForValue().set("kafkaidmp_other_orders-1-0", "1", Duration.ofHours(1));
+
+        warmup.onPartitionsAssigned(List.of(new TopicPartition("orders", 1), new TopicPartition("order-events", 3)));
+        awaitWarmup();
+
+        assertThat(warmup.getWarmedCount()).isEqualTo(26);
+        assertThat(cache.size()).isEqualTo(26);
+        assertThat(cache.contains(new RecordIdentity("orders-1-24"))).isTrue();
+        assertThat(cache.contains(new RecordIdentity("order-events-3-7"))).isTrue();
+        assertThat(cache.contains(new RecordIdentity("orders-2-0"))).isFalse();
+        assertThat(cache.contains(new RecordIdentity("orders-1-abc"))).isFalse();
+        assertThat(cache.contains(new RecordIdentity("orders-1-25"))).as("claimed only").isFalse();
+    }
+
+    @Test
+    void evicts_the_markers_of_the_revoked_partitions() throws Exception {
+        template.opsForValue().set(PREFIX + "orders-1-0", "1", Duration.ofHours(1));
+        warmup.onPartitionsAssigned(List.of(new TopicPartition("orders", 1)));
+        awaitWarmup();
+        cache.put(new RecordIdentity("orders-1-1", new RecordPosition("orders", 1, 1)), Duration.ofHours(1));
+        cache.put(new RecordIdentity("orders-2-0", new RecordPosition("orders", 2, 0)), Duration.ofHours(1));
+        cache.put(new RecordIdentity("order-42"), Duration.ofHours(1));
+
+        warmup.onPartitionsRevoked(List.of(new TopicPartition("orders", 1)));
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.contains(new RecordIdentity("orders-2-0"))).isTrue();
+        assertThat(cache.contains(new RecordIdentity("order-42"))).isTrue();
+    }
+
+    private void awaitWarmup() throws InterruptedException {
+        final var deadline = System.currentTimeMillis() + 5000;
+        while (warmup.isWarmingUp() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(warmup.isWarmingUp()).isFalse();
+    }
+}
@@ -0,0 +1,115 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import de.idealo.kafka.idempotency.RecordPosition;
+import de.idealo.kafka.idempotency.configuration.IdealoKafkaIdempotencyAutoconfiguration;
+
+public class RedisOffsetRangeStoreTest {
+
+    @RegisterExtension
+    static final EmbeddedRedisExtension REDIS = new EmbeddedRedisExtension();
+
+    private final StringRedisTemplate template = REDIS.getTemplate();
+
+    private final IdealoKafkaIdempotencyAutoconfiguration configuration = mock(IdealoKafkaIdempotencyAutoconfiguration.class);
+    private RedisOffsetRangeStore store;
+
+    @BeforeEach
+    void setUp() {
+        when(configuration.getKeyPrefix()).thenReturn("kafkaidmp");
+        when(configuration.getConsumerGroupId()).thenReturn("group");
+        when(configuration.getTtl()).thenReturn(Duration.ofDays(1));
+        store = newStore();
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    void stores_out_of_order_offsets_as_chunked_bitmaps() {
+        store.add(new RecordPosition("topic", 0, 70000), Duration.ofMinutes(1));
+        store.add(new RecordPosition("topic", 0, 5), Duration.ofMinutes(1));
+        store.add(new RecordPosition("topic", 0, 3), Duration.ofMinutes(1));
+        store.flush();
+
+        assertThat(template.keys("kafkaidmp_group_offsets_*")).containsExactlyInAnyOrder(
+                "kafkaidmp_group_offsets_{topic-0}_0", "kafkaidmp_group_offsets_{topic-0}_1");
+        assertThat(template.getExpire("kafkaidmp_group_offsets_{topic-0}_0")).isPositive();
+
+        final var other = newStore();
+        assertThat(other.containsAll(List.of(
+                new RecordPosition("topic", 0, 3),
+                new RecordPosition("topic", 0, 4),
+                new RecordPosition("topic", 0, 5),
+                new RecordPosition("topic", 0, 70000),
+                new RecordPosition("topic", 1, 5)
+        ))).containsExactly(true, false, true, true, false);
+        other.close();
+    }
+
+    @Test
+    void sees_offsets_written_by_others_after_loading_a_chunk() {
+        assertThat(store.contains(new RecordPosition("topic", 0, 1))).isFalse();
+
+        final var other = newStore();
+        other.add(new RecordPosition("topic", 0, 1), Duration.ofMinutes(1));
+        other.close();
+
+        assertThat(store.contains(new RecordPosition("topic", 0, 1))).isTrue();
+    }
+
+    @Test
+    void merges_concurrent_writers() {
+        final var other = newStore();
+        store.add(new RecordPosition("topic", 0, 1), Duration.ofMinutes(1));
+        other.add(new RecordPosition("topic", 0, 2), Duration.ofMinutes(1));
+        store.flush();
+        other.close();
+
+        final var reader = newStore();
+        assertThat(reader.containsAll(List.of(new RecordPosition("topic", 0, 1), new RecordPosition("topic", 0, 2))))
+                .containsExactly(true, true);
+        reader.close();
+    }
+
+    @Test
+    void calls_the_merge_script_by_its_sha_and_reloads_it_when_redis_has_lost_it() {
+        template.execute((RedisCallback<Object>) connection -> {
+            connection.scriptingCommands().scriptFlush();
+            connection.resetConfigStats();
+            return null;
+        });
+
+        store.add(new RecordPosition("topic", 0, 1), Duration.ofMinutes(1));
+        store.flush();
+        store.add(new RecordPosition("topic", 0, 2), Duration.ofMinutes(1));
+        store.flush();
+
+        final var commandStats = template.execute((RedisCallback<Properties>) connection -> connection.info("commandstats"));
+        assertThat(commandStats).containsKeys("cmdstat_evalsha", "cmdstat_script");
+        final var reader = newStore();
+        assertThat(reader.containsAll(List.of(new RecordPosition("topic", 0, 1), new RecordPosition("topic", 0, 2))))
+                .containsExactly(true, true);
+        reader.close();
+    }
+
+    private RedisOffsetRangeStore newStore() {
+        return new RedisOffsetRangeStore(configuration, template, Duration.ofMinutes(1), 16);
+    }
+}
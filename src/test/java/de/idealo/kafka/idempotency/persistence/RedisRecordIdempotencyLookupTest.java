@@ -0,0 +1,140 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.configuration.IdealoKafkaIdempotencyAutoconfiguration;
+
+public class RedisRecordIdempotencyLookupTest {
+
+    @RegisterExtension
+    static final EmbeddedRedisExtension REDIS = new EmbeddedRedisExtension();
+
+    private final StringRedisTemplate template = REDIS.getTemplate();
+
+    private final IdealoKafkaIdempotencyAutoconfiguration configuration = mock(IdealoKafkaIdempotencyAutoconfiguration.class);
+    private RedisRecordIdempotencyLookup lookup;
+
+    @BeforeEach
+    void setUp() {
+        when(configuration.getKeyPrefix()).thenReturn("kafkaidmp");
+        when(configuration.getConsumerGroupId()).thenReturn("group");
+        lookup = new RedisRecordIdempotencyLookup(configuration, template);
+    }
+
+    @Test
+    void logs_and_looks_up() throws Exception {
+        final var id = new RecordIdentity("topic-0-1");
+
+        assertThat(lookup.isLogged(id)).isFalse();
+        lookup.log(id, Duration.ofMinutes(1));
+
+        assertThat(lookup.isLogged(id)).isTrue();
+        assertThat(template.hasKey("kafkaidmp_group_topic-0-1")).isTrue();
+    }
+
+    @Test
+    void writes_binary_ids_as_they_are() throws Exception {
+        final var eventId = new byte[] { 'e', 'v', '-', (byte) 0xff, 0 };
+
+        lookup.log(RecordIdentity.of(eventId.clone(), null), Duration.ofMinutes(1));
+        lookup.log(RecordIdentity.of("topic-0-1".getBytes(StandardCharsets.UTF_8), null), Duration.ofMinutes(1));
+
+        final var key = new byte[] { 'k', 'a', 'f', 'k', 'a', 'i', 'd', 'm', 'p', '_', 'g', 'r', 'o', 'u', 'p', '_', 'e', 'v', '-', (byte) 0xff, 0 };
+        final Boolean exists = template.execute(connection -> connection.exists(key), true);
+        assertThat(exists).isTrue();
+        assertThat(lookup.isLogged(RecordIdentity.of(eventId, null))).isTrue();
+        assertThat(lookup.isLogged(new RecordIdentity("topic-0-1"))).isTrue();
+    }
+
+    @Test
+    void logs_and_looks_up_batches() throws Exception {
+        final var logged = new RecordIdentity("topic-0-1");
+        final var unseen = new RecordIdentity("topic-0-2");
+
+        lookup.logAll(List.of(logged), Duration.ofMinutes(1));
+
+        assertThat(lookup.areLogged(List.of(logged, unseen))).containsExactly(true, false);
+    }
+
+    @Test
+    void claims_once() throws Exception {
+        final var id = new RecordIdentity("topic-0-1");
+
+        assertThat(lookup.claim(id, Duration.ofMinutes(1))).isTrue();
+        assertThat(lookup.claim(id, Duration.ofMinutes(1))).isFalse();
+        assertThat(lookup.claimAll(List.of(id, new RecordIdentity("topic-0-2")), Duration.ofMinutes(1))).containsExactly(false, true);
+    }
+
+    @Test
+    void releases_only_unfinished_claims() throws Exception {
+        final var released = new RecordIdentity("topic-0-1");
+        final var promoted = new RecordIdentity("topic-0-2");
+        lookup.claimAll(List.of(released, promoted), Duration.ofMinutes(1));
+        lookup.log(promoted, Duration.ofMinutes(1));
+
+        lookup.release(released);
+        lookup.release(promoted);
+
+        assertThat(lookup.claim(released, Duration.ofMinutes(1))).isTrue();
+        assertThat(lookup.isLogged(promoted)).isTrue();
+    }
+
+    @Test
+    void leaves_the_claim_of_another_consumer_after_the_lease_has_expired() throws Exception {
+        final var other = new RedisRecordIdempotencyLookup(configuration, template);
+        final var released = new RecordIdentity("topic-0-1");
+        final var promoted = new RecordIdentity("topic-0-2");
+        lookup.claimAll(List.of(released, promoted), Duration.ofMinutes(1));
+        template.delete(List.of("kafkaidmp_group_topic-0-1", "kafkaidmp_group_topic-0-2"));
+        assertThat(other.claimAll(List.of(released, promoted), Duration.ofMinutes(1))).containsExactly(true, true);
+        final var claimOfOther = template.opsForValue().get("kafkaidmp_group_topic-0-2");
+
+        lookup.release(released);
+        lookup.logAll(List.of(promoted), Duration.ofMinutes(1));
+
+        assertThat(template.hasKey("kafkaidmp_group_topic-0-1")).isTrue();
+        assertThat(template.opsForValue().get("kafkaidmp_group_topic-0-2")).isEqualTo(claimOfOther);
+        other.log(promoted, Duration.ofMinutes(1));
+        assertThat(template.opsForValue().get("kafkaidmp_group_topic-0-2")).isEqualTo("1");
+    }
+
+    @Test
+    void writes_compact_hashed_keys() throws Exception {
+        final var hashed = new HashedRecordKeyEncoder("kafkaidmp_group_");
+        final var hashedLookup = new RedisRecordIdempotencyLookup(RedisRecordIdempotencyLookup.rawTemplate(template), hashed, null);
+        final var id = new RecordIdentity("1c9bb6f0-5b91-4be7-acad-6bf089ed0bef-my-topic-0-12345");
+
+        hashedLookup.log(id, Duration.ofMinutes(1));
+
+        assertThat(hashedLookup.isLogged(id)).isTrue();
+        assertThat(hashed.encode(id)).hasSize(20).startsWith(hashed.namespace());
+        final Boolean exists = template.execute(connection -> connection.exists(hashed.encode(id)), true);
+        assertThat(exists).isTrue();
+        assertThat(lookup.isLogged(id)).isFalse();
+    }
+
+    @Test
+    void reads_legacy_keys_while_migrating() throws Exception {
+        final var migrating = new RedisRecordIdempotencyLookup(RedisRecordIdempotencyLookup.rawTemplate(template),
+                new HashedRecordKeyEncoder("kafkaidmp_group_"), new ReadableRecordKeyEncoder("kafkaidmp_group_"));
+        final var legacy = new RecordIdentity("topic-0-1");
+        lookup.log(legacy, Duration.ofMinutes(1));
+
+        assertThat(migrating.isLogged(legacy)).isTrue();
+        assertThat(migrating.areLogged(List.of(legacy, new RecordIdentity("topic-0-2")))).containsExactly(true, false);
+        assertThat(migrating.claim(legacy, Duration.ofMinutes(1))).isFalse();
+        assertThat(migrating.claim(new RecordIdentity("topic-0-2"), Duration.ofMinutes(1))).isTrue();
+    }
+}
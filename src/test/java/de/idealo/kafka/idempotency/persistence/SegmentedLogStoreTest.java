@@ -0,0 +1,63 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+public class SegmentedLogStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recovers_markers_after_restart() throws Exception {
+        final List<RecordIdentity> ids = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            ids.add(new RecordIdentity("record-" + i));
+        }
+        try (var store = newStore(Duration.ofHours(1))) {
+            store.addAll(ids, Duration.ofDays(1));
+            store.add(new RecordIdentity("single"), Duration.ofDays(1));
+            assertThat(store.contains(new RecordIdentity("record-42"))).isTrue();
+        }
+
+        try (var store = newStore(Duration.ofHours(1))) {
+            assertThat(store.size()).isEqualTo(100_001);
+            assertThat(store.getSegmentCount()).isGreaterThan(1);
+            assertThat(store.containsAll(List.of(new RecordIdentity("record-99999"), new RecordIdentity("unknown"), new RecordIdentity("single"))))
+                    .containsExactly(true, false, true);
+        }
+    }
+
+    @Test
+    void drops_expired_segments() throws Exception {
+        try (var store = newStore(Duration.ofMillis(100))) {
+            store.add(new RecordIdentity("expiring"), Duration.ofMillis(1));
+            Thread.sleep(200);
+            store.add(new RecordIdentity("kept"), Duration.ofDays(1));
+
+            Thread.sleep(2000);
+            assertThat(store.contains(new RecordIdentity("expiring"))).isFalse();
+
+            store.add(new RecordIdentity("next"), Duration.ofDays(1));
+            assertThat(store.size()).isEqualTo(2);
+            assertThat(store.contains(new RecordIdentity("kept"))).isTrue();
+        }
+        try (var files = Files.list(directory)) {
+            assertThat(files.count()).isEqualTo(2);
+        }
+    }
+
+    private SegmentedLogStore newStore(final Duration segmentDuration) {
+        return new SegmentedLogStore(directory, "kafkaidmp_group_", 1 << 20, segmentDuration, 1024);
+    }
+}
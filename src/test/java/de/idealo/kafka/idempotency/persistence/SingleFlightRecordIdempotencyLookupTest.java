@@ -0,0 +1,135 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.persistence.SingleFlightRecordIdempotencyLookup.InFlightPolicy;
+
+public class SingleFlightRecordIdempotencyLookupTest {
+
+    private static final Duration TTL = Duration.ofMinutes(1);
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    private final StubLookup delegate = new StubLookup();
+
+    private RecordIdentity id;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        id = new RecordIdentity("order-1");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shares_concurrent_lookups_of_the_same_identity() throws Exception {
+        final var lookup = new SingleFlightRecordIdempotencyLookup(delegate, InFlightPolicy.PROCEED, Duration.ofSeconds(10), TTL);
+        delegate.blocked = new CountDownLatch(1);
+
+        final var first = executor.submit(() -> lookup.isLogged(id));
+        await(() -> delegate.calls.get() == 1);
+        final var second = executor.submit(() -> lookup.areLogged(List.of(id, new RecordIdentity("order-2"))));
+        await(() -> lookup.getCoalescedCount() == 1);
+        delegate.blocked.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isFalse();
+        assertThat(second.get(5, TimeUnit.SECONDS)).containsExactly(false, false);
+        assertThat(delegate.calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void holds_back_identities_processed_by_another_thread() throws Exception {
+        final var lookup = new SingleFlightRecordIdempotencyLookup(delegate, InFlightPolicy.WAIT, Duration.ofSeconds(10), TTL);
+        assertThat(lookup.isLogged(id)).isFalse();
+        assertThat(lookup.isLogged(id)).isFalse();
+
+        final var other = executor.submit(() -> lookup.isLogged(id));
+        await(() -> lookup.getHeldCount() == 1);
+        assertThat(other.isDone()).isFalse();
+        lookup.log(id, TTL);
+
+        assertThat(other.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(lookup.getInFlightCount()).isZero();
+    }
+
+    @Test
+    public void skips_identities_processed_by_another_thread_until_released() throws Exception {
+        final var lookup = new SingleFlightRecordIdempotencyLookup(delegate, InFlightPolicy.SKIP, Duration.ofSeconds(10), TTL);
+        assertThat(lookup.isLogged(id)).isFalse();
+
+        assertThat(executor.submit(() -> lookup.isLogged(id)).get(5, TimeUnit.SECONDS)).isTrue();
+        lookup.release(id);
+        assertThat(executor.submit(() -> lookup.isLogged(id)).get(5, TimeUnit.SECONDS)).isFalse();
+        assertThat(lookup.getSkippedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void expires_abandoned_identities_after_the_lease() throws Exception {
+        final var lookup = new SingleFlightRecordIdempotencyLookup(delegate, InFlightPolicy.SKIP, Duration.ofSeconds(10), Duration.ofMillis(10));
+        assertThat(lookup.isLogged(id)).isFalse();
+        Thread.sleep(20);
+
+        assertThat(executor.submit(() -> lookup.isLogged(id)).get(5, TimeUnit.SECONDS)).isFalse();
+        assertThat(lookup.getSkippedCount()).isZero();
+    }
+
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        final var deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+
+    private static class StubLookup implements RecordIdempotencyLookup {
+
+        private final Set<RecordIdentity> logged = ConcurrentHashMap.newKeySet();
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private volatile CountDownLatch blocked;
+
+        @Override
+        public boolean isLogged(final RecordIdentity id) {
+            return areLogged(List.of(id)).get(0);
+        }
+
+        @Override
+        public List<Boolean> areLogged(final List<RecordIdentity> ids) {
+            calls.incrementAndGet();
+            if (blocked != null) {
+                try {
+                    blocked.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return ids.stream().map(logged::contains).collect(Collectors.toList());
+        }
+
+        @Override
+        public void log(final RecordIdentity id, final Duration ttl) {
+            logged.add(id);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package de.idealo.kafka.idempotency.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import de.idealo.kafka.idempotency.IdempotencyCheckException;
+import de.idealo.kafka.idempotency.RecordIdentity;
+
+public class WriteBehindRecordIdempotencyLookupTest {
+
+    private final RecordIdempotencyLookup delegate = mock(RecordIdempotencyLookup.class);
+    private final WriteBehindRecordIdempotencyLookup lookup = new WriteBehindRecordIdempotencyLookup(delegate, 3, 2, Duration.ofHours(1));
+
+    @AfterEach
+    void tearDown() {
+        lookup.close();
+    }
+
+    @Test
+    public void serves_queued_markers_until_flushed() throws IdempotencyCheckException {
+        final var id = new RecordIdentity("queued");
+
+        lookup.log(id, Duration.ofMinutes(1));
+
+        assertThat(lookup.isLogged(id)).isTrue();
+        assertThat(lookup.claim(id, Duration.ofMinutes(1))).isFalse();
+        assertThat(lookup.getQueueDepth()).isEqualTo(1);
+        verify(delegate, never()).log(any(), any());
+
+        lookup.flush();
+
+        verify(delegate).logAll(List.of(id), Duration.ofMinutes(1));
+        verify(delegate).flush();
+        assertThat(lookup.getQueueDepth()).isZero();
+        assertThat(lookup.getFlushedCount()).isEqualTo(1);
+        assertThat(lookup.isLogged(id)).isFalse();
+    }
+
+    @Test
+    public void flushes_in_batches_per_ttl() throws IdempotencyCheckException {
+        final var first = new RecordIdentity("first");
+        final var second = new RecordIdentity("second");
+        final var third = new RecordIdentity("third");
+
+        lookup.logAll(List.of(first, second), Duration.ofMinutes(1));
+        lookup.log(third, Duration.ofMinutes(2));
+        lookup.flush();
+
+        verify(delegate).logAll(List.of(first, second), Duration.ofMinutes(1));
+        verify(delegate).logAll(List.of(third), Duration.ofMinutes(2));
+        assertThat(lookup.getFlushCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void requeues_markers_which_could_not_be_persisted() throws IdempotencyCheckException {
+        final var id = new RecordIdentity("failed");
+        doThrow(new IllegalStateException("down")).when(delegate).logAll(anyList(), any());
+
+        lookup.log(id, Duration.ofMinutes(1));
+
+        assertThatThrownBy(lookup::flush).isInstanceOf(IllegalStateException.class);
+        assertThat(lookup.getQueueDepth()).isEqualTo(1);
+        assertThat(lookup.getDroppedCount()).isZero();
+        assertThat(lookup.isLogged(id)).isTrue();
+    }
+
+    @Test
+    public void flushes_on_consumer_thread_when_queue_is_full() throws IdempotencyCheckException {
+        for (int i = 0; i < 4; i++) {
+            lookup.log(new RecordIdentity("record-" + i), Duration.ofMinutes(1));
+        }
+
+        // either the consumer thread or the background writer, whichever comes first
+        verify(delegate, timeout(1000)).logAll(List.of(new RecordIdentity("record-0"), new RecordIdentity("record-1")), Duration.ofMinutes(1));
+        assertThat(lookup.getQueueDepth()).isLessThanOrEqualTo(3);
+    }
+}
@@ -0,0 +1,171 @@
+package de.idealo.kafka.idempotency.reactive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.kafka.receiver.ReceiverOffset;
+import reactor.kafka.receiver.ReceiverPartition;
+import reactor.kafka.receiver.ReceiverRecord;
+
+import de.idealo.kafka.idempotency.ConsumerRecordIdentityResolver;
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.RecordPosition;
+import de.idealo.kafka.idempotency.persistence.ReactiveRecordIdempotencyLookup;
+
+public class ReactiveRecordDeduplicatorTest {
+
+    private final ReactiveRecordIdempotencyLookup lookup = mock(ReactiveRecordIdempotencyLookup.class);
+    private final ReactiveRecordDeduplicator deduplicator = new ReactiveRecordDeduplicator(lookup, ConsumerRecordIdentityResolver.position(),
+            Duration.ofMinutes(1), 10, Duration.ofMillis(10));
+
+    @Test
+    public void drops_duplicates_and_logs_acknowledged_records() throws Exception {
+        when(lookup.areLogged(anyList())).thenReturn(Mono.just(List.of(false, true, false)));
+        final var consumed = new RecordIdentity("topic-0-0", new RecordPosition("topic", 0, 0));
+        when(lookup.log(consumed, Duration.ofMinutes(1))).thenReturn(Mono.empty());
+        final var offset = mock(ReceiverOffset.class);
+
+        final var passed = deduplicator.deduplicate(Flux.just(record(0, offset), record(1, mock(ReceiverOffset.class)),
+                record(2, mock(ReceiverOffset.class)))).collectList().block();
+
+        assertThat(passed).extracting(ConsumerRecord::offset).containsExactly(0L, 2L);
+        verify(lookup).areLogged(List.of(consumed, new RecordIdentity("topic-0-1"), new RecordIdentity("topic-0-2")));
+
+        passed.get(0).receiverOffset().acknowledge();
+
+        verify(lookup).log(consumed, Duration.ofMinutes(1));
+        verify(offset).acknowledge();
+    }
+
+    @Test
+    public void passes_on_the_acknowledgements_of_a_partition_in_order() throws Exception {
+        when(lookup.areLogged(anyList())).thenReturn(Mono.just(List.of(false, false)));
+        final AtomicReference<MonoSink<Void>> firstLog = new AtomicReference<>();
+        when(lookup.log(new RecordIdentity("topic-0-0"), Duration.ofMinutes(1))).thenReturn(Mono.create(firstLog::set));
+        when(lookup.log(new RecordIdentity("topic-0-1"), Duration.ofMinutes(1))).thenReturn(Mono.empty());
+        final var first = mock(ReceiverOffset.class);
+        final var second = mock(ReceiverOffset.class);
+
+        final var passed = deduplicator.deduplicate(Flux.just(record(0, first), record(1, second))).collectList().block();
+        passed.get(0).receiverOffset().acknowledge();
+        passed.get(1).receiverOffset().acknowledge();
+
+        verify(second, never()).acknowledge();
+
+        firstLog.get().success();
+
+        final var acknowledged = inOrder(first, second);
+        acknowledged.verify(first).acknowledge();
+        acknowledged.verify(second).acknowledge();
+    }
+
+    @Test
+    public void does_not_pass_on_the_acknowledgement_of_a_record_whose_marker_failed() throws Exception {
+        when(lookup.areLogged(anyList())).thenReturn(Mono.just(List.of(false, false)));
+        when(lookup.log(new RecordIdentity("topic-0-0"), Duration.ofMinutes(1))).thenReturn(Mono.error(new IllegalStateException("down")));
+        when(lookup.log(new RecordIdentity("topic-0-1"), Duration.ofMinutes(1))).thenReturn(Mono.empty());
+        final var first = mock(ReceiverOffset.class);
+        final var second = mock(ReceiverOffset.class);
+
+        final var passed = deduplicator.deduplicate(Flux.just(record(0, first), record(1, second))).collectList().block();
+        passed.get(0).receiverOffset().acknowledge();
+        passed.get(1).receiverOffset().acknowledge();
+
+        verify(first, never()).acknowledge();
+        verify(second).acknowledge();
+    }
+
+    @Test
+    public void acknowledges_dropped_duplicates_after_the_preceding_records() throws Exception {
+        when(lookup.areLogged(anyList())).thenReturn(Mono.just(List.of(false, true)));
+        when(lookup.log(new RecordIdentity("topic-0-0"), Duration.ofMinutes(1))).thenReturn(Mono.empty());
+        final var first = mock(ReceiverOffset.class);
+        final var duplicate = mock(ReceiverOffset.class);
+
+        final var passed = deduplicator.deduplicate(Flux.just(record(0, first), record(1, duplicate))).collectList().block();
+
+        verify(duplicate, never()).acknowledge();
+
+        passed.get(0).receiverOffset().acknowledge();
+
+        final var acknowledged = inOrder(first, duplicate);
+        acknowledged.verify(first).acknowledge();
+        acknowledged.verify(duplicate).acknowledge();
+    }
+
+    @Test
+    public void acknowledges_a_replay_of_duplicates_only() throws Exception {
+        when(lookup.areLogged(anyList())).thenReturn(Mono.just(List.of(true, true)));
+        final var first = mock(ReceiverOffset.class);
+        final var second = mock(ReceiverOffset.class);
+
+        final var passed = deduplicator.deduplicate(Flux.just(record(0, first), record(1, second))).collectList().block();
+
+        assertThat(passed).isEmpty();
+        final var acknowledged = inOrder(first, second);
+        acknowledged.verify(first).acknowledge();
+        acknowledged.verify(second).acknowledge();
+    }
+
+    @Test
+    public void commits_only_after_the_markers_of_the_preceding_records() throws Exception {
+        when(lookup.areLogged(anyList())).thenReturn(Mono.just(List.of(false, false)));
+        final AtomicReference<MonoSink<Void>> firstLog = new AtomicReference<>();
+        when(lookup.log(new RecordIdentity("topic-0-0"), Duration.ofMinutes(1))).thenReturn(Mono.create(firstLog::set));
+        when(lookup.log(new RecordIdentity("topic-0-1"), Duration.ofMinutes(1))).thenReturn(Mono.empty());
+        final var first = mock(ReceiverOffset.class);
+        final var second = mock(ReceiverOffset.class);
+        when(second.commit()).thenReturn(Mono.empty());
+
+        final var passed = deduplicator.deduplicate(Flux.just(record(0, first), record(1, second))).collectList().block();
+        passed.get(0).receiverOffset().acknowledge();
+        final var committed = passed.get(1).receiverOffset().commit().toFuture();
+
+        verify(second, never()).commit();
+        assertThat(committed).isNotDone();
+
+        firstLog.get().success();
+
+        assertThat(committed).isDone();
+        final var passedOn = inOrder(first, second);
+        passedOn.verify(first).acknowledge();
+        passedOn.verify(second).commit();
+    }
+
+    @Test
+    public void discards_the_pending_acknowledgements_of_revoked_partitions() throws Exception {
+        when(lookup.areLogged(anyList())).thenReturn(Mono.just(List.of(false, true)));
+        when(lookup.log(new RecordIdentity("topic-0-0"), Duration.ofMinutes(1))).thenReturn(Mono.empty());
+        final var first = mock(ReceiverOffset.class);
+        final var duplicate = mock(ReceiverOffset.class);
+        final var partition = mock(ReceiverPartition.class);
+        when(partition.topicPartition()).thenReturn(new TopicPartition("topic", 0));
+
+        final var passed = deduplicator.deduplicate(Flux.just(record(0, first), record(1, duplicate))).collectList().block();
+        deduplicator.onPartitionsRevoked(List.of(partition));
+        passed.get(0).receiverOffset().acknowledge();
+
+        verify(first, never()).acknowledge();
+        verify(duplicate, never()).acknowledge();
+    }
+
+    private static ReceiverRecord<String, String> record(final long offset, final ReceiverOffset receiverOffset) {
+        return new ReceiverRecord<>(new ConsumerRecord<>("topic", 0, offset, "key", "value"), receiverOffset);
+    }
+}
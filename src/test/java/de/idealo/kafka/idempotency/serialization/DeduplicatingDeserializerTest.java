@@ -0,0 +1,110 @@
+package de.idealo.kafka.idempotency.serialization;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+
+import de.idealo.kafka.idempotency.RecordIdentity;
+import de.idealo.kafka.idempotency.configuration.KafkaListenerIdempotencyProperties;
+import de.idealo.kafka.idempotency.persistence.RecordIdempotencyLookup;
+
+public class DeduplicatingDeserializerTest {
+
+    private static final byte[] PAYLOAD = "{\"order\":1}".getBytes(StandardCharsets.UTF_8);
+
+    private final RecordIdempotencyLookup lookup = mock(RecordIdempotencyLookup.class);
+
+    @SuppressWarnings("unchecked")
+    private final Deserializer<String> delegate = mock(Deserializer.class);
+
+    private final DeduplicatingDeserializer<String> deserializer = new DeduplicatingDeserializer<>(delegate, () -> lookup, "EVENT_ID");
+
+    @Test
+    public void skips_the_payload_of_duplicates() throws Exception {
+        when(lookup.isLogged(new RecordIdentity("known"))).thenReturn(true);
+        final var headers = headers("known");
+
+        assertThat(deserializer.deserialize("orders", headers, PAYLOAD)).isNull();
+
+        assertThat(headers.lastHeader(DeduplicatingDeserializer.DUPLICATE_HEADER)).isNotNull();
+        assertThat(deserializer.getSkippedCount()).isEqualTo(1);
+        verifyNoInteractions(delegate);
+    }
+
+    @Test
+    public void deserializes_new_records_and_records_without_the_header() {
+        final var headers = headers("new");
+        when(delegate.deserialize("orders", headers, PAYLOAD)).thenReturn("order");
+
+        assertThat(deserializer.deserialize("orders", headers, PAYLOAD)).isEqualTo("order");
+        deserializer.deserialize("orders", new RecordHeaders(), PAYLOAD);
+
+        assertThat(headers.lastHeader(DeduplicatingDeserializer.DUPLICATE_HEADER)).isNull();
+        verify(lookup).isLogged(any());
+        assertThat(deserializer.getSkippedCount()).isZero();
+    }
+
+    @Test
+    public void deserializes_the_records_if_the_lookup_fails() {
+        when(lookup.isLogged(any())).thenThrow(new IllegalStateException("redis"));
+        final var headers = headers("known");
+
+        deserializer.deserialize("orders", headers, PAYLOAD);
+
+        verify(delegate).deserialize("orders", headers, PAYLOAD);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void wraps_the_configured_value_deserializer_of_consumer_factories() {
+        final var properties = new KafkaListenerIdempotencyProperties();
+        properties.getDeserialization().setHeader("EVENT_ID");
+        final ObjectProvider<KafkaListenerIdempotencyProperties> propertiesProvider = mock(ObjectProvider.class);
+        when(propertiesProvider.getObject()).thenReturn(properties);
+        final var factory = new DefaultKafkaConsumerFactory<String, String>(Map.of(
+                ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName()));
+
+        new DeduplicatingDeserializerPostProcessor(mock(ObjectProvider.class), propertiesProvider)
+                .postProcessBeforeInitialization(factory, "consumerFactory");
+
+        assertThat(factory.getValueDeserializer()).isInstanceOf(DeduplicatingDeserializer.class);
+        assertThat(factory.getValueDeserializer().deserialize("orders", new RecordHeaders(), PAYLOAD)).isEqualTo("{\"order\":1}");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void keeps_the_value_deserializer_in_claim_mode() {
+        final var properties = new KafkaListenerIdempotencyProperties();
+        properties.getDeserialization().setHeader("EVENT_ID");
+        properties.getClaim().setEnabled(true);
+        final ObjectProvider<KafkaListenerIdempotencyProperties> propertiesProvider = mock(ObjectProvider.class);
+        when(propertiesProvider.getObject()).thenReturn(properties);
+        final var factory = new DefaultKafkaConsumerFactory<String, String>(Map.of(
+                ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName()));
+
+        new DeduplicatingDeserializerPostProcessor(mock(ObjectProvider.class), propertiesProvider)
+                .postProcessBeforeInitialization(factory, "consumerFactory");
+
+        assertThat(factory.getValueDeserializer()).isNull();
+    }
+
+    private static RecordHeaders headers(final String id) {
+        final var headers = new RecordHeaders();
+        headers.add("EVENT_ID", id.getBytes(StandardCharsets.UTF_8));
+        return headers;
+    }
+}